@@ -24,6 +24,13 @@ public abstract class AbstractHasher implements JSONSerializable {
     protected final HStoreConf hstore_conf;
     
     public AtomicBoolean inReconfiguration;
+    
+    /**
+     * Optional cache of routing decisions.
+     * This will be null unless the implementation calls enableRoutingCache()
+     */
+    private RoutingCache routingCache = null;
+    
     public AbstractHasher(CatalogContext catalogContext, int num_partitions, HStoreConf hstore_conf) {
         this.catalogContext = catalogContext;
         this.num_partitions = num_partitions;
@@ -61,6 +68,29 @@ public abstract class AbstractHasher implements JSONSerializable {
     	throw new NotImplementedException("TODO");
     }
     
+    /**
+     * Create the RoutingCache for this hasher. The size of the cache is
+     * controlled by ${global.hasher_cache_size}. If the size is zero, then
+     * there will be no cache and this will return null.
+     * @return
+     */
+    protected final RoutingCache enableRoutingCache() {
+        int size = (this.hstore_conf != null ? this.hstore_conf.global.hasher_cache_size : RoutingCache.DEFAULT_CAPACITY);
+        if (size > 0) {
+            this.routingCache = new RoutingCache(size);
+        }
+        return (this.routingCache);
+    }
+    
+    /**
+     * Return the RoutingCache used by this hasher.
+     * This will be null if the hasher does not use one.
+     * @return
+     */
+    public final RoutingCache getRoutingCache() {
+        return (this.routingCache);
+    }
+    
     /**
      * Return the number of partitions that this hasher can map values to
      * @return
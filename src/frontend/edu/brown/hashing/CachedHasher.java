@@ -1,14 +1,11 @@
 package edu.brown.hashing;
 
-import org.apache.commons.collections15.map.LRUMap;
 import org.voltdb.CatalogContext;
 
 import edu.brown.hstore.conf.HStoreConf;
 
 public class CachedHasher extends DefaultHasher {
 
-    private final LRUMap<Object, Integer> cache = new LRUMap<Object, Integer>(2048);
-
     /**
      * Constructor
      * @param catalog_db
@@ -16,22 +13,30 @@ public class CachedHasher extends DefaultHasher {
      */
     public CachedHasher(CatalogContext catalogContext, int num_partitions, HStoreConf hstore_conf) {
         super(catalogContext, num_partitions, hstore_conf);
+        this.enableRoutingCache();
     }
 
     @Override
     public void init(CatalogContext catalogDb) {
         super.init(catalogDb);
-        this.cache.clear();
+        RoutingCache cache = this.getRoutingCache();
+        if (cache != null) cache.invalidate();
     }
     
     @Override
     public int hash(Object value, int num_partitions) {
-        Integer hash = this.cache.get(value);
-        if (hash == null) {
+        RoutingCache cache = this.getRoutingCache();
+        // The cached values are only good for our own partition count
+        if (cache == null || num_partitions != this.num_partitions) {
+            return (super.hash(value, num_partitions));
+        }
+        int version = cache.getVersion();
+        int hash = cache.get(null, value);
+        if (hash == RoutingCache.MISS) {
             hash = super.hash(value, num_partitions);
-            this.cache.put(value, hash);
+            cache.put(null, value, hash, version);
         }
-        return (hash.intValue());
+        return (hash);
     }
     
     @Override
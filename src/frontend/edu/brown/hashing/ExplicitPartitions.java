@@ -49,6 +49,7 @@ public abstract class ExplicitPartitions {
 	protected ReconfigurationPlan reconfigurationPlan;
 	protected PartitionPhase incrementalPlan;
 	protected PartitionPhase previousIncrementalPlan;
+	protected RoutingCache routingCache;
 	
 	private static final Logger LOG = Logger.getLogger(ExplicitPartitions.class);
     private static final LoggerBoolean debug = new LoggerBoolean(LOG.isDebugEnabled());
@@ -256,6 +257,34 @@ public abstract class ExplicitPartitions {
         return this.getPartitionId(table_name, ids);
     }
 
+    /**
+     * Get the partition id for the given catalog items and partition id/key.
+     * If there is a RoutingCache, then we will check there first and add
+     * the result to it if it is not there.
+     * 
+     * @param catalogs
+     * @param ids
+     * @return the partition id, or -1 / null partition if the id/key is not
+     *         found in the plan
+     * @throws Exception
+     */
+    public int getCachedPartitionId(List<CatalogType> catalogs, List<Object> ids) throws Exception {
+        RoutingCache cache = this.routingCache;
+        if (cache == null) {
+            return this.getPartitionId(catalogs, ids);
+        }
+        CatalogType owner = catalogs.get(0);
+        Object key = (ids.size() == 1 ? ids.get(0) : ids);
+        int version = cache.getVersion();
+        int partition = cache.get(owner, key);
+        if (partition == RoutingCache.MISS) {
+            partition = this.getPartitionId(catalogs, ids);
+            // Copy multi-column keys because the caller may reuse their list
+            cache.put(owner, (ids.size() == 1 ? key : new ArrayList<Object>(ids)), partition, version);
+        }
+        return partition;
+    }
+
     public String getTableName(CatalogType catalog) {
         return this.catalog_to_table_map.get(catalog).getName().toLowerCase();
     }
@@ -363,9 +392,28 @@ public abstract class ExplicitPartitions {
     	return this.catalog_context;
     }
     
+    /**
+     * Set the RoutingCache that holds partition ids computed from this object.
+     * The cache will be invalidated whenever the partition plan changes.
+     * @param routingCache
+     */
+    public void setRoutingCache(RoutingCache routingCache) {
+        this.routingCache = routingCache;
+    }
+    
+    /**
+     * Throw out all of the cached partition ids that were computed from
+     * the old plan. This must be called after the plan has been changed.
+     */
+    protected void invalidateRoutingCache() {
+        RoutingCache cache = this.routingCache;
+        if (cache != null) cache.invalidate();
+    }
+    
     public void setReconfigurationPlan(ReconfigurationPlan reconfigurationPlan) {
 	if(reconfigurationPlan == null) {
 	    this.reconfigurationPlan = null;
+	    this.invalidateRoutingCache();
 	    return;
 	}
 
@@ -458,6 +506,8 @@ public abstract class ExplicitPartitions {
 		} catch (Exception e) {
 			LOG.error(e);
 			throw new RuntimeException(e);
+		} finally {
+			this.invalidateRoutingCache();
 		}
 
     }
@@ -487,10 +537,12 @@ public abstract class ExplicitPartitions {
     
     public synchronized void setIncrementalPlan(PartitionPhase plan) {
     	this.incrementalPlan = plan;
+    	this.invalidateRoutingCache();
     }
     
     public synchronized void setPreviousIncrementalPlan(PartitionPhase plan) {
     	this.previousIncrementalPlan = plan;
+    	this.invalidateRoutingCache();
     }
 
 }
\ No newline at end of file
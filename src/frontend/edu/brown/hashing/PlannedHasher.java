@@ -116,6 +116,7 @@ public class PlannedHasher extends DefaultHasher implements ExplicitHasher {
             }
             
             planned_partitions = new PlannedPartitions(catalogContext, partition_json);
+            planned_partitions.setRoutingCache(this.enableRoutingCache());
         } catch (Exception ex) {
             LOG.error("Error intializing planned partitions", ex);
             throw new RuntimeException(ex);
@@ -143,7 +144,7 @@ public class PlannedHasher extends DefaultHasher implements ExplicitHasher {
                 //If we do not have an RC, or there is an RC but no reconfig is in progress
                 if(reconfigCoord == null || ReconfigurationCoordinator.FORCE_DESTINATION || (reconfigCoord != null && !this.inReconfiguration.get())){
                     if (debug.val) LOG.debug(String.format("\t%s Id:%s Partition:%s Phase:%s",catalogItem,value,planned_partitions.getPartitionId(catalogList, valueList),planned_partitions.getCurrent_phase()));
-                    return planned_partitions.getPartitionId(catalogList, valueList);
+                    return planned_partitions.getCachedPartitionId(catalogList, valueList);
                 } else {
                     int expectedPartition = planned_partitions.getPartitionId(catalogList, valueList);
                     int previousPartition = planned_partitions.getPreviousPartitionId(catalogList, valueList);
@@ -175,7 +176,7 @@ public class PlannedHasher extends DefaultHasher implements ExplicitHasher {
             //If we do not have an RC, or there is an RC but no reconfig is in progress
             if(reconfigCoord == null || ReconfigurationCoordinator.FORCE_DESTINATION || (reconfigCoord != null && !this.inReconfiguration.get())){
             	if (debug.val) LOG.debug(String.format("\t%s Id:%s Partition:%s",catalogItems.get(0),values.get(0),planned_partitions.getPartitionId(catalogItems, values)));
-                return planned_partitions.getPartitionId(catalogItems, values);
+                return planned_partitions.getCachedPartitionId(catalogItems, values);
             } else {
                 int expectedPartition = planned_partitions.getPartitionId(catalogItems, values);
                 int previousPartition = planned_partitions.getPreviousPartitionId(catalogItems, values);
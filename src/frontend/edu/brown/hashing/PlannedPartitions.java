@@ -7,6 +7,7 @@ import java.io.File;
 import java.io.IOException;
 import java.text.ParseException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
@@ -17,7 +18,6 @@ import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
 
-import org.apache.commons.collections.map.LRUMap;
 import org.apache.commons.lang.NotImplementedException;
 import org.apache.log4j.Logger;
 import org.json.JSONException;
@@ -367,14 +367,13 @@ public class PlannedPartitions extends ExplicitPartitions implements JSONSeriali
         protected String table_name;
         private Table catalog_table;
         private JSONObject table_json;
-        private LRUMap find_partition_cache;
+        private volatile PartitionRangeIndex index;
 
         public PartitionedTable(String table_name, JSONObject table_json, Table catalog_table) throws Exception {
             this.catalog_table = catalog_table;
             this.partitions = new ArrayList<>();
             this.table_name = table_name;
             this.table_json = table_json;
-            this.find_partition_cache = new LRUMap(1000);
             assert (table_json.has(PARTITIONS));
             JSONObject partitions_json = table_json.getJSONObject(PARTITIONS);
             Iterator<String> partitions = partitions_json.keys();
@@ -387,6 +386,7 @@ public class PlannedPartitions extends ExplicitPartitions implements JSONSeriali
                 this.addPartitionRanges(partition_id, partitions_json.getString(partition));
             }
             Collections.sort(this.partitions);
+            this.index = new PartitionRangeIndex(this.partitions);
         }
 
         public PartitionedTable clone(String new_table_name, Table new_catalog_table) throws Exception {
@@ -397,7 +397,7 @@ public class PlannedPartitions extends ExplicitPartitions implements JSONSeriali
             this.partitions = partitions;
             this.table_name = table_name;
             this.catalog_table = catalog_table;
-            this.find_partition_cache = new LRUMap(1000);
+            this.index = new PartitionRangeIndex(this.partitions);
         }
 
         /**
@@ -412,39 +412,17 @@ public class PlannedPartitions extends ExplicitPartitions implements JSONSeriali
                 LOG.trace(String.format("Looking up key %s on table %s during phase %s", ids.get(0), this.table_name));
             }
 
+            PartitionRangeIndex index = this.getRangeIndex();
+            int partition = HStoreConstants.NULL_PARTITION_ID;
             try {
-            	// check the cache first
-                synchronized(this){
-                	if(this.find_partition_cache.containsKey(ids)) {
-                		return (Integer) this.find_partition_cache.get(ids);
-                	}
-                }
-            	
-            	Object[] keys = ids.toArray();
-                for (PartitionRange p : this.partitions) {
-                    // if this greater than or equal to the min inclusive val
-                    // and
-                    // less than
-                    // max_exclusive or equal to both min and max (singleton)
-                    // TODO fix partitiontype
-                    if (p.inRange(keys)) {
-                        synchronized (this) {
-                            this.find_partition_cache.put(ids, p.partition);
-                        }
-                    	return p.partition;
-                    }
-                }
+                partition = index.findPartition(ids);
             } catch (Exception e) {
                 LOG.error("Error looking up partition", e);
             }
 
-            if (debug.val)
+            if (debug.val && partition == HStoreConstants.NULL_PARTITION_ID)
                 LOG.debug("Partition not found. ids: " + ids.toString() + ", partitions: " + this.partitions.toString());
-            synchronized(this){
-                this.find_partition_cache.put(ids, HStoreConstants.NULL_PARTITION_ID);
-            }
-            
-            return HStoreConstants.NULL_PARTITION_ID;
+            return partition;
         }
 
         /**
@@ -488,23 +466,190 @@ public class PlannedPartitions extends ExplicitPartitions implements JSONSeriali
          * @throws ParseException
          */
         public void addPartitionRanges(int partition_id, String partition_values) throws ParseException {
-            synchronized (this) {
-                this.find_partition_cache.clear();   
-            }
             for (String range : partition_values.split(",")) {
                 this.partitions.add(new PartitionRange(this.catalog_table, partition_id, range));
             }
+            this.index = null;
         }
 
         public List<PartitionRange> getRanges() {
             return this.partitions;
         }
 
+        public PartitionRangeIndex getRangeIndex() {
+            PartitionRangeIndex index = this.index;
+            if (index == null) {
+                index = new PartitionRangeIndex(this.partitions);
+                this.index = index;
+            }
+            return (index);
+        }
+
         public Table getCatalog_table() {
             return catalog_table;
         }
     }
     
+    /**
+     * An immutable lookup structure over the PartitionRanges of a PartitionedTable.
+     * If the ranges do not overlap, then we can binary search on their min keys
+     * to find the only range that could contain a key. Tables that are partitioned
+     * on a single integer column also get arrays of primitive bounds so that we
+     * do not have to box or compare Object[] keys. If the ranges overlap, then we
+     * fall back to checking every range in the order that they were given to us.
+     * This is never modified after it is created, so lookups do not need a lock.
+     */
+    public static class PartitionRangeIndex {
+        private final PartitionRange scan[];
+        private final PartitionRange sorted[];
+        private final PartitionKeyComparator cmp = new PartitionKeyComparator();
+        private final boolean disjoint;
+
+        private final long min_keys[];
+        private final long max_keys[];
+        private final int partitions[];
+
+        public PartitionRangeIndex(List<PartitionRange> ranges) {
+            this.scan = ranges.toArray(new PartitionRange[ranges.size()]);
+            this.sorted = this.scan.clone();
+
+            boolean disjoint = true;
+            try {
+                Arrays.sort(this.sorted);
+                for (int i = 1; i < this.sorted.length; i++) {
+                    PartitionRange prev = this.sorted[i-1];
+                    int result = this.cmp.compare(prev.max_excl, this.sorted[i].min_incl);
+                    // A singleton range contains its max key, so the next
+                    // range cannot start there
+                    if (result > 0 || (result == 0 && this.cmp.compare(prev.min_incl, prev.max_excl) == 0)) {
+                        disjoint = false;
+                        break;
+                    }
+                } // FOR
+            } catch (ClassCastException ex) {
+                // The keys are not numbers so we can't order them
+                disjoint = false;
+            }
+            this.disjoint = disjoint;
+
+            if (this.disjoint && this.isSingleIntegerColumn()) {
+                this.min_keys = new long[this.sorted.length];
+                this.max_keys = new long[this.sorted.length];
+                this.partitions = new int[this.sorted.length];
+                for (int i = 0; i < this.sorted.length; i++) {
+                    this.min_keys[i] = ((Number)this.sorted[i].min_incl[0]).longValue();
+                    this.max_keys[i] = ((Number)this.sorted[i].max_excl[0]).longValue();
+                    this.partitions[i] = this.sorted[i].partition;
+                } // FOR
+            } else {
+                this.min_keys = null;
+                this.max_keys = null;
+                this.partitions = null;
+            }
+        }
+
+        private boolean isSingleIntegerColumn() {
+            for (PartitionRange range : this.sorted) {
+                if (range.min_incl.length != 1 || range.max_excl.length != 1) {
+                    return (false);
+                }
+                switch (range.keySchema.getColumnType(0)) {
+                    case TINYINT:
+                    case SMALLINT:
+                    case INTEGER:
+                    case BIGINT:
+                        break;
+                    default:
+                        return (false);
+                } // SWITCH
+                if ((range.min_incl[0] instanceof Number) == false || (range.max_excl[0] instanceof Number) == false) {
+                    return (false);
+                }
+            } // FOR
+            return (true);
+        }
+
+        /**
+         * Find the partition for a key
+         * @param ids
+         * @return the partition id or null partition id if no match could be found
+         */
+        public int findPartition(List<Object> ids) {
+            if (this.min_keys != null && ids.size() == 1) {
+                Object id = ids.get(0);
+                if (id instanceof Number) {
+                    return (this.findPartition(((Number)id).longValue()));
+                }
+            }
+
+            Object[] keys = ids.toArray();
+            if (this.disjoint) {
+                // Find the last range whose min key is not greater than our key
+                int low = 0;
+                int high = this.sorted.length - 1;
+                while (low <= high) {
+                    int mid = (low + high) >>> 1;
+                    if (this.cmp.compare(this.sorted[mid].min_incl, keys) <= 0) {
+                        low = mid + 1;
+                    } else {
+                        high = mid - 1;
+                    }
+                } // WHILE
+                if (high >= 0 && this.sorted[high].inRange(keys)) {
+                    return (this.sorted[high].partition);
+                }
+                return (HStoreConstants.NULL_PARTITION_ID);
+            }
+
+            for (PartitionRange p : this.scan) {
+                if (p.inRange(keys)) {
+                    return (p.partition);
+                }
+            } // FOR
+            return (HStoreConstants.NULL_PARTITION_ID);
+        }
+
+        /**
+         * Find the partition for a single-column integer key.
+         * This can only be used if the index has primitive bounds.
+         * @param key
+         * @return the partition id or null partition id if no match could be found
+         */
+        public int findPartition(long key) {
+            assert(this.min_keys != null);
+            int low = 0;
+            int high = this.min_keys.length - 1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                if (this.min_keys[mid] <= key) {
+                    low = mid + 1;
+                } else {
+                    high = mid - 1;
+                }
+            } // WHILE
+            if (high >= 0 && (key < this.max_keys[high] || (key == this.min_keys[high] && key == this.max_keys[high]))) {
+                return (this.partitions[high]);
+            }
+            return (HStoreConstants.NULL_PARTITION_ID);
+        }
+
+        /**
+         * Returns true if this index can look up single-column integer keys
+         * without boxing them.
+         */
+        public boolean hasPrimitiveKeys() {
+            return (this.min_keys != null);
+        }
+
+        /**
+         * Returns true if none of the ranges in this index overlap,
+         * which means that lookups use a binary search.
+         */
+        public boolean isDisjoint() {
+            return (this.disjoint);
+        }
+    }
+    
     public static class PartitionKeyComparator implements Comparator<Object[]> {
 
     	@Override
@@ -761,6 +906,7 @@ public class PlannedPartitions extends ExplicitPartitions implements JSONSeriali
         this.previous_phase = old_phase;
         this.incrementalPlan = null;
         this.previousIncrementalPlan = null;
+        this.invalidateRoutingCache();
         
         try {
             if (old_phase == null) {
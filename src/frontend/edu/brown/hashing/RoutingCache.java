@@ -0,0 +1,278 @@
+package edu.brown.hashing;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A bounded cache of routing decisions (key -> partition id) that can be shared
+ * by multiple threads. The cache is split into a fixed number of stripes that
+ * each have their own lock, so threads that look up different keys will rarely
+ * block each other. Each stripe is a direct-mapped table, which means that a new
+ * entry just replaces whatever was in its slot. The cache will never hold more
+ * than its capacity no matter how many distinct keys we see.
+ * <B>Note:</B> Integral keys (Long, Integer, Short, Byte) are stored as primitive longs.
+ * <P>
+ * Entries are tagged with the version of the cache when they were computed. Calling
+ * {@link #invalidate()} bumps the version so that every existing entry becomes stale
+ * at once. Callers should grab the version with {@link #getVersion()} <B>before</B>
+ * they compute the partition for a key and then pass it to put(). That way a value
+ * that was computed from a partition plan that got swapped out while we were working
+ * will never be added to the cache.
+ */
+public class RoutingCache {
+
+    /**
+     * Returned by get() when the key is not in the cache
+     */
+    public static final int MISS = Integer.MIN_VALUE;
+
+    /**
+     * Default number of entries in the cache if there is no HStoreConf
+     */
+    public static final int DEFAULT_CAPACITY = 2048;
+
+    private static final int NUM_STRIPES = 16;
+    private static final int STRIPE_MASK = NUM_STRIPES - 1;
+
+    private static class Stripe {
+        private final Object owners[];
+        private final Object objKeys[];
+        private final long longKeys[];
+        private final int partitions[];
+        private final int versions[];
+        private final int mask;
+        private long hits = 0;
+        private long misses = 0;
+
+        private Stripe(int size) {
+            this.owners = new Object[size];
+            this.objKeys = new Object[size];
+            this.longKeys = new long[size];
+            this.partitions = new int[size];
+            this.versions = new int[size];
+            this.mask = size - 1;
+        }
+    }
+
+    private final Stripe stripes[] = new Stripe[NUM_STRIPES];
+    private final int capacity;
+
+    /**
+     * The current version of the cache. Entries from an older version are stale.
+     * This starts at one so that empty slots are never valid.
+     */
+    private final AtomicInteger version = new AtomicInteger(1);
+
+    /**
+     * Constructor
+     * @param capacity - The maximum number of entries in the cache.
+     * This will be rounded up so that each stripe is a power of two.
+     */
+    public RoutingCache(int capacity) {
+        assert(capacity > 0) : "Invalid capacity " + capacity;
+        int stripeSize = Integer.highestOneBit(Math.max(1, (capacity + NUM_STRIPES - 1) / NUM_STRIPES));
+        if (stripeSize * NUM_STRIPES < capacity) stripeSize <<= 1;
+        for (int i = 0; i < NUM_STRIPES; i++) {
+            this.stripes[i] = new Stripe(stripeSize);
+        } // FOR
+        this.capacity = stripeSize * NUM_STRIPES;
+    }
+
+    // ----------------------------------------------------------------------------
+    // LOOKUPS
+    // ----------------------------------------------------------------------------
+
+    /**
+     * Returns true if the given key will be stored as a primitive long
+     * @param key
+     */
+    public static boolean isIntegral(Object key) {
+        return (key instanceof Long || key instanceof Integer || key instanceof Short || key instanceof Byte);
+    }
+
+    private static int hash(Object owner, long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        if (owner != null) h ^= System.identityHashCode(owner);
+        return (int)(h ^ (h >>> 32));
+    }
+
+    /**
+     * Get the cached partition for the key that belongs to the given owner.
+     * The owner is compared by identity and can be null.
+     * @param owner
+     * @param key
+     * @return the partition id or MISS if it is not in the cache
+     */
+    public int get(Object owner, long key) {
+        int h = hash(owner, key);
+        Stripe stripe = this.stripes[h & STRIPE_MASK];
+        int slot = (h >>> 4) & stripe.mask;
+        int current = this.version.get();
+        synchronized (stripe) {
+            if (stripe.versions[slot] == current &&
+                stripe.owners[slot] == owner &&
+                stripe.objKeys[slot] == null &&
+                stripe.longKeys[slot] == key) {
+                stripe.hits++;
+                return (stripe.partitions[slot]);
+            }
+            stripe.misses++;
+        } // SYNCH
+        return (MISS);
+    }
+
+    /**
+     * Get the cached partition for the key that belongs to the given owner.
+     * The owner is compared by identity and can be null.
+     * @param owner
+     * @param key
+     * @return the partition id or MISS if it is not in the cache
+     */
+    public int get(Object owner, Object key) {
+        if (isIntegral(key)) {
+            return (this.get(owner, ((Number)key).longValue()));
+        }
+        if (key == null) return (MISS);
+
+        int h = hash(owner, key.hashCode());
+        Stripe stripe = this.stripes[h & STRIPE_MASK];
+        int slot = (h >>> 4) & stripe.mask;
+        int current = this.version.get();
+        synchronized (stripe) {
+            if (stripe.versions[slot] == current &&
+                stripe.owners[slot] == owner &&
+                key.equals(stripe.objKeys[slot])) {
+                stripe.hits++;
+                return (stripe.partitions[slot]);
+            }
+            stripe.misses++;
+        } // SYNCH
+        return (MISS);
+    }
+
+    /**
+     * Store the partition for the key that belongs to the given owner.
+     * If the cache was invalidated after the given version was retrieved,
+     * then the entry will not be stored.
+     * @param owner
+     * @param key
+     * @param partition
+     * @param version - The value of getVersion() before the partition was computed
+     */
+    public void put(Object owner, long key, int partition, int version) {
+        int h = hash(owner, key);
+        Stripe stripe = this.stripes[h & STRIPE_MASK];
+        int slot = (h >>> 4) & stripe.mask;
+        synchronized (stripe) {
+            if (this.version.get() != version) return;
+            stripe.owners[slot] = owner;
+            stripe.objKeys[slot] = null;
+            stripe.longKeys[slot] = key;
+            stripe.partitions[slot] = partition;
+            stripe.versions[slot] = version;
+        } // SYNCH
+    }
+
+    /**
+     * Store the partition for the key that belongs to the given owner.
+     * If the cache was invalidated after the given version was retrieved,
+     * then the entry will not be stored.
+     * @param owner
+     * @param key
+     * @param partition
+     * @param version - The value of getVersion() before the partition was computed
+     */
+    public void put(Object owner, Object key, int partition, int version) {
+        if (isIntegral(key)) {
+            this.put(owner, ((Number)key).longValue(), partition, version);
+            return;
+        }
+        if (key == null) return;
+
+        int h = hash(owner, key.hashCode());
+        Stripe stripe = this.stripes[h & STRIPE_MASK];
+        int slot = (h >>> 4) & stripe.mask;
+        synchronized (stripe) {
+            if (this.version.get() != version) return;
+            stripe.owners[slot] = owner;
+            stripe.objKeys[slot] = key;
+            stripe.partitions[slot] = partition;
+            stripe.versions[slot] = version;
+        } // SYNCH
+    }
+
+    // ----------------------------------------------------------------------------
+    // INVALIDATION
+    // ----------------------------------------------------------------------------
+
+    /**
+     * Returns the current version of the cache.
+     * This must be retrieved before computing a value that will be passed to put()
+     */
+    public int getVersion() {
+        return (this.version.get());
+    }
+
+    /**
+     * Throw out every entry in the cache.
+     * This must be called <B>after</B> the partition plan has been changed.
+     */
+    public void invalidate() {
+        this.version.incrementAndGet();
+    }
+
+    // ----------------------------------------------------------------------------
+    // STATISTICS
+    // ----------------------------------------------------------------------------
+
+    /**
+     * Returns the maximum number of entries in the cache
+     */
+    public int getCapacity() {
+        return (this.capacity);
+    }
+
+    public long getHitCount() {
+        long total = 0;
+        for (Stripe stripe : this.stripes) {
+            synchronized (stripe) {
+                total += stripe.hits;
+            } // SYNCH
+        } // FOR
+        return (total);
+    }
+
+    public long getMissCount() {
+        long total = 0;
+        for (Stripe stripe : this.stripes) {
+            synchronized (stripe) {
+                total += stripe.misses;
+            } // SYNCH
+        } // FOR
+        return (total);
+    }
+
+    /**
+     * Returns the fraction of lookups that were found in the cache
+     */
+    public double getHitRate() {
+        long hits = this.getHitCount();
+        long total = hits + this.getMissCount();
+        return (total > 0 ? hits / (double)total : 0d);
+    }
+
+    public void resetCounters() {
+        for (Stripe stripe : this.stripes) {
+            synchronized (stripe) {
+                stripe.hits = 0;
+                stripe.misses = 0;
+            } // SYNCH
+        } // FOR
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s{capacity=%d, hits=%d, misses=%d, version=%d}",
+                             this.getClass().getSimpleName(), this.capacity,
+                             this.getHitCount(), this.getMissCount(), this.getVersion());
+    }
+}
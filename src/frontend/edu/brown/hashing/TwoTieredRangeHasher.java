@@ -88,6 +88,7 @@ public class TwoTieredRangeHasher extends DefaultHasher implements ExplicitHashe
             }
             
             partitions = new TwoTieredRangePartitions(catalogContext, partition_json);
+            partitions.setRoutingCache(this.enableRoutingCache());
         } catch (Exception ex) {
             LOG.error("Error intializing partitions", ex);
             throw new RuntimeException(ex);
@@ -115,7 +116,7 @@ public class TwoTieredRangeHasher extends DefaultHasher implements ExplicitHashe
                 //If we do not have an RC, or there is an RC but no reconfig is in progress
                 if(reconfigCoord == null || ReconfigurationCoordinator.FORCE_DESTINATION || (reconfigCoord != null && !this.inReconfiguration.get())){
                 	if (debug.val) LOG.debug(String.format("\t%s Id:%s Partition:%s",catalogItem,value,partitions.getPartitionId(catalogList, valueList)));
-                    return partitions.getPartitionId(catalogList, valueList);
+                    return partitions.getCachedPartitionId(catalogList, valueList);
                 } else {
                     int expectedPartition = partitions.getPartitionId(catalogList, valueList);
                     int previousPartition = partitions.getPreviousPartitionId(catalogList, valueList);
@@ -147,7 +148,7 @@ public class TwoTieredRangeHasher extends DefaultHasher implements ExplicitHashe
             //If we do not have an RC, or there is an RC but no reconfig is in progress
             if(reconfigCoord == null || ReconfigurationCoordinator.FORCE_DESTINATION || (reconfigCoord != null && !this.inReconfiguration.get())){
             	if (debug.val) LOG.debug(String.format("\t%s Id:%s Partition:%s",catalogItems.get(0),values.get(0),partitions.getPartitionId(catalogItems, values)));
-                return partitions.getPartitionId(catalogItems, values);
+                return partitions.getCachedPartitionId(catalogItems, values);
             } else {
                 int expectedPartition = partitions.getPartitionId(catalogItems, values);
                 int previousPartition = partitions.getPreviousPartitionId(catalogItems, values);
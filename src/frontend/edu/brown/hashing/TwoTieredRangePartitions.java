@@ -261,6 +261,7 @@ public class TwoTieredRangePartitions extends ExplicitPartitions implements JSON
             		this.incrementalPlan = null;
             		this.previousIncrementalPlan = null;
             	}
+            	this.invalidateRoutingCache();
             } else {
                 throw new JSONException(String.format("JSON file is missing key \"%s\". ", PARTITION_PLAN));
             }
@@ -0,0 +1,104 @@
+package edu.brown.hstore;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Keeps track of how much of the evicted data at each table gets accessed once it
+ * is fetched back in so that the AntiCacheManager can steer eviction away from the
+ * tables whose evicted tuples are still in use. We don't keep any counts per block
+ * because the EE reuses block ids once a block has been merged. Instead, a fetch is
+ * considered hot if txns accessed at least admitThreshold different evicted tuples
+ * in that block. Every time that a partition records windowSize fetches, all of its
+ * counts are cut in half so that old accesses eventually age out.
+ */
+public class AntiCacheAdmissionFilter {
+
+    /**
+     * The fetch counts for a single table at a partition
+     */
+    protected static class TableState {
+        double fetches = 0;
+        double hotFetches = 0;
+    }
+
+    private final int admitThreshold;
+    private final int windowSize;
+    private final Map<String, TableState> partitionStates[];
+    private final int partitionFetches[];
+
+    /**
+     * Constructor
+     * @param num_partitions
+     * @param admitThreshold - The number of evicted tuples that have to be accessed in a block for its fetch to be hot
+     * @param windowSize - The number of fetches at a partition before all counts are aged
+     */
+    @SuppressWarnings("unchecked")
+    public AntiCacheAdmissionFilter(int num_partitions, int admitThreshold, int windowSize) {
+        assert(admitThreshold > 0);
+        assert(windowSize > 0);
+        this.admitThreshold = admitThreshold;
+        this.windowSize = windowSize;
+        this.partitionStates = (Map<String, TableState>[])new Map<?, ?>[num_partitions];
+        this.partitionFetches = new int[num_partitions];
+        for (int i = 0; i < num_partitions; i++) {
+            this.partitionStates[i] = new HashMap<String, TableState>();
+        } // FOR
+    }
+
+    /**
+     * Record that a block was fetched for a table at a partition and that txns
+     * accessed the given number of different evicted tuples in it.
+     * This should be called once per block that is read in, no matter how many
+     * txns were waiting on it. Returns true if this fetch was hot.
+     * @param partition
+     * @param table
+     * @param tuples
+     */
+    public boolean recordFetch(int partition, String table, int tuples) {
+        Map<String, TableState> states = this.partitionStates[partition];
+        boolean hot = (tuples >= this.admitThreshold);
+        synchronized (states) {
+            TableState state = states.get(table);
+            if (state == null) {
+                state = new TableState();
+                states.put(table, state);
+            }
+            state.fetches++;
+            if (hot) state.hotFetches++;
+            if (++this.partitionFetches[partition] >= this.windowSize) {
+                this.age(partition);
+            }
+        } // SYNCH
+        return (hot);
+    }
+
+    /**
+     * Returns the fraction of the recent fetches for the table at the
+     * given partition that were hot. This will be zero if
+     * we have not seen any fetches for it.
+     * @param partition
+     * @param table
+     */
+    public double getHotness(int partition, String table) {
+        Map<String, TableState> states = this.partitionStates[partition];
+        synchronized (states) {
+            TableState state = states.get(table);
+            if (state == null || state.fetches == 0) return (0d);
+            return (state.hotFetches / state.fetches);
+        } // SYNCH
+    }
+
+    /**
+     * Cut all of the counts at the given partition in half
+     * <B>Note:</B> The caller must hold the lock for the partition
+     * @param partition
+     */
+    private void age(int partition) {
+        for (TableState state : this.partitionStates[partition].values()) {
+            state.fetches /= 2;
+            state.hotFetches /= 2;
+        } // FOR
+        this.partitionFetches[partition] = 0;
+    }
+}
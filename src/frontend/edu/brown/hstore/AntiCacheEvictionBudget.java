@@ -0,0 +1,129 @@
+package edu.brown.hstore;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps track of how many blocks a single partition still needs to evict to stay
+ * under its memory target when incremental eviction is enabled. The budget is
+ * recomputed every time that we get new stats for the partition. It is the number
+ * of blocks that the partition's size is projected to be over its target by the
+ * next time that we check it. The projection uses a moving average of how fast the
+ * partition's memory is growing, not counting the blocks that we evicted ourselves.
+ * The blocks are then taken out of the budget a few at a time for each eviction.
+ */
+public class AntiCacheEvictionBudget {
+
+    private final double alpha;
+    private final long blockSizeKb;
+
+    /**
+     * The number of blocks that still need to be evicted
+     */
+    private final AtomicInteger budget = new AtomicInteger(0);
+
+    /**
+     * The total number of blocks that have been evicted incrementally
+     */
+    private final AtomicLong evictedBlocks = new AtomicLong(0);
+
+    private long lastUpdate = 0;
+    private long lastSizeKb = 0;
+    private long lastEvictedBlocks = 0;
+
+    /**
+     * The moving average of how fast the partition's memory
+     * is growing (KB/sec), not counting what we evicted
+     */
+    private double growthRate = 0;
+
+    /**
+     * The number of blocks/sec that we evicted between the last two updates
+     */
+    private double evictionRate = 0;
+
+    /**
+     * Constructor
+     * @param alpha - The weight of the latest growth rate in the moving average
+     * @param blockSizeKb - The size of an evicted block
+     */
+    public AntiCacheEvictionBudget(double alpha, long blockSizeKb) {
+        assert(alpha > 0 && alpha <= 1);
+        assert(blockSizeKb > 0);
+        this.alpha = alpha;
+        this.blockSizeKb = blockSizeKb;
+    }
+
+    /**
+     * Recompute the number of blocks that need to be evicted before the next update.
+     * Returns the new budget.
+     * @param now - The current time (ms)
+     * @param sizeKb - The current size of the partition
+     * @param targetKb - The size that the partition needs to stay under
+     * @param intervalMs - How long until the next update (ms)
+     * @param maxBlocks - The max number of blocks that can still be evicted
+     */
+    public synchronized int update(long now, long sizeKb, long targetKb, long intervalMs, long maxBlocks) {
+        long evicted = this.evictedBlocks.get();
+        if (this.lastUpdate > 0 && now > this.lastUpdate) {
+            double secs = (now - this.lastUpdate) / 1000d;
+            long blocks = evicted - this.lastEvictedBlocks;
+            double rate = (sizeKb - this.lastSizeKb + (blocks * this.blockSizeKb)) / secs;
+            this.growthRate = (this.alpha * rate) + ((1 - this.alpha) * this.growthRate);
+            this.evictionRate = blocks / secs;
+        }
+        this.lastUpdate = now;
+        this.lastSizeKb = sizeKb;
+        this.lastEvictedBlocks = evicted;
+
+        double projectedKb = sizeKb + (Math.max(0, this.growthRate) * intervalMs / 1000d);
+        int blocks = 0;
+        if (projectedKb > targetKb) {
+            blocks = (int)Math.ceil((projectedKb - targetKb) / this.blockSizeKb);
+            blocks = (int)Math.max(0, Math.min(blocks, maxBlocks));
+        }
+        this.budget.set(blocks);
+        return (blocks);
+    }
+
+    /**
+     * Take up to the given number of blocks out of the budget.
+     * Returns the number of blocks that should be evicted now, which
+     * will be zero if the budget has been used up.
+     * @param maxBlocks
+     */
+    public int acquire(int maxBlocks) {
+        assert(maxBlocks > 0);
+        int budget, blocks;
+        do {
+            budget = this.budget.get();
+            if (budget <= 0) return (0);
+            blocks = Math.min(budget, maxBlocks);
+        } while (this.budget.compareAndSet(budget, budget - blocks) == false);
+        return (blocks);
+    }
+
+    /**
+     * Record that the given number of blocks were evicted
+     * @param blocks
+     */
+    public void recordEvicted(long blocks) {
+        this.evictedBlocks.addAndGet(blocks);
+    }
+
+    public int getBudget() {
+        return (this.budget.get());
+    }
+
+    public long getEvictedBlocks() {
+        return (this.evictedBlocks.get());
+    }
+
+    public synchronized double getGrowthRate() {
+        return (this.growthRate);
+    }
+
+    public synchronized double getEvictionRate() {
+        return (this.evictionRate);
+    }
+}
@@ -9,9 +9,17 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.log4j.Logger;
 import org.voltdb.CatalogContext;
@@ -20,6 +28,7 @@ import org.voltdb.StoredProcedureInvocation;
 import org.voltdb.VoltSystemProcedure;
 import org.voltdb.VoltTable;
 import org.voltdb.catalog.Database;
+import org.voltdb.catalog.Statement;
 import org.voltdb.catalog.Table;
 import org.voltdb.exceptions.EvictedTupleAccessException;
 import org.voltdb.exceptions.SerializableException;
@@ -32,8 +41,11 @@ import org.voltdb.utils.VoltTableUtil;
 import com.google.protobuf.RpcCallback;
 
 import edu.brown.catalog.CatalogUtil;
+import edu.brown.catalog.special.CountedStatement;
 import edu.brown.hstore.Hstoreservice.Status;
 import edu.brown.hstore.conf.HStoreConf;
+import edu.brown.hstore.estimators.Estimate;
+import edu.brown.hstore.estimators.EstimatorState;
 import edu.brown.hstore.internal.UtilityWorkMessage.TableStatsRequestMessage;
 import edu.brown.hstore.txns.LocalTransaction;
 import edu.brown.hstore.util.AbstractProcessingRunnable;
@@ -41,6 +53,8 @@ import edu.brown.interfaces.DebugContext;
 import edu.brown.logging.LoggerUtil;
 import edu.brown.logging.LoggerUtil.LoggerBoolean;
 import edu.brown.profilers.AntiCacheManagerProfiler;
+import edu.brown.profilers.AntiCacheManagerProfiler.UnevictionHistory;
+import edu.brown.profilers.ProfileMeasurement;
 import edu.brown.utils.EventObservable;
 import edu.brown.utils.EventObserver;
 import edu.brown.utils.ExceptionHandlingRunnable;
@@ -79,6 +93,11 @@ public class AntiCacheManager extends AbstractProcessingRunnable<AntiCacheManage
         final int partition;
         final short block_ids[];
         final int tuple_offsets[]; 
+        
+        /**
+         * The number of BlockFetches that this txn is still waiting on
+         */
+        int pendingFetches = 0;
 
         public QueueEntry(LocalTransaction ts, int partition, Table catalog_tbl, short block_ids[], int tuple_offsets[]) {
             this.ts = ts;
@@ -96,6 +115,165 @@ public class AntiCacheManager extends AbstractProcessingRunnable<AntiCacheManage
         }
     }
 
+    /**
+     * A request to read in a single evicted block. Every txn in a fetch batch that
+     * needs this block is registered as a waiter. The block is only read in once, and
+     * then each waiter is requeued once all of the blocks that it needs are complete.
+     */
+    protected class BlockFetch {
+        final short block_id;
+        final int tuple_offset;
+        final List<QueueEntry> waiters = new ArrayList<QueueEntry>();
+        /** The offsets of the evicted tuples that the waiting txns accessed in this block */
+        final Set<Integer> tuples = new HashSet<Integer>();
+        boolean done = false;
+
+        public BlockFetch(short block_id, int tuple_offset) {
+            this.block_id = block_id;
+            this.tuple_offset = tuple_offset;
+        }
+        
+        /**
+         * Register the given txn as waiting on this block.
+         * Returns false if the txn was already waiting on it.
+         */
+        boolean addWaiter(QueueEntry entry) {
+            if (this.waiters.isEmpty() == false && this.waiters.get(this.waiters.size()-1) == entry) {
+                return (false);
+            }
+            this.waiters.add(entry);
+            entry.pendingFetches++;
+            return (true);
+        }
+        
+        /**
+         * Mark this block as read in and add any waiting txns that
+         * are no longer blocked on other fetches to the given collection.
+         * <B>Note:</B> The caller must hold the lock on the partition's in-flight fetches 
+         */
+        void complete(Collection<QueueEntry> ready) {
+            assert(this.done == false) : "Duplicate completion for block #" + this.block_id;
+            this.done = true;
+            for (QueueEntry entry : this.waiters) {
+                if (--entry.pendingFetches == 0) ready.add(entry);
+            } // FOR
+            this.waiters.clear();
+        }
+        
+        @Override
+        public String toString() {
+            return String.format("%s{BlockId:%d / Waiters:%d}",
+                    this.getClass().getSimpleName(), this.block_id, this.waiters.size());
+        }
+    }
+
+    /**
+     * A group of BlockFetches for a single table at a partition
+     * that will be read in with one call to the EE.
+     */
+    protected class FetchRequest {
+        final int partition;
+        final Table catalog_tbl;
+        final List<BlockFetch> blocks = new ArrayList<BlockFetch>();
+        final long createTime = ProfileMeasurement.getTime();
+        
+        public FetchRequest(int partition, Table catalog_tbl) {
+            this.partition = partition;
+            this.catalog_tbl = catalog_tbl;
+        }
+        
+        @Override
+        public String toString() {
+            return String.format("%s{Table:%s / Partition:%d / Blocks:%d}",
+                    this.getClass().getSimpleName(), this.catalog_tbl.getName(),
+                    this.partition, this.blocks.size());
+        }
+    }
+    
+    /**
+     * Reads in evicted blocks for a fixed subset of the local partitions.
+     * All of the FetchRequests for a partition are handled by the same
+     * AntiCacheFetcher so that they are processed in the order that they were
+     * queued, but a burst of requests at one partition will not hold up the
+     * partitions that belong to other fetchers. 
+     */
+    protected class AntiCacheFetcher extends AbstractProcessingRunnable<FetchRequest> {
+        
+        public AntiCacheFetcher(HStoreSite hstore_site, int id) {
+            super(hstore_site,
+                  String.format("%s%02d", HStoreConstants.THREAD_NAME_ANTICACHE_FETCH, id),
+                  new LinkedBlockingQueue<FetchRequest>(),
+                  false);
+        }
+        
+        protected boolean queue(FetchRequest request) {
+            return (this.queue.offer(request));
+        }
+        
+        @Override
+        protected void processingCallback(FetchRequest next) {
+            AntiCacheManager.this.readBlocks(next);
+        }
+        
+        @Override
+        protected void removeCallback(FetchRequest next) {
+            AntiCacheManager.this.rejectBlocks(next);
+        }
+    }
+
+    /**
+     * The incremental eviction state for a single partition.
+     * The AntiCacheManager sets the number of blocks that the partition should 
+     * evict every time that it gets new stats for it, and then it invokes 
+     * the @EvictTuples sysproc at the partition to evict them a few at a time.
+     * <B>Note:</B> The caller must hold the lock on this AntiCacheManager 
+     */
+    protected class IncrementalEviction {
+        final AntiCacheEvictionBudget budget;
+        
+        /**
+         * The evictable tables at this partition that have enough 
+         * data to evict a block, in the order that we should evict from them
+         */
+        Table tables[] = new Table[0];
+        
+        /**
+         * The offset in tables of the next table to evict from
+         */
+        int nextTable = 0;
+        
+        /**
+         * If set to true, then there is an @EvictTuples txn for this partition
+         * that has not finished yet. We only have one at a time so that the 
+         * evictions can't get ahead of the budget.
+         */
+        boolean pending = false;
+        
+        public IncrementalEviction(long blockSizeKb) {
+            this.budget = new AntiCacheEvictionBudget(INCREMENTAL_GROWTH_EMA_ALPHA, blockSizeKb);
+        }
+    }
+
+    /**
+     * The last evicted blocks that a txn with a particular set of procedure
+     * parameters had to wait to have read in.
+     */
+    protected class PrewarmHint {
+        final Long key;
+        final int partition;
+        final Table catalog_tbl;
+        final short block_ids[];
+        final int tuple_offsets[];
+        
+        public PrewarmHint(Long key, int partition, Table catalog_tbl, short block_ids[], int tuple_offsets[]) {
+            this.key = key;
+            this.partition = partition;
+            this.catalog_tbl = catalog_tbl;
+            this.block_ids = block_ids;
+            this.tuple_offsets = tuple_offsets;
+        }
+    }
+
     // ----------------------------------------------------------------------------
     // INSTANCE MEMBERS
     // ----------------------------------------------------------------------------
@@ -116,6 +294,7 @@ public class AntiCacheManager extends AbstractProcessingRunnable<AntiCacheManage
     private final double UNEVICTION_RATIO_EMA_ALPHA = .1;
     private final double UNEVICTION_RATIO_CLUSTER_THRESHOLD = .1;
     private final double ACCESS_RATE_CLUSTER_THRESHOLD = .1;
+    private final double INCREMENTAL_GROWTH_EMA_ALPHA = .3;
 
     /**
      * 
@@ -126,6 +305,63 @@ public class AntiCacheManager extends AbstractProcessingRunnable<AntiCacheManage
      * The amount of memory used at each local partition
      */
     private final PartitionStats[] partitionStats;
+    
+    /**
+     * The BlockFetches that have been requested but not read in yet at each partition.
+     * Table -> BlockId -> BlockFetch
+     */
+    private final Map<Table, Map<Short, BlockFetch>> inflightFetches[];
+    
+    /**
+     * The threads that read in the blocks for each partition.
+     * This will be null if all of the blocks are read in by the AntiCacheManager's thread.
+     */
+    private final AntiCacheFetcher fetchers[];
+    
+    /**
+     * The number of FetchRequests that are waiting in a fetcher's queue for each partition.
+     */
+    private final AtomicInteger fetchQueueDepths[];
+    
+    /**
+     * The incremental eviction state for each partition.
+     * This is null if site.anticache_incremental_eviction is disabled.
+     */
+    private final IncrementalEviction incrementalEvictions[];
+    
+    /**
+     * Keeps track of how many evicted tuples get accessed in the blocks that are fetched back in.
+     * This is null unless we are using the ADMISSION eviction policy.
+     */
+    private final AntiCacheAdmissionFilter admissionFilter;
+    
+    /**
+     * ProcedureId+ParameterSet Hash -> PrewarmHint
+     * This is an LRU cache that is bounded by site.anticache_prewarm_cache_size
+     */
+    private final Map<Long, PrewarmHint> prewarmHints;
+    
+    /**
+     * The keys of the PrewarmHints that reference each evicted block at each partition.
+     * Table -> BlockId -> Keys
+     * <B>Note:</B> The caller must hold the lock on prewarmHints
+     */
+    private final Map<Table, Map<Short, Set<Long>>> prewarmIndex[];
+    
+    /**
+     * The blocks that have been requested to be read in at each partition
+     * since the last time that their table was merged. We can't read these in again
+     * for a pre-warmed txn because the EE doesn't remove a block from disk when
+     * it reads it, so we would end up merging the same tuples twice.
+     * Table -> BlockIds
+     * <B>Note:</B> The caller must hold the lock on the partition's in-flight fetches 
+     */
+    private final Map<Table, Set<Short>> pendingMergeBlocks[];
+    
+    /**
+     * The tables referenced by each Statement that we have seen in an estimate
+     */
+    private final Map<Statement, Collection<Table>> prewarmStmtTables = new ConcurrentHashMap<Statement, Collection<Table>>();
 
     /**
      * Thread that is periodically executed to check whether the amount of memory used by this HStoreSite is over the
@@ -183,6 +419,44 @@ public class AntiCacheManager extends AbstractProcessingRunnable<AntiCacheManage
             };
         }
     };
+    
+    /**
+     * Local RpcCallback that will notify us when one of our incremental eviction sysprocs is finished
+     */
+    private final RpcCallback<ClientResponseImpl> incrementalEvictionCallback = new RpcCallback<ClientResponseImpl>() {
+        @Override
+        public void run(ClientResponseImpl parameter) {
+            int partition = parameter.getBasePartition();
+            long blocksEvicted = 0;
+            if (parameter.getStatus() == Status.OK) {
+                for (VoltTable vt : parameter.getResults()) {
+                    vt.resetRowPosition();
+                    while (vt.advanceRow()) {
+                        blocksEvicted += vt.getLong("ANTICACHE_BLOCKS_EVICTED");
+                    } // WHILE
+                } // FOR
+            } else {
+                LOG.warn(String.format("Incremental eviction at partition %d failed: %s",
+                         partition, parameter.getStatusString()));
+            }
+            if (debug.val)
+                LOG.debug(String.format("Partition %d Incremental Eviction - Evicted %d blocks",
+                          partition, blocksEvicted));
+            
+            synchronized (AntiCacheManager.this) {
+                IncrementalEviction state = incrementalEvictions[partition];
+                state.pending = false;
+                state.budget.recordEvicted(blocksEvicted);
+                profilers[partition].incremental_evicted_blocks += blocksEvicted;
+                
+                // If something went wrong, then we'll wait until we get
+                // new stats before we try again
+                if (parameter.getStatus() == Status.OK) {
+                    scheduleIncrementalEviction(partition);
+                }
+            } // SYNCH
+        }
+    };
 
     // ----------------------------------------------------------------------------
     // INITIALIZATION
@@ -218,6 +492,8 @@ public class AntiCacheManager extends AbstractProcessingRunnable<AntiCacheManage
             evictionDistributionPolicy = EvictionDistributionPolicy.UNEVICTION_RATIO;
         } else if (policy.equals("access_rate")) {
             evictionDistributionPolicy = EvictionDistributionPolicy.ACCESS_RATE;
+        } else if (policy.equals("admission")) {
+            evictionDistributionPolicy = EvictionDistributionPolicy.ADMISSION;
         } else {
             LOG.warn(String.format("Bad value for site.anticache_eviction_distribution: %s. Using default of 'even'",
                     hstore_conf.site.anticache_eviction_distribution));
@@ -237,6 +513,68 @@ public class AntiCacheManager extends AbstractProcessingRunnable<AntiCacheManage
         for (int partition : hstore_site.getLocalPartitionIds().values()) {
             this.profilers[partition] = new AntiCacheManagerProfiler();
         } // FOR
+        
+        this.inflightFetches = (Map<Table, Map<Short, BlockFetch>>[])new Map<?, ?>[num_partitions];
+        for (int partition : hstore_site.getLocalPartitionIds().values()) {
+            this.inflightFetches[partition] = new HashMap<Table, Map<Short, BlockFetch>>();
+        } // FOR
+        
+        if (this.evictionDistributionPolicy == EvictionDistributionPolicy.ADMISSION) {
+            this.admissionFilter = new AntiCacheAdmissionFilter(num_partitions,
+                                                                hstore_conf.site.anticache_admission_threshold,
+                                                                hstore_conf.site.anticache_admission_window);
+        } else {
+            this.admissionFilter = null;
+        }
+        
+        if (hstore_conf.site.anticache_incremental_eviction) {
+            this.incrementalEvictions = new IncrementalEviction[num_partitions];
+            for (int partition : hstore_site.getLocalPartitionIds().values()) {
+                this.incrementalEvictions[partition] = new IncrementalEviction(Math.max(1, hstore_conf.site.anticache_block_size / 1024));
+            } // FOR
+        } else {
+            this.incrementalEvictions = null;
+        }
+        
+        // Fetcher Threads
+        int num_fetchers = Math.min(hstore_conf.site.anticache_fetch_threads,
+                                    hstore_site.getLocalPartitionIds().size());
+        if (num_fetchers > 0) {
+            if (debug.val)
+                LOG.debug(String.format("Creating %d %s threads",
+                          num_fetchers, AntiCacheFetcher.class.getSimpleName()));
+            this.fetchers = new AntiCacheFetcher[num_partitions];
+            this.fetchQueueDepths = new AtomicInteger[num_partitions];
+            AntiCacheFetcher threads[] = new AntiCacheFetcher[num_fetchers];
+            for (i = 0; i < num_fetchers; i++) {
+                threads[i] = new AntiCacheFetcher(hstore_site, i);
+            } // FOR
+            i = 0;
+            for (int partition : hstore_site.getLocalPartitionIds().values()) {
+                this.fetchers[partition] = threads[i++ % num_fetchers];
+                this.fetchQueueDepths[partition] = new AtomicInteger(0);
+            } // FOR
+        } else {
+            this.fetchers = null;
+            this.fetchQueueDepths = null;
+        }
+
+        final int prewarm_cache_size = hstore_conf.site.anticache_prewarm_cache_size;
+        this.prewarmHints = new LinkedHashMap<Long, PrewarmHint>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, PrewarmHint> eldest) {
+                if (this.size() <= prewarm_cache_size) return (false);
+                unindexPrewarmHint(eldest.getValue());
+                return (true);
+            }
+        };
+        this.prewarmIndex = (Map<Table, Map<Short, Set<Long>>>[])new Map<?, ?>[num_partitions];
+        this.pendingMergeBlocks = (Map<Table, Set<Short>>[])new Map<?, ?>[num_partitions];
+        for (int partition : hstore_site.getLocalPartitionIds().values()) {
+            this.prewarmIndex[partition] = new HashMap<Table, Map<Short, Set<Long>>>();
+            this.pendingMergeBlocks[partition] = new HashMap<Table, Set<Short>>();
+        } // FOR
 
         this.statsMessage = new TableStatsRequestMessage(catalogContext.getDataTables());
         this.statsMessage.getObservable().addObserver(new EventObserver<VoltTable>() {
@@ -259,64 +597,244 @@ public class AntiCacheManager extends AbstractProcessingRunnable<AntiCacheManage
     // TRANSACTION PROCESSING
     // ----------------------------------------------------------------------------
 
+    /**
+     * Returns the AntiCacheFetcher threads used by this AntiCacheManager.
+     * This will be empty if all of the blocks are read in by the AntiCacheManager's thread. 
+     */
+    public Collection<AntiCacheFetcher> getFetchers() {
+        if (this.fetchers == null) return (Collections.emptySet());
+        Set<AntiCacheFetcher> ret = new LinkedHashSet<AntiCacheFetcher>();
+        for (AntiCacheFetcher fetcher : this.fetchers) {
+            if (fetcher != null) ret.add(fetcher);
+        } // FOR
+        return (ret);
+    }
+    
     @Override
     protected void processingCallback(QueueEntry next) {
-        assert(next.ts.isInitialized()) :
-            String.format("Unexpected uninitialized transaction handle: %s", next);
-        assert(next.partition == next.ts.getBasePartition()) :
-            String.format("The base partition for %s is %d but we want to fetch a block for partition %d: %s",
-                    next.ts, next.ts.getBasePartition(), next.partition, next);
-        LOG.debug("Processing " + next);
-
-        // We need to get the EE handle for the partition that this txn
-        // needs to have read in some blocks from disk
-        PartitionExecutor executor = hstore_site.getPartitionExecutor(next.partition);
+        // Grab any other txns that are already waiting in our queue so that we
+        // can read in all of their blocks together. We group the blocks by
+        // partition and table so that each group only needs a single call 
+        // into the EE. If more than one txn needs the same block, then that
+        // block is only read in once and each of those txns waits on the
+        // same BlockFetch. This includes blocks that were requested in an
+        // earlier batch that have not been read in yet.
+        List<QueueEntry> batch = new ArrayList<QueueEntry>();
+        batch.add(next);
+        int batch_size = hstore_conf.site.anticache_fetch_batch_size;
+        if (batch_size > 1) this.queue.drainTo(batch, batch_size - 1);
+        
+        Map<Integer, Map<Table, FetchRequest>> requests = new TreeMap<Integer, Map<Table, FetchRequest>>();
+        for (QueueEntry entry : batch) {
+            assert(entry.ts.isInitialized()) :
+                String.format("Unexpected uninitialized transaction handle: %s", entry);
+            assert(entry.partition == entry.ts.getBasePartition()) :
+                String.format("The base partition for %s is %d but we want to fetch a block for partition %d: %s",
+                        entry.ts, entry.ts.getBasePartition(), entry.partition, entry);
+            if (debug.val) LOG.debug("Processing " + entry);
+            
+            // This should never happen, but if there are no blocks then 
+            // just send it right back
+            if (entry.block_ids.length == 0) {
+                this.requeue(entry);
+                continue;
+            }
+            
+            Map<Table, Map<Short, BlockFetch>> inflight = this.inflightFetches[entry.partition];
+            synchronized (inflight) {
+                this.addBlockFetches(entry, requests);
+            } // SYNCH
+        } // FOR
+        this.dispatchFetchRequests(requests);
+    }
+    
+    /**
+     * Register the given txn as a waiter on each of the blocks that it needs. If a block
+     * is not already being fetched, then it is added to a new FetchRequest in requests.
+     * <B>Note:</B> The caller must hold the lock on the partition's in-flight fetches 
+     * @param entry
+     * @param requests
+     */
+    private void addBlockFetches(QueueEntry entry, Map<Integer, Map<Table, FetchRequest>> requests) {
+        Map<Table, Map<Short, BlockFetch>> inflight = this.inflightFetches[entry.partition];
+        Map<Short, BlockFetch> tableFetches = inflight.get(entry.catalog_tbl);
+        if (tableFetches == null) {
+            tableFetches = new HashMap<Short, BlockFetch>();
+            inflight.put(entry.catalog_tbl, tableFetches);
+        }
+        Set<Short> pendingMerge = null;
+        if (hstore_conf.site.anticache_prewarm) {
+            pendingMerge = this.pendingMergeBlocks[entry.partition].get(entry.catalog_tbl);
+            if (pendingMerge == null) {
+                pendingMerge = new HashSet<Short>();
+                this.pendingMergeBlocks[entry.partition].put(entry.catalog_tbl, pendingMerge);
+            }
+        }
+        for (int i = 0; i < entry.block_ids.length; i++) {
+            BlockFetch fetch = tableFetches.get(entry.block_ids[i]);
+            if (fetch == null) {
+                fetch = new BlockFetch(entry.block_ids[i], entry.tuple_offsets[i]);
+                tableFetches.put(entry.block_ids[i], fetch);
+                this.getFetchRequest(requests, entry.partition, entry.catalog_tbl).blocks.add(fetch);
+                if (pendingMerge != null) pendingMerge.add(entry.block_ids[i]);
+            }
+            else if (hstore_conf.site.anticache_profiling) {
+                this.profilers[entry.partition].coalesced_blocks++;
+            }
+            fetch.addWaiter(entry);
+            if (this.admissionFilter != null) fetch.tuples.add(entry.tuple_offsets[i]);
+        } // FOR
+    }
+    
+    /**
+     * Hand off the given FetchRequests to the fetcher threads for their partitions,
+     * or read them in right now if we don't have any fetcher threads.
+     * @param requests
+     */
+    private void dispatchFetchRequests(Map<Integer, Map<Table, FetchRequest>> requests) {
+        for (Map<Table, FetchRequest> partitionRequests : requests.values()) {
+            for (FetchRequest request : partitionRequests.values()) {
+                if (this.fetchers == null) {
+                    this.readBlocks(request);
+                    continue;
+                }
+                int depth = this.fetchQueueDepths[request.partition].incrementAndGet();
+                if (hstore_conf.site.anticache_profiling) {
+                    AntiCacheManagerProfiler profiler = this.profilers[request.partition];
+                    profiler.fetch_queue_depth_total += depth;
+                    profiler.fetch_queue_depth_max = Math.max(depth, profiler.fetch_queue_depth_max);
+                }
+                this.fetchers[request.partition].queue(request);
+            } // FOR
+        } // FOR
+    }
+    
+    private FetchRequest getFetchRequest(Map<Integer, Map<Table, FetchRequest>> requests, int partition, Table catalog_tbl) {
+        Map<Table, FetchRequest> partitionRequests = requests.get(partition);
+        if (partitionRequests == null) {
+            partitionRequests = new HashMap<Table, FetchRequest>();
+            requests.put(partition, partitionRequests);
+        }
+        FetchRequest request = partitionRequests.get(catalog_tbl);
+        if (request == null) {
+            request = new FetchRequest(partition, catalog_tbl);
+            partitionRequests.put(catalog_tbl, request);
+        }
+        return (request);
+    }
+    
+    /**
+     * Read in all of the blocks in the given FetchRequest with a single call
+     * into the EE and then requeue all of the txns that were waiting on them.
+     * @param request
+     */
+    protected void readBlocks(FetchRequest request) {
+        short block_ids[] = new short[request.blocks.size()];
+        int tuple_offsets[] = new int[block_ids.length];
+        int i = 0;
+        for (BlockFetch fetch : request.blocks) {
+            block_ids[i] = fetch.block_id;
+            tuple_offsets[i] = fetch.tuple_offset;
+            i++;
+        } // FOR
+        
+        // We need to get the EE handle for the partition that these txns
+        // need to have read in some blocks from disk
+        PartitionExecutor executor = hstore_site.getPartitionExecutor(request.partition);
         ExecutionEngine ee = executor.getExecutionEngine();
 
-        boolean merge_needed = true; 
-
-        // We can now tell it to read in the blocks that this txn needs
+        // We can now tell it to read in the blocks that these txns need
         // Note that we are doing this without checking whether another txn is already
         // running. That's because reading in unevicted tuples is a two-stage process.
         // First we read the blocks from disk in a standalone buffer. Then once we
         // know that all of the tuples that we need are there, we will requeue the txn,
         // which knows that it needs to tell the EE to merge in the results from this buffer
-        // before it executes anything.
-        //
-        // TODO: We may want to create a HStoreConf option that allows to dispatch this
-        // request asynchronously per partition. For now we're just going to
-        // block the AntiCacheManager until each of the requests are finished
-        if (hstore_conf.site.anticache_profiling) 
-            this.profilers[next.partition].retrieval_time.start();
+        // before it executes anything. The first txn that gets to run will merge
+        // all of the blocks in the buffer for this table.
+        AntiCacheManagerProfiler profiler = this.profilers[request.partition];
+        if (hstore_conf.site.anticache_profiling) {
+            long start = ProfileMeasurement.getTime();
+            profiler.fetch_wait_time.appendTime(request.createTime, start);
+            profiler.retrieval_time.start(start);
+            profiler.fetch_batches++;
+            profiler.fetched_blocks += block_ids.length;
+        }
+        boolean fetched = false;
         try {
-            LOG.debug(String.format("Asking EE to read in evicted blocks from table %s on partition %d: %s",
-                    next.catalog_tbl.getName(), next.partition, Arrays.toString(next.block_ids)));
+            if (debug.val)
+                LOG.debug(String.format("Asking EE to read in evicted blocks from table %s on partition %d: %s",
+                          request.catalog_tbl.getName(), request.partition, Arrays.toString(block_ids)));
 
-            ee.antiCacheReadBlocks(next.catalog_tbl, next.block_ids, next.tuple_offsets);
+            ee.antiCacheReadBlocks(request.catalog_tbl, block_ids, tuple_offsets);
+            fetched = true;
 
-            LOG.debug(String.format("Finished reading blocks from partition %d",
-                    next.partition));
+            if (debug.val)
+                LOG.debug(String.format("Finished reading blocks from partition %d", request.partition));
         } catch (SerializableException ex) {
             LOG.info("Caught unexpected SerializableException while reading anti-cache block.", ex);
-
-            merge_needed = false; 
         } finally {
             if (hstore_conf.site.anticache_profiling) 
-                this.profilers[next.partition].retrieval_time.stopIfStarted();
+                profiler.retrieval_time.stopIfStarted();
         }
-
+        
+        // Even if we failed to read in the blocks, we still want to requeue
+        // the txns. They'll just come right back to us if they need to.
+        for (QueueEntry entry : this.completeBlocks(request, fetched)) {
+            this.requeue(entry);
+        } // FOR
+    }
+    
+    /**
+     * Reject all of the txns that are waiting on the blocks in the given FetchRequest.
+     * This is used when we are shutting down. 
+     * @param request
+     */
+    protected void rejectBlocks(FetchRequest request) {
+        for (QueueEntry entry : this.completeBlocks(request, false)) {
+            this.hstore_site.transactionReject(entry.ts, Status.ABORT_GRACEFUL);
+        } // FOR
+    }
+    
+    /**
+     * Remove the BlockFetches in the given FetchRequest from the in-flight
+     * fetches for its partition and return the txns that are no longer waiting
+     * for any more blocks. If the blocks were read in, then each of them is recorded
+     * once in the admission filter.
+     * @param request
+     * @param fetched
+     */
+    protected Collection<QueueEntry> completeBlocks(FetchRequest request, boolean fetched) {
+        List<QueueEntry> ready = new ArrayList<QueueEntry>();
+        Map<Table, Map<Short, BlockFetch>> inflight = this.inflightFetches[request.partition];
+        synchronized (inflight) {
+            Map<Short, BlockFetch> tableFetches = inflight.get(request.catalog_tbl);
+            for (BlockFetch fetch : request.blocks) {
+                tableFetches.remove(fetch.block_id);
+                if (fetched && this.admissionFilter != null) {
+                    this.admissionFilter.recordFetch(request.partition, request.catalog_tbl.getName(), fetch.tuples.size());
+                }
+                fetch.complete(ready);
+            } // FOR
+        } // SYNCH
+        if (this.fetchQueueDepths != null) {
+            this.fetchQueueDepths[request.partition].decrementAndGet();
+        }
+        return (ready);
+    }
+    
+    /**
+     * Requeue a txn whose blocks have all been read in
+     * @param entry
+     */
+    private void requeue(QueueEntry entry) {
         // HACK HACK HACK HACK HACK HACK
         // We need to get a new txnId for ourselves, since the one that we
         // were given before is now probably too far in the past
-        this.hstore_site.getTransactionInitializer().resetTransactionId(next.ts, next.partition);
+        this.hstore_site.getTransactionInitializer().resetTransactionId(entry.ts, entry.partition);
+        
         // Now go ahead and requeue our transaction
-
-        //        if(merge_needed)
-        next.ts.setAntiCacheMergeTable(next.catalog_tbl);
-
-
-        this.hstore_site.transactionInit(next.ts);
-        //        this.hstore_site.transactionReject(next.ts, Status.ABORT_GRACEFUL);
+        entry.ts.setAntiCacheMergeTable(entry.catalog_tbl);
+        this.hstore_site.transactionInit(entry.ts);
     }
 
     @Override
@@ -349,15 +867,350 @@ public class AntiCacheManager extends AbstractProcessingRunnable<AntiCacheManage
         this.profilers[partition].addEvictedAccess(ts, (EvictedTupleAccessException)ts.getPendingError());
         //        }
 
-        QueueEntry e = new QueueEntry(ts, partition, catalog_tbl, block_ids, tuple_offsets);
+        if (hstore_conf.site.anticache_prewarm) {
+            Long key = this.getPrewarmKey(ts);
+            PrewarmHint hint = new PrewarmHint(key, partition, catalog_tbl, block_ids, tuple_offsets);
+            synchronized (this.prewarmHints) {
+                PrewarmHint old = this.prewarmHints.put(key, hint);
+                if (old != null) this.unindexPrewarmHint(old);
+                this.indexPrewarmHint(hint);
+            } // SYNCH
+        }
 
-        // TODO: We should check whether there are any other txns that are also blocked waiting
-        // for these blocks. This will ensure that we don't try to read in blocks twice.
+        QueueEntry e = new QueueEntry(ts, partition, catalog_tbl, block_ids, tuple_offsets);
 
+        // Any other txns that are also blocked waiting for these blocks will get
+        // coalesced together with this one when the entries are processed.
         //LOG.info("Queueing a transaction for partition " + partition);
         return (this.queue.offer(e));
     }
 
+    // ----------------------------------------------------------------------------
+    // PRE-WARMING
+    // ----------------------------------------------------------------------------
+    
+    private long getPrewarmKey(LocalTransaction ts) {
+        return (((long)ts.getProcedure().getId() << 32) | (ts.getProcedureParameters().hashCode() & 0xFFFFFFFFl));
+    }
+    
+    /**
+     * Add the given hint to the index of hints for its blocks
+     * <B>Note:</B> The caller must hold the lock on prewarmHints
+     * @param hint
+     */
+    private void indexPrewarmHint(PrewarmHint hint) {
+        Map<Table, Map<Short, Set<Long>>> index = this.prewarmIndex[hint.partition];
+        Map<Short, Set<Long>> tableIndex = index.get(hint.catalog_tbl);
+        if (tableIndex == null) {
+            tableIndex = new HashMap<Short, Set<Long>>();
+            index.put(hint.catalog_tbl, tableIndex);
+        }
+        for (short block_id : hint.block_ids) {
+            Set<Long> keys = tableIndex.get(block_id);
+            if (keys == null) {
+                keys = new HashSet<Long>();
+                tableIndex.put(block_id, keys);
+            }
+            keys.add(hint.key);
+        } // FOR
+    }
+    
+    /**
+     * Remove the given hint from the index of hints for its blocks
+     * <B>Note:</B> The caller must hold the lock on prewarmHints
+     * @param hint
+     */
+    private void unindexPrewarmHint(PrewarmHint hint) {
+        Map<Short, Set<Long>> tableIndex = this.prewarmIndex[hint.partition].get(hint.catalog_tbl);
+        if (tableIndex == null) return;
+        for (short block_id : hint.block_ids) {
+            Set<Long> keys = tableIndex.get(block_id);
+            if (keys != null && keys.remove(hint.key) && keys.isEmpty()) {
+                tableIndex.remove(block_id);
+            }
+        } // FOR
+    }
+    
+    /**
+     * Returns true if there is a hint that the given txn will access evicted tuples.
+     * This is used to keep txns that we may want to pre-warm off of the fast path. 
+     * @param ts
+     */
+    public boolean hasPrewarmHint(LocalTransaction ts) {
+        if (ts.isSysProc() || ts.hasAntiCacheMergeTable()) return (false);
+        synchronized (this.prewarmHints) {
+            return (this.prewarmHints.containsKey(this.getPrewarmKey(ts)));
+        } // SYNCH
+    }
+    
+    /**
+     * Check whether the given txn is likely to access tuples that are currently 
+     * evicted. We consider a txn to be a likely candidate if another txn invoked
+     * the same procedure with the same parameters and aborted because it accessed 
+     * an evicted tuple, and the txn's initial estimate says that it will
+     * execute a query on that same table at its base partition. If it is, then 
+     * we will fetch the blocks that the other txn needed (or wait on the fetches
+     * for them that are already in flight), and then requeue the txn so that it
+     * merges them in before it starts executing, instead of waiting to
+     * abort and get restarted.
+     * <B>Note:</B> This must be called before the txn is added to the lock queues.
+     * @param ts
+     * @return true if the txn is now waiting for blocks to be read in. The caller
+     * must not do anything else with it.
+     */
+    public boolean prewarm(LocalTransaction ts) {
+        if (ts.isSysProc() || ts.hasAntiCacheMergeTable()) return (false);
+        if (ts.isPredictSinglePartition() == false) return (false);
+        
+        int partition = ts.getBasePartition();
+        Long key = this.getPrewarmKey(ts);
+        PrewarmHint hint = null;
+        synchronized (this.prewarmHints) {
+            hint = this.prewarmHints.get(key);
+        } // SYNCH
+        if (hint == null || hint.partition != partition) return (false);
+        
+        // If we have an estimate for this txn, then make sure that it
+        // is actually going to touch the table that we think it needs
+        EstimatorState state = ts.getEstimatorState();
+        if (state != null) {
+            Estimate estimate = state.getInitialEstimate();
+            if (estimate != null && estimate.isValid() && estimate.hasQueryEstimate(partition)) {
+                if (this.isPredictedAccess(estimate.getQueryEstimate(partition), hint.catalog_tbl) == false) {
+                    return (false);
+                }
+            }
+        }
+        
+        // Figure out which of the hinted blocks we still need to fetch. We can't
+        // read in a block again if it is already sitting in the EE's buffer waiting to
+        // be merged, but if it's still being fetched then we'll wait on that fetch.
+        Map<Integer, Map<Table, FetchRequest>> requests = new TreeMap<Integer, Map<Table, FetchRequest>>();
+        QueueEntry entry = null;
+        Map<Table, Map<Short, BlockFetch>> inflight = this.inflightFetches[partition];
+        synchronized (inflight) {
+            // The blocks may have been merged since we looked up the hint
+            synchronized (this.prewarmHints) {
+                if (this.prewarmHints.get(key) != hint) return (false);
+            } // SYNCH
+            
+            Map<Short, BlockFetch> tableFetches = inflight.get(hint.catalog_tbl);
+            Set<Short> pendingMerge = this.pendingMergeBlocks[partition].get(hint.catalog_tbl);
+            short block_ids[] = new short[hint.block_ids.length];
+            int tuple_offsets[] = new int[block_ids.length];
+            int num_blocks = 0;
+            for (int i = 0; i < hint.block_ids.length; i++) {
+                Short block_id = hint.block_ids[i];
+                if ((tableFetches == null || tableFetches.containsKey(block_id) == false) &&
+                     pendingMerge != null && pendingMerge.contains(block_id)) {
+                    continue;
+                }
+                block_ids[num_blocks] = hint.block_ids[i];
+                tuple_offsets[num_blocks] = hint.tuple_offsets[i];
+                num_blocks++;
+            } // FOR
+            if (num_blocks > 0) {
+                entry = new QueueEntry(ts, partition, hint.catalog_tbl,
+                                       Arrays.copyOf(block_ids, num_blocks),
+                                       Arrays.copyOf(tuple_offsets, num_blocks));
+                this.addBlockFetches(entry, requests);
+            }
+        } // SYNCH
+        
+        ts.markAntiCachePrewarmed();
+        this.profilers[partition].prewarm_txns++;
+        
+        // All of the blocks have already been read in, so the txn just
+        // needs to merge them before it starts 
+        if (entry == null) {
+            if (debug.val)
+                LOG.debug(String.format("%s - Pre-warming evicted blocks for table %s at partition %d that were already read in",
+                          ts, hint.catalog_tbl.getName(), partition));
+            ts.setAntiCacheMergeTable(hint.catalog_tbl);
+            return (false);
+        }
+        
+        if (debug.val)
+            LOG.debug(String.format("%s - Pre-warming %d evicted blocks for table %s at partition %d",
+                      ts, entry.block_ids.length, hint.catalog_tbl.getName(), partition));
+        this.dispatchFetchRequests(requests);
+        return (true);
+    }
+    
+    /**
+     * Notify the AntiCacheManager that the blocks that were read in for the given
+     * table at the partition have been merged. Any hint that references one of these
+     * blocks is no longer valid, since the EE may reuse their block ids.
+     * <B>Note:</B> This must be called after every merge when pre-warming is enabled.
+     * @param partition
+     * @param catalog_tbl
+     */
+    public void notifyBlocksMerged(int partition, Table catalog_tbl) {
+        if (hstore_conf.site.anticache_prewarm == false) return;
+        
+        int dropped = 0;
+        Map<Table, Map<Short, BlockFetch>> inflight = this.inflightFetches[partition];
+        synchronized (inflight) {
+            Set<Short> merged = this.pendingMergeBlocks[partition].remove(catalog_tbl);
+            if (merged == null || merged.isEmpty()) return;
+            synchronized (this.prewarmHints) {
+                Map<Short, Set<Long>> tableIndex = this.prewarmIndex[partition].get(catalog_tbl);
+                if (tableIndex != null) {
+                    for (Short block_id : merged) {
+                        Set<Long> keys = tableIndex.remove(block_id);
+                        if (keys == null) continue;
+                        for (Long key : keys) {
+                            PrewarmHint hint = this.prewarmHints.remove(key);
+                            if (hint != null) {
+                                this.unindexPrewarmHint(hint);
+                                dropped++;
+                            }
+                        } // FOR
+                    } // FOR
+                }
+            } // SYNCH
+        } // SYNCH
+        if (debug.val && dropped > 0)
+            LOG.debug(String.format("Dropped %d pre-warming hints for merged blocks from table %s at partition %d",
+                      dropped, catalog_tbl.getName(), partition));
+    }
+    
+    /**
+     * Returns true if any of the given Statements will access the table 
+     * @param queries
+     * @param catalog_tbl
+     */
+    private boolean isPredictedAccess(List<CountedStatement> queries, Table catalog_tbl) {
+        for (CountedStatement cntStmt : queries) {
+            Collection<Table> tables = this.prewarmStmtTables.get(cntStmt.statement);
+            if (tables == null) {
+                tables = CatalogUtil.getReferencedTables(cntStmt.statement);
+                this.prewarmStmtTables.put(cntStmt.statement, tables);
+            }
+            if (tables.contains(catalog_tbl)) return (true);
+        } // FOR
+        return (false);
+    }
+    
+    /**
+     * Record whether a pre-warmed txn managed to avoid getting restarted
+     * because of an evicted tuple access. We only count it as a hit if the txn 
+     * committed, since a txn that aborted for some other reason may not have gotten
+     * far enough to touch the tuples that we read in for it.
+     * @param ts
+     * @param status
+     */
+    public void prewarmFinished(LocalTransaction ts, Status status) {
+        assert(ts.isAntiCachePrewarmed());
+        AntiCacheManagerProfiler profiler = this.profilers[ts.getBasePartition()];
+        switch (status) {
+            case ABORT_EVICTEDACCESS:
+                profiler.prewarm_misses++;
+                break;
+            case OK:
+                profiler.prewarm_hits++;
+                break;
+            default:
+                // Nothing we can say about it
+        } // SWITCH
+    }
+
+    // ----------------------------------------------------------------------------
+    // INCREMENTAL EVICTION
+    // ----------------------------------------------------------------------------
+    
+    /**
+     * Compute how many blocks the given partition needs to evict before the
+     * next time that we check its memory usage. We want to keep each partition
+     * under its share of the site's threshold, so we include how much we
+     * expect it to grow before the next check.
+     * <B>Note:</B> The caller must hold the lock on this AntiCacheManager 
+     * @param partition
+     * @param stats
+     */
+    private void updateIncrementalEviction(int partition, PartitionStats stats) {
+        IncrementalEviction state = this.incrementalEvictions[partition];
+        long blockSizeKb = Math.max(1, hstore_conf.site.anticache_block_size / 1024);
+        
+        // Evict from the largest tables first. If we are using the ADMISSION
+        // policy, then we will evict from the coldest tables first.
+        List<Table> tables = new ArrayList<Table>();
+        final Map<Table, Long> sizes = new HashMap<Table, Long>();
+        final Map<Table, Double> metrics = new HashMap<Table, Double>();
+        for (Table catalog_tbl : this.getEvictableTables()) {
+            Stats tstats = stats.get(catalog_tbl.getName());
+            if (tstats == null || tstats.sizeKb < blockSizeKb) continue;
+            tables.add(catalog_tbl);
+            sizes.put(catalog_tbl, tstats.sizeKb);
+            metrics.put(catalog_tbl, this.admissionFilter != null ? this.getAdmissionMetric(partition, catalog_tbl.getName()) : 0d);
+        } // FOR
+        Collections.sort(tables, new Comparator<Table>() {
+            @Override
+            public int compare(Table t0, Table t1) {
+                int cmp = metrics.get(t0).compareTo(metrics.get(t1));
+                if (cmp != 0) return (cmp);
+                return (sizes.get(t1).compareTo(sizes.get(t0)));
+            }
+        });
+        state.tables = tables.toArray(new Table[tables.size()]);
+        
+        // Make sure that we don't go over the max number of evicted blocks
+        long totalBlocksEvicted = 0;
+        for (PartitionStats pstats : this.partitionStats) {
+            totalBlocksEvicted += pstats.blocksEvicted;
+        } // FOR
+        long maxBlocks = (tables.isEmpty() ? 0 : hstore_conf.site.anticache_max_evicted_blocks - totalBlocksEvicted);
+        long targetKb = (hstore_conf.site.anticache_threshold_mb * 1024l) / hstore_site.getLocalPartitionIds().size();
+        int blocks = state.budget.update(System.currentTimeMillis(),
+                                         stats.sizeKb,
+                                         targetKb,
+                                         hstore_conf.site.anticache_check_interval,
+                                         maxBlocks);
+        this.profilers[partition].eviction_rate = state.budget.getEvictionRate();
+        
+        if (debug.val)
+            LOG.debug(String.format("Partition %d Incremental Eviction - Size:%dKB / Target:%dKB / " +
+                      "Growth:%.1fKB/sec / Blocks:%d",
+                      partition, stats.sizeKb, targetKb, state.budget.getGrowthRate(), blocks));
+        this.scheduleIncrementalEviction(partition);
+    }
+    
+    /**
+     * Invoke the @EvictTuples sysproc at the given partition to evict the next few
+     * blocks in its budget. The eviction runs as a regular single-partition txn, so
+     * it is ordered with the other txns at the partition, and it can never
+     * interleave with a txn that is already running there.
+     * <B>Note:</B> The caller must hold the lock on this AntiCacheManager 
+     * @param partition
+     * @return true if we invoked a new eviction txn
+     */
+    private boolean scheduleIncrementalEviction(int partition) {
+        IncrementalEviction state = this.incrementalEvictions[partition];
+        if (state.pending || state.tables.length == 0) return (false);
+        int num_blocks = state.budget.acquire(hstore_conf.site.anticache_incremental_blocks);
+        if (num_blocks == 0) return (false);
+        
+        Table catalog_tbl = state.tables[state.nextTable++ % state.tables.length];
+        Object params[] = new Object[] { partition,
+                                         new String[]{ catalog_tbl.getName() },
+                                         new long[]{ hstore_conf.site.anticache_block_size },
+                                         new int[]{ num_blocks } };
+        String procName = VoltSystemProcedure.procCallName(EvictTuples.class);
+        StoredProcedureInvocation invocation = new StoredProcedureInvocation(1, procName, params);
+        ByteBuffer b = null;
+        try {
+            b = ByteBuffer.wrap(FastSerializer.serialize(invocation));
+        } catch (IOException ex) {
+            throw new RuntimeException(ex);
+        }
+        if (debug.val)
+            LOG.debug(String.format("Partition %d Incremental Eviction - Evicting %d blocks from table %s",
+                      partition, num_blocks, catalog_tbl.getName()));
+        state.pending = true;
+        this.hstore_site.invocationProcess(b, this.incrementalEvictionCallback);
+        return (true);
+    }
+
     // ----------------------------------------------------------------------------
     // EVICTION INITIATION
     // ----------------------------------------------------------------------------
@@ -478,6 +1331,7 @@ public class AntiCacheManager extends AbstractProcessingRunnable<AntiCacheManage
         PROPORTIONAL,
         UNEVICTION_RATIO,
         ACCESS_RATE,
+        ADMISSION,
     }
 
     protected Map<Integer, Map<String, Integer>> getEvictionDistribution(long blocksToEvict) {
@@ -498,6 +1352,9 @@ public class AntiCacheManager extends AbstractProcessingRunnable<AntiCacheManage
         case ACCESS_RATE:
             fillAccessRateEvictionDistribution(distribution, blocksToEvict);
             break;
+        case ADMISSION:
+            fillAdmissionEvictionDistribution(distribution, blocksToEvict);
+            break;
         default:
             assert(false):
                 String.format("Unsupported eviction distribution policy %s\n",
@@ -555,8 +1412,7 @@ public class AntiCacheManager extends AbstractProcessingRunnable<AntiCacheManage
         public double getMetric(int partition, String table);
     }
     
-    private void fillUnevictionRatioEvictionDistribution(Map<Integer, Map<String, Integer>> distribution,
-            long blocksToEvict) {
+    private void updateUnevictionRatios() {
         for (PartitionStats stats : partitionStats) {
             for (Stats tstats : stats.getTableStats()) {
                 double blocksFetchedDelta = tstats.blocksFetched - tstats.evictionBlocksFetched;
@@ -566,6 +1422,11 @@ public class AntiCacheManager extends AbstractProcessingRunnable<AntiCacheManage
                         ((1.0 - UNEVICTION_RATIO_EMA_ALPHA) * tstats.unevictionRatio);
             }
         }
+    }
+    
+    private void fillUnevictionRatioEvictionDistribution(Map<Integer, Map<String, Integer>> distribution,
+            long blocksToEvict) {
+        updateUnevictionRatios();
         
         fillMetricEvictionDistribution(distribution, blocksToEvict, UNEVICTION_RATIO_CLUSTER_THRESHOLD, new Metric() {
             public double getMetric(int partition, String table) {
@@ -582,6 +1443,28 @@ public class AntiCacheManager extends AbstractProcessingRunnable<AntiCacheManage
         }
     }
 
+    /**
+     * Like the UNEVICTION_RATIO policy, except that we also add in the fraction of the recent
+     * fetches at each table that were hot. The tables whose evicted tuples are still
+     * being accessed will be evicted from last. Unlike the UNEVICTION_RATIO policy, we don't
+     * force every table to evict at least one block.
+     */
+    private void fillAdmissionEvictionDistribution(Map<Integer, Map<String, Integer>> distribution,
+            long blocksToEvict) {
+        updateUnevictionRatios();
+        
+        fillMetricEvictionDistribution(distribution, blocksToEvict, UNEVICTION_RATIO_CLUSTER_THRESHOLD, new Metric() {
+            public double getMetric(int partition, String table) {
+                return getAdmissionMetric(partition, table);
+            }
+        });
+    }
+    
+    private double getAdmissionMetric(int partition, String table) {
+        return (partitionStats[partition].get(table).unevictionRatio +
+                this.admissionFilter.getHotness(partition, table));
+    }
+
     private void fillAccessRateEvictionDistribution(Map<Integer, Map<String, Integer>> distribution,
             long blocksToEvict) {
         double total = 0;
@@ -785,6 +1668,8 @@ public class AntiCacheManager extends AbstractProcessingRunnable<AntiCacheManage
             int partition = (int) vt.getLong("PARTITION_ID");
             stats = this.partitionStats[partition];
             long oldSizeKb = stats.sizeKb;
+            long oldBlocksFetched = stats.blocksFetched;
+            long oldBlocksWritten = stats.blocksWritten;
             stats.reset();
 
             do {
@@ -800,6 +1685,9 @@ public class AntiCacheManager extends AbstractProcessingRunnable<AntiCacheManage
 //            LOG.warn(String.format("Partition #%d Size - New:%dkb / Old:%dkb",
 //                    partition, stats.sizeKb, oldSizeKb));
 
+            this.updateUnevictionHistory(partition, stats.blocksFetched - oldBlocksFetched,
+                                         stats.blocksWritten - oldBlocksWritten);
+
             pendingStatsUpdates[partition] = false;
             boolean allBack = true;
             for (int i = 0; i < pendingStatsUpdates.length; i++) {
@@ -808,13 +1696,37 @@ public class AntiCacheManager extends AbstractProcessingRunnable<AntiCacheManage
                 }
             }
 
+            if (this.incrementalEvictions != null) {
+                this.updateIncrementalEviction(partition, stats);
+            }
+
             // All partitions have reported back, schedule an eviction check
-            if (allBack) {
+            // We don't need to do this if each partition is evicting on its own
+            if (allBack && this.incrementalEvictions == null) {
                 hstore_site.getThreadManager().scheduleWork(evictionExecutor);
             }
         }
     }
 
+    /**
+     * Record the ratio of blocks fetched to blocks written at the given
+     * partition since the last time that we got its stats
+     * @param partition
+     * @param blocksFetched
+     * @param blocksWritten
+     */
+    private void updateUnevictionHistory(int partition, long blocksFetched, long blocksWritten) {
+        AntiCacheManagerProfiler profiler = this.profilers[partition];
+        double ratio = (blocksWritten <= 0 ? 0 : blocksFetched / (double)blocksWritten);
+        profiler.uneviction_ratio = (UNEVICTION_RATIO_EMA_ALPHA * ratio) +
+                                    ((1.0 - UNEVICTION_RATIO_EMA_ALPHA) * profiler.uneviction_ratio);
+        if (hstore_conf.site.anticache_profiling) {
+            UnevictionHistory history = new UnevictionHistory(System.currentTimeMillis(),
+                                                              blocksFetched, blocksWritten, ratio);
+            profiler.uneviction_history.add(history);
+        }
+    }
+
     // ----------------------------------------------------------------------------
     // STATIC HELPER METHODS
     // ----------------------------------------------------------------------------
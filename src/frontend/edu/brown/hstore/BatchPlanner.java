@@ -38,6 +38,7 @@ import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.atomic.AtomicInteger;
 
+import org.apache.commons.collections15.map.LRUMap;
 import org.apache.log4j.Logger;
 import org.voltdb.CatalogContext;
 import org.voltdb.ParameterSet;
@@ -125,6 +126,10 @@ public class BatchPlanner {
     private final BatchPlan cache_singlePartitionPlans[];
     private Map<Statement, Map<PlanFragment, PartitionSet>> cache_singlePartitionFragmentPartitions;
 
+    // DISTRIBUTED FRAGMENT LAYOUT CACHE
+    private final Map<Integer, FragmentLayout> cache_fragmentLayouts;
+    private PartitionSet cache_vertexPartitions[] = new PartitionSet[0];
+
     // PROFILING
     private BatchPlannerProfiler profiler;
 
@@ -197,6 +202,75 @@ public class BatchPlanner {
         }
     } // END CLASS
 
+    /**
+     * The WorkFragments that we generated for a distributed BatchPlan.
+     * This is only valid for another BatchPlan if it has the same single-partition
+     * bitmap and each PlanVertex in its graph goes to the exact same partitions.
+     * We don't compare the PlanGraph handles themselves because the graph
+     * is built from the bitmap, so two plans with the same bitmap will always
+     * have the same vertices in the same order even if the PlanGraph was rebuilt.
+     * The WorkFragments stored here are never sent anywhere. We copy them
+     * into new builders and then fill in the txn's current stmtCounters.
+     */
+    protected static class FragmentLayout {
+        private final int base_partition;
+        private final boolean prefetch;
+        private final boolean singlepartition_bitmap[];
+        private final PartitionSet vertex_partitions[];
+        private final WorkFragment fragments[];
+
+        private FragmentLayout(BatchPlan plan, boolean prefetch, PartitionSet vertex_partitions[], List<WorkFragment.Builder> builders) {
+            this.base_partition = plan.base_partition;
+            this.prefetch = prefetch;
+            this.singlepartition_bitmap = Arrays.copyOf(plan.singlepartition_bitmap, plan.singlepartition_bitmap.length);
+            this.vertex_partitions = new PartitionSet[plan.graph.sorted_vertices.length];
+            for (int i = 0; i < this.vertex_partitions.length; i++) {
+                this.vertex_partitions[i] = new PartitionSet(vertex_partitions[i]);
+            } // FOR
+            this.fragments = new WorkFragment[builders.size()];
+            for (int i = 0; i < this.fragments.length; i++) {
+                this.fragments[i] = builders.get(i).clone().build();
+            } // FOR
+        }
+
+        /**
+         * Returns true if this layout can be used for the given BatchPlan
+         * @param plan
+         * @param prefetch
+         * @param vertex_partitions The partitions for each PlanVertex in the plan's graph
+         */
+        private boolean matches(BatchPlan plan, boolean prefetch, PartitionSet vertex_partitions[]) {
+            if (this.base_partition != plan.base_partition ||
+                this.prefetch != prefetch ||
+                this.vertex_partitions.length != plan.graph.sorted_vertices.length ||
+                Arrays.equals(this.singlepartition_bitmap, plan.singlepartition_bitmap) == false) {
+                return (false);
+            }
+            for (int i = 0; i < this.vertex_partitions.length; i++) {
+                if (this.vertex_partitions[i].equals(vertex_partitions[i]) == false) {
+                    return (false);
+                }
+            } // FOR
+            return (true);
+        }
+
+        /**
+         * Compute the cache key for the given BatchPlan. The partitions for each
+         * PlanVertex in the plan's graph will be stored in vertex_partitions.
+         */
+        private static int hashCode(BatchPlan plan, boolean prefetch, PartitionSet vertex_partitions[]) {
+            int hash = 31 * plan.base_partition + Arrays.hashCode(plan.singlepartition_bitmap);
+            hash = 31 * hash + (prefetch ? 1 : 0);
+            PlanVertex vertices[] = plan.graph.sorted_vertices;
+            for (int i = 0; i < vertices.length; i++) {
+                PlanVertex v = vertices[i];
+                vertex_partitions[i] = plan.frag_partitions[v.stmt_index].get(v.catalog_frag);
+                hash = 31 * hash + vertex_partitions[i].hashCode();
+            } // FOR
+            return (hash);
+        }
+    } // END CLASS
+
     // ----------------------------------------------------------------------------
     // BATCH PLAN
     // ----------------------------------------------------------------------------
@@ -481,6 +555,8 @@ public class BatchPlanner {
         this.cache_isSinglePartition = (hstore_conf.site.planner_caching ? new boolean[this.batchSize] : null);
         this.cache_fastLookups = (hstore_conf.site.planner_caching ? new int[this.batchSize][] : null);
         this.cache_singlePartitionPlans = (hstore_conf.site.planner_caching ? new BatchPlan[this.catalogContext.numberOfPartitions] : null);
+        this.cache_fragmentLayouts = (hstore_conf.site.planner_layout_cache_size > 0 ?
+                new LRUMap<Integer, FragmentLayout>(hstore_conf.site.planner_layout_cache_size) : null);
         int nonReplicatedStmtCnt = 0;
         for (int i = 0; i < this.batchSize; i++) {
             this.catalog_stmts[i] = batchStmts[i].getStatement();
@@ -1012,6 +1088,38 @@ public class BatchPlanner {
             		  "[txn_id=#%d, base_partition=%d]",
                       txn_id, plan.base_partition));
 
+        // OPTIMIZATION: If this is a distributed batch that is going to the same
+        // partitions as one that we've seen before, then we can just copy the
+        // WorkFragments that we made last time and update their stmtCounters
+        Integer layout_hash = null;
+        if (this.cache_fragmentLayouts != null && plan.isSingledPartitionedAndLocal() == false) {
+            if (this.cache_vertexPartitions.length < plan.graph.sorted_vertices.length) {
+                this.cache_vertexPartitions = new PartitionSet[plan.graph.sorted_vertices.length];
+            }
+            layout_hash = FragmentLayout.hashCode(plan, this.prefetch, this.cache_vertexPartitions);
+            FragmentLayout layout = this.cache_fragmentLayouts.get(layout_hash);
+            if (layout != null && layout.matches(plan, this.prefetch, this.cache_vertexPartitions)) {
+                if (debug.val)
+                    LOG.debug(String.format("Using cached layout with %d WorkFragments for txn #%d",
+                              layout.fragments.length, txn_id));
+                for (WorkFragment fragment : layout.fragments) {
+                    WorkFragment.Builder builder = fragment.toBuilder();
+                    for (int i = 0, cnt = fragment.getStmtIndexCount(); i < cnt; i++) {
+                        builder.setStmtCounter(i, stmtCounters[fragment.getStmtIndex(i)]);
+                    } // FOR
+                    builders.add(builder);
+                } // FOR
+                if (hstore_conf.site.planner_profiling && profiler != null) {
+                    profiler.layout_hits.incrementAndGet();
+                    profiler.fragment_time.stop();
+                }
+                return;
+            }
+            if (hstore_conf.site.planner_profiling && profiler != null)
+                profiler.layout_misses.incrementAndGet();
+        }
+        final int first_builder = builders.size();
+
         // 2013-05-14: I feel like that we could probably cache this somehow...
         for (PlanVertex v : plan.graph.sorted_vertices) {
             int stmt_index = v.stmt_index;
@@ -1126,6 +1234,11 @@ public class BatchPlanner {
             } // PARTITION
         } // ROUND
         assert (builders.size() > 0) : "Failed to generate any WorkFragments in this BatchPlan for txn #" + txn_id;
+        if (layout_hash != null) {
+            FragmentLayout layout = new FragmentLayout(plan, this.prefetch, this.cache_vertexPartitions,
+                                                       builders.subList(first_builder, builders.size()));
+            this.cache_fragmentLayouts.put(layout_hash, layout);
+        }
         if (debug.val)
             LOG.debug("Created " + builders.size() + " WorkFragment(s) for txn #" + txn_id);
         if (hstore_conf.site.planner_profiling && profiler != null)
@@ -1256,7 +1369,9 @@ public class BatchPlanner {
         public BatchPlan getCachedSinglePartitionPlan(int stmt_index) {
             return (cache_singlePartitionPlans[stmt_index]);
         }
-        
+        public void clearPlanGraphs() {
+            plan_graphs.clear();
+        }
     }
     
     private Debug cachedDebugContext;
@@ -4,6 +4,7 @@ import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -240,6 +241,24 @@ public class HStoreCoordinator implements Shutdownable {
         }
     }
     
+    // ----------------------------------------------------------------------------
+    // NETWORK DELAY
+    // ----------------------------------------------------------------------------
+    
+    private static final double NETWORK_LATENCY_EMA_ALPHA = 0.25;
+    
+    /**
+     * The clock skew in milliseconds to each remote site
+     * from our last time synchronization.
+     */
+    private final int networkSkews[];
+    
+    /**
+     * The moving average of the one-way message latency in milliseconds to 
+     * each remote site. This will be negative if we haven't measured it yet.
+     */
+    private final double networkLatencies[];
+    
     // ----------------------------------------------------------------------------
     // HEARTBEAT CALLBACK
     // ----------------------------------------------------------------------------
@@ -276,6 +295,9 @@ public class HStoreCoordinator implements Shutdownable {
         this.local_site_id = this.catalog_site.getId();
         this.num_sites = this.hstore_site.getCatalogContext().numberOfSites;
         this.channels = new HStoreService[this.num_sites];
+        this.networkSkews = new int[this.num_sites];
+        this.networkLatencies = new double[this.num_sites];
+        Arrays.fill(this.networkLatencies, -1);
         
         if (debug.val)
             LOG.debug(String.format("Local Partitions for Site #%d: %s",
@@ -1425,8 +1447,23 @@ public class HStoreCoordinator implements Shutdownable {
         for (int site_id = 0; site_id < this.num_sites; site_id++) {
             if (site_id == this.local_site_id) continue;
             if (this.isShuttingDown()) break;
+            
+            // Use the round-trip time of the heartbeat to keep track
+            // of the message latency to this site
+            final int remote_site = site_id;
+            final long sent = System.nanoTime();
+            RpcCallback<HeartbeatResponse> callback = new RpcCallback<HeartbeatResponse>() {
+                @Override
+                public void run(HeartbeatResponse response) {
+                    if (response.getStatus() == Status.OK) {
+                        double latency = (System.nanoTime() - sent) / 2000000d;
+                        recordNetworkDelay(remote_site, networkSkews[remote_site], latency);
+                    }
+                    heartbeatCallback.run(response);
+                }
+            };
             try {
-                this.channels[site_id].heartbeat(new ProtoRpcController(), request, this.heartbeatCallback);
+                this.channels[site_id].heartbeat(new ProtoRpcController(), request, callback);
                 if (trace.val)
                     LOG.trace(String.format("Sent %s to %s",
                               request.getClass().getSimpleName(),
@@ -1458,6 +1495,9 @@ public class HStoreCoordinator implements Shutdownable {
             public void run(TimeSyncResponse request) {
                 long t1_r = System.currentTimeMillis();
                 int dt = (int)((request.getT1S() + request.getT0R()) - (t1_r + request.getT0S())) / 2;
+                // Don't count the time that the remote site spent before responding
+                long rtt = (t1_r - request.getT0S()) - (request.getT1S() - request.getT0R());
+                recordNetworkDelay(request.getSenderSite(), dt, Math.max(0, rtt) / 2d);
                 time_deltas.put(request.getSenderSite(), dt);
                 latch.countDown();
             }
@@ -1505,6 +1545,49 @@ public class HStoreCoordinator implements Shutdownable {
                       max_dt, HStoreThreadManager.formatSiteName(culprit)));
     }
     
+    /**
+     * Record the clock skew and one-way message latency in milliseconds
+     * that we measured to the given remote site. If ${site.txn_incoming_delay_adaptive} 
+     * is enabled, then we will tell the TransactionQueueManager about the new 
+     * network delay so that it can update the wait times of its lock queues.
+     * @param site_id
+     * @param skew
+     * @param latency
+     */
+    protected synchronized void recordNetworkDelay(int site_id, int skew, double latency) {
+        this.networkSkews[site_id] = skew;
+        if (this.networkLatencies[site_id] < 0) {
+            this.networkLatencies[site_id] = latency;
+        } else {
+            this.networkLatencies[site_id] = (NETWORK_LATENCY_EMA_ALPHA * latency) +
+                                             ((1 - NETWORK_LATENCY_EMA_ALPHA) * this.networkLatencies[site_id]);
+        }
+        if (debug.val)
+            LOG.debug(String.format("Network delay to %s [skew=%d ms, latency=%.2f ms]",
+                      HStoreThreadManager.formatSiteName(site_id), skew, this.networkLatencies[site_id]));
+        
+        if (hstore_conf.site.txn_incoming_delay_adaptive) {
+            TransactionQueueManager queueManager = this.hstore_site.getTransactionQueueManager();
+            if (queueManager != null) queueManager.updateNetworkDelay(this.getNetworkDelay());
+        }
+    }
+    
+    /**
+     * Returns the largest clock skew plus one-way message latency in milliseconds 
+     * to any of the remote sites in the cluster that we have measured.
+     * This is how long a txn from a remote site could arrive after 
+     * a local txn with a larger txn id.
+     * @return
+     */
+    public synchronized int getNetworkDelay() {
+        double delay = 0;
+        for (int site_id = 0; site_id < this.num_sites; site_id++) {
+            if (this.networkLatencies[site_id] < 0) continue;
+            delay = Math.max(delay, Math.abs(this.networkSkews[site_id]) + this.networkLatencies[site_id]);
+        } // FOR
+        return ((int)Math.ceil(delay));
+    }
+    
     // ----------------------------------------------------------------------------
     // SHUTDOWN METHODS
     // ----------------------------------------------------------------------------
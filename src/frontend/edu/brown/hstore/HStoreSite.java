@@ -31,11 +31,13 @@ import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.ConcurrentModificationException;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Queue;
+import java.util.TreeMap;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
@@ -92,6 +94,8 @@ import edu.brown.hstore.callbacks.LocalFinishCallback;
 import edu.brown.hstore.callbacks.LocalInitQueueCallback;
 import edu.brown.hstore.callbacks.PartitionCountingCallback;
 import edu.brown.hstore.callbacks.RedirectCallback;
+import edu.brown.hstore.cmdlog.CommandLogReplayer;
+import edu.brown.hstore.cmdlog.CommandLogSegment;
 import edu.brown.hstore.cmdlog.CommandLogWriter;
 import edu.brown.hstore.conf.HStoreConf;
 import edu.brown.hstore.estimators.EstimatorState;
@@ -334,8 +338,20 @@ public class HStoreSite implements VoltProcedureListener.Handler, Shutdownable,
     
     /**
      * Transaction Command Logger (WAL)
+     * There is one CommandLogWriter for each of the site's log streams
      */
-    private final CommandLogWriter commandLogger;
+    private final CommandLogWriter commandLoggers[];
+    
+    /**
+     * The CommandLogWriter for each local partition, indexed by partition id
+     */
+    private final CommandLogWriter partitionCommandLoggers[];
+    
+    /**
+     * Command Log Recovery
+     * This will only be set if we are replaying an existing log at start-up
+     */
+    private final CommandLogReplayer commandLogReplayer;
 
     /**
      * AdHoc: This thread waits for AdHoc queries. 
@@ -568,16 +584,58 @@ public class HStoreSite implements VoltProcedureListener.Handler, Shutdownable,
         
         // Command Logger
         if (hstore_conf.site.commandlog_enable) {
+            List<PartitionSet> streams = this.getCommandLogStreams();
+            String logDirs[] = { hstore_conf.site.commandlog_dir };
+            if (hstore_conf.site.commandlog_stream_dirs != null &&
+                hstore_conf.site.commandlog_stream_dirs.trim().isEmpty() == false) {
+                logDirs = hstore_conf.site.commandlog_stream_dirs.trim().split("[\\s]*,[\\s]*");
+            }
+            
             // It would be nice if we could come up with a unique name for this
             // invocation of the system (like the cluster instanceId). But for now
             // we'll just write out to our directory...
-            File logFile = new File(hstore_conf.site.commandlog_dir +
-                                    File.separator +
-                                    this.getSiteName().toLowerCase() +
-                                    CommandLogWriter.LOG_OUTPUT_EXT);
-            this.commandLogger = new CommandLogWriter(this, logFile);
+            File logFiles[] = new File[streams.size()];
+            Map<Integer, List<File>> replayFiles = new TreeMap<Integer, List<File>>();
+            for (int i = 0; i < logFiles.length; i++) {
+                String name = this.getSiteName().toLowerCase();
+                if (logFiles.length > 1) name += String.format("-s%02d", i);
+                logFiles[i] = new File(logDirs[i % logDirs.length] +
+                                       File.separator +
+                                       name +
+                                       CommandLogWriter.LOG_OUTPUT_EXT);
+                
+                // If we are recovering, then we have to read in the existing log
+                // before the CommandLogWriter starts appending new entries to it
+                if (hstore_conf.site.commandlog_replay) {
+                    List<File> files = null;
+                    if (hstore_conf.site.commandlog_segment_size > 0) {
+                        files = CommandLogSegment.getSegmentFiles(logFiles[i]);
+                    } else if (logFiles[i].exists() && logFiles[i].length() > 0) {
+                        files = Collections.singletonList(logFiles[i]);
+                    }
+                    if (files != null && files.isEmpty() == false) replayFiles.put(i, files);
+                }
+            } // FOR
+            if (replayFiles.isEmpty() == false) {
+                this.commandLogReplayer = new CommandLogReplayer(this, replayFiles);
+            } else {
+                this.commandLogReplayer = null;
+            }
+            
+            this.commandLoggers = new CommandLogWriter[logFiles.length];
+            this.partitionCommandLoggers = new CommandLogWriter[this.catalogContext.numberOfPartitions];
+            for (int i = 0; i < logFiles.length; i++) {
+                this.commandLoggers[i] = new CommandLogWriter(this, logFiles[i],
+                                                              this.commandLogReplayer != null,
+                                                              streams.get(i));
+                for (int partition : streams.get(i).values()) {
+                    this.partitionCommandLoggers[partition] = this.commandLoggers[i];
+                } // FOR
+            } // FOR
         } else {
-            this.commandLogger = null;
+            this.commandLoggers = null;
+            this.partitionCommandLoggers = null;
+            this.commandLogReplayer = null;
         }
 
         // AdHoc Support
@@ -680,11 +738,15 @@ public class HStoreSite implements VoltProcedureListener.Handler, Shutdownable,
         t.setUncaughtExceptionHandler(this.exceptionHandler);
         t.start();
         
-        // Start CommandLogWriter
-        t = new Thread(auxGroup, this.commandLogger);
-        t.setDaemon(true);
-        t.setUncaughtExceptionHandler(this.exceptionHandler);
-        t.start();
+        // Start CommandLogWriters
+        if (this.commandLoggers != null) {
+            for (CommandLogWriter commandLogger : this.commandLoggers) {
+                t = new Thread(auxGroup, commandLogger);
+                t.setDaemon(true);
+                t.setUncaughtExceptionHandler(this.exceptionHandler);
+                t.start();
+            } // FOR
+        }
         
         // Start AntiCacheManager Queue Processor
         if (this.anticacheManager != null && this.anticacheManager.getEvictableTables().isEmpty() == false) {
@@ -692,6 +754,13 @@ public class HStoreSite implements VoltProcedureListener.Handler, Shutdownable,
             t.setDaemon(true);
             t.setUncaughtExceptionHandler(this.exceptionHandler);
             t.start();
+            
+            for (AntiCacheManager.AntiCacheFetcher fetcher : this.anticacheManager.getFetchers()) {
+                t = new Thread(auxGroup, fetcher);
+                t.setDaemon(true);
+                t.setUncaughtExceptionHandler(this.exceptionHandler);
+                t.start();
+            } // FOR
         }
         
         // TransactionPreProcessors
@@ -752,6 +821,30 @@ public class HStoreSite implements VoltProcedureListener.Handler, Shutdownable,
         return (this);
     }
     
+    /**
+     * Split the local partitions into groups that each get their own command log
+     * stream. Each group contains ${site.commandlog_partitions_per_stream} 
+     * partitions. If that is not set, then there is a single group for all of them.
+     * @return
+     */
+    private List<PartitionSet> getCommandLogStreams() {
+        List<PartitionSet> streams = new ArrayList<PartitionSet>();
+        int perStream = hstore_conf.site.commandlog_partitions_per_stream;
+        if (perStream <= 0 || perStream >= this.local_partitions.size()) {
+            streams.add(this.local_partitions);
+            return (streams);
+        }
+        PartitionSet current = null;
+        for (int partition : this.local_partitions.values()) {
+            if (current == null || current.size() == perStream) {
+                current = new PartitionSet();
+                streams.add(current);
+            }
+            current.add(partition);
+        } // FOR
+        return (streams);
+    }
+    
     private void initTxnProcessors() {
         if (hstore_conf.site.exec_preprocessing_threads == false &&
             hstore_conf.site.exec_postprocessing_threads == false) {
@@ -1195,8 +1288,27 @@ public class HStoreSite implements VoltProcedureListener.Handler, Shutdownable,
     public DBBPool getBufferPool() {
         return (this.buffer_pool);
     }
+    /**
+     * Returns the CommandLogWriter for the site's first log stream.
+     * This will be null if command logging is disabled.
+     */
     public CommandLogWriter getCommandLogWriter() {
-        return (this.commandLogger);
+        return (this.commandLoggers != null ? this.commandLoggers[0] : null);
+    }
+    /**
+     * Returns the CommandLogWriter for the log stream of the given local partition.
+     * This will be null if command logging is disabled.
+     * @param partition
+     */
+    public CommandLogWriter getCommandLogWriter(int partition) {
+        return (this.partitionCommandLoggers != null ? this.partitionCommandLoggers[partition] : null);
+    }
+    /**
+     * Returns the CommandLogWriters for all of the site's log streams.
+     * This will be null if command logging is disabled.
+     */
+    public CommandLogWriter[] getCommandLogWriters() {
+        return (this.commandLoggers);
     }
     protected final Map<Long, AbstractTransaction> getInflightTxns() {
         return (this.inflight_txns);
@@ -1359,6 +1471,12 @@ public class HStoreSite implements VoltProcedureListener.Handler, Shutdownable,
         
         this.init();
         
+        // Bring the database back to where it was before we crashed
+        // before we let any new clients in
+        if (this.commandLogReplayer != null) {
+            this.commandLogReplayer.recover();
+        }
+        
         try {
             this.clientInterface.startAcceptingConnections();
         } catch (Exception ex) {
@@ -1452,11 +1570,16 @@ public class HStoreSite implements VoltProcedureListener.Handler, Shutdownable,
         if (this.mr_helper != null) {
             this.mr_helper.prepareShutdown(error);
         }
-        if (this.commandLogger != null) {
-            this.commandLogger.prepareShutdown(error);
+        if (this.commandLoggers != null) {
+            for (CommandLogWriter commandLogger : this.commandLoggers) {
+                commandLogger.prepareShutdown(error);
+            } // FOR
         }
         if (this.anticacheManager != null) {
             this.anticacheManager.prepareShutdown(error);
+            for (AntiCacheManager.AntiCacheFetcher fetcher : this.anticacheManager.getFetchers()) {
+                fetcher.prepareShutdown(error);
+            } // FOR
         }
         for (TransactionCleaner t : this.txnCleaners) {
             t.prepareShutdown(error);
@@ -1530,11 +1653,16 @@ public class HStoreSite implements VoltProcedureListener.Handler, Shutdownable,
         if (this.mr_helper_started && this.mr_helper != null) {
             this.mr_helper.shutdown();
         }
-        if (this.commandLogger != null) {
-            this.commandLogger.shutdown();
+        if (this.commandLoggers != null) {
+            for (CommandLogWriter commandLogger : this.commandLoggers) {
+                commandLogger.shutdown();
+            } // FOR
         }
         if (this.anticacheManager != null) {
             this.anticacheManager.shutdown();
+            for (AntiCacheManager.AntiCacheFetcher fetcher : this.anticacheManager.getFetchers()) {
+                fetcher.shutdown();
+            } // FOR
         }
         for (TransactionCleaner t : this.txnCleaners) {
             t.shutdown();
@@ -1930,7 +2058,12 @@ public class HStoreSite implements VoltProcedureListener.Handler, Shutdownable,
                       ts.getBasePartition(), ts.getClientHandle()));
         
         if (ts.isPredictSinglePartition()) {
-            this.transactionInit(ts);
+            if (hstore_conf.site.queue_fastpath_enable && this.txnQueueManager.fastPathInit(ts)) {
+                if (hstore_conf.site.txn_counters) TransactionCounter.FASTPATH.inc(ts.getProcedure());
+                this.transactionStart(ts);
+            } else {
+                this.transactionInit(ts);
+            }
         }
         else {
             LocalInitQueueCallback initCallback = (LocalInitQueueCallback)ts.getInitCallback();
@@ -2552,8 +2685,10 @@ public class HStoreSite implements VoltProcedureListener.Handler, Shutdownable,
         //  (1) We have a CommandLogWriter
         //  (2) The txn completed successfully
         //  (3) It is not a sysproc
-        if (this.commandLogger != null && status == Status.OK && ts.isSysProc() == false) {
-            sendResponse = this.commandLogger.appendToLog(ts, cresponse);
+        //  (4) It is not being replayed from the log during recovery
+        if (this.commandLoggers != null && status == Status.OK && ts.isSysProc() == false &&
+            (this.commandLogReplayer == null || this.commandLogReplayer.isReplaying() == false)) {
+            sendResponse = this.partitionCommandLoggers[ts.getBasePartition()].appendToLog(ts, cresponse);
         }
 
         if (sendResponse) {
@@ -2933,6 +3068,11 @@ public class HStoreSite implements VoltProcedureListener.Handler, Shutdownable,
             }
         }
         
+        // ANTI-CACHE PRE-WARMING
+        if (this.anticacheManager != null && ts.isAntiCachePrewarmed()) {
+            this.anticacheManager.prewarmFinished(ts, status);
+        }
+        
         // SANITY CHECK
         if (hstore_conf.site.exec_validate_work) {
             for (int p : this.local_partitions.values()) {
@@ -23,6 +23,7 @@ import org.apache.log4j.Logger;
 import org.voltdb.catalog.Database;
 import org.voltdb.catalog.Procedure;
 
+import edu.brown.hashing.RoutingCache;
 import edu.brown.hstore.callbacks.PartitionCountingCallback;
 import edu.brown.hstore.cmdlog.CommandLogWriter;
 import edu.brown.hstore.conf.HStoreConf;
@@ -356,9 +357,11 @@ public class HStoreSiteStatus extends ExceptionHandlingRunnable implements Shutd
         
         // CommandLogWriter
         int inflight_cmdlog = 0;
-        CommandLogWriter cmdLogger = hstore_site.getCommandLogWriter();
-        if (cmdLogger != null) {
-            inflight_cmdlog = cmdLogger.getTotalTxnCount();
+        CommandLogWriter cmdLoggers[] = hstore_site.getCommandLogWriters();
+        if (cmdLoggers != null) {
+            for (CommandLogWriter cmdLogger : cmdLoggers) {
+                inflight_cmdlog += cmdLogger.getTotalTxnCount();
+            } // FOR
         }
         
         siteInfo.put("InFlight Txns",
@@ -374,6 +377,19 @@ public class HStoreSiteStatus extends ExceptionHandlingRunnable implements Shutd
                                     this.inflight_max   // totalMax
         ));
         
+        // RoutingCache
+        RoutingCache routingCache = hstore_site.getHasher().getRoutingCache();
+        if (routingCache != null) {
+            long hits = routingCache.getHitCount();
+            long misses = routingCache.getMissCount();
+            if (hits + misses > 0) {
+                siteInfo.put("Routing Cache",
+                             String.format("%.02f%% hit rate [hits=%d, misses=%d, capacity=%d]",
+                                           routingCache.getHitRate() * 100d, hits, misses,
+                                           routingCache.getCapacity()));
+            }
+        }
+        
         
         if (hstore_conf.site.status_check_for_zombies) {
             this.zombieInfo(siteInfo);
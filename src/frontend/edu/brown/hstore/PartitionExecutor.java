@@ -44,6 +44,7 @@ package edu.brown.hstore;
 import java.io.File;
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
@@ -60,6 +61,7 @@ import java.util.Queue;
 import java.util.Set;
 import java.util.TreeSet;
 import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
@@ -111,6 +113,7 @@ import org.voltdb.jni.ExecutionEngineJNI;
 import org.voltdb.jni.MockExecutionEngine;
 import org.voltdb.messaging.FastDeserializer;
 import org.voltdb.messaging.FastSerializer;
+import org.voltdb.types.IdleStrategyType;
 import org.voltdb.types.SpecExecSchedulerPolicyType;
 import org.voltdb.types.SpeculationConflictCheckerType;
 import org.voltdb.types.SpeculationType;
@@ -374,6 +377,25 @@ public class PartitionExecutor implements Runnable, Configurable, Shutdownable {
      */
     private final PartitionMessageQueue work_queue;
 
+    /**
+     * The messages that we drained from the work_queue as a single batch but have not
+     * processed yet. We have to finish all of these before we go back to the work_queue.
+     * See ${site.exec_work_batch_size}
+     */
+    private final ArrayDeque<InternalMessage> work_batch = new ArrayDeque<InternalMessage>();
+
+    /**
+     * What we do when we don't have anything to execute.
+     * See ${site.exec_idle_strategy}
+     */
+    private IdleStrategyType idleStrategy = IdleStrategyType.BLOCK;
+
+    /**
+     * The number of times in a row that we have checked our queues
+     * and not found anything to do.
+     */
+    private int idleIterations = 0;
+
     // ----------------------------------------------------------------------------
     // Internal Execution State
     // ----------------------------------------------------------------------------
@@ -1055,7 +1077,9 @@ public class PartitionExecutor implements Runnable, Configurable, Shutdownable {
         this.self.setName(HStoreThreadManager.getThreadName(this.hstore_site, this.partitionId));
         
         this.hstore_coordinator = hstore_site.getCoordinator();
-        this.hstore_site.getThreadManager().registerEEThread(partition);
+        boolean pinned = this.hstore_site.getThreadManager().registerEEThread(partition);
+        this.idleStrategy = getIdleStrategy(this.partitionId, hstore_conf.site.exec_idle_strategy, pinned,
+                                            hstore_conf.site.cpu_affinity_one_partition_per_core);
         this.shutdown_latch = new Semaphore(0);
         this.shutdown_state = ShutdownState.STARTED;
         if (hstore_conf.site.exec_profiling) profiler.start_time = System.currentTimeMillis();
@@ -1095,7 +1119,7 @@ public class PartitionExecutor implements Runnable, Configurable, Shutdownable {
                 // txn that will have our lock.
                 // Aaron 5.28.14 - if work queue has work, it could be reconfiguration 
                 // related, so use that first.
-                if (this.currentDtxn == null && this.work_queue.isEmpty()) {
+                if (this.currentDtxn == null && this.work_batch.isEmpty() && this.work_queue.isEmpty()) {
                     this.tick();
 
                     if (hstore_conf.site.exec_profiling)
@@ -1142,6 +1166,11 @@ public class PartitionExecutor implements Runnable, Configurable, Shutdownable {
                 // Poll Work Queue
                 // -------------------------------
 
+                // Check if we have anything left over from our last batch
+                if (nextWork == null) {
+                    nextWork = this.work_batch.poll();
+                }
+                
                 // Check if we have anything to do right now
                 if (nextWork == null) {
                     if (hstore_conf.site.exec_profiling)
@@ -1153,7 +1182,14 @@ public class PartitionExecutor implements Runnable, Configurable, Shutdownable {
                         if (hstore_conf.site.specexec_enable && this.lockQueue.approximateIsEmpty() == false) {
                             nextWork = this.work_queue.poll();
                         } else {
-                            nextWork = this.work_queue.poll(WORK_QUEUE_POLL_TIME, WORK_QUEUE_POLL_TIMEUNIT);    
+                            nextWork = this.pollWorkQueue();
+                        }
+                        // If there is more work waiting for us, then we will grab it all
+                        // at once so that we don't have to come back here for each message
+                        // The reconfiguration code looks at our work_queue from other threads, so
+                        // we can't hide any messages from it while a reconfiguration is running.
+                        if (nextWork != null && hstore_conf.site.exec_work_batch_size > 1 && this.inReconfiguration == false) {
+                            this.work_queue.drainTo(this.work_batch, hstore_conf.site.exec_work_batch_size - 1);
                         }
                     } catch (InterruptedException ex) {
                         continue;
@@ -1167,6 +1203,10 @@ public class PartitionExecutor implements Runnable, Configurable, Shutdownable {
                 // Process Work
                 // -------------------------------
                 if (nextWork != null) {
+                    if (this.idleIterations != 0) this.stopIdle();
+                    if (nextWork instanceof WorkFragmentMessage && this.work_batch.isEmpty() == false) {
+                        this.coalesceWorkFragments((WorkFragmentMessage)nextWork);
+                    }
                     if (trace.val)
                         LOG.trace("Next Work: " + nextWork);
                     if (hstore_conf.site.exec_profiling) {
@@ -1234,6 +1274,86 @@ public class PartitionExecutor implements Runnable, Configurable, Shutdownable {
         }
     }
 
+    /**
+     * Returns the IdleStrategyType that a PartitionExecutor should use for the given 
+     * ${site.exec_idle_strategy} name. An invalid name will use BLOCK. SPIN will fall
+     * back to HYBRID unless the PartitionExecutor's thread was pinned and each
+     * partition has its own core, since we can't spin forever unless we know that 
+     * nobody else needs our core.
+     * @param partition
+     * @param name
+     * @param pinned Whether the PartitionExecutor's thread was pinned to a CPU core
+     * @param onePartitionPerCore ${site.cpu_affinity_one_partition_per_core}
+     */
+    protected static IdleStrategyType getIdleStrategy(int partition, String name, boolean pinned, boolean onePartitionPerCore) {
+        IdleStrategyType idleStrategy = (name != null ? IdleStrategyType.get(name) : null);
+        if (idleStrategy == null) {
+            LOG.warn(String.format("Invalid %s '%s'. Using %s instead",
+                     IdleStrategyType.class.getSimpleName(), name, IdleStrategyType.BLOCK));
+            idleStrategy = IdleStrategyType.BLOCK;
+        }
+        else if (idleStrategy == IdleStrategyType.SPIN && (pinned == false || onePartitionPerCore == false)) {
+            LOG.warn(String.format("Partition %d is not pinned to its own CPU core. Using %s %s instead of %s",
+                     partition, IdleStrategyType.HYBRID, IdleStrategyType.class.getSimpleName(),
+                     IdleStrategyType.SPIN));
+            idleStrategy = IdleStrategyType.HYBRID;
+        }
+        return (idleStrategy);
+    }
+    
+    /**
+     * Get the next message from our work queue when we don't have anything else to do.
+     * How long we will wait for something to show up depends on our IdleStrategyType.
+     * Unless we are supposed to block, this will return right away so that the run loop
+     * can check our lock queue again without having to wait for the thread to wake up.
+     * @return
+     * @throws InterruptedException
+     */
+    private InternalMessage pollWorkQueue() throws InterruptedException {
+        InternalMessage msg = null;
+        boolean spinning = true;
+        switch (this.idleStrategy) {
+            case SPIN:
+                msg = this.work_queue.poll();
+                break;
+            case YIELD:
+            case HYBRID:
+                if (this.idleIterations < hstore_conf.site.exec_idle_spin_count) {
+                    msg = this.work_queue.poll();
+                }
+                else if (this.idleStrategy == IdleStrategyType.YIELD ||
+                         this.idleIterations < hstore_conf.site.exec_idle_spin_count + hstore_conf.site.exec_idle_yield_count) {
+                    msg = this.work_queue.poll();
+                    if (msg == null) Thread.yield();
+                }
+                else {
+                    spinning = false;
+                    if (hstore_conf.site.exec_profiling) profiler.spin_time.stopIfStarted();
+                    msg = this.work_queue.poll(WORK_QUEUE_POLL_TIME, WORK_QUEUE_POLL_TIMEUNIT);
+                }
+                break;
+            default:
+                spinning = false;
+                msg = this.work_queue.poll(WORK_QUEUE_POLL_TIME, WORK_QUEUE_POLL_TIMEUNIT);
+        } // SWITCH
+        
+        if (msg == null) {
+            if (spinning && this.idleIterations == 0 && hstore_conf.site.exec_profiling) {
+                profiler.spin_time.start();
+            }
+            if (this.idleIterations < Integer.MAX_VALUE) this.idleIterations++;
+        }
+        return (msg);
+    }
+    
+    /**
+     * We found something to do, so we are no longer idle.
+     */
+    private void stopIdle() {
+        this.idleIterations = 0;
+        if (hstore_conf.site.exec_profiling) profiler.spin_time.stopIfStarted();
+    }
+
     /**
      * Special function that allows us to do some utility work while we are
      * waiting for a response or something real to do. Note: this tracks how
@@ -1695,6 +1815,17 @@ public class PartitionExecutor implements Runnable, Configurable, Shutdownable {
         // Start Transaction
         // -------------------------------
         if (work instanceof StartTxnMessage) {
+            // A txn that took the queue fast path could have been added to our work queue
+            // right before a dtxn got the lock for this partition. We can't speculatively
+            // execute it because the SpecExecScheduler never saw it, so it has to wait
+            // until the dtxn finishes.
+            if (this.currentDtxn != null && ((LocalTransaction)ts).isFastPath()) {
+                if (debug.val)
+                    LOG.debug(String.format("%s - Blocking fast path %s until dtxn finishes",
+                              this.currentDtxn, ts));
+                this.blockTransaction((LocalTransaction)ts);
+                return;
+            }
             if (hstore_conf.site.specexec_enable && ts.isPredictSinglePartition())
                 this.specExecScheduler.reset();
             if (hstore_conf.site.exec_profiling)
@@ -1712,6 +1843,7 @@ public class PartitionExecutor implements Runnable, Configurable, Shutdownable {
         else if (work instanceof WorkFragmentMessage) {
             WorkFragment fragment = ((WorkFragmentMessage) work).getFragment();
             assert (fragment != null);
+            ((WorkFragmentMessage) work).markProcessed();
 
             // HACK HACK HACK
             if (ts.isInitialized() == false) {
@@ -1801,6 +1933,14 @@ public class PartitionExecutor implements Runnable, Configurable, Shutdownable {
     // DATA MEMBER METHODS
     // ----------------------------------------------------------------------------
 
+    /**
+     * Returns true if there is a distributed transaction running at this partition.
+     * This is not synchronized, so any other thread can only use it as a hint.
+     */
+    public boolean hasCurrentDtxn() {
+        return (this.currentDtxn != null);
+    }
+
     public final ExecutionEngine getExecutionEngine() {
         return (this.ee);
     }
@@ -2056,6 +2196,12 @@ public class PartitionExecutor implements Runnable, Configurable, Shutdownable {
         this.setExecutionMode(this.currentTxn, ExecutionMode.DISABLED_REJECT);
         List<InternalMessage> toKeep = new ArrayList<InternalMessage>();
         InternalMessage msg = null;
+        // Put back anything that we have drained but not processed yet. We can only
+        // do this if we are being invoked from our own thread.
+        if (Thread.currentThread() == this.self && this.work_batch.isEmpty() == false) {
+            this.work_queue.addAll(this.work_batch);
+            this.work_batch.clear();
+        }
         while ((msg = this.work_queue.poll()) != null) {
             // -------------------------------
             // StartTxnMessage
@@ -2780,7 +2926,7 @@ public class PartitionExecutor implements Runnable, Configurable, Shutdownable {
             // current distributed transaction commits
             if (status != Status.OK && ts.isExecReadOnly(this.partitionId) == false) {
                 this.setExecutionMode(ts, ExecutionMode.DISABLED);
-                int blocked = this.work_queue.drainTo(this.currentBlockedTxns);
+                int blocked = blockQueuedWork(this.work_batch, this.work_queue, this.currentBlockedTxns);
                 if (debug.val) {
                     if (trace.val && blocked > 0)
                         LOG.trace(String.format("Blocking %d transactions at partition %d because ExecutionMode is now %s", blocked, this.partitionId, this.currentExecMode));
@@ -2873,6 +3019,101 @@ public class PartitionExecutor implements Runnable, Configurable, Shutdownable {
         return (false);
     }
 
+    /**
+     * Move all of the messages that we have drained from our work queue but not
+     * processed yet, and then everything that is still in the work queue, into 
+     * the given list of blocked messages. The leftover batch has to go first since
+     * those messages came out of the queue before the ones that are still in it.
+     * Returns the number of messages that were blocked.
+     * @param batch
+     * @param queue
+     * @param blocked
+     */
+    protected static int blockQueuedWork(Queue<InternalMessage> batch,
+                                         BlockingQueue<InternalMessage> queue,
+                                         Collection<InternalMessage> blocked) {
+        int count = batch.size();
+        blocked.addAll(batch);
+        batch.clear();
+        count += queue.drainTo(blocked);
+        return (count);
+    }
+    
+    /**
+     * Merge any WorkFragmentMessages for the same txn that are right after the given
+     * message in our current work batch into that message's WorkFragment. This lets us
+     * execute all of them with a single call into the EE.
+     * @param work
+     */
+    private void coalesceWorkFragments(WorkFragmentMessage work) {
+        AbstractTransaction ts = work.getTransaction();
+        WorkFragment fragment = work.getFragment();
+        
+        WorkFragment.Builder builder = null;
+        int numMerged = 0;
+        while (this.work_batch.peekFirst() instanceof WorkFragmentMessage) {
+            WorkFragmentMessage next = (WorkFragmentMessage)this.work_batch.peekFirst();
+            if (next.getTransaction() != ts) break;
+            WorkFragment nextFragment = next.getFragment();
+            if (canCoalesce(fragment, (builder != null ? builder.getOutputDepIdList() : fragment.getOutputDepIdList()), nextFragment) == false) break;
+            
+            if (builder == null) builder = WorkFragment.newBuilder(fragment);
+            coalesceWorkFragment(builder, nextFragment);
+            this.work_batch.pollFirst();
+            next.markProcessed();
+            numMerged++;
+        } // WHILE
+        
+        if (builder != null) {
+            if (debug.val)
+                LOG.debug(String.format("%s - Coalesced %d WorkFragments into a single WorkFragment " +
+                          "with %d fragments at partition %d",
+                          ts, numMerged+1, builder.getFragmentIdCount(), this.partitionId));
+            work.setFragment(builder.build());
+        }
+    }
+    
+    /**
+     * Returns true if the next WorkFragment for a txn can be merged into the one before it.
+     * We only merge WorkFragments that do not need the output of the fragments that come
+     * before them and that have the same prefetch/force flags, since those determine how
+     * we execute the fragment and where we send its results.
+     * @param fragment The first WorkFragment that we are merging into
+     * @param outputDepIds The output DependencyIds of everything merged so far
+     * @param next
+     */
+    protected static boolean canCoalesce(WorkFragment fragment, List<Integer> outputDepIds, WorkFragment next) {
+        if (fragment.getPrefetch() || next.getPrefetch()) return (false);
+        if (fragment.getForce() != next.getForce()) return (false);
+        for (int i = 0, cnt = next.getInputDepIdCount(); i < cnt; i++) {
+            if (outputDepIds.contains(next.getInputDepId(i))) {
+                return (false);
+            }
+        } // FOR
+        return (true);
+    }
+    
+    /**
+     * Append the PlanFragments in the next WorkFragment to the given builder.
+     * We only merge the per-fragment fields. We don't use mergeFrom() because
+     * that would also merge the next fragment's future_statements estimate
+     * into ours, and we only want to keep the first fragment's estimate.
+     * @param builder
+     * @param next
+     */
+    protected static void coalesceWorkFragment(WorkFragment.Builder builder, WorkFragment next) {
+        builder.addAllFragmentId(next.getFragmentIdList())
+               .addAllInputDepId(next.getInputDepIdList())
+               .addAllOutputDepId(next.getOutputDepIdList())
+               .addAllParamIndex(next.getParamIndexList())
+               .addAllStmtCounter(next.getStmtCounterList())
+               .addAllStmtIndex(next.getStmtIndexList())
+               .addAllStmtIgnore(next.getStmtIgnoreList())
+               .setReadOnly(builder.getReadOnly() && next.getReadOnly())
+               .setNeedsInput(builder.getNeedsInput() || next.getNeedsInput())
+               .setLastFragment(builder.getLastFragment() || next.getLastFragment());
+    }
+
     /**
      * Process a WorkFragment for a transaction and execute it in this partition's underlying EE. 
      * @param ts
@@ -2,16 +2,18 @@ package edu.brown.hstore;
 
 import java.util.LinkedHashMap;
 import java.util.Map;
-import java.util.concurrent.PriorityBlockingQueue;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.locks.Condition;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
 
 import org.apache.log4j.Logger;
 import org.voltdb.TransactionIdManager;
 
 import edu.brown.hstore.conf.HStoreConf;
+import edu.brown.hstore.specexec.SpecExecCandidateIndex;
 import edu.brown.hstore.txns.AbstractTransaction;
+import edu.brown.hstore.util.ConcurrentOrderedQueue;
 import edu.brown.hstore.util.ThrottlingQueue;
 import edu.brown.interfaces.DebugContext;
 import edu.brown.logging.LoggerUtil;
@@ -31,6 +33,12 @@ import edu.brown.utils.StringUtil;
  *
  * <p>This class manages all that state.</p>
  * 
+ * <p>The queue does not use any locks. Any number of threads can insert
+ * or remove txns at the same time, but only a single consumer thread
+ * (i.e., the partition's PartitionExecutor) is allowed to poll/take. The
+ * queue state is recomputed by whichever thread wins the right to do so;
+ * any other thread that needs the state updated at the same time just leaves
+ * a note for the winner to check the queue again before it finishes.</p>
  */
 public class PartitionLockQueue extends ThrottlingQueue<AbstractTransaction> {
     protected static final Logger LOG = Logger.getLogger(PartitionLockQueue.class);
@@ -62,31 +70,63 @@ public class PartitionLockQueue extends ThrottlingQueue<AbstractTransaction> {
     // ----------------------------------------------------------------------------
 
     private final int partitionId;
-    private int maxWaitTime;
+    private volatile int maxWaitTime;
     
-    private final ReentrantLock lock = new ReentrantLock(true);
-    private final Condition isReady = lock.newCondition();
+    /**
+     * Only the thread that sets this flag is allowed to run checkQueueState()
+     */
+    private final AtomicBoolean checking = new AtomicBoolean(false);
+    
+    /**
+     * Set by any thread that needs the queue state to be recomputed. 
+     * If another thread is already in checkQueueState(), then it will
+     * go back and check the queue again before it releases the checking flag.
+     */
+    private volatile boolean checkPending = false;
+    private final AtomicBoolean checkPendingAfterRemoval = new AtomicBoolean(false);
+    
+    /**
+     * The consumer thread that is currently parked in take()
+     */
+    private volatile Thread waiter = null;
     
     /**
      * This is the timestamp (in milliseconds) when we can unblock
      * the next transaction in the queue.
-     * <B>Note:</B> Do not manipulate this outside of a synchronized block.
+     * <B>Note:</B> Only checkQueueState() is allowed to change this.
      */
-    private long blockTimestamp = NULL_BLOCK_TIMESTAMP;
+    private volatile long blockTimestamp = NULL_BLOCK_TIMESTAMP;
 
     /**
      * The current state of the queue
-     * <B>Note:</B> Do not manipulate this outside of a synchronized block.
+     * <B>Note:</B> Only checkQueueState() and noteTransactionRecievedAndReturnLastSafeTxnId()
+     * are allowed to change this.
      */
-    private QueueState state = QueueState.BLOCKED_EMPTY;
+    private volatile QueueState state = QueueState.BLOCKED_EMPTY;
     
     private long txnsPopped = 0;
-    private Long lastSeenTxnId = -1l;
-    private Long lastSafeTxnId = -1l;
-    private Long lastTxnPopped = -1l;
+    private volatile Long lastSeenTxnId = -1l;
+    private final AtomicLong lastSafeTxnId = new AtomicLong(-1l);
+    
+    /**
+     * The consumer always writes this before it checks lastSafeTxnId, and
+     * noteTransactionRecievedAndReturnLastSafeTxnId() always reads this after it 
+     * lowers lastSafeTxnId. That way at least one of them will see the other
+     * and we'll never pop a txn while a smaller txn is being inserted.
+     * This is also written by claimTransactionId() from other threads, so 
+     * every update is a compareAndSet. That way the consumer can never
+     * roll back a txnId that was claimed for the fast path.
+     */
+    private final AtomicLong lastTxnPopped = new AtomicLong(-1l);
     
     private final PartitionLockQueueProfiler profiler;
     
+    /**
+     * Index of the txns in this queue that could be speculatively executed.
+     * This will be null if ${site.specexec_candidate_index} is disabled.
+     */
+    private final SpecExecCandidateIndex candidateIndex;
+    
     // ----------------------------------------------------------------------------
     // INITIALIZATION
     // ----------------------------------------------------------------------------
@@ -100,16 +140,19 @@ public class PartitionLockQueue extends ThrottlingQueue<AbstractTransaction> {
      * @param hstore_site
      */
     public PartitionLockQueue(int partitionId, int maxWaitTime, int throttle_threshold, double throttle_release) {
-        super(new PriorityBlockingQueue<AbstractTransaction>(), throttle_threshold, throttle_release);
+        super(new ConcurrentOrderedQueue<AbstractTransaction>(), throttle_threshold, throttle_release);
         
         this.partitionId = partitionId;
         this.maxWaitTime = maxWaitTime;
         
         if (HStoreConf.singleton().site.queue_profiling) {
             this.profiler = new PartitionLockQueueProfiler();
+            this.profiler.currentWaitTime = maxWaitTime;
         } else {
             this.profiler = null;
         }
+        this.candidateIndex = (HStoreConf.singleton().site.specexec_candidate_index ?
+                                    new SpecExecCandidateIndex() : null);
     }
     
     // ----------------------------------------------------------------------------
@@ -130,7 +173,39 @@ public class PartitionLockQueue extends ThrottlingQueue<AbstractTransaction> {
     }
     
     public Long getLastTransactionId() {
-        return (this.lastTxnPopped);
+        return (this.lastTxnPopped.get());
+    }
+    
+    /**
+     * Return the index of speculative execution candidates for this queue.
+     * Returns null if the index is not enabled.
+     */
+    public SpecExecCandidateIndex getCandidateIndex() {
+        return (this.candidateIndex);
+    }
+    
+    /**
+     * Get the amount of time in milliseconds that we will wait
+     * before we release the next txn in the queue.
+     * @return
+     */
+    public int getMaxWaitTime() {
+        return (this.maxWaitTime);
+    }
+    
+    /**
+     * Change the amount of time in milliseconds that we will wait before 
+     * we release the next txn in the queue. This will not change the
+     * block time of the txn at the front of the queue.
+     * It is safe to call this from any thread.
+     * @param maxWaitTime
+     */
+    public void setMaxWaitTime(int maxWaitTime) {
+        assert(maxWaitTime >= 0);
+        if (debug.val && maxWaitTime != this.maxWaitTime)
+            LOG.debug(String.format("Partition %d :: SET maxWaitTime = %d", this.partitionId, maxWaitTime));
+        this.maxWaitTime = maxWaitTime;
+        if (this.profiler != null) this.profiler.currentWaitTime = maxWaitTime;
     }
     
     // ----------------------------------------------------------------------------
@@ -146,43 +221,28 @@ public class PartitionLockQueue extends ThrottlingQueue<AbstractTransaction> {
     public AbstractTransaction poll() {
         AbstractTransaction retval = null;
         
-        if (trace.val)
-            LOG.trace(String.format("Partition %d :: Attempting to acquire lock", this.partitionId));
-        this.lock.lock();
-        try {
-            if (this.state == QueueState.BLOCKED_SAFETY || this.state == QueueState.BLOCKED_ORDERING) {
-                this.checkQueueState(false);
-            }
-            if (this.state == QueueState.UNBLOCKED) {
-
-                if (this.state == QueueState.UNBLOCKED) {
-                    // 2012-12-21
-                    // So this is allow to be null because there is a race condition 
-                    // if another thread removes the txn from the queue.
-                    retval = super.poll();
-                    
-                    if (retval != null) {
-                        if (debug.val)
-                            LOG.debug(String.format("Partition %d :: poll() -> %s",
-                                      this.partitionId, retval));
-                        this.lastTxnPopped = retval.getTransactionId();
-                        this.txnsPopped++;
-                    }
-                    // call this again to prime the next txn
-                    this.checkQueueState(true);
-                }
-            }
-        } finally {
-            if (trace.val)
-                LOG.trace(String.format("Partition %d :: Releasing lock", this.partitionId));
-            this.lock.unlock();
-        } // SYNCH
+        if (this.checkPending || this.state == QueueState.BLOCKED_SAFETY || this.state == QueueState.BLOCKED_ORDERING) {
+            this.updateQueueState(false);
+        }
+        if (this.state == QueueState.UNBLOCKED) {
+            // 2012-12-21
+            // So this is allow to be null because there is a race condition 
+            // if another thread removes the txn from the queue.
+            retval = this.pop();
+            if (debug.val && retval != null)
+                LOG.debug(String.format("Partition %d :: poll() -> %s",
+                          this.partitionId, retval));
+            
+            // call this again to prime the next txn
+            this.updateQueueState(retval != null);
+        }
         return (retval);
     }
     
     /**
      * Only return transaction state objects that are ready to run.
      * This method will wait until the transaction's block time has passed.
+     * <B>Note:</B> This should only be allowed to be called by one thread.
      * @return
      * @throws InterruptedException
      */
@@ -198,98 +258,74 @@ public class PartitionLockQueue extends ThrottlingQueue<AbstractTransaction> {
         // Note that we can't simply attach ourselves to our inner queue because
         // we don't want to get back the txn right when it gets added.
         // We want to wait until the time period has passed.
-        if (trace.val)
-            LOG.trace(String.format("Partition %d :: Attempting to acquire lock", this.partitionId));
-        this.lock.lockInterruptibly();
+        // We have to register ourselves as the waiter before we look at the
+        // state so that we can't miss a wake up from another thread.
+        this.waiter = Thread.currentThread();
         try {
             if (debug.val && this.state != QueueState.UNBLOCKED)
                 LOG.debug(String.format("Partition %d :: take() -> " +
                           "Current state is %s. Blocking until ready", this.partitionId, this.state));
-            while (this.state != QueueState.UNBLOCKED) {
+            while (retval == null) {
+                if (Thread.interrupted()) throw new InterruptedException();
+                if (this.checkPending) this.updateQueueState(false);
+                
+                QueueState curState = this.state;
+                if (curState == QueueState.UNBLOCKED) {
+                    // 2012-01-06
+                    // This could be null because there is a race condition if all of the
+                    // txns are removed by another thread right before we try to
+                    // poll our queue.
+                    retval = this.pop();
+                    
+                    // Call this again to prime the next txn
+                    this.updateQueueState(retval != null);
+                    continue;
+                }
+                
                 if (trace.val)
                     LOG.trace(String.format("Partition %d :: take() -> Calculating how long to block",
                               this.partitionId));
                 
-                long waitTime = -1;
-                boolean isEmpty = (this.state == QueueState.BLOCKED_EMPTY);
-                boolean needsUpdateQueue = false;
-                
-                // If the queue isn't empty, then we need to figure out
-                // how long we should sleep for
-                if (isEmpty == false) {
+                // If we're empty, then we need to block indefinitely until we're poked
+                if (curState == QueueState.BLOCKED_EMPTY) {
+                    if (debug.val)
+                        LOG.debug(String.format("Partition %d :: take() -> " +
+                                  "Blocking because queue is empty", this.partitionId));
+                    LockSupport.park(this);
+                }
+                // Otherwise, we'll sleep until our time out and then 
+                // check the queue status for ourselves
+                else {
                     // If we're blocked because of an ordering issue (i.e., we have a new txn
                     // in the system that is less than our current head of the queue, but we 
                     // haven't inserted it yet), then we will want to wait for the full timeout
                     // period. We won't actually have to wait this long because somebody will poke
                     // us after the new txn is added to the queue.
-                    if (this.state == QueueState.BLOCKED_ORDERING) {
+                    long waitTime;
+                    if (curState == QueueState.BLOCKED_ORDERING) {
                         waitTime = this.maxWaitTime;
                     } else { 
                         waitTime = this.blockTimestamp - System.currentTimeMillis();
                     }
-                }
-                
-                try {
-                    // If we're empty, then we need to block indefinitely until we're poked
-                    if (isEmpty) {
-                        if (debug.val)
-                            LOG.debug(String.format("Partition %d :: take() -> " +
-                            		  "Blocking because queue is empty", this.partitionId));
-                        this.isReady.await();
-                    }
-                    // Otherwise, we'll sleep until our time out and then 
-                    // check the queue status for ourselves
-                    else if (waitTime > 0) {
-                        // We are going to wait for the specified time
-                        // The Condition will return true if somebody poked us, which
-                        // means that somebody changed the queue state to UNBLOCKED 
-                        // for us. If we are woken because of a timeout, then the
-                        // return status will be false, which means that we need to
-                        // queue state ourself.
+                    if (waitTime > 0) {
                         if (debug.val)
                             LOG.debug(String.format("Partition %d :: take() -> " +
                                       "Blocking for %d ms", this.partitionId, waitTime));
-                        needsUpdateQueue = (this.isReady.await(waitTime, TimeUnit.MILLISECONDS) == false);
+                        LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(waitTime));
                     }
-                    // Our txn is ready to run now, so we don't need to block
-                    else {
-                        if (debug.val)
-                            LOG.debug(String.format("Partition %d :: take() -> " +
-                                      "Ready to retrieve next txn immediately [waitTime=%d, isEmpty=%s]",
-                                      this.partitionId, waitTime, isEmpty));
-                        needsUpdateQueue = true;
-                    }
-                } catch (InterruptedException ex) {
-                    this.isReady.signal();
-                    throw ex;
                 }
                 
-                if (needsUpdateQueue) this.checkQueueState(false);
-                
+                // We could have been woken up because somebody changed the queue
+                // state, because our time out passed, or for no reason at all.
+                // So we'll always compute the new state for ourselves.
+                this.updateQueueState(false);
             } // WHILE
-            // The next txn is ready to run now!
-            assert(this.state == QueueState.UNBLOCKED);
-            retval = super.poll();
-            
-            // 2012-01-06
-            // This could be null because there is a race condition if all of the
-            // txns are removed by another thread right before we try to
-            // poll our queue.
-            if (retval != null) {
-                this.lastTxnPopped = retval.getTransactionId();
-                this.txnsPopped++;
-                
-                // Call this again to prime the next txn
-                this.checkQueueState(true);
-            }
             
             if (trace.val)
                 LOG.trace(String.format("Partition %d :: take() -> Leaving blocking section",
                           this.partitionId));
         } finally {
-            if (trace.val)
-                LOG.trace(String.format("Partition %d :: Releasing lock", this.partitionId));
-            this.lock.unlock();
+            this.waiter = null;
         }
         if (debug.val)
             LOG.debug(String.format("Partition %d :: take() -> %s",
@@ -297,6 +333,45 @@ public class PartitionLockQueue extends ThrottlingQueue<AbstractTransaction> {
         
         return (retval);
     }
+    
+    /**
+     * Remove the txn at the head of the queue if it is still safe to execute.
+     * This will return null if the txn was removed by another thread or if
+     * somebody noted a smaller txnId since we last checked the queue state.
+     * <B>Note:</B> This should only be called by the consumer thread.
+     * @return
+     */
+    private AbstractTransaction pop() {
+        AbstractTransaction ts = super.peek();
+        if (ts == null) return (null);
+        Long txnId = ts.getTransactionId();
+        if (txnId == null) return (null);
+        
+        // We have to claim this txnId before we look at lastSafeTxnId.
+        // See noteTransactionRecievedAndReturnLastSafeTxnId()
+        // If somebody claimed a txnId for the fast path in between, then 
+        // we have to go back and check whether our txn is still allowed to go.
+        long prevTxnPopped = this.lastTxnPopped.get();
+        if (this.lastTxnPopped.compareAndSet(prevTxnPopped, txnId.longValue()) == false) {
+            this.checkPending = true;
+            return (null);
+        }
+        if (txnId.longValue() > this.lastSafeTxnId.get()) {
+            if (debug.val)
+                LOG.debug(String.format("Partition %d :: txnId[%d] > lastSafeTxnId[%d] after state check",
+                          this.partitionId, txnId, this.lastSafeTxnId.get()));
+            this.lastTxnPopped.compareAndSet(txnId.longValue(), prevTxnPopped);
+            this.checkPending = true;
+            return (null);
+        }
+        if (super.remove(ts) == false) {
+            this.lastTxnPopped.compareAndSet(txnId.longValue(), prevTxnPopped);
+            return (null);
+        }
+        if (this.candidateIndex != null) this.candidateIndex.remove(ts);
+        this.txnsPopped++;
+        return (ts);
+    }
 
     /**
      * Only return transaction state objects that are ready to run.
@@ -332,19 +407,9 @@ public class PartitionLockQueue extends ThrottlingQueue<AbstractTransaction> {
         boolean retval = super.offer(ts, force);
         if (debug.val)
             LOG.debug(String.format("Partition %d :: offer(%s) -> %s", this.partitionId, ts, retval));
+        if (retval && this.candidateIndex != null) this.candidateIndex.add(ts);
 
-        if (retval) {
-            if (trace.val)
-                LOG.trace(String.format("Partition %d :: Attempting to acquire lock", this.partitionId));
-            this.lock.lock();
-            try {
-                if (retval) this.checkQueueState(false);
-            } finally {
-                if (trace.val)
-                    LOG.trace(String.format("Partition %d :: Releasing lock", this.partitionId));
-                this.lock.unlock();
-            }
-        }
+        if (retval) this.updateQueueState(false);
         return (retval);
     }
     
@@ -358,39 +423,57 @@ public class PartitionLockQueue extends ThrottlingQueue<AbstractTransaction> {
     // REMOVE METHODS
     // ----------------------------------------------------------------------------
     
+    /**
+     * Remove a transaction from the queue.
+     * It is safe to call this from any thread if you need to
+     */
     @Override
     public boolean remove(Object obj) {
         AbstractTransaction txn = (AbstractTransaction)obj;
-        boolean retval;
         
-        if (trace.val)
-            LOG.trace(String.format("Partition %d :: Attempting to acquire lock", this.partitionId));
-        this.lock.lock();
-        try {
-            // We have to check whether we are the first txn in the queue,
-            // because we will need to reset the blockTimestamp after 
-            // delete ourselves so that the next guy can get executed
-            // This is not thread-safe...
-            boolean reset = txn.equals(super.peek());
-            retval = super.remove(txn);
-            if (debug.val) {
-                LOG.debug(String.format("Partition %d :: remove(%s) -> %s", this.partitionId, txn, retval));
-                // Sanity Check
-                assert(super.contains(txn) == false) : 
-                    "Failed to remove " + txn + "???\n" + this.debug();
-            }
-            if (retval) this.checkQueueState(reset);
-        } finally {
-            if (trace.val)
-                LOG.trace(String.format("Partition %d :: Releasing lock", this.partitionId));
-            this.lock.unlock();
+        // We have to check whether we are the first txn in the queue,
+        // because we will need to reset the blockTimestamp after 
+        // delete ourselves so that the next guy can get executed
+        // This is not thread-safe...
+        boolean reset = txn.equals(super.peek());
+        boolean retval = super.remove(txn);
+        if (retval && this.candidateIndex != null) this.candidateIndex.remove(txn);
+        if (debug.val) {
+            LOG.debug(String.format("Partition %d :: remove(%s) -> %s", this.partitionId, txn, retval));
+            // Sanity Check
+            assert(super.contains(txn) == false) : 
+                "Failed to remove " + txn + "???\n" + this.debug();
         }
+        if (retval) this.updateQueueState(reset);
         return (retval);
     }
     
+    /**
+     * Claim the given txnId for a txn that is released to this partition without
+     * ever being added to the queue. This only succeeds if the queue is empty and 
+     * no txn with a larger txnId has already been released. Afterwards, any txn with
+     * a smaller txnId will be rejected by noteTransactionRecievedAndReturnLastSafeTxnId(),
+     * just as if the claimed txn had been popped from the queue.
+     * <B>Note:</B> The caller must hold the partition's lock queue barrier so that 
+     * no other txn can be inserted while we do this. The consumer does not need it.
+     * @param txnId
+     * @return true if the txn can be released to the partition
+     */
+    public boolean claimTransactionId(Long txnId) {
+        assert(txnId != null);
+        if (super.isEmpty() == false) return (false);
+        long lastPopped = this.lastTxnPopped.get();
+        if (txnId.longValue() <= lastPopped) return (false);
+        if (this.lastTxnPopped.compareAndSet(lastPopped, txnId.longValue()) == false) return (false);
+        if (debug.val)
+            LOG.debug(String.format("Partition %d :: claimTransactionId(%d)", this.partitionId, txnId));
+        return (true);
+    }
+    
     /**
      * Update the information stored about the latest transaction
      * seen from each initiator. Compute the newest safe transaction id.
+     * It is safe to call this from any thread.
      */
     public Long noteTransactionRecievedAndReturnLastSafeTxnId(Long txnId) {
         assert(txnId != null);
@@ -399,46 +482,75 @@ public class PartitionLockQueue extends ThrottlingQueue<AbstractTransaction> {
                       this.partitionId, txnId));
 
         this.lastSeenTxnId = txnId;
-        if (trace.val) {
+        if (trace.val)
             LOG.trace(String.format("Partition %d :: SET lastSeenTxnId = %d",
                       this.partitionId, this.lastSeenTxnId));
-            LOG.trace(String.format("Partition %d :: Attempting to acquire lock", this.partitionId));
-        }
-        this.lock.lock();
-        try {
-            if (this.lastTxnPopped.compareTo(txnId) > 0) {
-                if (debug.val)
-                    LOG.warn(String.format("Partition %d :: Txn ordering deadlock --> LastTxn:%d / NewTxn:%d",
-                             this.partitionId, this.lastTxnPopped, txnId));
-                return (this.lastTxnPopped);
-            }
-            
-            // We always need to check whether this new txnId is less than our next safe txnID
-            // If it is, then we know that we need to replace it.
-            if (txnId.compareTo(this.lastSafeTxnId) < 0) {
-                // 2013-01-15
-                // Instead of calling checkQueueState() here, we'll 
-                // just change the state real quickly. This should be ok because
-                // then we'll immediately insert this new txn into the queue
-                // and then update the queue state then.
-                this.state = QueueState.BLOCKED_ORDERING;
-                this.lastSafeTxnId = txnId;
+        
+        // We always need to check whether this new txnId is less than our next safe txnID
+        // If it is, then we know that we need to replace it.
+        boolean lowered = false;
+        long safeTxnId;
+        while (txnId.longValue() < (safeTxnId = this.lastSafeTxnId.get())) {
+            if (this.lastSafeTxnId.compareAndSet(safeTxnId, txnId.longValue())) {
+                lowered = true;
                 if (trace.val)
-                        LOG.trace(String.format("Partition %d :: SET lastSafeTxnId = %d",
-                                  this.partitionId, this.lastSafeTxnId));
-
-                // Since we know that we just replaced the last safeTxnId, we 
-                // need to check our queue state to update ourselves
-                // this.checkQueueState(false);
+                    LOG.trace(String.format("Partition %d :: SET lastSafeTxnId = %d",
+                              this.partitionId, txnId));
+                break;
             }
-        } finally {
-            if (trace.val)
-                LOG.trace(String.format("Partition %d :: Releasing lock", this.partitionId));
-            this.lock.unlock();
-        } // SYNCH
-        return (this.lastSafeTxnId);
+        } // WHILE
+        
+        // This has to come after we lower lastSafeTxnId. If the consumer
+        // claimed a larger txnId before we got here, then it's too late for us.
+        long lastPopped = this.lastTxnPopped.get();
+        if (lastPopped > txnId.longValue()) {
+            if (debug.val)
+                LOG.warn(String.format("Partition %d :: Txn ordering deadlock --> LastTxn:%d / NewTxn:%d",
+                         this.partitionId, lastPopped, txnId));
+            if (lowered) this.checkPending = true;
+            return (lastPopped);
+        }
+        
+        if (lowered) {
+            // 2013-01-15
+            // Instead of calling checkQueueState() here, we'll 
+            // just change the state real quickly. This should be ok because
+            // then we'll immediately insert this new txn into the queue
+            // and then update the queue state then.
+            this.state = QueueState.BLOCKED_ORDERING;
+            this.checkPending = true;
+        }
+        return (this.lastSafeTxnId.get());
     }
 
+    /**
+     * Recompute the state of the queue. If another thread is already doing
+     * this, then we'll just leave a note for it to check the queue again
+     * before it finishes and return right away.
+     * @param afterRemoval
+     * @return The current state of the queue
+     */
+    private QueueState updateQueueState(boolean afterRemoval) {
+        if (afterRemoval) this.checkPendingAfterRemoval.set(true);
+        this.checkPending = true;
+        while (this.checkPending && this.checking.compareAndSet(false, true)) {
+            try {
+                this.checkPending = false;
+                this.checkQueueState(this.checkPendingAfterRemoval.getAndSet(false));
+            } finally {
+                this.checking.set(false);
+            }
+        } // WHILE
+        return (this.state);
+    }
+    
+    /**
+     * Wake up the consumer thread if it is blocked in take()
+     */
+    private void signalWaiter() {
+        Thread t = this.waiter;
+        if (t != null) LockSupport.unpark(t);
+    }
 
     // ----------------------------------------------------------------------------
     // INTERNAL STATE CALCULATION
@@ -448,7 +560,8 @@ public class PartitionLockQueue extends ThrottlingQueue<AbstractTransaction> {
      * This is the most important method of the queue.
      * This will figure out the next state and how long we must wait until we 
      * can release the next transaction.
-     * <B>Note:</B> I believe that this is the only thing that needs to be synchronized
+     * <B>Note:</B> This must only be invoked through updateQueueState() so that
+     * only one thread is ever in here at a time.
      * @param afterRemoval If this flag is set to true, then it means that who ever is calling this method
      *                     just removed something from the queue. That means that we need to go and check
      *                     whether the lastSafeTxnId should change.
@@ -460,7 +573,8 @@ public class PartitionLockQueue extends ThrottlingQueue<AbstractTransaction> {
                       this.partitionId, afterRemoval, this.state));
         QueueState newState = (afterRemoval ? QueueState.BLOCKED_SAFETY : QueueState.UNBLOCKED);
         long currentTimestamp = -1l;
-        AbstractTransaction ts = super.peek(); // BLOCKING
+        long safeTxnId = this.lastSafeTxnId.get();
+        AbstractTransaction ts = super.peek();
         Long txnId = null;
         if (ts == null) {
 //            if (trace.val)
@@ -482,11 +596,11 @@ public class PartitionLockQueue extends ThrottlingQueue<AbstractTransaction> {
             // If this txnId is greater than the last safe one that we've seen, then we know
             // that the lastSafeTxnId has been polled. That means that we need to 
             // wait for an appropriate amount of time before we're allow to be executed.
-            if (txnId.compareTo(this.lastSafeTxnId) > 0 && afterRemoval == false) {
+            if (txnId.longValue() > safeTxnId && afterRemoval == false) {
                 newState = QueueState.BLOCKED_ORDERING;
                 if (debug.val)
                     LOG.debug(String.format("Partition %d :: txnId[%d] > lastSafeTxnId[%d]",
-                              this.partitionId, txnId, this.lastSafeTxnId));
+                              this.partitionId, txnId, safeTxnId));
             }
             // If our current block time is negative, then we know that we're the first txnId
             // that's been in the system. We'll also want to wait a bit before we're
@@ -544,7 +658,7 @@ public class PartitionLockQueue extends ThrottlingQueue<AbstractTransaction> {
                 if (this.blockTimestamp <= currentTimestamp) {
                     newState = QueueState.UNBLOCKED;
                 }
-                if (this.profiler != null && this.lastSafeTxnId.equals(txnId) == false)
+                if (this.profiler != null && safeTxnId != txnId.longValue())
                     this.profiler.waitTimes.put(newState == QueueState.UNBLOCKED ? 0 : waitTime);
                 
                 if (debug.val) {
@@ -573,16 +687,17 @@ public class PartitionLockQueue extends ThrottlingQueue<AbstractTransaction> {
         // This txn should always becomes our next safeTxnId.
         // This is essentially the next txn
         // that should be executed, but somebody *could* come along and add in 
-        // a new txn with a lower id. But that's ok because we've synchronized setting
-        // the id up above. This is actually probably the only part of this entire method
-        // that needs to be protected...
-        if (txnId != null) this.lastSafeTxnId = txnId;
+        // a new txn with a lower id. If that happened while we were in here, then
+        // we can't replace their id and we'll need to check the queue again.
+        if (txnId != null && this.lastSafeTxnId.compareAndSet(safeTxnId, txnId.longValue()) == false) {
+            this.checkPending = true;
+        }
         
         // Set the new state
         if (newState != this.state) {
             if (trace.val)
                 LOG.trace(String.format("Partition %d :: ORIG[%s]->NEW[%s] / LastSafeTxn:%d",
-                          this.partitionId, this.state, newState, this.lastSafeTxnId));
+                          this.partitionId, this.state, newState, this.lastSafeTxnId.get()));
             if (this.profiler != null) {
                 this.profiler.queueStates.get(this.state).stopIfStarted();
                 this.profiler.queueStates.get(newState).start();
@@ -592,7 +707,7 @@ public class PartitionLockQueue extends ThrottlingQueue<AbstractTransaction> {
             // Always poke anybody that is blocking on this queue.
             // The txn may not be ready to run just yet, but at least they'll be
             // able to recompute a new sleep time.
-            this.isReady.signal();
+            this.signalWaiter();
         }
         else if (this.profiler != null) {
             this.profiler.queueStates.get(this.state).restart();
@@ -628,17 +743,10 @@ public class PartitionLockQueue extends ThrottlingQueue<AbstractTransaction> {
             return (profiler);
         }
         public QueueState checkQueueState() {
-            QueueState ret = null;
-            lock.lock();
-            try {
-                ret = PartitionLockQueue.this.checkQueueState(false);
-            } finally {
-                lock.unlock();
-            }
-            return (ret);
+            return (PartitionLockQueue.this.updateQueueState(false));
         }
         protected void setMaxWaitTime(int maxWaitTime) {
-            PartitionLockQueue.this.maxWaitTime = maxWaitTime;
+            PartitionLockQueue.this.setMaxWaitTime(maxWaitTime);
         }
     }
     
@@ -664,9 +772,9 @@ public class PartitionLockQueue extends ThrottlingQueue<AbstractTransaction> {
         m[i].put("Current State", this.state);
         m[i].put("# of Elements", this.size());
         m[i].put("# of Popped", this.txnsPopped);
-        m[i].put("Last Popped Txn", this.lastTxnPopped);
+        m[i].put("Last Popped Txn", this.lastTxnPopped.get());
         m[i].put("Last Seen Txn", this.lastSeenTxnId);
-        m[i].put("Last Safe Txn", this.lastSafeTxnId);
+        m[i].put("Last Safe Txn", this.lastSafeTxnId.get());
         
         m[++i] = new LinkedHashMap<String, Object>();
         m[i].put("Throttled", super.isThrottled());
@@ -1,7 +1,20 @@
 package edu.brown.hstore;
 
-import java.util.Comparator;
-import java.util.concurrent.PriorityBlockingQueue;
+import java.util.AbstractQueue;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 
 import edu.brown.hstore.internal.AsyncDataPullRequestMessage;
 import edu.brown.hstore.internal.AsyncDataPullResponseMessage;
@@ -18,101 +31,407 @@ import edu.brown.hstore.internal.ScheduleAsyncPullRequestMessage;
 import edu.brown.hstore.internal.SetDistributedTxnMessage;
 import edu.brown.hstore.internal.WorkFragmentMessage;
 
-public class PartitionMessageQueue extends PriorityBlockingQueue<InternalMessage> {
+/**
+ * The work queue for a single PartitionExecutor.
+ * There is one lane per message class. Each transactional lane is a lock-free
+ * skip list that is sorted by txnId and then by the order that the messages were
+ * added in. Everything else goes into a lock-free FIFO queue. Neither the producers
+ * nor the executor ever take a lock unless the executor is blocked waiting for work.
+ * The next message is the smallest txnId across the heads of the transactional lanes,
+ * where ties go to the lane with the higher priority. If there are no transactional
+ * messages, then we take the oldest message from the highest non-empty lane of
+ * everything else. This gives the same order as the old comparator without ever
+ * having to walk the list of message classes.
+ */
+public class PartitionMessageQueue extends AbstractQueue<InternalMessage> implements BlockingQueue<InternalMessage> {
+
+    /**
+     * The message classes in priority order. Transactional messages
+     * always come before non-transactional messages.
+     */
+    @SuppressWarnings("unchecked")
+    private static final Class<? extends InternalMessage> COMPARE_ORDER[] = (Class<? extends InternalMessage>[])new Class<?>[]{
+        LivePullRequestMessage.class,
+        SetDistributedTxnMessage.class,
+        PrepareTxnMessage.class,
+        FinishTxnMessage.class,
+        WorkFragmentMessage.class,
+        AsyncDataPullResponseMessage.class,
+        AsyncDataPullRequestMessage.class,
+        AsyncNonChunkPushRequestMessage.class,
+        AsyncNonChunkPullRequestMessage.class,
+        MultiDataPullResponseMessage.class,
+        ScheduleAsyncPullRequestMessage.class,
+        ReconfigUtilRequestMessage.class
+    };
+
+    /**
+     * The sort key for a message in one of the transactional lanes.
+     * The sequence number keeps the messages for the same txn in the
+     * order that they were added.
+     */
+    private static final class TxnKey implements Comparable<TxnKey> {
+        private final long txnId;
+        private final long seq;
+        
+        private TxnKey(long txnId, long seq) {
+            this.txnId = txnId;
+            this.seq = seq;
+        }
+        @Override
+        public int compareTo(TxnKey other) {
+            if (this.txnId != other.txnId) {
+                return (this.txnId < other.txnId ? -1 : 1);
+            }
+            return (this.seq < other.seq ? -1 : (this.seq == other.seq ? 0 : 1));
+        }
+    }
+
+    /**
+     * The lanes for transactional messages are [0, NUM_TXN_LANES). The last of these
+     * is for any transactional message that is not in COMPARE_ORDER.
+     */
+    private static final int NUM_TXN_LANES;
+
+    /**
+     * The lanes for non-transactional messages are [NUM_TXN_LANES, NUM_LANES). The last of
+     * these is for any non-transactional message that is not in COMPARE_ORDER.
+     */
+    private static final int NUM_LANES;
+
+    /**
+     * Message Class -> Lane Offset
+     * Any class that is not in COMPARE_ORDER is added the first time that we see it.
+     */
+    private static final ConcurrentHashMap<Class<?>, Integer> LANE_OFFSETS = new ConcurrentHashMap<Class<?>, Integer>();
+
+    static {
+        List<Class<? extends InternalMessage>> txnClasses = new ArrayList<Class<? extends InternalMessage>>();
+        List<Class<? extends InternalMessage>> otherClasses = new ArrayList<Class<? extends InternalMessage>>();
+        for (Class<? extends InternalMessage> clazz : COMPARE_ORDER) {
+            if (InternalTxnMessage.class.isAssignableFrom(clazz)) {
+                txnClasses.add(clazz);
+            } else {
+                otherClasses.add(clazz);
+            }
+        } // FOR
+        int offset = 0;
+        for (Class<? extends InternalMessage> clazz : txnClasses) {
+            LANE_OFFSETS.put(clazz, offset++);
+        } // FOR
+        NUM_TXN_LANES = ++offset;
+        for (Class<? extends InternalMessage> clazz : otherClasses) {
+            LANE_OFFSETS.put(clazz, offset++);
+        } // FOR
+        NUM_LANES = ++offset;
+    }
+
+    private static int getLaneOffset(InternalMessage msg) {
+        Class<?> clazz = msg.getClass();
+        Integer offset = LANE_OFFSETS.get(clazz);
+        if (offset == null) {
+            offset = (msg instanceof InternalTxnMessage ? NUM_TXN_LANES : NUM_LANES) - 1;
+            LANE_OFFSETS.putIfAbsent(clazz, offset);
+        }
+        return (offset.intValue());
+    }
+
+    // ----------------------------------------------------------------------------
+    // INSTANCE MEMBERS
+    // ----------------------------------------------------------------------------
+
+    /**
+     * The messages for each transactional lane sorted by their txnId
+     */
+    private final ConcurrentSkipListMap<TxnKey, InternalMessage> txnLanes[];
     
-    private static final long serialVersionUID = 1L;
-//    private List<InternalMessage> swap = null;
+    /**
+     * The messages for each non-transactional lane in the order that they were added.
+     * The offset of a lane in this array is its lane offset minus NUM_TXN_LANES.
+     */
+    private final ConcurrentLinkedQueue<InternalMessage> otherLanes[];
     
+    /**
+     * The next sequence number for a message added to a transactional lane
+     */
+    private final AtomicLong nextSeq = new AtomicLong(0);
+
+    /**
+     * ConcurrentLinkedQueue.size() has to walk the entire list, so we
+     * keep our own counter of the number of messages.
+     */
+    private final AtomicInteger size = new AtomicInteger(0);
+
+    /**
+     * Blocking support for poll(timeout) + take()
+     * Producers only grab the lock if there is somebody waiting.
+     */
+    private final ReentrantLock waitLock = new ReentrantLock();
+    private final Condition notEmpty = this.waitLock.newCondition();
+    private volatile int waiting = 0;
+
+    @SuppressWarnings("unchecked")
     public PartitionMessageQueue() {
-        super(1000, WORK_COMPARATOR); // FIXME
+        this.txnLanes = (ConcurrentSkipListMap<TxnKey, InternalMessage>[])new ConcurrentSkipListMap<?, ?>[NUM_TXN_LANES];
+        for (int i = 0; i < NUM_TXN_LANES; i++) {
+            this.txnLanes[i] = new ConcurrentSkipListMap<TxnKey, InternalMessage>();
+        } // FOR
+        this.otherLanes = (ConcurrentLinkedQueue<InternalMessage>[])new ConcurrentLinkedQueue<?>[NUM_LANES - NUM_TXN_LANES];
+        for (int i = 0; i < this.otherLanes.length; i++) {
+            this.otherLanes[i] = new ConcurrentLinkedQueue<InternalMessage>();
+        } // FOR
     }
-    
-//    @Override
-//    public int drainTo(Collection<? super InternalMessage> c) {
-//        assert(c != null);
-//        InternalMessage msg = null;
-//        int ctr = 0;
-//        
-//        if (this.swap == null) {
-//            this.swap = new ArrayList<InternalMessage>();
-//        } else {
-//            this.swap.clear();
-//        }
-//        
-//        while ((msg = this.poll()) != null) {
-//            // All new transaction requests must be put in the new collection
-//            if (msg instanceof InitializeRequestMessage) {
-//                c.add(msg);
-//                ctr++;
-//            // Everything else will get added back in afterwards 
-//            } else {
-//                this.swap.add(msg);
-//            }
-//        } // WHILE
-//        if (this.swap.isEmpty() == false) this.addAll(this.swap);
-//        return (ctr);
-//    }
-    
-    private static final Comparator<InternalMessage> WORK_COMPARATOR = new Comparator<InternalMessage>() {
-        @SuppressWarnings("unchecked")
-        private final Class<? extends InternalMessage> compareOrder[] = (Class<? extends InternalMessage>[])new Class<?>[]{
-            LivePullRequestMessage.class,
-            SetDistributedTxnMessage.class,
-            PrepareTxnMessage.class,
-            FinishTxnMessage.class,
-            WorkFragmentMessage.class,
-            AsyncDataPullResponseMessage.class,
-            AsyncDataPullRequestMessage.class,
-            AsyncNonChunkPushRequestMessage.class,
-            AsyncNonChunkPullRequestMessage.class,
-            MultiDataPullResponseMessage.class,
-            ScheduleAsyncPullRequestMessage.class,
-            ReconfigUtilRequestMessage.class
-        };
-        
-        @Override
-        public int compare(InternalMessage msg0, InternalMessage msg1) {
-            assert(msg0 != null) : "Unexpected null message [msg0]";
-            assert(msg1 != null) : "Unexpected null message [msg1]";
-
-            Class<?> class0 = msg0.getClass();
-            Class<?> class1 = msg1.getClass();
-            
-            // Always compare Transaction Ids first
-            boolean isTxn0 = (msg0 instanceof InternalTxnMessage);
-            boolean isTxn1 = (msg1 instanceof InternalTxnMessage);
-            if (isTxn0 && isTxn1) {
-                // If they're both for the same txn, then use the compareOrder
-                Long txnId0 = ((InternalTxnMessage)msg0).getTransactionId();
-                assert(txnId0 != null) : "Unexpected null txnId for " + msg0;
-                Long txnId1 = ((InternalTxnMessage)msg1).getTransactionId();
-                assert(txnId1 != null) : "Unexpected null txnId for " + msg1;
-
-                // Compare TxnIds
-                int result = txnId0.compareTo(txnId1);
-                if (result != 0) return (result);
-                
-                // Rank them based on their message type
-                // This prevents us from removing a txn before it's been added 
-                if (class0.equals(class1) == false) {
-                    for (Class<? extends InternalMessage> clazz : compareOrder) {
-                        boolean isMatch0 = class0.equals(clazz);
-                        boolean isMatch1 = class1.equals(clazz);
-                        if (isMatch0 && !isMatch1) return (-1);
-                        else if (!isMatch0 && isMatch1) return (1);                    
-                    } // FOR
+
+    // ----------------------------------------------------------------------------
+    // PRODUCER METHODS
+    // ----------------------------------------------------------------------------
+
+    @Override
+    public boolean offer(InternalMessage msg) {
+        assert(msg != null) : "Unexpected null message";
+        int offset = getLaneOffset(msg);
+        if (offset < NUM_TXN_LANES) {
+            long txnId = ((InternalTxnMessage)msg).getTransactionId().longValue();
+            this.txnLanes[offset].put(new TxnKey(txnId, this.nextSeq.getAndIncrement()), msg);
+        } else {
+            this.otherLanes[offset - NUM_TXN_LANES].offer(msg);
+        }
+        this.size.incrementAndGet();
+        if (this.waiting > 0) {
+            this.waitLock.lock();
+            try {
+                this.notEmpty.signal();
+            } finally {
+                this.waitLock.unlock();
+            }
+        }
+        return (true);
+    }
+
+    @Override
+    public void put(InternalMessage msg) {
+        this.offer(msg);
+    }
+
+    @Override
+    public boolean offer(InternalMessage msg, long timeout, TimeUnit unit) {
+        return (this.offer(msg));
+    }
+
+    @Override
+    public int remainingCapacity() {
+        return (Integer.MAX_VALUE);
+    }
+
+    // ----------------------------------------------------------------------------
+    // CONSUMER METHODS
+    // ----------------------------------------------------------------------------
+
+    /**
+     * Find the lane that holds the next message in the queue.
+     * Returns -1 if the queue is empty.
+     */
+    private int nextLane() {
+        int bestLane = -1;
+        long bestTxnId = Long.MAX_VALUE;
+        for (int i = 0; i < NUM_TXN_LANES; i++) {
+            Map.Entry<TxnKey, InternalMessage> first = this.txnLanes[i].firstEntry();
+            if (first != null && (bestLane == -1 || first.getKey().txnId < bestTxnId)) {
+                bestLane = i;
+                bestTxnId = first.getKey().txnId;
+            }
+        } // FOR
+        if (bestLane == -1) {
+            for (int i = 0; i < this.otherLanes.length; i++) {
+                if (this.otherLanes[i].isEmpty() == false) {
+                    return (NUM_TXN_LANES + i);
                 }
+            } // FOR
+        }
+        return (bestLane);
+    }
+
+    @Override
+    public InternalMessage poll() {
+        while (this.size.get() > 0) {
+            int offset = this.nextLane();
+            if (offset == -1) break;
+            InternalMessage msg = null;
+            if (offset < NUM_TXN_LANES) {
+                Map.Entry<TxnKey, InternalMessage> first = this.txnLanes[offset].pollFirstEntry();
+                if (first != null) msg = first.getValue();
+            } else {
+                msg = this.otherLanes[offset - NUM_TXN_LANES].poll();
             }
-            else if (isTxn0) {
-                return (-1); 
-            } else if (isTxn1) {
-                return (1);
+            if (msg != null) {
+                this.size.decrementAndGet();
+                return (msg);
+            }
+            // Another thread removed the message before we could get it, so
+            // we have to go look for the next one again
+        } // WHILE
+        return (null);
+    }
+
+    @Override
+    public InternalMessage peek() {
+        while (this.size.get() > 0) {
+            int offset = this.nextLane();
+            if (offset == -1) break;
+            InternalMessage msg = null;
+            if (offset < NUM_TXN_LANES) {
+                Map.Entry<TxnKey, InternalMessage> first = this.txnLanes[offset].firstEntry();
+                if (first != null) msg = first.getValue();
+            } else {
+                msg = this.otherLanes[offset - NUM_TXN_LANES].peek();
+            }
+            if (msg != null) return (msg);
+        } // WHILE
+        return (null);
+    }
+
+    @Override
+    public InternalMessage poll(long timeout, TimeUnit unit) throws InterruptedException {
+        InternalMessage msg = this.poll();
+        if (msg != null) return (msg);
+
+        long nanos = unit.toNanos(timeout);
+        this.waitLock.lockInterruptibly();
+        try {
+            this.waiting++;
+            try {
+                while ((msg = this.poll()) == null) {
+                    if (nanos <= 0) break;
+                    nanos = this.notEmpty.awaitNanos(nanos);
+                } // WHILE
+            } finally {
+                this.waiting--;
             }
+        } finally {
+            this.waitLock.unlock();
+        }
+        return (msg);
+    }
+
+    @Override
+    public InternalMessage take() throws InterruptedException {
+        InternalMessage msg = this.poll();
+        if (msg != null) return (msg);
 
-            // Last Resort: Just use hashCode
-            return msg0.hashCode() - msg1.hashCode();
+        this.waitLock.lockInterruptibly();
+        try {
+            this.waiting++;
+            try {
+                while ((msg = this.poll()) == null) {
+                    this.notEmpty.await();
+                } // WHILE
+            } finally {
+                this.waiting--;
+            }
+        } finally {
+            this.waitLock.unlock();
         }
-    };
+        return (msg);
+    }
+
+    @Override
+    public int drainTo(Collection<? super InternalMessage> c) {
+        return (this.drainTo(c, Integer.MAX_VALUE));
+    }
 
+    @Override
+    public int drainTo(Collection<? super InternalMessage> c, int maxElements) {
+        if (c == this) throw new IllegalArgumentException();
+        int ctr = 0;
+        InternalMessage msg = null;
+        while (ctr < maxElements && (msg = this.poll()) != null) {
+            c.add(msg);
+            ctr++;
+        } // WHILE
+        return (ctr);
+    }
+
+    @Override
+    public boolean remove(Object o) {
+        if ((o instanceof InternalMessage) == false) return (false);
+        int offset = getLaneOffset((InternalMessage)o);
+        boolean ret = false;
+        if (offset < NUM_TXN_LANES) {
+            ConcurrentSkipListMap<TxnKey, InternalMessage> lane = this.txnLanes[offset];
+            for (Map.Entry<TxnKey, InternalMessage> e : lane.entrySet()) {
+                if (e.getValue() == o) {
+                    ret = lane.remove(e.getKey(), o);
+                    break;
+                }
+            } // FOR
+        } else {
+            ret = this.otherLanes[offset - NUM_TXN_LANES].remove(o);
+        }
+        if (ret) this.size.decrementAndGet();
+        return (ret);
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        if ((o instanceof InternalMessage) == false) return (false);
+        int offset = getLaneOffset((InternalMessage)o);
+        if (offset < NUM_TXN_LANES) {
+            return (this.txnLanes[offset].containsValue(o));
+        }
+        return (this.otherLanes[offset - NUM_TXN_LANES].contains(o));
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return (this.size.get() == 0);
+    }
+
+    @Override
+    public int size() {
+        return (Math.max(0, this.size.get()));
+    }
+
+    @Override
+    public void clear() {
+        while (this.poll() != null) {
+            // Nothing to do...
+        } // WHILE
+    }
+
+    /**
+     * Returns an iterator over a snapshot of the messages in the queue
+     * at the time that this method was invoked. Just like PriorityBlockingQueue,
+     * the messages are not returned in any particular order.
+     * Removing a message through the iterator will remove it from this queue.
+     */
+    @Override
+    public Iterator<InternalMessage> iterator() {
+        final List<InternalMessage> snapshot = new ArrayList<InternalMessage>(this.size());
+        for (int i = 0; i < NUM_TXN_LANES; i++) {
+            snapshot.addAll(this.txnLanes[i].values());
+        } // FOR
+        for (int i = 0; i < this.otherLanes.length; i++) {
+            snapshot.addAll(this.otherLanes[i]);
+        } // FOR
+        return new Iterator<InternalMessage>() {
+            private final Iterator<InternalMessage> it = snapshot.iterator();
+            private InternalMessage last = null;
+            @Override
+            public boolean hasNext() {
+                return (this.it.hasNext());
+            }
+            @Override
+            public InternalMessage next() {
+                this.last = this.it.next();
+                return (this.last);
+            }
+            @Override
+            public void remove() {
+                if (this.last == null) throw new IllegalStateException();
+                PartitionMessageQueue.this.remove(this.last);
+                this.last = null;
+            }
+        };
+    }
 
 }
@@ -12,6 +12,7 @@ import org.voltdb.types.SpeculationType;
 import edu.brown.hstore.conf.HStoreConf;
 import edu.brown.hstore.estimators.EstimatorState;
 import edu.brown.hstore.internal.InternalMessage;
+import edu.brown.hstore.specexec.SpecExecCandidateIndex;
 import edu.brown.hstore.specexec.checkers.AbstractConflictChecker;
 import edu.brown.hstore.txns.AbstractTransaction;
 import edu.brown.hstore.txns.LocalTransaction;
@@ -320,6 +321,33 @@ public class SpecExecScheduler implements Configurable {
             }
         }
         
+        // OPTIMIZATION: If the queue keeps an index of its candidates, then we only
+        // need to check each Procedure once instead of every txn in the queue.
+        // This only works if we want the first match and the checker doesn't care
+        // about anything other than the candidate's Procedure.
+        SpecExecCandidateIndex index = this.queue.getCandidateIndex();
+        if (index != null &&
+                this.policyType == SpecExecSchedulerPolicyType.FIRST &&
+                this.checker.isProcedureGranularity()) {
+            if (profiler != null) {
+                profiler.queue_size.put(this.queue.size());
+                profiler.search_time.start();
+            }
+            LocalTransaction next = this.nextFromIndex(index, dtxn, specType, profiler);
+            if (profiler != null) {
+                profiler.search_time.stop();
+                if (next != null) {
+                    this.profilerExecuteCounter.put(specType.ordinal());
+                    profiler.success++;
+                }
+                profiler.total_time.stop();
+            }
+            this.lastDtxn = dtxn;
+            this.lastSpecType = specType;
+            this.lastIterator = null;
+            return (next);
+        }
+        
         // Now peek in the queue looking for single-partition txns that do not
         // conflict with the current dtxn
         LocalTransaction next = null;
@@ -340,6 +368,7 @@ public class SpecExecScheduler implements Configurable {
         boolean resetIterator = true;
         if (profiler != null) profiler.queue_size.put(this.queue.size());
         boolean lastHasNext;
+        if (profiler != null) profiler.search_time.start();
         if (trace.val) LOG.trace(StringUtil.header("BEGIN QUEUE CHECK :: " + dtxn));
         while ((lastHasNext = this.lastIterator.hasNext()) == true) {
             if (this.interrupted && was_interrupted == false) {
@@ -449,6 +478,7 @@ public class SpecExecScheduler implements Configurable {
         } // WHILE
         if (trace.val) LOG.trace(StringUtil.header("END QUEUE CHECK"));
         if (profiler != null) {
+            profiler.search_time.stop();
             profiler.num_comparisons.put(txn_ctr);
             profiler.num_matches.put(matched_ctr);
         }
@@ -466,6 +496,7 @@ public class SpecExecScheduler implements Configurable {
             }
             if (this.policyType == SpecExecSchedulerPolicyType.FIRST) {
                 this.lastIterator.remove();
+                if (index != null) index.remove(next);
             } else {
                 this.queue.remove(next);
             }
@@ -493,6 +524,102 @@ public class SpecExecScheduler implements Configurable {
         return (next);
     }
     
+    /**
+     * Find the oldest txn in the SpecExecCandidateIndex that does not conflict
+     * with the current dtxn. We only need to examine the first txn in each
+     * Procedure's bucket, and we can skip any bucket whose first txn is newer
+     * than the best match that we've found so far.
+     * If we find one, it will be removed from the queue and returned.
+     * @param index
+     * @param dtxn
+     * @param specType
+     * @param profiler
+     * @return
+     */
+    private LocalTransaction nextFromIndex(SpecExecCandidateIndex index,
+                                           AbstractTransaction dtxn,
+                                           SpeculationType specType,
+                                           SpecExecProfiler profiler) {
+        boolean checkConflicts;
+        switch (specType) {
+            // We can execute anything when we are in SP3 (i.e., 2PC) or IDLE
+            // For SP2, we can execute anything if the txn has not
+            // executed a query at this partition.
+            case IDLE:
+            case SP2_REMOTE_BEFORE:
+            case SP3_LOCAL:
+            case SP3_REMOTE:
+                checkConflicts = false;
+                break;
+            // Otherwise we have to use the ConflictChecker
+            case SP1_LOCAL:
+            case SP2_REMOTE_AFTER:
+                checkConflicts = true;
+                break;
+            // BUSTED!
+            default:
+                String msg = String.format("Unexpected %s.%s", specType.getClass().getSimpleName(), specType);
+                throw new RuntimeException(msg);
+        } // SWITCH
+        
+        int bucket_ctr = 0;
+        int matched_ctr = 0;
+        boolean was_interrupted = false;
+        try {
+            while (true) {
+                LocalTransaction next = null;
+                for (SpecExecCandidateIndex.Bucket bucket : index.getBuckets()) {
+                    if (this.interrupted && was_interrupted == false) {
+                        if (debug.val)
+                            LOG.warn(String.format("Search interrupted after %d examinations [%s]",
+                                     bucket_ctr, this.latchMsg.getSimpleName()));
+                        if (profiler != null) profiler.interrupts++;
+                        was_interrupted = true;
+                        if (this.ignore_interrupts == false) return (null);
+                    }
+                    
+                    LocalTransaction candidate = bucket.first();
+                    if (candidate == null) continue;
+                    if (next != null && candidate.compareTo(next) > 0) continue;
+                    bucket_ctr++;
+                    
+                    if (checkConflicts) {
+                        if (profiler != null) profiler.compute_time.start();
+                        try {
+                            if (this.checker.hasConflictBefore(dtxn, candidate, this.partitionId)) {
+                                if (debug.val)
+                                    LOG.debug(String.format("Skipping %s because it conflicts with current transaction",
+                                              bucket.getProcedure().getName()));
+                                continue;
+                            }
+                        } finally {
+                            if (profiler != null) profiler.compute_time.stop();
+                        }
+                    }
+                    matched_ctr++;
+                    next = candidate;
+                } // FOR
+                if (next == null) break;
+                
+                // The index may have txns that were already removed from the queue
+                // without it knowing, so we have to make sure that we actually got it
+                if (this.queue.remove(next)) {
+                    next.markReleased(this.partitionId);
+                    if (debug.val)
+                        LOG.debug(dtxn + " - Found next non-conflicting speculative txn " + next);
+                    return (next);
+                }
+                index.remove(next);
+            } // WHILE
+        } finally {
+            if (profiler != null) {
+                profiler.num_comparisons.put(bucket_ctr);
+                profiler.num_matches.put(matched_ctr);
+            }
+        }
+        return (null);
+    }
+    
     // ----------------------------------------------------------------------------
     // DEBUG METHODS
     // ----------------------------------------------------------------------------
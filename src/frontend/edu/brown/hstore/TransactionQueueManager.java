@@ -29,6 +29,7 @@ import edu.brown.interfaces.DebugContext;
 import edu.brown.interfaces.Shutdownable;
 import edu.brown.logging.LoggerUtil;
 import edu.brown.logging.LoggerUtil.LoggerBoolean;
+import edu.brown.profilers.ProfileMeasurement;
 import edu.brown.profilers.TransactionQueueManagerProfiler;
 import edu.brown.utils.EventObservable;
 import edu.brown.utils.EventObserver;
@@ -82,6 +83,11 @@ public class TransactionQueueManager extends ExceptionHandlingRunnable implement
      */
     private final PartitionLockQueue[] lockQueues;
     
+    /**
+     * Keeps txns from being inserted into a partition's lock queue while a fast path
+     * txn claims its txnId. The partition's PartitionExecutor never acquires this
+     * when it polls its queue.
+     */
     private final ReentrantLock lockQueueBarriers[];
     
     /**
@@ -152,6 +158,10 @@ public class TransactionQueueManager extends ExceptionHandlingRunnable implement
         // Use updateConf() to initialize our internal values from the HStoreConf
         this.updateConf(this.hstore_conf, null);
         
+        // If we're the only site in the cluster, then we'll never get any 
+        // network delay measurements from the HStoreCoordinator
+        if (catalogContext.numberOfSites == 1) this.updateNetworkDelay(0);
+        
         // Add a EventObservable that will tell us when the first non-sysproc
         // request arrives from a client. This will then tell the queues that its ok
         // to increase their limits if they're empty
@@ -189,6 +199,25 @@ public class TransactionQueueManager extends ExceptionHandlingRunnable implement
         
     }
     
+    /**
+     * Update how long the lock queues at our local partitions will wait before 
+     * releasing a txn using the network delay that the HStoreCoordinator
+     * measured to the other sites in the cluster. This does nothing
+     * unless ${site.txn_incoming_delay_adaptive} is enabled.
+     * @param delay The largest clock skew plus message latency to a remote site (ms)
+     */
+    public void updateNetworkDelay(int delay) {
+        if (hstore_conf.site.txn_incoming_delay_adaptive == false) return;
+        int waitTime = Math.min(hstore_conf.site.txn_incoming_delay_max,
+                                Math.max(hstore_conf.site.txn_incoming_delay_min, delay));
+        if (debug.val)
+            LOG.debug(String.format("Setting lock queue wait time to %d ms [networkDelay=%d ms]",
+                      waitTime, delay));
+        for (int partition : this.localPartitions.values()) {
+            this.lockQueues[partition].setMaxWaitTime(waitTime);
+        } // FOR
+    }
+    
     // ----------------------------------------------------------------------------
     // RUN METHOD
     // ----------------------------------------------------------------------------
@@ -323,11 +352,6 @@ public class TransactionQueueManager extends ExceptionHandlingRunnable implement
     // ----------------------------------------------------------------------------
 
     private boolean initTransaction(AbstractTransaction nextTxn) {
-        if (hstore_conf.site.txn_profiling && nextTxn instanceof LocalTransaction) {
-            LocalTransaction localTxn = (LocalTransaction)nextTxn;
-            if (localTxn.profiler != null) localTxn.profiler.startQueueLock();
-        }
-        
         PartitionCountingCallback<AbstractTransaction> callback = nextTxn.getInitCallback();
         assert(callback.isInitialized()) :
             String.format("Unexpected uninitialized %s for %s\n%s",
@@ -336,9 +360,41 @@ public class TransactionQueueManager extends ExceptionHandlingRunnable implement
         boolean ret = (callback.isAborted() == false);
         Status status = null;
         
+        // ANTI-CACHE PRE-WARMING
+        // Check whether this txn is going to need any evicted blocks before
+        // we add it to the lock queues. We can't do it after because it
+        // may start running as soon as it gets the lock. If the AntiCacheManager
+        // needs to fetch them, then it will requeue the txn once they're read in.
+        if (ret && hstore_conf.site.anticache_prewarm && nextTxn instanceof LocalTransaction) {
+            LocalTransaction localTxn = (LocalTransaction)nextTxn;
+            AntiCacheManager anticache = hstore_site.getAntiCacheManager();
+            if (anticache != null && anticache.prewarm(localTxn)) {
+                if (hstore_conf.site.txn_profiling && localTxn.profiler != null) {
+                    localTxn.profiler.stopInitQueue();
+                }
+                return (true);
+            }
+        }
+        
+        if (hstore_conf.site.txn_profiling && nextTxn instanceof LocalTransaction) {
+            LocalTransaction localTxn = (LocalTransaction)nextTxn;
+            if (localTxn.profiler != null) localTxn.profiler.startQueueLock();
+        }
+        
         if (trace.val)
             LOG.trace(String.format("Adding %s to lock queus for partitions %s\n%s",
                       nextTxn, nextTxn.getPredictTouchedPartitions(), callback));
+        
+        // Distributed txns get inserted into all of our local partitions' 
+        // lock queues at once so that they can't interleave with each other
+        if (ret && nextTxn.isPredictSinglePartition() == false) {
+            status = this.lockQueueInsert(nextTxn, nextTxn.getPredictTouchedPartitions(), callback);
+            if (trace.val)
+                LOG.trace(String.format("Finished processing lock queues for %s [status=%s]",
+                          nextTxn, status));
+            return (status == Status.OK);
+        }
+        
         for (int partition : nextTxn.getPredictTouchedPartitions().values()) {
             // Skip any non-local partition
             if (this.lockQueues[partition] == null) continue;
@@ -362,6 +418,64 @@ public class TransactionQueueManager extends ExceptionHandlingRunnable implement
         return (ret);
     }
     
+    /**
+     * Try to release a new single-partition transaction directly to its base partition
+     * without going through the init queue and the PartitionLockQueue. We only do this
+     * if there is nothing waiting in either of those queues and there is no distributed
+     * transaction running at the partition, since otherwise this txn would have to be ordered
+     * against them. The txn's id is claimed in the PartitionLockQueue while we hold the
+     * partition's barrier, so any txn with a smaller id that shows up later will be
+     * restarted just like it would if this txn had been released from the queue.
+     * If this returns true, then the txn has been released to the partition 
+     * and the caller needs to pass it to the PartitionExecutor. If it returns false, then
+     * the txn needs to go through the regular queues.
+     * @param ts
+     * @return
+     */
+    public boolean fastPathInit(LocalTransaction ts) {
+        assert(ts.isInitialized()) : "Uninitialized transaction handle [" + ts + "]";
+        assert(ts.isPredictSinglePartition()) : "Unexpected distributed transaction " + ts;
+        if (ts.isSysProc()) return (false);
+        
+        int partition = ts.getBasePartition();
+        PartitionLockQueue lockQueue = this.lockQueues[partition];
+        if (lockQueue == null) return (false);
+        if (this.initQueue.isEmpty() == false || lockQueue.approximateIsEmpty() == false) return (false);
+        if (hstore_site.getPartitionExecutor(partition).hasCurrentDtxn()) return (false);
+        
+        PartitionCountingCallback<LocalTransaction> callback = ts.getInitCallback();
+        if (callback.isAborted()) return (false);
+        
+        // Txns that we may need to pre-warm have to go through the init queue
+        if (hstore_conf.site.anticache_prewarm) {
+            AntiCacheManager anticache = hstore_site.getAntiCacheManager();
+            if (anticache != null && anticache.hasPrewarmHint(ts)) return (false);
+        }
+        
+        // Nobody can insert a txn into the lock queue while we hold the barrier,
+        // so once we claim this txnId nothing smaller can get in ahead of it
+        Long txn_id = ts.getTransactionId();
+        this.lockQueueBarriers[partition].lock();
+        try {
+            if (lockQueue.claimTransactionId(txn_id) == false) return (false);
+            this.lockQueueLastTxns[partition] = txn_id;
+        } finally {
+            this.lockQueueBarriers[partition].unlock();
+        } // SYNCH
+        
+        if (hstore_conf.site.txn_profiling && ts.profiler != null) {
+            ts.profiler.startInitQueue();
+            ts.profiler.startQueueLock();
+        }
+        
+        if (debug.val)
+            LOG.debug(String.format("%s - Releasing to partition %d through the fast path", ts, partition));
+        ts.markFastPath();
+        callback.run(partition);
+        ts.markReleased(partition);
+        return (true);
+    }
+    
     /**
      * Queue a brand new transaction at this HStoreSite to be added into
      * the appropriate lock queues for the partitions that it needs to access.
@@ -421,39 +535,39 @@ public class TransactionQueueManager extends ExceptionHandlingRunnable implement
         Long next_safe_id = null;
         Status status = Status.OK;
         
+        // We have to hold the barrier until the txn is in the queue. Otherwise a 
+        // fast path txn with a larger txnId could be released in between.
+        // See fastPathInit()
         this.lockQueueBarriers[partition].lock();
         try {
             next_safe_id = this.lockQueues[partition].noteTransactionRecievedAndReturnLastSafeTxnId(txn_id);
-        } finally {
-            this.lockQueueBarriers[partition].unlock();
-        } // SYNCH
         
-        // The next txnId that we're going to try to execute is already greater
-        // than this new txnId that we were given! Rejection!
-        if (next_safe_id != null && next_safe_id.compareTo(txn_id) > 0) {
-             if (debug.val)
-                LOG.warn(String.format("The next safe lockQueue txn for partition #%d is %s but this " +
-                         "is greater than our new txn %s. Rejecting...",
-                         partition, next_safe_id, ts));
-             status = Status.ABORT_RESTART;
-        }
-        // Our queue is overloaded. We have to reject the txnId!
-        else {
-            boolean ret = false;
-            if (ts.isPredictSinglePartition() || callback.isAborted() == false) {
-                // 2013-04-04
-                // I think that we don't need to hold the lockQueueBarrier for this part here,
-                // because the PartitionLockQueue will already have an internal lock...
-                ret = this.lockQueues[partition].offer(ts, ts.isSysProc());
+            // The next txnId that we're going to try to execute is already greater
+            // than this new txnId that we were given! Rejection!
+            if (next_safe_id != null && next_safe_id.compareTo(txn_id) > 0) {
+                 if (debug.val)
+                    LOG.warn(String.format("The next safe lockQueue txn for partition #%d is %s but this " +
+                             "is greater than our new txn %s. Rejecting...",
+                             partition, next_safe_id, ts));
+                 status = Status.ABORT_RESTART;
             }
-            if (ret == false) {
-                if (debug.val)
-                    LOG.debug(String.format("The initQueue for partition #%d is overloaded. " +
-                              "Throttling %s until id is greater than %s [queueSize=%d]",
-                              partition, ts, next_safe_id, this.lockQueues[partition].size()));
-                status = Status.ABORT_REJECT;
+            // Our queue is overloaded. We have to reject the txnId!
+            else {
+                boolean ret = false;
+                if (ts.isPredictSinglePartition() || callback.isAborted() == false) {
+                    ret = this.lockQueues[partition].offer(ts, ts.isSysProc());
+                }
+                if (ret == false) {
+                    if (debug.val)
+                        LOG.debug(String.format("The initQueue for partition #%d is overloaded. " +
+                                  "Throttling %s until id is greater than %s [queueSize=%d]",
+                                  partition, ts, next_safe_id, this.lockQueues[partition].size()));
+                    status = Status.ABORT_REJECT;
+                }
             }
-        }
+        } finally {
+            this.lockQueueBarriers[partition].unlock();
+        } // SYNCH
         
 
         // Reject the txn
@@ -473,6 +587,133 @@ public class TransactionQueueManager extends ExceptionHandlingRunnable implement
         return (status);
     }
     
+    /**
+     * Add a new distributed transaction into the lock queues for all of the 
+     * given partitions that are local to this site in a single batch.
+     * We acquire the lockQueueBarriers in ascending partition order and then 
+     * insert the txn into every queue before we release any of them. This means
+     * that we only go through the barriers once per txn and that two distributed
+     * txns can never interleave their insertions. If the txn is rejected at any 
+     * partition, then it will not be left in any of the queues.
+     * <B>Note:</B> This should not be called directly. You probably want to use initTransaction().
+     * @param ts
+     * @param partitions
+     * @param callback
+     * @return
+     */
+    protected Status lockQueueInsert(AbstractTransaction ts,
+                                     PartitionSet partitions,
+                                     PartitionCountingCallback<? extends AbstractTransaction> callback) {
+        assert(ts.isInitialized()) :
+            String.format("Unexpected uninitialized transaction %s [partitions=%s]", ts, partitions);
+        
+        // PartitionSet.values() is always sorted
+        int localPartitions[] = new int[partitions.size()];
+        int numLocal = 0;
+        for (int partition : partitions.values()) {
+            if (partition >= 0 && this.lockQueues[partition] != null) {
+                localPartitions[numLocal++] = partition;
+            }
+        } // FOR
+        if (numLocal == 0) return (Status.OK);
+        
+        // This is actually bad and should never happen. But for the sake of trying
+        // to get the experiments working, we're just going to ignore it...
+        if (callback.isInitialized() == false) {
+            LOG.warn(String.format("Unexpected uninitialized %s for %s [partitions=%s]",
+                     callback.getClass().getSimpleName(), ts, partitions));
+            return (Status.ABORT_UNEXPECTED);
+        }
+        
+        if (debug.val)
+            LOG.debug(String.format("Adding %s into lockQueues for partitions %s [allPartitions=%s]",
+                      ts, Arrays.toString(Arrays.copyOf(localPartitions, numLocal)), partitions));
+        
+        long start = (hstore_conf.site.queue_profiling ? ProfileMeasurement.getTime() : -1);
+        Long txn_id = ts.getTransactionId();
+        Long next_safe_ids[] = new Long[numLocal];
+        Status status = Status.OK;
+        int reject_idx = -1;
+        int locked = 0;
+        try {
+            for ( ; locked < numLocal; locked++) {
+                this.lockQueueBarriers[localPartitions[locked]].lock();
+            } // FOR
+            
+            // Make sure that the txn is safe at all of the partitions
+            // before we add it to any of them
+            for (int i = 0; i < numLocal; i++) {
+                int partition = localPartitions[i];
+                next_safe_ids[i] = this.lockQueues[partition].noteTransactionRecievedAndReturnLastSafeTxnId(txn_id);
+                if (next_safe_ids[i] != null && next_safe_ids[i].compareTo(txn_id) > 0) {
+                    if (debug.val)
+                        LOG.warn(String.format("The next safe lockQueue txn for partition #%d is %s but this " +
+                                 "is greater than our new txn %s. Rejecting...",
+                                 partition, next_safe_ids[i], ts));
+                    status = Status.ABORT_RESTART;
+                    reject_idx = i;
+                    break;
+                }
+            } // FOR
+            
+            if (status == Status.OK) {
+                if (callback.isAborted()) {
+                    status = Status.ABORT_REJECT;
+                    reject_idx = 0;
+                }
+                else {
+                    for (int i = 0; i < numLocal; i++) {
+                        int partition = localPartitions[i];
+                        if (this.lockQueues[partition].offer(ts, ts.isSysProc())) continue;
+                        
+                        // Our queue is overloaded. We have to reject the txnId!
+                        // Nobody can poll the queues while we hold the barriers, so
+                        // we can safely pull it back out of the ones we already added it to.
+                        if (debug.val)
+                            LOG.debug(String.format("The initQueue for partition #%d is overloaded. " +
+                                      "Throttling %s until id is greater than %s [queueSize=%d]",
+                                      partition, ts, next_safe_ids[i], this.lockQueues[partition].size()));
+                        for (int j = 0; j < i; j++) {
+                            this.lockQueues[localPartitions[j]].remove(ts);
+                        } // FOR
+                        status = Status.ABORT_REJECT;
+                        reject_idx = i;
+                        break;
+                    } // FOR
+                }
+            }
+        } finally {
+            for (int i = locked - 1; i >= 0; i--) {
+                this.lockQueueBarriers[localPartitions[i]].unlock();
+            } // FOR
+        } // SYNCH
+        
+        // Reject the txn
+        if (status != Status.OK) {
+            int reject_partition = localPartitions[reject_idx];
+            if (hstore_conf.site.queue_profiling) profilers[reject_partition].rejection_time.start();
+            this.rejectTransaction(ts, status, reject_partition, next_safe_ids[reject_idx]);
+            
+            // IMPORTANT: We still need to go through and decrement the
+            // callback's counter for the other partitions.
+            for (int i = 0; i < numLocal; i++) {
+                if (i != reject_idx) callback.decrementCounter(localPartitions[i]);
+            } // FOR
+            if (hstore_conf.site.queue_profiling) profilers[reject_partition].rejection_time.stopIfStarted();
+        }
+        else if (trace.val) {
+            LOG.trace(String.format("Added %s to initQueues for partitions %s",
+                      ts, Arrays.toString(Arrays.copyOf(localPartitions, numLocal))));
+        }
+        if (hstore_conf.site.queue_profiling) {
+            long stop = ProfileMeasurement.getTime();
+            for (int i = 0; i < numLocal; i++) {
+                profilers[localPartitions[i]].batch_insert_time.appendTime(start, stop);
+            } // FOR
+        }
+        return (status);
+    }
+    
     /**
      * Check whether there are any transactions that need to be released for execution
      * at the partitions controlled by this queue manager
@@ -485,13 +726,10 @@ public class TransactionQueueManager extends ExceptionHandlingRunnable implement
                       partition, this.lockQueues[partition].size()));
         
         // Poll the queue and get the next value.
-        AbstractTransaction nextTxn = null;
-        this.lockQueueBarriers[partition].lockInterruptibly();
-        try {
-            nextTxn = this.lockQueues[partition].poll();
-        } finally {
-            this.lockQueueBarriers[partition].unlock();
-        } // SYNCH
+        // We don't need the barrier here. The PartitionLockQueue's lastSafeTxnId handshake
+        // keeps us from popping a txn while a smaller one is being inserted, and the barrier
+        // only has to keep inserts from interleaving with a fast path claim.
+        AbstractTransaction nextTxn = this.lockQueues[partition].poll();
         
         if (nextTxn == null) {
             if (hstore_conf.site.queue_profiling) profilers[partition].lock_time.stopIfStarted();
@@ -594,6 +832,10 @@ public class TransactionQueueManager extends ExceptionHandlingRunnable implement
                           ts, partition));
             checkQueue = false;
         }
+        // Txns that took the fast path were never in the queue
+        else if (ts instanceof LocalTransaction && ((LocalTransaction)ts).isFastPath()) {
+            checkQueue = false;
+        }
         
         // Always attempt to remove it from this partition's queue
         // If this remove() returns false, then we know that our transaction wasn't
@@ -0,0 +1,150 @@
+/***************************************************************************
+ *   Copyright (C) 2013 by H-Store Project                                 *
+ *   Brown University                                                      *
+ *   Massachusetts Institute of Technology                                 *
+ *   Yale University                                                       *
+ *                                                                         *
+ *   Permission is hereby granted, free of charge, to any person obtaining *
+ *   a copy of this software and associated documentation files (the       *
+ *   "Software"), to deal in the Software without restriction, including   *
+ *   without limitation the rights to use, copy, modify, merge, publish,   *
+ *   distribute, sublicense, and/or sell copies of the Software, and to    *
+ *   permit persons to whom the Software is furnished to do so, subject to *
+ *   the following conditions:                                             *
+ *                                                                         *
+ *   The above copyright notice and this permission notice shall be        *
+ *   included in all copies or substantial portions of the Software.       *
+ *                                                                         *
+ *   THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,       *
+ *   EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF    *
+ *   MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.*
+ *   IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR     *
+ *   OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, *
+ *   ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR *
+ *   OTHER DEALINGS IN THE SOFTWARE.                                       *
+ ***************************************************************************/
+package edu.brown.hstore.cmdlog;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.voltdb.utils.CompressionService;
+
+/**
+ * Command Log Codec
+ * Encodes the serialized LogEntries of a group commit batch into the frame that is
+ * written out to the log, and decodes them again when the log is read back in.
+ * Every frame starts with the length of the encoded data. The codec that was
+ * used for a log file is recorded in the file's header.
+ * <B>Note:</B> Codecs are not thread-safe.
+ */
+public abstract class CommandLogCodec {
+
+    public enum Type {
+        /**
+         * Compress the whole batch with Snappy. This is the original log format.
+         */
+        SNAPPY(0),
+        /**
+         * Write out the serialized entries as they are 
+         */
+        NONE(1);
+        
+        private final int id;
+        
+        private Type(int id) {
+            this.id = id;
+        }
+        public int getId() {
+            return (this.id);
+        }
+        public static Type get(int id) {
+            for (Type t : Type.values()) {
+                if (t.id == id) return (t);
+            } // FOR
+            return (null);
+        }
+        public static Type get(String name) {
+            return (Type.valueOf(name.trim().toUpperCase()));
+        }
+    } // ENUM
+    
+    /**
+     * Returns a new codec instance for the given type
+     * @param type
+     * @return
+     */
+    public static CommandLogCodec getCodec(Type type) {
+        switch (type) {
+            case SNAPPY:
+                return new SnappyCodec();
+            case NONE:
+                return new NoneCodec();
+            default:
+                throw new IllegalArgumentException("Unexpected codec type " + type);
+        } // SWITCH
+    }
+    
+    public abstract Type getType();
+    
+    /**
+     * Encode the serialized entries between the given buffer's position and limit
+     * into a frame that can be written out to the log. The returned buffer starts
+     * with the length of the encoded data.
+     * @param data
+     * @return
+     * @throws IOException
+     */
+    public abstract ByteBuffer encode(ByteBuffer data) throws IOException;
+    
+    /**
+     * Decode the data from a single frame (without its length) 
+     * back into the serialized entries
+     * @param payload
+     * @return
+     * @throws IOException
+     */
+    public abstract byte[] decode(byte payload[]) throws IOException;
+    
+    // ----------------------------------------------------------------------------
+    // SNAPPY
+    // ----------------------------------------------------------------------------
+    
+    public static class SnappyCodec extends CommandLogCodec {
+        @Override
+        public Type getType() {
+            return (Type.SNAPPY);
+        }
+        @Override
+        public ByteBuffer encode(ByteBuffer data) throws IOException {
+            return (CompressionService.compressBufferForMessaging(data));
+        }
+        @Override
+        public byte[] decode(byte payload[]) throws IOException {
+            return (CompressionService.decompressBytes(payload));
+        }
+    } // CLASS
+    
+    // ----------------------------------------------------------------------------
+    // NONE
+    // ----------------------------------------------------------------------------
+    
+    public static class NoneCodec extends CommandLogCodec {
+        @Override
+        public Type getType() {
+            return (Type.NONE);
+        }
+        @Override
+        public ByteBuffer encode(ByteBuffer data) throws IOException {
+            ByteBuffer result = ByteBuffer.allocate(data.remaining() + 4);
+            result.putInt(data.remaining());
+            result.put(data);
+            result.flip();
+            return (result);
+        }
+        @Override
+        public byte[] decode(byte payload[]) throws IOException {
+            return (payload);
+        }
+    } // CLASS
+}
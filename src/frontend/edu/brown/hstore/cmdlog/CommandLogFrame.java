@@ -0,0 +1,157 @@
+/***************************************************************************
+ *   Copyright (C) 2013 by H-Store Project                                 *
+ *   Brown University                                                      *
+ *   Massachusetts Institute of Technology                                 *
+ *   Yale University                                                       *
+ *                                                                         *
+ *   Permission is hereby granted, free of charge, to any person obtaining *
+ *   a copy of this software and associated documentation files (the       *
+ *   "Software"), to deal in the Software without restriction, including   *
+ *   without limitation the rights to use, copy, modify, merge, publish,   *
+ *   distribute, sublicense, and/or sell copies of the Software, and to    *
+ *   permit persons to whom the Software is furnished to do so, subject to *
+ *   the following conditions:                                             *
+ *                                                                         *
+ *   The above copyright notice and this permission notice shall be        *
+ *   included in all copies or substantial portions of the Software.       *
+ *                                                                         *
+ *   THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,       *
+ *   EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF    *
+ *   MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.*
+ *   IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR     *
+ *   OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, *
+ *   ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR *
+ *   OTHER DEALINGS IN THE SOFTWARE.                                       *
+ ***************************************************************************/
+package edu.brown.hstore.cmdlog;
+
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32;
+
+/**
+ * Command Log Frame
+ * Each group commit batch is written out to the log in its own frame:
+ * <pre>
+ *   [int length][int checksum][long firstTxnId][long lastTxnId][payload]
+ * </pre>
+ * The length is the number of bytes in the encoded payload. The checksum is the CRC32
+ * of the txn ids and the payload. This allows the CommandLogReader to find the end of
+ * the valid data in the log after a crash, and to skip over frames without decoding them.
+ */
+public class CommandLogFrame {
+    
+    /**
+     * The number of bytes in the frame header before the payload
+     */
+    public static final int FRAME_HEADER_SIZE = 4 + 4 + 8 + 8;
+    
+    /**
+     * The offset of the frame's header in the log file
+     */
+    public final int offset;
+    public final int length;
+    public final int checksum;
+    public final long firstTxnId;
+    public final long lastTxnId;
+    
+    private CommandLogFrame(int offset, int length, int checksum, long firstTxnId, long lastTxnId) {
+        this.offset = offset;
+        this.length = length;
+        this.checksum = checksum;
+        this.firstTxnId = firstTxnId;
+        this.lastTxnId = lastTxnId;
+    }
+    
+    /**
+     * Returns the offset in the log file of the first byte after this frame
+     */
+    public int getEndOffset() {
+        return (this.offset + FRAME_HEADER_SIZE + this.length);
+    }
+    
+    /**
+     * Returns true if the checksum of the given payload matches this frame's checksum
+     * @param payload
+     * @return
+     */
+    public boolean isValid(byte payload[]) {
+        return (payload.length == this.length &&
+                computeChecksum(this.firstTxnId, this.lastTxnId, payload, 0, payload.length) == this.checksum);
+    }
+    
+    @Override
+    public String toString() {
+        return String.format("%s[offset=%d, length=%d, txns=%d-%d]",
+                             this.getClass().getSimpleName(), this.offset, this.length,
+                             this.firstTxnId, this.lastTxnId);
+    }
+    
+    /**
+     * Create a new frame for the given encoded batch. The batch 
+     * must start with the length of its payload (see CommandLogCodec).
+     * @param encoded
+     * @param firstTxnId
+     * @param lastTxnId
+     * @return
+     */
+    public static ByteBuffer create(ByteBuffer encoded, long firstTxnId, long lastTxnId) {
+        int length = encoded.getInt(encoded.position());
+        assert(length == encoded.remaining() - 4);
+        byte payload[];
+        int payloadOffset;
+        if (encoded.hasArray()) {
+            payload = encoded.array();
+            payloadOffset = encoded.arrayOffset() + encoded.position() + 4;
+        } else {
+            payload = new byte[length];
+            ByteBuffer dup = encoded.duplicate();
+            dup.position(dup.position() + 4);
+            dup.get(payload);
+            payloadOffset = 0;
+        }
+        
+        ByteBuffer frame = ByteBuffer.allocate(FRAME_HEADER_SIZE + length);
+        frame.putInt(length);
+        frame.putInt(computeChecksum(firstTxnId, lastTxnId, payload, payloadOffset, length));
+        frame.putLong(firstTxnId);
+        frame.putLong(lastTxnId);
+        frame.put(payload, payloadOffset, length);
+        frame.flip();
+        return (frame);
+    }
+    
+    /**
+     * Read the header of the frame at the buffer's current position. If there is
+     * a complete frame, then the buffer's position is moved to the start of the 
+     * frame's payload. Otherwise the position is not changed and we will 
+     * return null. Preallocated segments are padded with zeros after the 
+     * last frame, so a zero length also means that there are no more frames.
+     * @param buffer
+     * @return
+     */
+    public static CommandLogFrame read(ByteBuffer buffer) {
+        int offset = buffer.position();
+        if (buffer.remaining() < FRAME_HEADER_SIZE) return (null);
+        int length = buffer.getInt(offset);
+        if (length <= 0 || length > buffer.remaining() - FRAME_HEADER_SIZE) return (null);
+        CommandLogFrame frame = new CommandLogFrame(offset,
+                                                    length,
+                                                    buffer.getInt(offset + 4),
+                                                    buffer.getLong(offset + 8),
+                                                    buffer.getLong(offset + 16));
+        buffer.position(offset + FRAME_HEADER_SIZE);
+        return (frame);
+    }
+    
+    private static int computeChecksum(long firstTxnId, long lastTxnId, byte payload[], int offset, int length) {
+        CRC32 crc = new CRC32();
+        for (int shift = 56; shift >= 0; shift -= 8) {
+            crc.update((int)(firstTxnId >>> shift) & 0xFF);
+        } // FOR
+        for (int shift = 56; shift >= 0; shift -= 8) {
+            crc.update((int)(lastTxnId >>> shift) & 0xFF);
+        } // FOR
+        crc.update(payload, offset, length);
+        return ((int)crc.getValue());
+    }
+}
@@ -32,15 +32,19 @@ import java.io.RandomAccessFile;
 import java.nio.BufferUnderflowException;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 
-import org.jfree.util.Log;
+import org.apache.log4j.Logger;
 import org.voltdb.messaging.FastDeserializer;
-import org.voltdb.utils.CompressionService;
 import org.voltdb.utils.NotImplementedException;
 
+import edu.brown.logging.LoggerUtil;
+import edu.brown.logging.LoggerUtil.LoggerBoolean;
+
 
 /**
  * Transaction Command Log Reader
@@ -48,12 +52,64 @@ import org.voltdb.utils.NotImplementedException;
  * @author pavlo
  */
 public class CommandLogReader implements Iterable<LogEntry> {
+    private static final Logger LOG = Logger.getLogger(CommandLogReader.class);
+    private static final LoggerBoolean debug = new LoggerBoolean();
+    private static final LoggerBoolean trace = new LoggerBoolean();
+    static {
+        LoggerUtil.attachObserver(LOG, debug, trace);
+    }
     
     final FastDeserializer fd;
     final Map<Integer, String> procedures;
     boolean groupCommit;
+    CommandLogCodec codec;
+    
+    /**
+     * If true, then each group commit batch is stored in a CommandLogFrame
+     */
+    boolean framed;
+    
+    /**
+     * If true, then we will check each frame's checksum before we decode it
+     */
+    private final boolean validate;
+    
+    /**
+     * The offset in the log file of the first entry (or group commit batch)
+     */
+    private final int dataStart;
+    
+    /**
+     * The header of the log file if it is a segment of a rotating log.
+     * This will be null if the file uses the original single file format.
+     */
+    private final CommandLogSegment.Header segmentHeader;
+    
+    /**
+     * The offset in the log file right after the last complete
+     * entry (or group commit batch) that we have read in 
+     */
+    private int validLength = 0;
+    
+    /**
+     * The offset in the log file of the first valid frame after the 
+     * corrupted frame that the iterator stopped at.
+     */
+    private int nextValidFrame = -1;
     
     public CommandLogReader(String path) {
+        this(path, true);
+    }
+    
+    /**
+     * Constructor
+     * If validate is true and the log file uses checksummed frames, then each frame
+     * is checked before it is decoded and we will stop at the first one that is invalid.
+     * @param path
+     * @param validate
+     */
+    public CommandLogReader(String path, boolean validate) {
+        this.validate = validate;
         FileChannel roChannel = null;
         ByteBuffer readonlybuffer = null;
         
@@ -65,9 +121,132 @@ public class CommandLogReader implements Iterable<LogEntry> {
             throw new RuntimeException(ex);
         }
         assert(readonlybuffer != null);
+        this.segmentHeader = CommandLogSegment.readHeader(readonlybuffer);
         this.fd = new FastDeserializer(readonlybuffer);
         
         this.procedures = this.readHeader();
+        this.dataStart = this.fd.buffer().position();
+        this.validLength = this.dataStart;
+    }
+    
+    /**
+     * Returns the number of bytes at the beginning of the log file that contain
+     * complete entries. Anything after this offset was only partially written out
+     * before the system crashed. This is only valid after the iterator has 
+     * been exhausted.
+     * @return
+     */
+    public int getValidLength() {
+        return (this.validLength);
+    }
+    
+    /**
+     * Returns the offset in the log file of the first valid frame after the frame
+     * that the iterator stopped at because it was corrupted. This will be -1 if the
+     * iterator did not stop at a corrupted frame or if there are no valid frames
+     * after it. If this is not -1, then the log file should not be truncated at
+     * getValidLength() because that would throw away valid frames.
+     * This is only valid after the iterator has been exhausted.
+     * @return
+     */
+    public int getNextValidFrameOffset() {
+        return (this.nextValidFrame);
+    }
+    
+    /**
+     * Look for the first frame with a valid checksum after the invalid data at
+     * the given offset. We first check the given hint, which should be the end of
+     * the invalid frame in case only its payload was damaged. If its header was
+     * damaged too, then we have to check every offset after it.
+     * Returns -1 if there are no valid frames after it.
+     * @param offset The offset of the invalid frame
+     * @param hint The offset of where the next frame should start, or -1 if unknown
+     * @return
+     */
+    private int findValidFrame(int offset, int hint) {
+        ByteBuffer buffer = this.fd.buffer().duplicate();
+        if (hint > offset && this.isValidFrame(buffer, hint)) {
+            return (hint);
+        }
+        for (int i = offset + 1, cnt = buffer.limit() - CommandLogFrame.FRAME_HEADER_SIZE; i <= cnt; i++) {
+            if (this.isValidFrame(buffer, i)) return (i);
+        } // FOR
+        return (-1);
+    }
+    
+    private boolean isValidFrame(ByteBuffer buffer, int offset) {
+        if (offset > buffer.limit()) return (false);
+        buffer.position(offset);
+        CommandLogFrame frame = CommandLogFrame.read(buffer);
+        if (frame == null) return (false);
+        byte payload[] = new byte[frame.length];
+        buffer.get(payload);
+        return (frame.isValid(payload));
+    }
+    
+    /**
+     * Returns the segment header for this log file. 
+     * If the file is not a segment, then this will return null.
+     * @return
+     */
+    public CommandLogSegment.Header getSegmentHeader() {
+        return (this.segmentHeader);
+    }
+    
+    /**
+     * Returns true if the group commit batches in the log file are stored in CommandLogFrames
+     * @return
+     */
+    public boolean isFramed() {
+        return (this.framed);
+    }
+    
+    /**
+     * Scan the headers of all of the complete frames in the log file without
+     * decoding them. This does not change where the iterator will start from.
+     * If the log file does not use frames, then the list will be empty.
+     * @return
+     */
+    public List<CommandLogFrame> getFrames() {
+        List<CommandLogFrame> frames = new ArrayList<CommandLogFrame>();
+        if (this.framed == false) return (frames);
+        ByteBuffer buffer = this.fd.buffer().duplicate();
+        buffer.position(this.dataStart);
+        CommandLogFrame frame = null;
+        while ((frame = CommandLogFrame.read(buffer)) != null) {
+            frames.add(frame);
+            buffer.position(frame.getEndOffset());
+        } // WHILE
+        return (frames);
+    }
+    
+    /**
+     * Skip over all of the frames at the beginning of the log file that only contain 
+     * txns with ids that are less than the given txn id. The skipped frames are not
+     * decoded. This must be called before the iterator is created. Returns false if
+     * the log file does not use frames, in which case nothing is skipped.
+     * @param txnId
+     * @return
+     */
+    public boolean seek(long txnId) {
+        if (this.framed == false) return (false);
+        ByteBuffer buffer = this.fd.buffer();
+        int position = this.dataStart;
+        for (CommandLogFrame frame : this.getFrames()) {
+            if (frame.lastTxnId >= txnId) break;
+            position = frame.getEndOffset();
+        } // FOR
+        buffer.position(position);
+        this.validLength = position;
+        return (true);
+    }
+    
+    /**
+     * Returns the codec that was used to write out the group commit batches in the log file
+     * @return
+     */
+    public CommandLogCodec.Type getCodecType() {
+        return (this.codec.getType());
     }
     
     @Override
@@ -92,17 +271,40 @@ public class CommandLogReader implements Iterable<LogEntry> {
                 _next = null;
                 
                 //Fill the decompressed buffer if it is empty
-                if (groupCommit && !decompressedFd.buffer().hasRemaining()) {
-                    Log.info("filling the decompressed buffer");
+                if (groupCommit && framed && !decompressedFd.buffer().hasRemaining()) {
+                    byte payload[] = readFrame();
+                    if (payload == null) {
+                        return (ret);
+                    }
+                    try {
+                        this.decompressedFd.setBuffer(ByteBuffer.wrap(codec.decode(payload)));
+                    } catch (IOException ex) {
+                        throw new RuntimeException("Failed to decode frame from the WAL file!", ex);
+                    }
+                    validLength = fd.buffer().position();
+                }
+                else if (groupCommit && !decompressedFd.buffer().hasRemaining()) {
+                    if (trace.val) LOG.trace("Filling the decompressed buffer");
                     int sizeCompressed = 0;
                     try {
                         sizeCompressed = fd.readInt();
+                        // Preallocated segments are padded with zeros after the last batch
+                        if (sizeCompressed <= 0) {
+                            return (ret);
+                        }
                         byte[] b = new byte[sizeCompressed];
                         fd.readFully(b);
-                        byte[] decompressed = CompressionService.decompressBytes(b);
+                        byte[] decompressed = codec.decode(b);
                         this.decompressedFd.setBuffer(ByteBuffer.wrap(decompressed));
+                        validLength = fd.buffer().position();
                     } catch (IOException ex) {
-                        throw new RuntimeException("Failed to decompress data from the WAL file!", ex);
+                        // If this is the last batch in a segment, then it was only 
+                        // partially written before we crashed
+                        if (segmentHeader == null) {
+                            throw new RuntimeException("Failed to decompress data from the WAL file!", ex);
+                        }
+                        LOG.warn("Ignoring incomplete group commit batch at the end of the WAL file");
+                        return (ret);
                     } catch (BufferUnderflowException ex) {
                         this.decompressedFd.setBuffer(ByteBuffer.allocate(0));
                     }
@@ -111,8 +313,15 @@ public class CommandLogReader implements Iterable<LogEntry> {
                 try {
                     if (groupCommit)
                         _next = decompressedFd.readObject(LogEntry.class);
-                    else
+                    else {
+                        ByteBuffer buffer = fd.buffer();
+                        if (buffer.remaining() >= 8 && buffer.getLong(buffer.position()) == 0) {
+                            // Preallocated segments are padded with zeros after the last entry
+                            return (ret);
+                        }
                         _next = fd.readObject(LogEntry.class);
+                        validLength = fd.buffer().position();
+                    }
                 } catch (IOException ex) {
                     throw new RuntimeException("Failed to deserialize LogEntry!", ex);
                 } catch (BufferUnderflowException ex) {
@@ -122,6 +331,46 @@ public class CommandLogReader implements Iterable<LogEntry> {
                 return (ret);
             }
 
+            /**
+             * Read the payload of the next frame in the log file. Returns null if 
+             * there are no more complete frames or if the frame is corrupted.
+             * If there are valid frames after a corrupted one, then we will
+             * remember where the first one starts.
+             */
+            private byte[] readFrame() {
+                ByteBuffer buffer = fd.buffer();
+                CommandLogFrame frame = CommandLogFrame.read(buffer);
+                if (frame == null) {
+                    if (buffer.remaining() >= 4 && buffer.getInt(buffer.position()) != 0) {
+                        // This looks like a torn write at the end of the file, but it could
+                        // also be a frame whose length was corrupted
+                        if (validate) nextValidFrame = findValidFrame(buffer.position(), -1);
+                        if (nextValidFrame != -1) {
+                            LOG.warn(String.format("Invalid frame header at offset %d of the WAL file " +
+                                      "but there are valid frames after it starting at offset %d",
+                                      buffer.position(), nextValidFrame));
+                        } else {
+                            LOG.warn("Ignoring incomplete frame at offset " + buffer.position() + " of the WAL file");
+                        }
+                    }
+                    return (null);
+                }
+                byte payload[] = new byte[frame.length];
+                buffer.get(payload);
+                if (validate && frame.isValid(payload) == false) {
+                    buffer.position(frame.offset);
+                    nextValidFrame = findValidFrame(frame.offset, frame.getEndOffset());
+                    if (nextValidFrame != -1) {
+                        LOG.warn(String.format("Invalid checksum for %s but there are valid frames after it " +
+                                  "starting at offset %d", frame, nextValidFrame));
+                    } else {
+                        LOG.warn("Invalid checksum for " + frame + ". Ignoring the rest of the WAL file");
+                    }
+                    return (null);
+                }
+                return (payload);
+            }
+
             @Override
             public void remove() {
                 throw new NotImplementedException("Can't call remove! You crazy!");
@@ -146,7 +395,15 @@ public class CommandLogReader implements Iterable<LogEntry> {
         Map<Integer, String> procedures = new HashMap<Integer, String>();
         
         try {
-            this.groupCommit = fd.readBoolean();
+            int flags = fd.readByte();
+            this.groupCommit = ((flags & CommandLogWriter.HEADER_GROUP_COMMIT) != 0);
+            this.framed = ((flags & CommandLogWriter.HEADER_FRAMED) != 0);
+            int codecId = (flags >> CommandLogWriter.HEADER_CODEC_SHIFT) & CommandLogWriter.HEADER_CODEC_MASK;
+            CommandLogCodec.Type type = CommandLogCodec.Type.get(codecId);
+            if (type == null) {
+                throw new IOException("Unexpected command log codec id " + codecId);
+            }
+            this.codec = CommandLogCodec.getCodec(type);
             int num_procs = fd.readInt();
             for (int i = 0; i < num_procs; i++)
                 procedures.put(new Integer(fd.readInt()), fd.readString());
@@ -0,0 +1,237 @@
+/***************************************************************************
+ *   Copyright (C) 2013 by H-Store Project                                 *
+ *   Brown University                                                      *
+ *   Massachusetts Institute of Technology                                 *
+ *   Yale University                                                       *
+ *                                                                         *
+ *   Permission is hereby granted, free of charge, to any person obtaining *
+ *   a copy of this software and associated documentation files (the       *
+ *   "Software"), to deal in the Software without restriction, including   *
+ *   without limitation the rights to use, copy, modify, merge, publish,   *
+ *   distribute, sublicense, and/or sell copies of the Software, and to    *
+ *   permit persons to whom the Software is furnished to do so, subject to *
+ *   the following conditions:                                             *
+ *                                                                         *
+ *   The above copyright notice and this permission notice shall be        *
+ *   included in all copies or substantial portions of the Software.       *
+ *                                                                         *
+ *   THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,       *
+ *   EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF    *
+ *   MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.*
+ *   IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR     *
+ *   OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, *
+ *   ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR *
+ *   OTHER DEALINGS IN THE SOFTWARE.                                       *
+ ***************************************************************************/
+package edu.brown.hstore.cmdlog;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.Logger;
+import org.voltdb.exceptions.ServerFaultException;
+
+import edu.brown.hstore.HStoreConstants;
+import edu.brown.logging.LoggerUtil;
+import edu.brown.logging.LoggerUtil.LoggerBoolean;
+
+/**
+ * Command Log Replay Scheduler
+ * Executes the txns that are being replayed from the command log in the order that
+ * they are dispatched. Each txn that is dispatched to one of the partitions that we
+ * have a thread for is handed off to that partition's thread, which executes its txns
+ * one at a time in order. This allows txns for different partitions to run at the same
+ * time. Every other txn is a barrier: we wait for all of the outstanding txns to finish
+ * and then execute it by itself from the dispatching thread.
+ * @param <T> The request for a single txn
+ */
+public class CommandLogReplayScheduler<T> {
+    private static final Logger LOG = Logger.getLogger(CommandLogReplayScheduler.class);
+    private static final LoggerBoolean debug = new LoggerBoolean();
+    static {
+        LoggerUtil.attachObserver(LOG, debug);
+    }
+    
+    /**
+     * Executes the requests that are dispatched to the scheduler
+     */
+    public interface Handler<T> {
+        /**
+         * Returns the name of the thread for the given partition
+         */
+        public String getThreadName(int partition);
+        /**
+         * Invoked from each partition's thread before it executes anything
+         */
+        public void threadStarted(int partition);
+        /**
+         * Execute the given request and block until it is finished.
+         * The partition is the one whose thread is executing the request,
+         * or HStoreConstants.NULL_PARTITION_ID if it is a barrier.
+         */
+        public void execute(int partition, T request);
+    }
+    
+    private final Handler<T> handler;
+    private final int queueSize;
+    private final Map<Integer, PartitionThread> partitions = new HashMap<Integer, PartitionThread>();
+    private final List<Thread> threads = new ArrayList<Thread>();
+    
+    /**
+     * The number of requests that have been dispatched to the
+     * partition threads but have not finished yet
+     */
+    private final AtomicInteger outstanding = new AtomicInteger(0);
+    
+    /**
+     * The first error that killed one of the partition threads.
+     * We check this so that we do not wait forever on a partition
+     * that is no longer making progress.
+     */
+    private volatile Throwable error = null;
+    
+    /**
+     * Constructor
+     * @param handler
+     * @param partitions The partitions to start a thread for. If this is empty,
+     *                   then every request will be executed as a barrier.
+     * @param queueSize The max number of requests that can be waiting at each partition
+     */
+    public CommandLogReplayScheduler(Handler<T> handler, Collection<Integer> partitions, int queueSize) {
+        this.handler = handler;
+        this.queueSize = queueSize;
+        for (int partition : partitions) {
+            PartitionThread r = new PartitionThread(partition);
+            Thread t = new Thread(r);
+            t.setName(handler.getThreadName(partition));
+            t.setDaemon(true);
+            this.partitions.put(partition, r);
+            this.threads.add(t);
+        } // FOR
+    }
+    
+    /**
+     * Start the partition threads
+     */
+    public void start() {
+        for (Thread t : this.threads) t.start();
+    }
+    
+    /**
+     * Stop the partition threads. Anything that is still queued is not executed.
+     */
+    public void shutdown() {
+        for (Thread t : this.threads) t.interrupt();
+    }
+    
+    /**
+     * Dispatch the given request to the given partition's thread. If we do
+     * not have a thread for the partition, then we wait for all of the 
+     * outstanding requests to finish and then execute it from this thread.
+     * @param partition
+     * @param request
+     */
+    public void dispatch(int partition, T request) {
+        this.checkError();
+        PartitionThread r = this.partitions.get(partition);
+        if (r == null) {
+            this.waitForOutstanding();
+            this.handler.execute(HStoreConstants.NULL_PARTITION_ID, request);
+            return;
+        }
+        this.outstanding.incrementAndGet();
+        try {
+            while (r.queue.offer(request, 100, TimeUnit.MILLISECONDS) == false) {
+                this.checkError();
+            } // WHILE
+        } catch (InterruptedException ex) {
+            throw new ServerFaultException("Unexpected interruption while dispatching replayed txns", ex);
+        }
+    }
+    
+    /**
+     * Block until all of the requests that were handed off
+     * to the partition threads have finished
+     */
+    public void waitForOutstanding() {
+        synchronized (this.outstanding) {
+            while (this.outstanding.get() > 0) {
+                this.checkError();
+                try {
+                    this.outstanding.wait();
+                } catch (InterruptedException ex) {
+                    throw new ServerFaultException("Unexpected interruption while waiting for replayed txns", ex);
+                }
+            } // WHILE
+        } // SYNCH
+        this.checkError();
+    }
+    
+    /**
+     * Abort if one of the partition threads failed
+     */
+    private void checkError() {
+        Throwable error = this.error;
+        if (error != null) {
+            throw new ServerFaultException("Failed to replay txns from the command log", error);
+        }
+    }
+    
+    public int getOutstandingCount() {
+        return (this.outstanding.get());
+    }
+    
+    /**
+     * Executes the requests for one partition in the order
+     * that they were dispatched to it.
+     */
+    private class PartitionThread implements Runnable {
+        final int partition;
+        final LinkedBlockingQueue<T> queue = new LinkedBlockingQueue<T>(queueSize);
+        
+        PartitionThread(int partition) {
+            this.partition = partition;
+        }
+        
+        @Override
+        public void run() {
+            try {
+                handler.threadStarted(this.partition);
+                while (true) {
+                    T request = null;
+                    try {
+                        request = this.queue.take();
+                    } catch (InterruptedException ex) {
+                        // We're done!
+                        break;
+                    }
+                    try {
+                        handler.execute(this.partition, request);
+                    } finally {
+                        if (outstanding.decrementAndGet() == 0) {
+                            synchronized (outstanding) {
+                                outstanding.notifyAll();
+                            } // SYNCH
+                        }
+                    }
+                } // WHILE
+            } catch (Throwable ex) {
+                LOG.error(String.format("Replay thread for partition %d failed", this.partition), ex);
+                if (error == null) error = ex;
+                // Wake up the dispatching thread so that it sees the error
+                synchronized (outstanding) {
+                    outstanding.notifyAll();
+                } // SYNCH
+                return;
+            }
+            if (debug.val)
+                LOG.debug(String.format("Replay thread for partition %d is finished", this.partition));
+        }
+    }
+}
@@ -0,0 +1,822 @@
+/***************************************************************************
+ *   Copyright (C) 2013 by H-Store Project                                 *
+ *   Brown University                                                      *
+ *   Massachusetts Institute of Technology                                 *
+ *   Yale University                                                       *
+ *                                                                         *
+ *   Permission is hereby granted, free of charge, to any person obtaining *
+ *   a copy of this software and associated documentation files (the       *
+ *   "Software"), to deal in the Software without restriction, including   *
+ *   without limitation the rights to use, copy, modify, merge, publish,   *
+ *   distribute, sublicense, and/or sell copies of the Software, and to    *
+ *   permit persons to whom the Software is furnished to do so, subject to *
+ *   the following conditions:                                             *
+ *                                                                         *
+ *   The above copyright notice and this permission notice shall be        *
+ *   included in all copies or substantial portions of the Software.       *
+ *                                                                         *
+ *   THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,       *
+ *   EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF    *
+ *   MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.*
+ *   IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR     *
+ *   OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, *
+ *   ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR *
+ *   OTHER DEALINGS IN THE SOFTWARE.                                       *
+ ***************************************************************************/
+package edu.brown.hstore.cmdlog;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+import org.voltdb.CatalogContext;
+import org.voltdb.ClientResponseImpl;
+import org.voltdb.ParameterSet;
+import org.voltdb.StoredProcedureInvocation;
+import org.voltdb.TransactionIdManager;
+import org.voltdb.VoltSystemProcedure;
+import org.voltdb.catalog.Procedure;
+import org.voltdb.catalog.Site;
+import org.voltdb.exceptions.ServerFaultException;
+import org.voltdb.messaging.FastSerializer;
+import org.voltdb.sysprocs.SnapshotRestore;
+import org.voltdb.sysprocs.saverestore.SnapshotUtil;
+import org.voltdb.utils.EstTime;
+
+import com.google.protobuf.RpcCallback;
+
+import edu.brown.hstore.HStoreConstants;
+import edu.brown.hstore.HStoreSite;
+import edu.brown.hstore.HStoreThreadManager;
+import edu.brown.hstore.Hstoreservice.Status;
+import edu.brown.hstore.TransactionInitializer;
+import edu.brown.hstore.conf.HStoreConf;
+import edu.brown.hstore.txns.LocalTransaction;
+import edu.brown.logging.LoggerUtil;
+import edu.brown.logging.LoggerUtil.LoggerBoolean;
+import edu.brown.profilers.ProfileMeasurement;
+import edu.brown.utils.PartitionSet;
+import edu.brown.utils.StringUtil;
+
+/**
+ * Command Log Replayer
+ * This is used to recover an HStoreSite after a crash. It first restores the most
+ * recent snapshot through @SnapshotRestore and then re-executes every txn in the
+ * site's existing command log that committed after that snapshot was taken.
+ * The txns are re-executed in their original txn id order. They are handed directly
+ * to the HStoreSite's transaction queues and skip the network and the CommandLogWriter.
+ * Single-partition txns for different partitions are replayed in parallel, while
+ * multi-partition txns are barriers that wait for everything before them to finish.
+ * If the site wrote out multiple log streams, then the streams are merged by txn id.
+ * <B>Note:</B> The snapshot is restored by the first site in the cluster. The other sites
+ * do not wait for it, so this is currently only safe for single-site deployments.
+ */
+public class CommandLogReplayer {
+    private static final Logger LOG = Logger.getLogger(CommandLogReplayer.class);
+    private static final LoggerBoolean debug = new LoggerBoolean();
+    private static final LoggerBoolean trace = new LoggerBoolean();
+    static {
+        LoggerUtil.attachObserver(LOG, debug, trace);
+    }
+
+    private static final Comparator<LogEntry> TXNID_COMPARATOR = new Comparator<LogEntry>() {
+        @Override
+        public int compare(LogEntry e0, LogEntry e1) {
+            return e0.getTransactionId().compareTo(e1.getTransactionId());
+        }
+    };
+
+    /**
+     * The max number of txns that can be waiting to be replayed at a single
+     * partition before the main replay thread blocks
+     */
+    private static final int PARTITION_QUEUE_SIZE = 1000;
+
+    private final HStoreSite hstore_site;
+    private final HStoreConf hstore_conf;
+    private final CatalogContext catalogContext;
+    private final File logFile;
+    private final List<File> logFiles = new ArrayList<File>();
+
+    /**
+     * The entries from each log stream sorted by their original txn ids
+     */
+    private final Map<Integer, List<LogEntry>> streams = new TreeMap<Integer, List<LogEntry>>();
+    
+    /**
+     * The entries from all of the log streams sorted by their original txn ids.
+     * This does not include the streams' markers.
+     */
+    private final List<LogEntry> entries = new ArrayList<LogEntry>();
+
+    /**
+     * The procedure names that were stored in the header of the log file
+     */
+    private final Map<Integer, String> logProcedures = new TreeMap<Integer, String>();
+
+    /**
+     * The ClientResponse for every txn that we replay is sent back to the
+     * queue of the thread that is waiting for it. The thread registers its
+     * queue here under the txn's client handle before it queues the txn.
+     */
+    private final Map<Long, LinkedBlockingQueue<ClientResponseImpl>> waiters =
+            new ConcurrentHashMap<Long, LinkedBlockingQueue<ClientResponseImpl>>();
+    private final RpcCallback<ClientResponseImpl> replayCallback = new RpcCallback<ClientResponseImpl>() {
+        @Override
+        public void run(ClientResponseImpl parameter) {
+            LinkedBlockingQueue<ClientResponseImpl> queue = waiters.remove(parameter.getClientHandle());
+            assert(queue != null) :
+                "Unexpected ClientResponse for replayed txn [clientHandle=" + parameter.getClientHandle() + "]";
+            queue.add(parameter);
+        }
+    };
+    
+    /**
+     * The response queue for the txns executed by the main replay thread
+     */
+    private final LinkedBlockingQueue<ClientResponseImpl> responses = new LinkedBlockingQueue<ClientResponseImpl>();
+    
+    private final AtomicLong clientHandle = new AtomicLong(0);
+
+    /**
+     * If set to true, then the replayer is currently re-executing txns
+     */
+    private volatile boolean replaying = false;
+
+    private long snapshotTime = -1;
+    /**
+     * The id of the txn that took the restored snapshot. Every txn in the log
+     * with an id that is less than or equal to this is already in the snapshot.
+     */
+    private Long snapshotTxnId = null;
+    private File snapshotDigest = null;
+    private final AtomicInteger replayedCount = new AtomicInteger(0);
+    private int skippedCount = 0;
+    private int discardedCount = 0;
+    private final AtomicInteger failedCount = new AtomicInteger(0);
+
+    private final ProfileMeasurement restoreTime = new ProfileMeasurement("RESTORE");
+    private final ProfileMeasurement replayTime = new ProfileMeasurement("REPLAY");
+
+    /**
+     * Constructor
+     * This will read in all of the entries in the given log file. If the end
+     * of the file contains a partially written entry, then the file will be
+     * truncated to the last complete one so that new entries can be appended to it.
+     * This must be invoked before a CommandLogWriter is opened for the same file.
+     * @param hstore_site
+     * @param logFile
+     */
+    public CommandLogReplayer(HStoreSite hstore_site, File logFile) {
+        this(hstore_site, Collections.singletonList(logFile));
+    }
+    
+    /**
+     * Constructor
+     * This will read in all of the entries in the given log files. The files can
+     * either be a single log file or all of the segments of a rotating log.
+     * @param hstore_site
+     * @param logFiles
+     */
+    public CommandLogReplayer(HStoreSite hstore_site, List<File> logFiles) {
+        this(hstore_site, Collections.singletonMap(0, logFiles));
+    }
+    
+    /**
+     * Constructor
+     * This will read in all of the entries in the given log streams. Each stream
+     * is either a single log file or all of the segments of a rotating log.
+     * @param hstore_site
+     * @param streamFiles The files for each stream, keyed by the stream id
+     */
+    public CommandLogReplayer(HStoreSite hstore_site, Map<Integer, List<File>> streamFiles) {
+        assert(streamFiles.isEmpty() == false);
+        this.hstore_site = hstore_site;
+        this.hstore_conf = hstore_site.getHStoreConf();
+        this.catalogContext = hstore_site.getCatalogContext();
+        
+        // Figure out which snapshot we are going to restore so that 
+        // we can skip over the parts of the log that it already covers
+        if (this.hstore_conf.site.commandlog_snapshot_dir != null) {
+            this.findLastSnapshot(new File(this.hstore_conf.site.commandlog_snapshot_dir));
+        }
+
+        int total = 0;
+        for (Entry<Integer, List<File>> e : streamFiles.entrySet()) {
+            List<LogEntry> stream = new ArrayList<LogEntry>();
+            for (File file : e.getValue()) {
+                this.readLogFile(file, stream);
+                this.logFiles.add(file);
+            } // FOR
+            Collections.sort(stream, TXNID_COMPARATOR);
+            this.streams.put(e.getKey(), stream);
+            total += stream.size();
+        } // FOR
+        assert(this.logFiles.isEmpty() == false);
+        this.logFile = this.logFiles.get(0);
+        if (debug.val)
+            LOG.debug(String.format("Read %d entries from %d command log files in %d streams",
+                      total, this.logFiles.size(), this.streams.size()));
+    }
+    
+    private void readLogFile(File file, List<LogEntry> stream) {
+        LOG.info("Reading command log file for recovery: " + file.getAbsolutePath());
+        CommandLogReader reader = new CommandLogReader(file.getAbsolutePath());
+        if (this.snapshotTxnId != null) {
+            if (reader.seek(this.snapshotTxnId + 1) && debug.val)
+                LOG.debug(String.format("Skipped %d bytes of %s that are covered by the snapshot",
+                          reader.getValidLength(), file.getName()));
+        }
+        for (LogEntry entry : reader) {
+            stream.add(entry);
+        } // FOR
+        this.logProcedures.putAll(reader.procedures);
+
+        long validLength = reader.getValidLength();
+        
+        // We stopped at a corrupted frame but there are valid frames after it.
+        // We can't truncate the file because that would destroy them, and we can't
+        // append to it because we would never be able to read the new entries back in.
+        if (reader.getNextValidFrameOffset() != -1) {
+            String msg = String.format("Command log file %s has a corrupted frame at offset %d but there " +
+                                       "are valid frames after it starting at offset %d. Refusing to truncate it.",
+                                       file, validLength, reader.getNextValidFrameOffset());
+            LOG.error(msg);
+            if (reader.getSegmentHeader() == null) {
+                throw new RuntimeException(msg);
+            }
+        }
+        
+        // Chop off whatever was partially written when we crashed
+        // We don't need to do this for segments because the CommandLogWriter 
+        // will never append anything else to them
+        else if (reader.getSegmentHeader() == null && validLength < file.length()) {
+            LOG.warn(String.format("Truncating %d bytes of incomplete entries from the end of %s",
+                     file.length() - validLength, file.getName()));
+            try {
+                RandomAccessFile raf = new RandomAccessFile(file, "rw");
+                try {
+                    raf.setLength(validLength);
+                } finally {
+                    raf.close();
+                }
+            } catch (IOException ex) {
+                String msg = "Failed to truncate command log file " + file;
+                throw new ServerFaultException(msg, ex);
+            }
+        }
+    }
+
+    // ----------------------------------------------------------------------------
+    // RECOVERY
+    // ----------------------------------------------------------------------------
+
+    /**
+     * Restore the last snapshot and then replay the log on top of it.
+     * This is a blocking call and it must be invoked after the HStoreSite's
+     * PartitionExecutors have been started but before it starts accepting
+     * client connections.
+     */
+    public void recover() {
+        if (this.hstore_conf.site.commandlog_snapshot_dir != null) {
+            this.restoreTime.start();
+            try {
+                this.restoreSnapshot(new File(this.hstore_conf.site.commandlog_snapshot_dir));
+            } finally {
+                this.restoreTime.stop();
+            }
+        }
+
+        this.mergeStreams();
+        this.replaying = true;
+        this.replayTime.start();
+        try {
+            this.replay();
+        } finally {
+            this.replayTime.stop();
+            this.replaying = false;
+        }
+
+        double seconds = this.replayTime.getTotalThinkTimeSeconds();
+        Map<String, Object> m = new LinkedHashMap<String, Object>();
+        m.put("Log File", this.logFile.getAbsolutePath() +
+                          (this.logFiles.size() > 1 ? String.format(" (+%d files)", this.logFiles.size() - 1) : ""));
+        m.put("Snapshot Time", (this.snapshotTime >= 0 ? this.snapshotTime : "<NONE>"));
+        m.put("Snapshot TxnId", (this.snapshotTxnId != null ? this.snapshotTxnId : "<NONE>"));
+        m.put("Restore Time", String.format("%.2f sec", this.restoreTime.getTotalThinkTimeSeconds()));
+        m.put("Replayed Txns", this.replayedCount.get());
+        m.put("Log Streams", this.streams.size());
+        m.put("Skipped Txns", this.skippedCount);
+        m.put("Discarded Txns", this.discardedCount);
+        m.put("Failed Txns", this.failedCount.get());
+        m.put("Replay Time", String.format("%.2f sec", seconds));
+        m.put("Replay Throughput", String.format("%.2f txn/sec", (seconds > 0 ? this.replayedCount.get() / seconds : 0d)));
+        LOG.info(String.format("Finished recovering %s from command log\n%s",
+                 this.hstore_site.getSiteName(), StringUtil.formatMaps(m)));
+    }
+
+    /**
+     * Find the most recent snapshot in the given directory
+     * @param snapshotDir
+     */
+    private void findLastSnapshot(File snapshotDir) {
+        File digests[] = snapshotDir.listFiles();
+        if (digests != null) {
+            for (File f : digests) {
+                if (f.getName().endsWith(".digest") == false) continue;
+                long time;
+                try {
+                    time = SnapshotUtil.retrieveRelevantTableNamesAndTime(f).getFirst();
+                } catch (Exception ex) {
+                    LOG.warn("Ignoring invalid snapshot digest " + f, ex);
+                    continue;
+                }
+                if (time > this.snapshotTime) {
+                    this.snapshotTime = time;
+                    this.snapshotDigest = f;
+                }
+            } // FOR
+        }
+        if (this.snapshotDigest != null) {
+            try {
+                this.snapshotTxnId = getSnapshotTxnId(this.snapshotDigest);
+            } catch (Exception ex) {
+                String msg = "Failed to read the snapshot txn id from " + this.snapshotDigest;
+                throw new ServerFaultException(msg, ex);
+            }
+        }
+    }
+    
+    /**
+     * Returns the id of the txn that took the snapshot with the given digest.
+     * Digests that were written before we started recording the txn id only
+     * have the snapshot's wall-clock start time, so for them we fall back to the
+     * largest txn id that could have been created before then.
+     * @param digest
+     * @throws Exception
+     */
+    protected static long getSnapshotTxnId(File digest) throws Exception {
+        Long txnId = SnapshotUtil.retrieveSnapshotTxnId(digest);
+        if (txnId == null) {
+            long time = SnapshotUtil.retrieveRelevantTableNamesAndTime(digest).getFirst();
+            LOG.warn(String.format("Snapshot digest %s does not have its txn id. " +
+                                   "Using its start time %d to find the txns that it includes",
+                                   digest.getName(), time));
+            txnId = TransactionIdManager.makeIdFromComponents(time, 0, 0) - 1;
+        }
+        return (txnId);
+    }
+
+    /**
+     * Restore the most recent snapshot in the given directory
+     * through the @SnapshotRestore sysproc.
+     * @param snapshotDir
+     */
+    protected void restoreSnapshot(File snapshotDir) {
+        File lastDigest = this.snapshotDigest;
+        if (lastDigest == null) {
+            LOG.warn("No snapshots were found in " + snapshotDir + ". Replaying command log on an empty database");
+            return;
+        }
+
+        // Only one site needs to invoke the restore since it will load
+        // the data for the entire cluster
+        int firstSiteId = Integer.MAX_VALUE;
+        for (Site catalog_site : this.catalogContext.sites) {
+            firstSiteId = Math.min(firstSiteId, catalog_site.getId());
+        } // FOR
+        if (this.hstore_site.getSiteId() != firstSiteId) {
+            if (debug.val)
+                LOG.debug(String.format("Not restoring snapshot at %s. Site %d will restore it",
+                          this.hstore_site.getSiteName(), firstSiteId));
+            return;
+        }
+
+        String name = lastDigest.getName();
+        String nonce = name.substring(0, name.length() - ".digest".length());
+        LOG.info(String.format("Restoring snapshot '%s' from %s", nonce, snapshotDir.getAbsolutePath()));
+
+        String procName = VoltSystemProcedure.procCallName(SnapshotRestore.class);
+        Object params[] = new Object[] { snapshotDir.getAbsolutePath(), nonce, 0l };
+        StoredProcedureInvocation invocation = new StoredProcedureInvocation(this.clientHandle.incrementAndGet(), procName, params);
+        ByteBuffer b = null;
+        try {
+            b = ByteBuffer.wrap(FastSerializer.serialize(invocation));
+        } catch (IOException ex) {
+            throw new RuntimeException(ex);
+        }
+        this.waiters.put(invocation.getClientHandle(), this.responses);
+        this.hstore_site.invocationProcess(b, this.replayCallback);
+        ClientResponseImpl cresponse = this.waitForResponse(this.responses);
+        if (cresponse.getStatus() != Status.OK) {
+            String msg = String.format("Failed to restore snapshot '%s' from %s: %s",
+                                       nonce, snapshotDir, cresponse.getStatusString());
+            throw new ServerFaultException(msg, cresponse.getException());
+        }
+    }
+
+    /**
+     * Merge the entries from all of the log streams into a single list sorted 
+     * by txn id. Markers for txns that are already in the restored snapshot are ignored.
+     * @see CommandLogReplayer#mergeStreams(Map, MergeContext, List)
+     */
+    protected void mergeStreams() {
+        this.entries.clear();
+        this.discardedCount = mergeStreams(this.streams, this.mergeContext, this.entries);
+    }
+    
+    /**
+     * Provides the information about log entries that mergeStreams() needs
+     */
+    protected interface MergeContext {
+        /**
+         * Returns true if the given entry committed before the restored snapshot was taken
+         */
+        boolean inSnapshot(LogEntry entry);
+        /**
+         * Returns the partitions that the given entry's txn touched, 
+         * or null if we can't tell which ones they were.
+         */
+        PartitionSet getPartitions(LogEntry entry);
+    }
+    
+    private final MergeContext mergeContext = new MergeContext() {
+        @Override
+        public boolean inSnapshot(LogEntry entry) {
+            return (CommandLogReplayer.this.inSnapshot(entry));
+        }
+        @Override
+        public PartitionSet getPartitions(LogEntry entry) {
+            return (CommandLogReplayer.this.getPartitions(entry));
+        }
+    };
+    
+    /**
+     * Merge the entries from all of the given log streams into the output list sorted 
+     * by txn id. A multi-partition txn's entry is only in the stream of its base
+     * partition, but every other stream that it touched contains a marker for it
+     * that records which partitions that was. If a stream has a marker for a txn whose
+     * entry never made it to disk in its base partition's stream, then the txns that come
+     * after the marker in that stream and touched any of the missing txn's partitions
+     * may have depended on it, so we have to discard them. The partitions of each discarded
+     * txn are in turn blocked for the rest of its stream, and a marker for a discarded txn
+     * is treated the same as one for a missing txn. The txns after the marker that only touched
+     * other partitions are still replayed. If we can't tell which partitions a txn touched, then
+     * we assume that it touched all of them.
+     * @param streams The entries of each log stream sorted by txn id
+     * @param context
+     * @param output Where the entries that are safe to replay are added
+     * @return The number of txns that were discarded
+     */
+    protected static int mergeStreams(Map<Integer, List<LogEntry>> streams, MergeContext context, List<LogEntry> output) {
+        // The txns whose entries made it to disk and the partitions that
+        // the markers say the multi-partition ones touched
+        Set<Long> txnIds = new HashSet<Long>();
+        Map<Long, PartitionSet> markerPartitions = new HashMap<Long, PartitionSet>();
+        for (List<LogEntry> stream : streams.values()) {
+            for (LogEntry entry : stream) {
+                if (entry.isMarker() == false) {
+                    txnIds.add(entry.getTransactionId());
+                } else if (markerPartitions.containsKey(entry.getTransactionId()) == false) {
+                    markerPartitions.put(entry.getTransactionId(), entry.getMarkerPartitions());
+                }
+            } // FOR
+        } // FOR
+        
+        // Discarding a txn in one stream can make the txns that come after
+        // its markers in the other streams depend on it, so we have to keep
+        // going until we stop finding new ones
+        Set<Long> discarded = new HashSet<Long>();
+        int lastSize = -1;
+        while (lastSize != discarded.size()) {
+            lastSize = discarded.size();
+            for (Entry<Integer, List<LogEntry>> e : streams.entrySet()) {
+                PartitionSet blocked = new PartitionSet();
+                boolean blockAll = false;
+                for (LogEntry entry : e.getValue()) {
+                    Long txnId = entry.getTransactionId();
+                    if (context.inSnapshot(entry)) continue;
+                    
+                    PartitionSet partitions = null;
+                    if (entry.isMarker()) {
+                        partitions = entry.getMarkerPartitions();
+                        if (txnIds.contains(txnId) == false) {
+                            if (lastSize == 0)
+                                LOG.warn(String.format("Log stream #%d has a marker for txn #%d but its entry is missing. " +
+                                                       "Discarding the txns after it in the stream that touched %s",
+                                                       e.getKey(), txnId, (partitions != null ? partitions : "any partition")));
+                        }
+                        else if (discarded.contains(txnId) == false) {
+                            // The txn's entry is fine, but the txn still
+                            // can't be replayed if it came after one that we discarded
+                            if (isBlocked(blocked, blockAll, partitions) == false) continue;
+                            discarded.add(txnId);
+                        }
+                    }
+                    else {
+                        if (discarded.contains(txnId) == false && blockAll == false && blocked.isEmpty()) continue;
+                        partitions = markerPartitions.get(txnId);
+                        if (partitions == null) partitions = context.getPartitions(entry);
+                        if (discarded.contains(txnId) == false) {
+                            if (isBlocked(blocked, blockAll, partitions) == false) continue;
+                            discarded.add(txnId);
+                        }
+                    }
+                    
+                    // Nothing that comes after this txn at its partitions can be replayed
+                    if (partitions == null) {
+                        blockAll = true;
+                    } else {
+                        blocked.addAll(partitions);
+                    }
+                } // FOR
+            } // FOR
+        } // WHILE
+        
+        int discardedCount = 0;
+        for (List<LogEntry> stream : streams.values()) {
+            for (LogEntry entry : stream) {
+                if (entry.isMarker()) continue;
+                if (discarded.contains(entry.getTransactionId())) {
+                    if (debug.val)
+                        LOG.debug(String.format("Discarding %s because it may depend on a missing txn", entry));
+                    discardedCount++;
+                } else {
+                    output.add(entry);
+                }
+            } // FOR
+        } // FOR
+        if (discardedCount > 0) {
+            LOG.warn(String.format("Discarded %d txns from the command log that may depend on missing txns",
+                                   discardedCount));
+        }
+        Collections.sort(output, TXNID_COMPARATOR);
+        return (discardedCount);
+    }
+    
+    /**
+     * Returns true if a txn that touched the given partitions conflicts 
+     * with the partitions that are currently blocked in its stream
+     * @param blocked
+     * @param blockAll
+     * @param partitions The txn's partitions or null if they are unknown
+     */
+    private static boolean isBlocked(PartitionSet blocked, boolean blockAll, PartitionSet partitions) {
+        if (blockAll) return (true);
+        if (blocked.isEmpty()) return (false);
+        if (partitions == null) return (true);
+        for (int partition : partitions.values()) {
+            if (blocked.contains(partition)) return (true);
+        } // FOR
+        return (false);
+    }
+    
+    /**
+     * Returns true if the given entry committed before the restored snapshot was taken
+     */
+    private boolean inSnapshot(LogEntry entry) {
+        return (inSnapshot(this.snapshotTxnId, entry));
+    }
+    
+    /**
+     * Returns true if the given entry is already included in the snapshot taken by 
+     * the given txn. We have to compare the txn ids, since a txn that committed after
+     * the snapshot can still have an id with a timestamp from before it started.
+     * @param snapshotTxnId The id of the txn that took the snapshot or null if there isn't one
+     * @param entry
+     */
+    protected static boolean inSnapshot(Long snapshotTxnId, LogEntry entry) {
+        return (snapshotTxnId != null && entry.getTransactionId().longValue() <= snapshotTxnId.longValue());
+    }
+    
+    /**
+     * Returns the partitions that the given log entry's txn touched when it was
+     * originally executed. We only know this for single-partition procedures, since
+     * their base partition is the only one that they can touch. 
+     * Returns null for everything else.
+     * @param entry
+     */
+    private PartitionSet getPartitions(LogEntry entry) {
+        Procedure catalog_proc = this.getProcedure(entry);
+        if (catalog_proc == null || catalog_proc.getSinglepartition() == false) return (null);
+        int base_partition;
+        try {
+            base_partition = this.hstore_site.getPartitionEstimator().getBasePartition(catalog_proc,
+                                                                                       entry.getProcedureParams().toArray(),
+                                                                                       false);
+        } catch (Exception ex) {
+            if (debug.val)
+                LOG.debug("Failed to calculate the base partition for " + entry, ex);
+            return (null);
+        }
+        if (base_partition == HStoreConstants.NULL_PARTITION_ID) return (null);
+        return (this.catalogContext.getPartitionSetSingleton(base_partition));
+    }
+    
+    /**
+     * Re-execute all of the txns in the log that came after the restored snapshot.
+     * The log entries are dispatched in their original order. Txns that are
+     * predicted to be single-partitioned on one of this site's partitions are
+     * handed off to that partition's replay thread, which executes them
+     * one at a time in order. This allows txns for different partitions to run
+     * concurrently on their PartitionExecutors. Every other txn is a barrier:
+     * we wait for all of the outstanding single-partition txns to finish and
+     * then execute it by itself from this thread.
+     */
+    protected void replay() {
+        final TransactionInitializer txnInitializer = this.hstore_site.getTransactionInitializer();
+        
+        // Each of our local partitions gets its own replay thread and response queue.
+        // If we're not replaying in parallel, then every txn is executed as a barrier
+        final Map<Integer, LinkedBlockingQueue<ClientResponseImpl>> partitionResponses =
+                new HashMap<Integer, LinkedBlockingQueue<ClientResponseImpl>>();
+        if (this.hstore_conf.site.commandlog_replay_parallel) {
+            for (int partition : this.hstore_site.getLocalPartitionIds().values()) {
+                partitionResponses.put(partition, new LinkedBlockingQueue<ClientResponseImpl>());
+            } // FOR
+        }
+        CommandLogReplayScheduler.Handler<ReplayRequest> handler = new CommandLogReplayScheduler.Handler<ReplayRequest>() {
+            @Override
+            public String getThreadName(int partition) {
+                return HStoreThreadManager.getThreadName(hstore_site, partition,
+                                                         HStoreConstants.THREAD_NAME_CMDLOG_REPLAY);
+            }
+            @Override
+            public void threadStarted(int partition) {
+                hstore_site.getThreadManager().registerProcessingThread();
+            }
+            @Override
+            public void execute(int partition, ReplayRequest req) {
+                LinkedBlockingQueue<ClientResponseImpl> queue = partitionResponses.get(partition);
+                if (queue == null) queue = responses;
+                CommandLogReplayer.this.execute(txnInitializer, queue, req.entry, req.catalog_proc, req.ts);
+            }
+        };
+        CommandLogReplayScheduler<ReplayRequest> scheduler =
+                new CommandLogReplayScheduler<ReplayRequest>(handler, partitionResponses.keySet(), PARTITION_QUEUE_SIZE);
+        scheduler.start();
+        
+        try {
+            for (LogEntry entry : this.entries) {
+                // Skip anything that is already in the snapshot
+                if (this.inSnapshot(entry)) {
+                    this.skippedCount++;
+                    continue;
+                }
+                Procedure catalog_proc = this.getProcedure(entry);
+                if (catalog_proc == null) {
+                    LOG.warn(String.format("Unable to replay %s because its procedure is not in the catalog", entry));
+                    this.failedCount.incrementAndGet();
+                    continue;
+                }
+                LocalTransaction ts = this.createTransaction(txnInitializer, catalog_proc, entry.getProcedureParams());
+                
+                int partition = HStoreConstants.NULL_PARTITION_ID;
+                if (ts.isPredictSinglePartition()) {
+                    partition = ts.getBasePartition();
+                }
+                if (trace.val)
+                    LOG.trace(String.format("Dispatching %s to partition %d", entry, partition));
+                scheduler.dispatch(partition, new ReplayRequest(entry, catalog_proc, ts));
+            } // FOR
+            scheduler.waitForOutstanding();
+        } finally {
+            scheduler.shutdown();
+        }
+    }
+    
+    /**
+     * Create a new LocalTransaction handle for the given procedure invocation
+     * @param txnInitializer
+     * @param catalog_proc
+     * @param params
+     * @return
+     */
+    private LocalTransaction createTransaction(TransactionInitializer txnInitializer,
+                                               Procedure catalog_proc,
+                                               ParameterSet params) {
+        long client_handle = this.clientHandle.incrementAndGet();
+        int base_partition = txnInitializer.calculateBasePartition(client_handle,
+                                                                   catalog_proc,
+                                                                   params,
+                                                                   HStoreConstants.NULL_PARTITION_ID);
+        return txnInitializer.createLocalTransaction(null,
+                                                     EstTime.currentTimeMillis(),
+                                                     client_handle,
+                                                     base_partition,
+                                                     catalog_proc,
+                                                     params,
+                                                     this.replayCallback);
+    }
+    
+    /**
+     * Queue the given txn and block until it finishes. If it gets rejected,
+     * then we will keep executing it with a new txn handle until it is not.
+     * @param txnInitializer
+     * @param queue The queue that the txn's ClientResponse will be sent to
+     * @param entry
+     * @param catalog_proc
+     * @param ts
+     */
+    private void execute(TransactionInitializer txnInitializer,
+                         LinkedBlockingQueue<ClientResponseImpl> queue,
+                         LogEntry entry,
+                         Procedure catalog_proc,
+                         LocalTransaction ts) {
+        Status status = null;
+        while (true) {
+            if (trace.val)
+                LOG.trace(String.format("Replaying %s as %s", entry, ts));
+            this.waiters.put(ts.getClientHandle(), queue);
+            this.hstore_site.transactionQueue(ts);
+            status = this.waitForResponse(queue).getStatus();
+            if (status != Status.ABORT_REJECT) break;
+            if (debug.val)
+                LOG.debug(String.format("Replay of %s was rejected. Retrying...", entry));
+            ts = this.createTransaction(txnInitializer, catalog_proc, entry.getProcedureParams());
+        } // WHILE
+
+        if (status == Status.OK) {
+            this.replayedCount.incrementAndGet();
+        } else {
+            LOG.warn(String.format("Replay of %s finished with status %s", entry, status));
+            this.failedCount.incrementAndGet();
+        }
+    }
+    
+    private Procedure getProcedure(LogEntry entry) {
+        // The procedure ids may have changed if the catalog was recompiled,
+        // so we will always prefer to use the name that is in the log
+        String procName = this.logProcedures.get(entry.getProcedureId());
+        if (procName != null) {
+            return (this.catalogContext.procedures.getIgnoreCase(procName));
+        }
+        return (this.catalogContext.getProcedureById(entry.getProcedureId()));
+    }
+
+    private ClientResponseImpl waitForResponse(LinkedBlockingQueue<ClientResponseImpl> queue) {
+        try {
+            return (queue.take());
+        } catch (InterruptedException ex) {
+            throw new ServerFaultException("Unexpected interruption while waiting for replayed txn", ex);
+        }
+    }
+
+    // ----------------------------------------------------------------------------
+    // REPLAY REQUEST
+    // ----------------------------------------------------------------------------
+    
+    private static class ReplayRequest {
+        final LogEntry entry;
+        final Procedure catalog_proc;
+        final LocalTransaction ts;
+        
+        ReplayRequest(LogEntry entry, Procedure catalog_proc, LocalTransaction ts) {
+            this.entry = entry;
+            this.catalog_proc = catalog_proc;
+            this.ts = ts;
+        }
+    }
+    
+    // ----------------------------------------------------------------------------
+    // UTILITY METHODS
+    // ----------------------------------------------------------------------------
+
+    /**
+     * Returns true if the replayer is currently re-executing txns from the log.
+     * Txns that are executed while this is true should not be written
+     * back out to the command log.
+     */
+    public boolean isReplaying() {
+        return (this.replaying);
+    }
+
+    public int getReplayedCount() {
+        return (this.replayedCount.get());
+    }
+
+    public ProfileMeasurement getReplayTime() {
+        return (this.replayTime);
+    }
+
+    public ProfileMeasurement getRestoreTime() {
+        return (this.restoreTime);
+    }
+}
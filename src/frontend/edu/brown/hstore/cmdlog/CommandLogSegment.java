@@ -0,0 +1,429 @@
+/***************************************************************************
+ *   Copyright (C) 2013 by H-Store Project                                 *
+ *   Brown University                                                      *
+ *   Massachusetts Institute of Technology                                 *
+ *   Yale University                                                       *
+ *                                                                         *
+ *   Permission is hereby granted, free of charge, to any person obtaining *
+ *   a copy of this software and associated documentation files (the       *
+ *   "Software"), to deal in the Software without restriction, including   *
+ *   without limitation the rights to use, copy, modify, merge, publish,   *
+ *   distribute, sublicense, and/or sell copies of the Software, and to    *
+ *   permit persons to whom the Software is furnished to do so, subject to *
+ *   the following conditions:                                             *
+ *                                                                         *
+ *   The above copyright notice and this permission notice shall be        *
+ *   included in all copies or substantial portions of the Software.       *
+ *                                                                         *
+ *   THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,       *
+ *   EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF    *
+ *   MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.*
+ *   IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR     *
+ *   OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, *
+ *   ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR *
+ *   OTHER DEALINGS IN THE SOFTWARE.                                       *
+ ***************************************************************************/
+package edu.brown.hstore.cmdlog;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.log4j.Logger;
+
+import edu.brown.logging.LoggerUtil;
+import edu.brown.logging.LoggerUtil.LoggerBoolean;
+
+/**
+ * A single fixed-size segment of a rotating command log.
+ * Each segment file is preallocated to its full size when it is created so that
+ * appending entries to it never changes the file's metadata. The segment starts
+ * with a fixed-size header that records the range of txn ids stored in it,
+ * followed by the regular command log header and then the log entries.
+ * The rest of the file after the last entry is filled with zeros.
+ */
+public class CommandLogSegment {
+    private static final Logger LOG = Logger.getLogger(CommandLogSegment.class);
+    private static final LoggerBoolean debug = new LoggerBoolean();
+    private static final LoggerBoolean trace = new LoggerBoolean();
+    static {
+        LoggerUtil.attachObserver(LOG, debug, trace);
+    }
+
+    /**
+     * Marker at the start of every segment file. The original single file
+     * log format starts with a boolean, so this can never be confused with it.
+     */
+    public static final int SEGMENT_MAGIC = 0x484C4F47; // "HLOG"
+
+    public static final int SEGMENT_VERSION = 1;
+
+    /**
+     * The number of bytes at the start of each segment that are reserved for the header
+     */
+    public static final int SEGMENT_HEADER_SIZE = 64;
+
+    /**
+     * Marker for a segment that does not contain any txns yet
+     */
+    public static final long NULL_TXN_ID = -1l;
+
+    private static final Pattern SEGMENT_PATTERN = Pattern.compile("^(.+)-([\\d]+)" +
+                                                                   Pattern.quote(CommandLogWriter.LOG_OUTPUT_EXT) + "$");
+
+    private static final int PREALLOCATE_CHUNK_SIZE = 1024 * 1024; // 1MB
+
+    private final File file;
+    private final long segmentId;
+    private final long capacity;
+    private FileChannel channel;
+    private final ByteBuffer header = ByteBuffer.allocate(SEGMENT_HEADER_SIZE);
+
+    private long position = SEGMENT_HEADER_SIZE;
+    private long firstTxnId = NULL_TXN_ID;
+    private long lastTxnId = NULL_TXN_ID;
+
+    // ----------------------------------------------------------------------------
+    // INITIALIZATION
+    // ----------------------------------------------------------------------------
+
+    private CommandLogSegment(File file, long segmentId, long capacity) {
+        this.file = file;
+        this.segmentId = segmentId;
+        this.capacity = capacity;
+    }
+
+    /**
+     * Create a new segment file and fill it with zeros up to the given capacity.
+     * This will overwrite any file that already exists at the given path.
+     * @param file
+     * @param segmentId
+     * @param capacity The size of the segment file in bytes
+     * @return
+     * @throws IOException
+     */
+    public static CommandLogSegment create(File file, long segmentId, long capacity) throws IOException {
+        assert(capacity > SEGMENT_HEADER_SIZE) : "Invalid segment capacity " + capacity;
+        if (debug.val)
+            LOG.debug(String.format("Preallocating %d bytes for new command log segment %s",
+                      capacity, file.getName()));
+
+        CommandLogSegment segment = new CommandLogSegment(file, segmentId, capacity);
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        segment.channel = raf.getChannel();
+        try {
+            segment.channel.truncate(0);
+
+            // We have to actually write out the zeros here. If we just set the
+            // length of the file, then the filesystem will create a sparse file
+            // and it will still have to allocate blocks whenever we append to it.
+            ByteBuffer zeros = ByteBuffer.allocateDirect(PREALLOCATE_CHUNK_SIZE);
+            long offset = 0;
+            while (offset < capacity) {
+                zeros.clear();
+                zeros.limit((int)Math.min(PREALLOCATE_CHUNK_SIZE, capacity - offset));
+                while (zeros.hasRemaining()) {
+                    offset += segment.channel.write(zeros, offset);
+                } // WHILE
+            } // WHILE
+            segment.writeHeader();
+            segment.channel.force(true);
+        } catch (IOException ex) {
+            segment.channel.close();
+            throw ex;
+        }
+        return (segment);
+    }
+
+    // ----------------------------------------------------------------------------
+    // WRITE METHODS
+    // ----------------------------------------------------------------------------
+
+    /**
+     * Append the contents of the given buffer at the end of this segment.
+     * The caller must first check whether there is enough room left in
+     * the segment using {@link #remaining()}.
+     * @param buffer
+     * @return
+     * @throws IOException
+     */
+    public int write(ByteBuffer buffer) throws IOException {
+        int total = 0;
+        while (buffer.hasRemaining()) {
+            total += this.channel.write(buffer, this.position + total);
+        } // WHILE
+        this.position += total;
+        if (this.position > this.capacity) {
+            LOG.warn(String.format("Command log segment %s grew past its preallocated size [capacity=%d, position=%d]",
+                     this.file.getName(), this.capacity, this.position));
+        }
+        return (total);
+    }
+
+    /**
+     * Record that the given range of txn ids was written into this segment.
+     * The new range will not be persisted until the next sync.
+     * @param minTxnId
+     * @param maxTxnId
+     */
+    public void addTxnIds(long minTxnId, long maxTxnId) {
+        if (this.firstTxnId == NULL_TXN_ID || minTxnId < this.firstTxnId) {
+            this.firstTxnId = minTxnId;
+        }
+        if (this.lastTxnId == NULL_TXN_ID || maxTxnId > this.lastTxnId) {
+            this.lastTxnId = maxTxnId;
+        }
+    }
+
+    /**
+     * Write out the header and force everything in this segment to disk.
+     * Since the file was preallocated, we only need to sync the data and
+     * not the file's metadata.
+     * @throws IOException
+     */
+    public void sync() throws IOException {
+        this.writeHeader();
+        this.channel.force(false);
+    }
+
+    /**
+     * Sync this segment and close its file handle.
+     * @throws IOException
+     */
+    public void close() throws IOException {
+        if (this.channel == null) return;
+        try {
+            this.sync();
+        } finally {
+            this.channel.close();
+            this.channel = null;
+        }
+    }
+
+    private void writeHeader() throws IOException {
+        this.header.clear();
+        this.header.putInt(SEGMENT_MAGIC);
+        this.header.putInt(SEGMENT_VERSION);
+        this.header.putLong(this.segmentId);
+        this.header.putLong(this.firstTxnId);
+        this.header.putLong(this.lastTxnId);
+        this.header.putLong(this.position);
+        this.header.flip();
+        while (this.header.hasRemaining()) {
+            this.channel.write(this.header, this.header.position());
+        } // WHILE
+    }
+
+    // ----------------------------------------------------------------------------
+    // ACCESS METHODS
+    // ----------------------------------------------------------------------------
+
+    public File getFile() {
+        return (this.file);
+    }
+    public long getSegmentId() {
+        return (this.segmentId);
+    }
+    public long getFirstTxnId() {
+        return (this.firstTxnId);
+    }
+    public long getLastTxnId() {
+        return (this.lastTxnId);
+    }
+    public long getPosition() {
+        return (this.position);
+    }
+    public Header getHeader() {
+        return new Header(this.segmentId, this.firstTxnId, this.lastTxnId, this.position);
+    }
+
+    /**
+     * Returns the number of bytes that can still be written
+     * into this segment without growing the file.
+     */
+    public long remaining() {
+        return (Math.max(0, this.capacity - this.position));
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s[id=%d, txns=%d-%d, position=%d]", this.file.getName(),
+                             this.segmentId, this.firstTxnId, this.lastTxnId, this.position);
+    }
+
+    // ----------------------------------------------------------------------------
+    // STATIC UTILITY METHODS
+    // ----------------------------------------------------------------------------
+
+    /**
+     * Segment Header
+     * This is what is stored at the beginning of each segment file.
+     */
+    public static class Header {
+        public final long segmentId;
+        public final long firstTxnId;
+        public final long lastTxnId;
+        public final long position;
+
+        private Header(long segmentId, long firstTxnId, long lastTxnId, long position) {
+            this.segmentId = segmentId;
+            this.firstTxnId = firstTxnId;
+            this.lastTxnId = lastTxnId;
+            this.position = position;
+        }
+        @Override
+        public String toString() {
+            return String.format("Segment #%d [txns=%d-%d, position=%d]",
+                                 this.segmentId, this.firstTxnId, this.lastTxnId, this.position);
+        }
+    }
+
+    /**
+     * Read the segment header from the beginning of the given buffer.
+     * Returns null if the buffer does not start with a segment header.
+     * The buffer's position is moved to just past the header only if
+     * the header was found.
+     * @param buffer
+     * @return
+     */
+    public static Header readHeader(ByteBuffer buffer) {
+        if (buffer.remaining() < SEGMENT_HEADER_SIZE) return (null);
+        int start = buffer.position();
+        if (buffer.getInt(start) != SEGMENT_MAGIC) return (null);
+        int version = buffer.getInt(start + 4);
+        if (version != SEGMENT_VERSION) {
+            throw new RuntimeException("Unsupported command log segment version " + version);
+        }
+        Header header = new Header(buffer.getLong(start + 8),
+                                   buffer.getLong(start + 16),
+                                   buffer.getLong(start + 24),
+                                   buffer.getLong(start + 32));
+        buffer.position(start + SEGMENT_HEADER_SIZE);
+        return (header);
+    }
+
+    /**
+     * Read the segment header from the given file
+     * Returns null if the file is not a command log segment
+     * @param file
+     * @return
+     * @throws IOException
+     */
+    public static Header readHeader(File file) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(SEGMENT_HEADER_SIZE);
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel c = raf.getChannel();
+            while (buffer.hasRemaining()) {
+                if (c.read(buffer, buffer.position()) < 0) break;
+            } // WHILE
+        } finally {
+            raf.close();
+        }
+        buffer.flip();
+        return (readHeader(buffer));
+    }
+
+    /**
+     * Return the file for the segment with the given id
+     * @param baseFile The name of the log file without segments
+     * @param segmentId
+     * @return
+     */
+    public static File getSegmentFile(File baseFile, long segmentId) {
+        return new File(baseFile.getParentFile(),
+                        String.format("%s-%08d%s", getPrefix(baseFile), segmentId, CommandLogWriter.LOG_OUTPUT_EXT));
+    }
+
+    /**
+     * Return the id of the segment stored in the given file based on its name
+     * or -1 if the file is not a segment for the given base log file
+     * @param baseFile
+     * @param file
+     * @return
+     */
+    public static long getSegmentId(File baseFile, File file) {
+        Matcher m = SEGMENT_PATTERN.matcher(file.getName());
+        if (m.matches() && m.group(1).equals(getPrefix(baseFile))) {
+            return (Long.parseLong(m.group(2)));
+        }
+        return (-1);
+    }
+
+    /**
+     * Return all of the existing segment files for the given log
+     * sorted by their segment ids.
+     * @param baseFile
+     * @return
+     */
+    public static List<File> getSegmentFiles(final File baseFile) {
+        List<File> files = new ArrayList<File>();
+        File dir = baseFile.getAbsoluteFile().getParentFile();
+        File matches[] = dir.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return (getSegmentId(baseFile, new File(dir, name)) >= 0);
+            }
+        });
+        if (matches != null) {
+            Collections.addAll(files, matches);
+            Collections.sort(files);
+        }
+        return (files);
+    }
+
+    /**
+     * Remove all of the given closed segments for the given log that only contain 
+     * txns with ids that are less than the given txn id. If archiveDir is not null, 
+     * then the segment files are moved into it instead of being deleted. The segments 
+     * that were removed are also removed from the map.
+     * @param baseFile
+     * @param closedSegments The headers of the closed segments, keyed by their segment ids
+     * @param txnId
+     * @param archiveDir
+     * @return The number of segments that were removed
+     */
+    public static int truncate(File baseFile, Map<Long, Header> closedSegments, long txnId, File archiveDir) {
+        int removed = 0;
+        Iterator<Entry<Long, Header>> it = closedSegments.entrySet().iterator();
+        while (it.hasNext()) {
+            Entry<Long, Header> e = it.next();
+            if (e.getValue().lastTxnId >= txnId) continue;
+            
+            File file = getSegmentFile(baseFile, e.getKey());
+            boolean ret;
+            if (archiveDir != null) {
+                ret = file.renameTo(new File(archiveDir, file.getName()));
+            } else {
+                ret = file.delete();
+            }
+            if (ret == false) {
+                LOG.warn(String.format("Failed to %s command log segment %s",
+                         (archiveDir != null ? "archive" : "delete"), file));
+                continue;
+            }
+            it.remove();
+            removed++;
+        } // WHILE
+        return (removed);
+    }
+
+    private static String getPrefix(File baseFile) {
+        String name = baseFile.getName();
+        if (name.endsWith(CommandLogWriter.LOG_OUTPUT_EXT)) {
+            name = name.substring(0, name.length() - CommandLogWriter.LOG_OUTPUT_EXT.length());
+        }
+        return (name);
+    }
+}
@@ -30,10 +30,20 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.Semaphore;
-import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
 
 import org.apache.log4j.Logger;
 import org.voltdb.CatalogContext;
@@ -41,7 +51,6 @@ import org.voltdb.ClientResponseImpl;
 import org.voltdb.catalog.Procedure;
 import org.voltdb.exceptions.ServerFaultException;
 import org.voltdb.messaging.FastSerializer;
-import org.voltdb.utils.CompressionService;
 import org.voltdb.utils.DBBPool.BBContainer;
 
 import com.google.protobuf.RpcCallback;
@@ -57,6 +66,7 @@ import edu.brown.logging.LoggerUtil.LoggerBoolean;
 import edu.brown.profilers.CommandLogWriterProfiler;
 import edu.brown.profilers.ProfileMeasurementUtil;
 import edu.brown.utils.ExceptionHandlingRunnable;
+import edu.brown.utils.PartitionSet;
 import edu.brown.utils.StringUtil;
 
 /**
@@ -78,6 +88,36 @@ public class CommandLogWriter extends ExceptionHandlingRunnable implements Shutd
      */
     public static final String LOG_OUTPUT_EXT = ".cmdlog"; 
     
+    /**
+     * Flags stored in the first byte of the log header
+     */
+    static final int HEADER_GROUP_COMMIT = 0x01;
+    static final int HEADER_CODEC_SHIFT = 1;
+    static final int HEADER_CODEC_MASK = 0x1F;
+    static final int HEADER_FRAMED = 0x40;
+    
+    /**
+     * The number of sets of log entry buffers to allocate. We need one that the
+     * partitions are adding entries to, one that is being serialized by the 
+     * WriterThread, and one that is being written to disk by the SyncThread.
+     */
+    private static final int NUM_ENTRY_BUFFER_SETS = 3;
+    
+    /**
+     * The max number of serialized batches that can be waiting for the SyncThread
+     */
+    private static final int SYNC_QUEUE_SIZE = 1;
+    
+    /**
+     * The weight of new samples in the moving averages for the adaptive window
+     */
+    private static final double ADAPTIVE_ALPHA = 0.2;
+    
+    /**
+     * The smallest window that we will ever use (nanoseconds)
+     */
+    private static final long MIN_WINDOW = 50000; // 50us
+    
     /**
      * Special LogEntry that holds additional data that we
      * need in order to send back a ClientResponse
@@ -88,16 +128,23 @@ public class CommandLogWriter extends ExceptionHandlingRunnable implements Shutd
         protected long initiateTime;
         protected int restartCounter;
         protected Procedure catalog_proc ; // Marco
+        protected StreamCommit commit;
         
-        public LogEntry init(LocalTransaction ts, ClientResponseImpl cresponse) {
+        public LogEntry init(LocalTransaction ts, ClientResponseImpl cresponse, StreamCommit commit) {
             this.cresponse = cresponse;
             this.clientCallback = ts.getClientCallback();
             this.initiateTime = ts.getInitiateTime();
             this.restartCounter = ts.getRestartCounter();
             this.catalog_proc = ts.getProcedure();	// Marco
+            this.commit = commit;
             return super.init(ts);
         }
         
+        public LogEntry initMarker(LocalTransaction ts, StreamCommit commit) {
+            this.commit = commit;
+            return super.initMarker(ts);
+        }
+        
         @Override
         public void finish() {
             super.finish();
@@ -105,6 +152,38 @@ public class CommandLogWriter extends ExceptionHandlingRunnable implements Shutd
             this.clientCallback = null;
             this.initiateTime = -1;
             this.restartCounter = -1;
+            this.commit = null;
+        }
+    }
+    
+    /**
+     * A multi-partition txn whose entry and markers are written to more than
+     * one log stream. We cannot send back its ClientResponse until every one
+     * of those streams has written them out to disk. The SyncThread of the last
+     * stream to finish is the one that sends the response.
+     */
+    protected static class StreamCommit {
+        private final ClientResponseImpl cresponse;
+        private final RpcCallback<ClientResponseImpl> clientCallback;
+        private final long initiateTime;
+        private final int restartCounter;
+        private final Procedure catalog_proc;
+        private final AtomicInteger remaining;
+        
+        StreamCommit(LocalTransaction ts, ClientResponseImpl cresponse, int numStreams) {
+            this.cresponse = cresponse;
+            this.clientCallback = ts.getClientCallback();
+            this.initiateTime = ts.getInitiateTime();
+            this.restartCounter = ts.getRestartCounter();
+            this.catalog_proc = ts.getProcedure();
+            this.remaining = new AtomicInteger(numStreams);
+        }
+        
+        /**
+         * Returns true if the calling stream was the last one to write this txn out
+         */
+        boolean arrive() {
+            return (this.remaining.decrementAndGet() == 0);
         }
     }
     
@@ -125,7 +204,7 @@ public class CommandLogWriter extends ExceptionHandlingRunnable implements Shutd
             this.startPos = 0;
             this.nextPos = 0; 
         }
-        public LogEntry next(LocalTransaction ts, ClientResponseImpl cresponse) {
+        public LogEntry next(LocalTransaction ts, ClientResponseImpl cresponse, StreamCommit commit) {
             // Check that they don't try add the same txn twice right after each other
             if (hstore_conf.site.jvm_asserts) {
                 LogEntry prev = this.buffer[this.previous()];
@@ -140,7 +219,7 @@ public class CommandLogWriter extends ExceptionHandlingRunnable implements Shutd
             // we are going to maintain separate buffers for each partition.
             // But we need to think about what happens if we are about to wrap around and we
             // haven't been flushed to disk yet.
-            LogEntry ret = this.buffer[this.nextPos].init(ts, cresponse); 
+            LogEntry ret = this.buffer[this.nextPos].init(ts, cresponse, commit); 
             this.nextPos = (this.nextPos + 1) % this.buffer.length;;
             return ret;
         }
@@ -171,30 +250,150 @@ public class CommandLogWriter extends ExceptionHandlingRunnable implements Shutd
     private final File outputFile;
     private final FileChannel fstream;
     
+    /**
+     * The size in bytes of each log segment. If this is zero, then all of the 
+     * entries are written to a single file that grows forever.
+     */
+    private final long segmentSize;
+    private CommandLogSegment currentSegment;
+    private CommandLogSegment nextSegment;
+    private long nextSegmentId = 0;
+    
+    /**
+     * The headers of the segments that are full and no longer being written to,
+     * keyed by their segment ids. These are removed once they are covered by a snapshot.
+     */
+    private final SortedMap<Long, CommandLogSegment.Header> closedSegments = new TreeMap<Long, CommandLogSegment.Header>();
+    
+    /**
+     * The number of local partitions that still need to finish writing out
+     * a snapshot before we can truncate the log for it, keyed by
+     * the snapshot's txn id.
+     */
+    private final Map<Long, AtomicInteger> pendingSnapshots = new ConcurrentHashMap<Long, AtomicInteger>();
+    
+    /**
+     * The serialized log header that is written at the beginning
+     * of the file (or of every segment)
+     */
+    private final ByteBuffer logHeader;
+    
     private final Semaphore writingEntry;
     private final int numWritingLocks;
     
+    /**
+     * The local partitions whose txns are written to this log stream
+     */
+    private final PartitionSet partitions;
+    
+    /**
+     * The offset of each partition's entry buffer, indexed by partition id.
+     * This is -1 for any partition that is not written to this stream.
+     */
+    private final int partitionOffsets[];
+    
+    /**
+     * The first partition of this stream. This is null if the
+     * stream is for all of the partitions at the site.
+     */
+    private final Integer streamPartition;
+    
+    /**
+     * Marker entries for multi-partition txns whose base partition is written
+     * to a different stream. These can be added by any partition's thread, so 
+     * they are kept separate from the per-partition entry buffers.
+     */
+    private final ConcurrentLinkedQueue<WriterLogEntry> markers = new ConcurrentLinkedQueue<WriterLogEntry>();
+    
     private final boolean useGroupCommit;
     private boolean usePostProcessor;
     private final int group_commit_size;
     private final FastSerializer singletonSerializer;
     private final LogEntry singletonLogEntry;
+    
+    /**
+     * The codec used to encode each group commit batch before it is written out
+     */
+    private final CommandLogCodec codec;
+    
      
     private int commitBatchCounter = 0;
-    private boolean stop = false;
-    private Thread self;
+    private volatile boolean stop = false;
+    private volatile Thread self;
+    private Thread syncThread;
 
     /**
-     * If set to true, then the WriterThread is in the middle of writing out
-     * data to the log file.
+     * If true, then the group commit window is adjusted at runtime
      */
-    private final AtomicBoolean flushInProgress = new AtomicBoolean(false);
+    private final boolean adaptive;
     
     /**
-     * The log entry buffers (one per partition) 
+     * The number of txns that have been added to the current buffers
+     * since the last time that the WriterThread swapped them
+     */
+    private final AtomicInteger pendingTxns = new AtomicInteger(0);
+    
+    /**
+     * The current max amount of time in nanoseconds that a txn will
+     * wait in the buffers before they are flushed. 
+     */
+    private volatile long window;
+    private final long maxWindow;
+    private long minWindow = MIN_WINDOW;
+    
+    /**
+     * The current number of txns that will cause the buffers to be flushed
+     */
+    private volatile int targetTxns = 1;
+    private final int maxTargetTxns;
+    private final long maxBatchBytes;
+    
+    /**
+     * Exponential moving averages used to compute the window
+     */
+    private volatile double syncLatency = 0;
+    private double arrivalRate = 0; // txns per nanosecond
+    private volatile long avgEntryBytes = 0;
+    private long lastSwapTime = -1;
+    
+    /**
+     * True when the SyncThread is waiting for the next batch
+     */
+    private volatile boolean syncIdle = true;
+    
+    /**
+     * The id of the next group commit batch that the WriterThread will create
+     */
+    private volatile long nextBatchId = 0;
+    
+    /**
+     * The id of the last group commit batch that the SyncThread finished
+     */
+    private volatile long lastFinishedBatchId = -1;
+    
+    /**
+     * The log entry buffers (one per partition) that the partitions 
+     * are currently adding new entries to
      */
     private CircularLogEntryBuffer entries[];
-    private CircularLogEntryBuffer entriesFlushing[];
+    
+    /**
+     * All of the sets of log entry buffers that we have allocated
+     */
+    private CircularLogEntryBuffer allEntries[][];
+    
+    /**
+     * The sets of log entry buffers that are empty and can be swapped in
+     * for the partitions to write to. A set is only returned here after its
+     * entries have been written to disk and their responses have been sent.
+     */
+    private BlockingQueue<CircularLogEntryBuffer[]> freeEntries;
+    
+    /**
+     * Serialized group commit batches that are waiting to be written
+     * out to disk by the SyncThread
+     */
+    private BlockingQueue<CommitBatch> syncQueue;
     
     private CommandLogWriterProfiler profiler;
     
@@ -204,6 +403,32 @@ public class CommandLogWriter extends ExceptionHandlingRunnable implements Shutd
      * @param path
      */
     public CommandLogWriter(HStoreSite hstore_site, File outputFile) {
+        this(hstore_site, outputFile, false);
+    }
+    
+    /**
+     * Constructor
+     * If append is true and the output file already exists, then new entries
+     * will be written after the existing contents of the file instead of 
+     * truncating it. This is used when the existing log was replayed at start-up.
+     * @param hstore_site
+     * @param outputFile
+     * @param append
+     */
+    public CommandLogWriter(HStoreSite hstore_site, File outputFile, boolean append) {
+        this(hstore_site, outputFile, append, hstore_site.getLocalPartitionIds());
+    }
+    
+    /**
+     * Constructor
+     * This creates a log stream that only contains the txns whose base 
+     * partition is one of the given local partitions.
+     * @param hstore_site
+     * @param outputFile
+     * @param append
+     * @param partitions
+     */
+    public CommandLogWriter(HStoreSite hstore_site, File outputFile, boolean append, PartitionSet partitions) {
         this.hstore_site = hstore_site;
         this.hstore_conf = hstore_site.getHStoreConf();
         this.catalogContext = hstore_site.getCatalogContext();
@@ -211,8 +436,21 @@ public class CommandLogWriter extends ExceptionHandlingRunnable implements Shutd
         this.singletonSerializer = new FastSerializer(true, true);
         //this.group_commit_size = Math.max(1, hstore_conf.site.exec_command_logging_group_commit); //Group commit threshold, or 1 if group commit is turned off
         
-        // Number of local partitions
-        int num_partitions = hstore_site.getLocalPartitionIds().size();
+        // Number of local partitions in this stream
+        this.partitions = partitions;
+        this.partitionOffsets = new int[this.catalogContext.numberOfPartitions];
+        Arrays.fill(this.partitionOffsets, -1);
+        int num_partitions = 0;
+        for (int partition : partitions.values()) {
+            assert(hstore_site.isLocalPartition(partition));
+            this.partitionOffsets[partition] = num_partitions++;
+        } // FOR
+        assert(num_partitions > 0);
+        if (num_partitions == hstore_site.getLocalPartitionIds().size()) {
+            this.streamPartition = null;
+        } else {
+            this.streamPartition = partitions.values()[0];
+        }
         this.numWritingLocks = num_partitions;
         
         // Number of log entries per partition
@@ -227,18 +465,33 @@ public class CommandLogWriter extends ExceptionHandlingRunnable implements Shutd
             LOG.debug("group_commit_timeout: " + hstore_conf.site.commandlog_timeout);
         }
         
+        // Adaptive group commit window
+        // We start out with the full window and then adjust it as soon as
+        // we find out how long it takes to sync a batch
+        this.adaptive = hstore_conf.site.commandlog_adaptive;
+        this.maxWindow = Math.max(1, hstore_conf.site.commandlog_timeout) * 1000000l;
+        this.window = this.maxWindow;
+        this.maxTargetTxns = Math.max(1, num_entries / 2);
+        this.maxBatchBytes = Math.max(1, hstore_conf.site.commandlog_max_batch_size) * 1024l;
+        
         // Configure group commit parameters
         if (this.group_commit_size > 0) {
             this.useGroupCommit = true;
             
             // Make one entry buffer per partition SO THAT SYNCHRONIZATION ON EACH BUFFER IS NOT REQUIRED
             this.writingEntry = new Semaphore(this.numWritingLocks, false); 
-            this.entries = new CircularLogEntryBuffer[num_partitions];
-            this.entriesFlushing = new CircularLogEntryBuffer[num_partitions];
-            for (int partition = 0; partition < num_partitions; partition++) {
-                this.entries[partition] = new CircularLogEntryBuffer(num_entries);
-                this.entriesFlushing[partition] = new CircularLogEntryBuffer(num_entries);
+            this.allEntries = new CircularLogEntryBuffer[NUM_ENTRY_BUFFER_SETS][num_partitions];
+            for (int i = 0; i < this.allEntries.length; i++) {
+                for (int partition = 0; partition < num_partitions; partition++) {
+                    this.allEntries[i][partition] = new CircularLogEntryBuffer(num_entries);
+                } // FOR
             } // FOR
+            this.entries = this.allEntries[0];
+            this.freeEntries = new ArrayBlockingQueue<CircularLogEntryBuffer[]>(this.allEntries.length);
+            for (int i = 1; i < this.allEntries.length; i++) {
+                this.freeEntries.add(this.allEntries[i]);
+            } // FOR
+            this.syncQueue = new ArrayBlockingQueue<CommitBatch>(SYNC_QUEUE_SIZE);
             this.singletonLogEntry = null;
         } else {
             this.useGroupCommit = false;
@@ -246,19 +499,58 @@ public class CommandLogWriter extends ExceptionHandlingRunnable implements Shutd
             this.singletonLogEntry = new LogEntry();
         }
         
-        FileOutputStream f = null;
-        try {
+        this.codec = CommandLogCodec.getCodec(CommandLogCodec.Type.get(hstore_conf.site.commandlog_codec));
+        this.logHeader = this.serializeHeader();
+        this.segmentSize = Math.max(0, hstore_conf.site.commandlog_segment_size) * 1024l * 1024l;
+        
+        // Segmented Log
+        // We will always start a new segment. Any segments that already
+        // exist are kept until a snapshot covers them.
+        if (this.segmentSize > 0) {
+            this.fstream = null;
             this.outputFile.getParentFile().mkdirs();
-            LOG.info("Command Log File: " + this.outputFile.getAbsolutePath());
-            this.outputFile.createNewFile();
-            f = new FileOutputStream(this.outputFile, false);
-        } catch (IOException ex) {
-            throw new RuntimeException(ex);
+            for (File file : CommandLogSegment.getSegmentFiles(this.outputFile)) {
+                long segmentId = CommandLogSegment.getSegmentId(this.outputFile, file);
+                CommandLogSegment.Header header = null;
+                try {
+                    header = CommandLogSegment.readHeader(file);
+                } catch (IOException ex) {
+                    LOG.warn("Failed to read header from command log segment " + file, ex);
+                }
+                if (header != null) this.closedSegments.put(segmentId, header);
+                this.nextSegmentId = Math.max(this.nextSegmentId, segmentId + 1);
+            } // FOR
+            try {
+                this.currentSegment = this.createSegment();
+            } catch (IOException ex) {
+                throw new ServerFaultException("Failed to create command log segment", ex);
+            }
+            LOG.info(String.format("Command Log Segment: %s [segmentSize=%dMB]",
+                     this.currentSegment.getFile().getAbsolutePath(), hstore_conf.site.commandlog_segment_size));
+        }
+        // Single Log File
+        else {
+            FileOutputStream f = null;
+            boolean writeHeader = true;
+            try {
+                this.outputFile.getParentFile().mkdirs();
+                LOG.info("Command Log File: " + this.outputFile.getAbsolutePath());
+                if (append && this.outputFile.length() > 0) {
+                    this.checkAppendHeader();
+                    writeHeader = false;
+                } else {
+                    append = false;
+                    this.outputFile.createNewFile();
+                }
+                f = new FileOutputStream(this.outputFile, append);
+            } catch (IOException ex) {
+                throw new RuntimeException(ex);
+            }
+            this.fstream = f.getChannel();
+            
+            // Write out a header to the file 
+            if (writeHeader) this.writeHeader();
         }
-        this.fstream = f.getChannel();
-        
-        // Write out a header to the file 
-        this.writeHeader();
         
         // Writer Profiling
         if (hstore_conf.site.commandlog_profiling) {
@@ -268,29 +560,65 @@ public class CommandLogWriter extends ExceptionHandlingRunnable implements Shutd
     
     /**
      * Separate thread for writing out entries to the log
+     * This thread swaps out the partitions' entry buffers and serializes them
+     * into a group commit batch. The batch is then handed off to the SyncThread,
+     * which writes it to disk and sends out the responses. This means that we can
+     * serialize and compress the next batch while the previous one is being synced.
      */
     @Override
     public void runImpl() {
         this.self = Thread.currentThread();
-        this.self.setName(HStoreThreadManager.getThreadName(hstore_site, HStoreConstants.THREAD_NAME_COMMANDLOGGER));
+        this.self.setName(HStoreThreadManager.getThreadName(hstore_site, this.streamPartition, HStoreConstants.THREAD_NAME_COMMANDLOGGER));
         this.hstore_site.getThreadManager().registerProcessingThread();
 
         this.usePostProcessor = hstore_site.hasTransactionPostProcessors();
         
-        CircularLogEntryBuffer temp[] = null;
+        this.syncThread = new Thread(new SyncThread());
+        this.syncThread.setDaemon(true);
+        this.syncThread.start();
+        
         long next = System.currentTimeMillis() + hstore_conf.site.commandlog_timeout;
-        while (this.stop == false) {
-            // Sleep until our timeout period, at which point a 
-            // flush will be initiated
-            try {
-                long sleep = Math.max(0, System.currentTimeMillis() - next);
-                Thread.sleep(sleep);
-            } catch (InterruptedException e) {
-                if (this.stop) break;
-            } finally {
-                next = System.currentTimeMillis() + hstore_conf.site.commandlog_timeout;
-                if (debug.val)
-                    LOG.debug("Group commit timeout occurred, writing buffer to disk.");
+        while (true) {
+            if (this.stop == false) {
+                // Wait until our current window closes, at which point a
+                // flush will be initiated
+                if (this.adaptive) {
+                    this.waitForFlush();
+                }
+                // Sleep until our timeout period, at which point a 
+                // flush will be initiated
+                else {
+                    try {
+                        long sleep = Math.max(0, next - System.currentTimeMillis());
+                        if (sleep > 0) Thread.sleep(sleep);
+                    } catch (InterruptedException e) {
+                        // Keep going so that we flush out whatever is in the buffers
+                    } finally {
+                        next = System.currentTimeMillis() + hstore_conf.site.commandlog_timeout;
+                        if (debug.val)
+                            LOG.debug("Group commit timeout occurred, writing buffer to disk.");
+                    }
+                }
+            }
+            // We always make one last batch when we are told to stop so that
+            // everything that was added to the buffers gets written out
+            boolean lastBatch = this.stop;
+            
+            // Get a free set of buffers to swap in. If there aren't any, then the
+            // SyncThread is behind and we will have to wait for it to catch up
+            CircularLogEntryBuffer free[] = this.freeEntries.poll();
+            if (free == null) {
+                if (hstore_conf.site.commandlog_profiling && this.profiler != null)
+                    this.profiler.stallTime.start();
+                while (free == null) {
+                    try {
+                        free = this.freeEntries.take();
+                    } catch (InterruptedException ex) {
+                        // Ignore. Somebody is just trying to get us to flush
+                    }
+                } // WHILE
+                if (hstore_conf.site.commandlog_profiling && this.profiler != null)
+                    this.profiler.stallTime.stopIfStarted();
             }
             
             // Take all of the writing permits. This will stop any other
@@ -299,43 +627,143 @@ public class CommandLogWriter extends ExceptionHandlingRunnable implements Shutd
             if (free_permits > 0) {
                 if (trace.val)
                     LOG.trace("Acquiring " + free_permits + " this.writeEntry permits");
-                do {
-                    try {
-                        writingEntry.acquire(free_permits);
-                    } catch (InterruptedException ex) {
-                        continue;
-                    }
-                    break;
-                } while (this.stop == false);
+                this.writingEntry.acquireUninterruptibly(free_permits);
             }
             
             // At this point we know that nobody else could be writing to the
             // current buffer for the threads, so it's safe for us to swap it 
-            // with the one that we just wrote out to disk
+            // with an empty one that has already been written out to disk
             // SYNC POINT: a synchronization point between the thread 
             // filling the buffer and the writing thread where a full 
             // buffer is exchanged for an empty one and the full
             // buffer is written out to disk.
-            temp = this.entries;
-            this.entries = this.entriesFlushing;
-            this.entriesFlushing = temp;
-            assert(this.entries != this.entriesFlushing);
+            CircularLogEntryBuffer flushing[] = this.entries;
+            this.entries = free;
+            long batchId = this.nextBatchId++;
+            int pending = this.pendingTxns.getAndSet(0);
             
             // Release our entry permits so that other threads can 
             // start filling up their Entry buffers
             if (trace.val) LOG.trace("Releasing writingEntry permits");
-            this.writingEntry.release(this.group_commit_size);
+            this.writingEntry.release(this.numWritingLocks);
 
-            // Write the entries out to disk
-            if (debug.val) LOG.debug("Executing group commit");
-            this.flushInProgress.set(true);
-            if (this.groupCommit(this.entriesFlushing) == 0) {
-                next = System.currentTimeMillis() + hstore_conf.site.commandlog_timeout;
+            if (this.adaptive) this.updateArrivalRate(pending);
+            
+            // Serialize the entries and pass them along to be written out to disk
+            if (debug.val) LOG.debug("Executing group commit #" + batchId);
+            CommitBatch batch = this.prepareBatch(batchId, flushing, this.drainMarkers());
+            this.queueBatch(batch);
+            if (lastBatch) break;
+        } // WHILE
+        
+        // Wait for the SyncThread to write out everything that we gave it
+        this.queueBatch(CommitBatch.STOP);
+        while (this.syncThread.isAlive()) {
+            try {
+                this.syncThread.join();
+            } catch (InterruptedException ex) {
+                // Ignore
+            }
+        } // WHILE
+    }
+    
+    private void queueBatch(CommitBatch batch) {
+        while (true) {
+            try {
+                this.syncQueue.put(batch);
+                break;
+            } catch (InterruptedException ex) {
+                // Ignore. Somebody is just trying to get us to flush
+            }
+        } // WHILE
+    }
+    
+    // ----------------------------------------------------------------------------
+    // ADAPTIVE GROUP COMMIT WINDOW
+    // ----------------------------------------------------------------------------
+    
+    /**
+     * Block the WriterThread until it is time to create the next group commit batch.
+     * We will flush as soon as one of the following is true:
+     *  (1) The SyncThread is idle and there is at least one txn waiting.
+     *  (2) The number of waiting txns reaches the current target batch size.
+     *  (3) The estimated size of the waiting txns reaches the max batch size.
+     *  (4) The first waiting txn has been waiting for longer than the current window.
+     *  (5) Somebody interrupted us because they want us to flush right away.
+     * If there are no txns waiting, then we will block until one arrives.
+     */
+    private void waitForFlush() {
+        long firstSeen = -1;
+        while (this.stop == false) {
+            int pending = this.pendingTxns.get();
+            long wait = this.maxWindow;
+            if (pending > 0) {
+                long now = System.nanoTime();
+                if (firstSeen < 0) firstSeen = now;
+                long age = now - firstSeen;
+                
+                if (this.syncIdle && this.syncQueue.isEmpty()) break;
+                if (pending >= this.targetTxns) break;
+                if (pending * this.avgEntryBytes >= this.maxBatchBytes) break;
+                if (age >= this.window) break;
+                wait = this.window - age;
             }
-            this.flushInProgress.lazySet(false);
+            LockSupport.parkNanos(wait);
+            if (Thread.interrupted()) break;
         } // WHILE
     }
     
+    /**
+     * Update our estimate of how fast new txns are being added to the log
+     * This is called by the WriterThread each time it swaps the buffers
+     * @param txnCount The number of txns added since the last swap
+     */
+    private void updateArrivalRate(int txnCount) {
+        long now = System.nanoTime();
+        if (this.lastSwapTime > 0 && now > this.lastSwapTime) {
+            double rate = txnCount / (double)(now - this.lastSwapTime);
+            this.arrivalRate = ADAPTIVE_ALPHA * rate + (1 - ADAPTIVE_ALPHA) * this.arrivalRate;
+        }
+        this.lastSwapTime = now;
+        this.updateWindow();
+    }
+    
+    /**
+     * Update our estimate of how long it takes to write and sync a batch.
+     * This is called by the SyncThread after each group commit.
+     * @param latency The write+fsync time in nanoseconds
+     */
+    private void updateSyncLatency(long latency) {
+        this.syncLatency = ADAPTIVE_ALPHA * latency + (1 - ADAPTIVE_ALPHA) * this.syncLatency;
+    }
+    
+    /**
+     * Compute the new window and target batch size. We want each batch to hold
+     * roughly the number of txns that arrive while the previous batch is being
+     * synced, so that the SyncThread never sits idle but txns never wait for 
+     * more than one sync before they get written out. The window is always 
+     * bounded by the latency budget in ${site.commandlog_timeout}.
+     */
+    private void updateWindow() {
+        long window = Math.min(this.maxWindow, Math.max(this.minWindow, (long)this.syncLatency));
+        int target = (int)Math.min(this.maxTargetTxns, Math.max(1, Math.round(this.arrivalRate * window)));
+        this.window = window;
+        this.targetTxns = target;
+        if (hstore_conf.site.commandlog_profiling && this.profiler != null) {
+            this.profiler.windowTimes.put((int)(window / 1000));
+            this.profiler.targetBatchSizes.put(target);
+        }
+    }
+    
+    /**
+     * Set the smallest group commit window (nanoseconds) that the
+     * adaptive window will ever use. This is only used for testing.
+     * @param nanos
+     */
+    protected void setMinWindow(long nanos) {
+        this.minWindow = nanos;
+    }
+    
     @Override
     public void prepareShutdown(boolean error) {
         this.stop = true;
@@ -346,16 +774,13 @@ public class CommandLogWriter extends ExceptionHandlingRunnable implements Shutd
      * to disk right now. Multiple invocations of this will not be queued 
      */
     protected void flush() throws InterruptedException {
-        // Wait until it starts running
-        while (this.flushInProgress.get() == false) {
-            // this.flushThread.interrupt();
+        // Any entry that was added before we got here will be
+        // included in the next batch that the WriterThread creates
+        long batchId = this.nextBatchId;
+        if (this.self != null) this.self.interrupt();
+        while (this.lastFinishedBatchId < batchId) {
             Thread.yield();
         } // WHILE
-        
-        // Then wait until it's done running
-        while (this.flushInProgress.get()) {
-            Thread.yield();
-        }  // WHILE
     }
     
     /**
@@ -366,11 +791,11 @@ public class CommandLogWriter extends ExceptionHandlingRunnable implements Shutd
      */
     public int getTotalTxnCount() {
         int total = 0;
-        for (CircularLogEntryBuffer c : this.entries) {
-            total += c.size();
-        } // FOR
-        for (CircularLogEntryBuffer c : this.entriesFlushing) {
-            total += c.size();
+        if (this.allEntries == null) return (total);
+        for (CircularLogEntryBuffer eb[] : this.allEntries) {
+            for (CircularLogEntryBuffer c : eb) {
+                total += c.size();
+            } // FOR
         } // FOR
         return (total);
     }
@@ -379,6 +804,7 @@ public class CommandLogWriter extends ExceptionHandlingRunnable implements Shutd
     public void shutdown() {
         if (this.self != null) {
             this.stop = true;
+            this.self.interrupt();
             while (this.self.isAlive()) {
                 Thread.yield();
             } // WHILE
@@ -386,12 +812,23 @@ public class CommandLogWriter extends ExceptionHandlingRunnable implements Shutd
             if (debug.val) {
                 Map<String, Object> m = new LinkedHashMap<String, Object>();
                 m.put("Current Buffer", StringUtil.join("\n", this.entries));
-                m.put("Flushing Buffer", StringUtil.join("\n", this.entriesFlushing));
+                m.put("Free Buffers", this.freeEntries.size());
                 LOG.debug("Closing WAL file\n" + StringUtil.formatMaps(m).trim());
             }
         }
         try {
-            this.fstream.close();
+            if (this.fstream != null) {
+                this.fstream.close();
+            }
+            if (this.currentSegment != null) {
+                this.currentSegment.close();
+            }
+            // The spare segment never had anything written to it
+            if (this.nextSegment != null) {
+                this.nextSegment.close();
+                this.nextSegment.getFile().delete();
+                this.nextSegment = null;
+            }
         } catch (IOException ex) {
             String message = "Failed to close WAL file";
             throw new ServerFaultException(message, ex);
@@ -409,19 +846,8 @@ public class CommandLogWriter extends ExceptionHandlingRunnable implements Shutd
     
     public boolean writeHeader() {
         if (debug.val) LOG.debug("Writing out WAL header");
-        assert(this.singletonSerializer != null);
         try {
-            this.singletonSerializer.clear();
-            this.singletonSerializer.writeBoolean(this.group_commit_size > 0);//Using group commit
-            this.singletonSerializer.writeInt(this.catalogContext.procedures.size());
-            for (Procedure catalog_proc : this.catalogContext.procedures.values()) {
-                int procId = catalog_proc.getId();
-                this.singletonSerializer.writeInt(procId);
-                this.singletonSerializer.writeString(catalog_proc.getName());
-            } // FOR
-            
-            BBContainer b = this.singletonSerializer.getBBContainer();
-            this.fstream.write(b.b.asReadOnlyBuffer());
+            this.fstream.write(this.logHeader.duplicate());
             this.fstream.force(true);
         } catch (Exception e) {
             String message = "Failed to write log headers";
@@ -432,18 +858,293 @@ public class CommandLogWriter extends ExceptionHandlingRunnable implements Shutd
     }
     
     /**
-     * GroupCommits the given buffer set all at once
+     * Make sure that the header of the existing log file that we are going to append
+     * to matches the header that we would have written out. The CommandLogReader uses
+     * the header at the beginning of the file to decode everything in it, so if the
+     * group commit, framing or codec settings or the catalog's procedures changed since
+     * the file was created, then the new entries would be unreadable.
+     */
+    private void checkAppendHeader() {
+        CommandLogReader reader = null;
+        try {
+            reader = new CommandLogReader(this.outputFile.getAbsolutePath(), false);
+        } catch (RuntimeException ex) {
+            String msg = "Failed to read the header of the existing command log file " + this.outputFile;
+            throw new ServerFaultException(msg, ex);
+        }
+        
+        List<String> mismatches = new ArrayList<String>();
+        if (reader.groupCommit != this.useGroupCommit)
+            mismatches.add(String.format("groupCommit=%s", reader.groupCommit));
+        if (reader.isFramed() != this.useGroupCommit)
+            mismatches.add(String.format("framed=%s", reader.isFramed()));
+        if (reader.getCodecType() != this.codec.getType())
+            mismatches.add(String.format("codec=%s", reader.getCodecType()));
+        boolean procsMatch = (reader.procedures.size() == this.catalogContext.procedures.size());
+        for (Procedure catalog_proc : this.catalogContext.procedures.values()) {
+            if (procsMatch == false) break;
+            procsMatch = catalog_proc.getName().equals(reader.procedures.get(catalog_proc.getId()));
+        } // FOR
+        if (procsMatch == false)
+            mismatches.add("procedures");
+        
+        if (mismatches.isEmpty() == false) {
+            String msg = String.format("Unable to append to command log file %s because its header %s " +
+                                       "does not match the current configuration [groupCommit=%s, framed=%s, codec=%s]",
+                                       this.outputFile, mismatches,
+                                       this.useGroupCommit, this.useGroupCommit, this.codec.getType());
+            throw new RuntimeException(msg);
+        }
+    }
+    
+    /**
+     * The first byte of the header contains flags about the log format. The lowest bit 
+     * is whether we are using group commit. The next five bits are the id of the codec
+     * used for the group commit batches. The seventh bit is set if each batch is
+     * written out in a checksummed CommandLogFrame. The original log format is group
+     * commit with the SNAPPY codec, whose id is zero, and without frames.
+     * @return
+     */
+    private ByteBuffer serializeHeader() {
+        FastSerializer fs = new FastSerializer();
+        try {
+            int flags = 0;
+            if (this.group_commit_size > 0) flags |= HEADER_GROUP_COMMIT | HEADER_FRAMED; //Using group commit
+            flags |= (this.codec.getType().getId() << HEADER_CODEC_SHIFT);
+            fs.writeByte(flags);
+            fs.writeInt(this.catalogContext.procedures.size());
+            for (Procedure catalog_proc : this.catalogContext.procedures.values()) {
+                int procId = catalog_proc.getId();
+                fs.writeInt(procId);
+                fs.writeString(catalog_proc.getName());
+            } // FOR
+        } catch (IOException e) {
+            String message = "Failed to serialize log headers";
+            throw new ServerFaultException(message, e);
+        }
+        return (ByteBuffer.wrap(fs.getBytes()).asReadOnlyBuffer());
+    }
+    
+    // ----------------------------------------------------------------------------
+    // SEGMENTS
+    // ----------------------------------------------------------------------------
+    
+    /**
+     * Write the given buffer out to the log and force it to disk.
+     * If we are using segments and the buffer does not fit in the 
+     * current segment, then we will switch to a new segment first.
+     * @param buffer
+     * @param minTxnId The smallest txn id of the entries in the buffer
+     * @param maxTxnId The largest txn id of the entries in the buffer
+     * @throws IOException
+     */
+    private void writeToLog(ByteBuffer buffer, long minTxnId, long maxTxnId) throws IOException {
+        if (this.fstream != null) {
+            this.fstream.write(buffer);
+            this.fstream.force(true);
+            return;
+        }
+        if (buffer.remaining() > this.currentSegment.remaining() && 
+            this.currentSegment.getFirstTxnId() != CommandLogSegment.NULL_TXN_ID) {
+            this.rotateSegment();
+        }
+        this.currentSegment.write(buffer);
+        this.currentSegment.addTxnIds(minTxnId, maxTxnId);
+        this.currentSegment.sync();
+    }
+    
+    /**
+     * Close the current segment and start writing to the next one
+     * @throws IOException
+     */
+    private void rotateSegment() throws IOException {
+        CommandLogSegment segment = this.currentSegment;
+        segment.close();
+        synchronized (this.closedSegments) {
+            this.closedSegments.put(segment.getSegmentId(), segment.getHeader());
+        } // SYNCH
+        if (debug.val)
+            LOG.debug("Closed command log segment " + segment);
+        
+        if (this.nextSegment != null) {
+            this.currentSegment = this.nextSegment;
+            this.nextSegment = null;
+        } else {
+            this.currentSegment = this.createSegment();
+        }
+    }
+    
+    /**
+     * Preallocate the next segment ahead of time so that we don't have to 
+     * wait for it when the current segment fills up. This should be called
+     * by the SyncThread after it has sent out the responses for a group commit.
+     */
+    private void prepareNextSegment() {
+        if (this.segmentSize == 0 || this.nextSegment != null) return;
+        try {
+            this.nextSegment = this.createSegment();
+        } catch (IOException ex) {
+            // We can try again when we rotate the segment 
+            LOG.warn("Failed to preallocate next command log segment", ex);
+        }
+    }
+    
+    /**
+     * Returns true if the snapshot that was written to the given directory is one
+     * that the CommandLogReplayer will restore from before it replays the log
+     * @param snapshotDir The value of ${site.commandlog_snapshot_dir}
+     * @param snapshotPath
+     * @return
+     */
+    protected static boolean isCommandLogSnapshot(String snapshotDir, String snapshotPath) {
+        if (snapshotDir == null || snapshotPath == null) return (false);
+        try {
+            return (new File(snapshotDir).getCanonicalFile().equals(new File(snapshotPath).getCanonicalFile()));
+        } catch (IOException ex) {
+            LOG.warn("Failed to resolve snapshot directory " + snapshotPath, ex);
+            return (false);
+        }
+    }
+    
+    private CommandLogSegment createSegment() throws IOException {
+        long segmentId = this.nextSegmentId++;
+        File file = CommandLogSegment.getSegmentFile(this.outputFile, segmentId);
+        CommandLogSegment segment = CommandLogSegment.create(file, segmentId, this.segmentSize);
+        segment.write(this.logHeader.duplicate());
+        segment.sync();
+        return (segment);
+    }
+    
+    /**
+     * Notify the writer that the given partition has finished writing out
+     * its data for the snapshot created by the SnapshotSave txn with the given id.
+     * Once every partition in this stream has finished, then every closed segment that only 
+     * contains txns that came before the snapshot is deleted (or moved into 
+     * the archive directory). This does nothing if we are not using segments or if the
+     * snapshot was not written to the directory that the CommandLogReplayer restores from, 
+     * since we would not be able to recover the txns in the removed segments.
+     * @param partition
+     * @param txnId
+     * @param snapshotPath The directory that the snapshot was written to
+     */
+    public void notifySnapshotCompleted(int partition, Long txnId, String snapshotPath) {
+        if (this.segmentSize == 0) return;
+        if (isCommandLogSnapshot(hstore_conf.site.commandlog_snapshot_dir, snapshotPath) == false) {
+            if (debug.val)
+                LOG.debug(String.format("Ignoring snapshot txn #%d because %s is not the command log's snapshot directory",
+                          txnId, snapshotPath));
+            return;
+        }
+        AtomicInteger remaining = this.pendingSnapshots.get(txnId);
+        if (remaining == null) {
+            synchronized (this.pendingSnapshots) {
+                remaining = this.pendingSnapshots.get(txnId);
+                if (remaining == null) {
+                    remaining = new AtomicInteger(this.numWritingLocks);
+                    this.pendingSnapshots.put(txnId, remaining);
+                }
+            } // SYNCH
+        }
+        if (debug.val)
+            LOG.debug(String.format("Partition %d finished snapshot for txn #%d", partition, txnId));
+        if (remaining.decrementAndGet() == 0) {
+            this.pendingSnapshots.remove(txnId);
+            this.truncateSegments(txnId.longValue());
+        }
+    }
+    
+    /**
+     * Remove all of the closed segments that only contain txns 
+     * with ids that are less than the given txn id
+     * @param txnId
+     */
+    protected void truncateSegments(long txnId) {
+        File archiveDir = null;
+        if (hstore_conf.site.commandlog_archive_dir != null) {
+            archiveDir = new File(hstore_conf.site.commandlog_archive_dir);
+            archiveDir.mkdirs();
+        }
+        int removed = 0;
+        synchronized (this.closedSegments) {
+            removed = CommandLogSegment.truncate(this.outputFile, this.closedSegments, txnId, archiveDir);
+        } // SYNCH
+        if (debug.val)
+            LOG.debug(String.format("Removed %d command log segments covered by snapshot txn #%d",
+                      removed, txnId));
+    }
+    
+    // ----------------------------------------------------------------------------
+    // GROUP COMMIT
+    // ----------------------------------------------------------------------------
+    
+    /**
+     * A set of log entry buffers that have been serialized and 
+     * are waiting to be written out to disk
+     */
+    private static class CommitBatch {
+        private static final CommitBatch STOP = new CommitBatch(-1, null, null);
+        
+        final long batchId;
+        final CircularLogEntryBuffer buffers[];
+        final List<WriterLogEntry> markers;
+        ByteBuffer data;
+        int txnCount = 0;
+        long minTxnId = Long.MAX_VALUE;
+        long maxTxnId = Long.MIN_VALUE;
+        
+        CommitBatch(long batchId, CircularLogEntryBuffer buffers[], List<WriterLogEntry> markers) {
+            this.batchId = batchId;
+            this.buffers = buffers;
+            this.markers = markers;
+        }
+    }
+    
+    /**
+     * Writes out group commit batches to disk and then sends
+     * out the ClientResponses for the txns in them
+     */
+    private class SyncThread extends ExceptionHandlingRunnable {
+        @Override
+        public void runImpl() {
+            Thread thread = Thread.currentThread();
+            thread.setName(HStoreThreadManager.getThreadName(hstore_site, streamPartition, HStoreConstants.THREAD_NAME_COMMANDLOGGER, "sync"));
+            hstore_site.getThreadManager().registerProcessingThread();
+            
+            while (true) {
+                CommitBatch batch = null;
+                try {
+                    batch = syncQueue.take();
+                } catch (InterruptedException ex) {
+                    continue;
+                }
+                if (batch == CommitBatch.STOP) break;
+                syncIdle = false;
+                syncBatch(batch);
+                syncIdle = true;
+                
+                // Let the WriterThread know that we are ready for more
+                Thread writer = CommandLogWriter.this.self;
+                if (adaptive && pendingTxns.get() > 0 && writer != null) LockSupport.unpark(writer);
+            } // WHILE
+        }
+    }
+    
+    /**
+     * Serialize and compress all of the entries in the given buffer set
+     * into a single group commit batch.
+     * @param batchId
      * @param eb
+     * @return
      */
-    public int groupCommit(CircularLogEntryBuffer[] eb) {
+    private CommitBatch prepareBatch(long batchId, CircularLogEntryBuffer[] eb, List<WriterLogEntry> markers) {
         if (hstore_conf.site.commandlog_profiling) {
             if (this.profiler == null) this.profiler = new CommandLogWriterProfiler();
             this.profiler.writingTime.start();
         }
+        CommitBatch batch = new CommitBatch(batchId, eb, markers);
         
         // Write all to a single FastSerializer buffer
         this.singletonSerializer.clear();
-        int txnCounter = 0;
         for (int i = 0; i < eb.length; i++) {
             try {
                 assert(this.singletonSerializer != null);
@@ -453,13 +1154,16 @@ public class CommandLogWriter extends ExceptionHandlingRunnable implements Shutd
                     WriterLogEntry entry = eb[i].buffer[position++];
                     try {
                         this.singletonSerializer.writeObject(entry);
-                        txnCounter++;
+                        batch.txnCount++;
+                        long txnId = entry.getTransactionId().longValue();
+                        if (txnId < batch.minTxnId) batch.minTxnId = txnId;
+                        if (txnId > batch.maxTxnId) batch.maxTxnId = txnId;
                     } catch (Throwable ex) {
                         LOG.warn("Failed to write log entry", ex);
                     }
                     if (debug.val)
                         LOG.debug(String.format("Prepared txn #%d for group commit batch #%d",
-                                  entry.getTransactionId(), this.commitBatchCounter));
+                                  entry.getTransactionId(), batchId));
                     if (position >= size) position = 0;
                 } // WHILE
             } catch (Exception e) {
@@ -467,68 +1171,222 @@ public class CommandLogWriter extends ExceptionHandlingRunnable implements Shutd
                 throw new ServerFaultException(message, e);
             }
         } // FOR
-        if (txnCounter == 0) {
-            if (debug.val)
-                LOG.debug("No transactions are in the current buffers. Not writing anything to disk");  
-            return (txnCounter);
-        }
+        for (WriterLogEntry marker : markers) {
+            try {
+                this.singletonSerializer.writeObject(marker);
+                batch.txnCount++;
+                long txnId = marker.getTransactionId().longValue();
+                if (txnId < batch.minTxnId) batch.minTxnId = txnId;
+                if (txnId > batch.maxTxnId) batch.maxTxnId = txnId;
+            } catch (IOException ex) {
+                String message = "Failed to serialize marker during group commit";
+                throw new ServerFaultException(message, ex);
+            }
+        } // FOR
         
-        // Compress and force out to disk
-        ByteBuffer compressed;
-        try {
-            compressed = CompressionService.compressBufferForMessaging(this.singletonSerializer.getBBContainer().b);
-        } catch (IOException e) {
-            throw new RuntimeException("Failed to compress WAL buffer");
+        // Encode it so that it is ready to be written out to disk
+        if (batch.txnCount > 0) {
+            try {
+                ByteBuffer encoded = this.codec.encode(this.singletonSerializer.getBBContainer().b);
+                batch.data = CommandLogFrame.create(encoded, batch.minTxnId, batch.maxTxnId);
+                this.avgEntryBytes = Math.max(1, batch.data.limit() / batch.txnCount);
+            } catch (IOException e) {
+                throw new RuntimeException("Failed to encode WAL buffer with " + this.codec.getType() + " codec", e);
+            }
+        } else if (debug.val) {
+            LOG.debug("No transactions are in the current buffers. Not writing anything to disk");
         }
-        
-        if (debug.val)
-            LOG.debug(String.format("Writing out %d bytes for %d txns [batchCtr=%d]",
-                      compressed.limit(), txnCounter, this.commitBatchCounter)); 
-        try {
-            this.fstream.write(compressed);
-            this.fstream.force(true);
-        } catch (IOException ex) {
-            ex.printStackTrace();
-            String message = "Failed to group commit for buffer";
-            throw new ServerFaultException(message, ex);
+        if (hstore_conf.site.commandlog_profiling && this.profiler != null) {
+            this.profiler.writingTime.stopIfStarted();
+            this.profiler.batchSizes.put(batch.txnCount);
         }
-        if (hstore_conf.site.commandlog_profiling && profiler != null) 
-            ProfileMeasurementUtil.swap(profiler.writingTime, profiler.networkTime);
-        try {
-            // Send responses
-            for (int i = 0; i < eb.length; i++) {
-                CircularLogEntryBuffer buffer = eb[i];
-                int start = buffer.getStart();
-                for (int j = 0, size = buffer.size(); j < size; j++) {
-                    WriterLogEntry entry = buffer.buffer[(start + j) % buffer.buffer.length];
-                    if (entry.isInitialized()) {
-                        if (this.usePostProcessor) {
-                            hstore_site.responseQueue(entry.cresponse,
-                                                      entry.clientCallback,
-                                                      entry.initiateTime,
-                                                      entry.restartCounter
-                                                      ,  entry.catalog_proc
-                                                      ); // Marco
-                        }
-                        else {
-                            hstore_site.responseSend(entry.cresponse,
-                                                     entry.clientCallback,
-                                                     entry.initiateTime,
-                                                     entry.restartCounter
-                                                     ,entry.catalog_proc // Marco
-                                                     );
+        return (batch);
+    }
+    
+    /**
+     * Write the given batch out to disk and then send out the responses
+     * for all of its txns. The batch's buffers are then returned to 
+     * the free list so that they can be reused.
+     * @param batch
+     */
+    private void syncBatch(CommitBatch batch) {
+        CircularLogEntryBuffer eb[] = batch.buffers;
+        if (batch.txnCount > 0) {
+            if (hstore_conf.site.commandlog_profiling && this.profiler != null)
+                this.profiler.syncTime.start();
+            if (debug.val)
+                LOG.debug(String.format("Writing out %d bytes for %d txns [batchCtr=%d]",
+                          batch.data.limit(), batch.txnCount, this.commitBatchCounter)); 
+            long syncStart = System.nanoTime();
+            try {
+                this.writeToLog(batch.data, batch.minTxnId, batch.maxTxnId);
+                if (this.adaptive) this.updateSyncLatency(System.nanoTime() - syncStart);
+            } catch (IOException ex) {
+                ex.printStackTrace();
+                String message = "Failed to group commit for buffer";
+                throw new ServerFaultException(message, ex);
+            }
+            if (hstore_conf.site.commandlog_profiling && this.profiler != null) 
+                ProfileMeasurementUtil.swap(this.profiler.syncTime, this.profiler.networkTime);
+            try {
+                // Send responses
+                for (int i = 0; i < eb.length; i++) {
+                    CircularLogEntryBuffer buffer = eb[i];
+                    int start = buffer.getStart();
+                    for (int j = 0, size = buffer.size(); j < size; j++) {
+                        WriterLogEntry entry = buffer.buffer[(start + j) % buffer.buffer.length];
+                        if (entry.isInitialized()) {
+                            if (entry.commit != null) {
+                                if (entry.commit.arrive()) this.sendResponse(entry.commit);
+                            } else {
+                                this.sendResponse(entry.cresponse,
+                                                  entry.clientCallback,
+                                                  entry.initiateTime,
+                                                  entry.restartCounter,
+                                                  entry.catalog_proc);
+                            }
+                        } else {
+                            LOG.warn("Unexpected unintialized " + entry.getClass().getSimpleName());
                         }
-                    } else {
-                        LOG.warn("Unexpected unintialized " + entry.getClass().getSimpleName());
-                    }
+                    } // FOR
                 } // FOR
-                buffer.flushCleanup();
-            } // FOR
-        } finally {
-            if (hstore_conf.site.commandlog_profiling && profiler != null) profiler.networkTime.stop();
+                for (WriterLogEntry marker : batch.markers) {
+                    if (marker.commit.arrive()) this.sendResponse(marker.commit);
+                } // FOR
+            } finally {
+                if (hstore_conf.site.commandlog_profiling && this.profiler != null)
+                    this.profiler.networkTime.stopIfStarted();
+            }
+            this.prepareNextSegment();
+            this.commitBatchCounter++;
+        }
+        
+        for (int i = 0; i < eb.length; i++) {
+            eb[i].flushCleanup();
+        } // FOR
+        this.freeEntries.add(eb);
+        this.lastFinishedBatchId = batch.batchId;
+    }
+    
+    private void sendResponse(StreamCommit commit) {
+        this.sendResponse(commit.cresponse,
+                          commit.clientCallback,
+                          commit.initiateTime,
+                          commit.restartCounter,
+                          commit.catalog_proc);
+    }
+    
+    private void sendResponse(ClientResponseImpl cresponse,
+                              RpcCallback<ClientResponseImpl> clientCallback,
+                              long initiateTime,
+                              int restartCounter,
+                              Procedure catalog_proc) {
+        if (this.usePostProcessor) {
+            hstore_site.responseQueue(cresponse,
+                                      clientCallback,
+                                      initiateTime,
+                                      restartCounter
+                                      ,  catalog_proc
+                                      ); // Marco
+        }
+        else {
+            hstore_site.responseSend(cresponse,
+                                     clientCallback,
+                                     initiateTime,
+                                     restartCounter
+                                     ,catalog_proc // Marco
+                                     );
         }
-        this.commitBatchCounter++;
-        return (txnCounter);
+    }
+    
+    // ----------------------------------------------------------------------------
+    // LOG STREAMS
+    // ----------------------------------------------------------------------------
+    
+    /**
+     * Returns the local partitions whose txns are written to this log stream
+     */
+    public PartitionSet getPartitions() {
+        return (this.partitions);
+    }
+    
+    /**
+     * Returns the other log streams at this site that contain one of 
+     * the local partitions that the given multi-partition txn touched.
+     * This will be empty if the txn is single-partitioned or if all of 
+     * its local partitions are in this stream. 
+     * @param ts
+     * @return
+     */
+    private List<CommandLogWriter> getMarkerStreams(LocalTransaction ts) {
+        List<CommandLogWriter> streams = null;
+        if (this.streamPartition == null || ts.isPredictSinglePartition()) return (streams);
+        for (int partition : ts.getPredictTouchedPartitions().values()) {
+            if (partition < this.partitionOffsets.length && this.partitionOffsets[partition] != -1) continue;
+            CommandLogWriter stream = this.hstore_site.getCommandLogWriter(partition);
+            if (stream == null || stream == this) continue;
+            if (streams == null) streams = new ArrayList<CommandLogWriter>();
+            if (streams.contains(stream) == false) streams.add(stream);
+        } // FOR
+        return (streams);
+    }
+    
+    /**
+     * Add a marker for the given multi-partition txn to this log stream.
+     * The txn's actual entry is written to the stream of its base partition.
+     * @param ts
+     * @param commit
+     */
+    private void appendMarker(LocalTransaction ts, StreamCommit commit) {
+        if (this.useGroupCommit) {
+            WriterLogEntry marker = new WriterLogEntry();
+            marker.initMarker(ts, commit);
+            this.markers.add(marker);
+            int pending = this.pendingTxns.incrementAndGet();
+            if (this.adaptive && (pending == 1 || pending == this.targetTxns) && this.self != null) {
+                LockSupport.unpark(this.self);
+            }
+            if (trace.val)
+                LOG.trace(String.format("New marker for %s in stream for partitions %s", ts, this.partitions));
+        } else {
+            LogEntry marker = new LogEntry();
+            marker.initMarker(ts);
+            this.writeEntry(marker);
+        }
+    }
+    
+    /**
+     * Remove all of the marker entries that were added 
+     * since the last time that this was called
+     */
+    private List<WriterLogEntry> drainMarkers() {
+        List<WriterLogEntry> ret = new ArrayList<WriterLogEntry>();
+        WriterLogEntry marker = null;
+        while ((marker = this.markers.poll()) != null) {
+            ret.add(marker);
+        } // WHILE
+        return (ret);
+    }
+    
+    /**
+     * Serialize the given entry and write it out to disk right away.
+     * This is only used when group commit is disabled.
+     * @param entry
+     */
+    private void writeEntry(LogEntry entry) {
+        synchronized (this.singletonSerializer) {
+            try {
+                FastSerializer fs = this.singletonSerializer;
+                fs.clear();
+                fs.writeObject(entry);
+                BBContainer b = fs.getBBContainer();
+                long txnId = entry.getTransactionId().longValue();
+                this.writeToLog(b.b.asReadOnlyBuffer(), txnId, txnId);
+            } catch (Exception e) {
+                String message = "Failed to write single log entry for txn #" + entry.getTransactionId();
+                throw new ServerFaultException(message, e, entry.getTransactionId());
+            }
+        } // SYNCH
     }
     
     /**
@@ -540,6 +1398,14 @@ public class CommandLogWriter extends ExceptionHandlingRunnable implements Shutd
      */
     public boolean appendToLog(final LocalTransaction ts, final ClientResponseImpl cresponse) {
         boolean sendResponse = true;
+        
+        // If this is a multi-partition txn that touched partitions in other
+        // streams, then each of those streams needs a marker for it
+        List<CommandLogWriter> markerStreams = this.getMarkerStreams(ts);
+        StreamCommit commit = null;
+        if (markerStreams != null && this.useGroupCommit) {
+            commit = new StreamCommit(ts, cresponse, markerStreams.size() + 1);
+        }
 
         // -------------------------------
         // QUEUE FOR GROUP COMMIT
@@ -550,7 +1416,8 @@ public class CommandLogWriter extends ExceptionHandlingRunnable implements Shutd
             
             int basePartition = ts.getBasePartition();
             assert(this.hstore_site.isLocalPartition(basePartition));
-            int offset = this.hstore_site.getLocalPartitionOffset(basePartition);
+            int offset = this.partitionOffsets[basePartition];
+            assert(offset != -1) : "Partition " + basePartition + " is not in log stream " + this.partitions;
 
             // get the buffer for the partition of the current transaction
             CircularLogEntryBuffer buffer = this.entries[offset];
@@ -563,8 +1430,12 @@ public class CommandLogWriter extends ExceptionHandlingRunnable implements Shutd
                 // create an entry for this transaction in the buffer for this partition
                 // NOTE: this is guaranteed to be thread-safe because there is
                 // only one thread per partition
-                LogEntry entry = buffer.next(ts, cresponse);
+                LogEntry entry = buffer.next(ts, cresponse, commit);
                 assert(entry != null);
+                int pending = this.pendingTxns.incrementAndGet();
+                if (this.adaptive && (pending == 1 || pending == this.targetTxns) && this.self != null) {
+                    LockSupport.unpark(this.self);
+                }
                 if (trace.val)
                     LOG.trace(String.format("New %s %s from %s for partition %d",
                               entry.getClass().getSimpleName(),
@@ -583,24 +1454,26 @@ public class CommandLogWriter extends ExceptionHandlingRunnable implements Shutd
             // We always want to set this to false because our flush thread will
             // be the one that actually sends out the network messages
             sendResponse = false;
+            
+            if (markerStreams != null) {
+                for (CommandLogWriter stream : markerStreams) {
+                    stream.appendMarker(ts, commit);
+                } // FOR
+            }
         }
         // -------------------------------
         // NO GROUP COMMIT -- FINISH AND RETURN TRUE
         // -------------------------------
         else { 
-            try {
-                FastSerializer fs = this.singletonSerializer;
-                assert (fs != null);
-                fs.clear();
+            synchronized (this.singletonSerializer) {
                 this.singletonLogEntry.init(ts);
-                fs.writeObject(this.singletonLogEntry);
-                BBContainer b = fs.getBBContainer();
-                this.fstream.write(b.b.asReadOnlyBuffer());
-                this.fstream.force(true);
+                this.writeEntry(this.singletonLogEntry);
                 this.singletonLogEntry.finish();
-            } catch (Exception e) {
-                String message = "Failed to write single log entry for " + ts.toString();
-                throw new ServerFaultException(message, e, ts.getTransactionId());
+            } // SYNCH
+            if (markerStreams != null) {
+                for (CommandLogWriter stream : markerStreams) {
+                    stream.appendMarker(ts, null);
+                } // FOR
             }
         }
         
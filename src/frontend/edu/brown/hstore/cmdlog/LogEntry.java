@@ -36,6 +36,7 @@ import org.voltdb.utils.EstTime;
 
 import edu.brown.hstore.txns.LocalTransaction;
 import edu.brown.pools.Poolable;
+import edu.brown.utils.PartitionSet;
 
 /**
  * LogEntry class for command logging
@@ -44,6 +45,13 @@ import edu.brown.pools.Poolable;
  */
 public class LogEntry implements FastSerializable, Poolable {
     
+    /**
+     * The procedure id used for marker entries. A marker is written to the
+     * log stream of every partition that a multi-partition txn touched other
+     * than its base partition, whose stream contains the txn's actual entry.
+     */
+    public static final int MARKER_PROCEDURE_ID = -2;
+    
     private Long txnId;
     private long timestamp;
     private int procId;
@@ -57,13 +65,47 @@ public class LogEntry implements FastSerializable, Poolable {
      * @return
      */
     public LogEntry init(LocalTransaction ts) {
-        this.txnId = ts.getTransactionId();
-        this.procId = ts.getProcedure().getId();
-        this.procParams = ts.getProcedureParameters();
+        return (this.init(ts.getTransactionId(), ts.getProcedure().getId(), ts.getProcedureParameters()));
+    }
+    
+    /**
+     * Initialization method.
+     * @param txnId
+     * @param procId
+     * @param procParams
+     * @return
+     */
+    public LogEntry init(Long txnId, int procId, ParameterSet procParams) {
+        this.txnId = txnId;
+        this.procId = procId;
+        this.procParams = procParams;
         assert(this.isInitialized()) : 
             "Unexpected uninitialized " + this.getClass().getSimpleName();
         return (this);
     }
+    
+    /**
+     * Initialize this entry as a marker for the given multi-partition txn.
+     * The marker's only parameter is the set of partitions that the txn touched. 
+     * @param ts
+     * @return
+     */
+    public LogEntry initMarker(LocalTransaction ts) {
+        return (this.initMarker(ts.getTransactionId(), ts.getPredictTouchedPartitions()));
+    }
+    
+    /**
+     * Initialize this entry as a marker for the given multi-partition txn
+     * @param txnId
+     * @param partitions The partitions that the txn touched
+     * @return
+     */
+    public LogEntry initMarker(Long txnId, PartitionSet partitions) {
+        this.txnId = txnId;
+        this.procId = MARKER_PROCEDURE_ID;
+        this.procParams = new ParameterSet(new Object[]{ partitions.values() });
+        return (this);
+    }
 
     public Long getTransactionId() {
         return txnId;
@@ -77,6 +119,30 @@ public class LogEntry implements FastSerializable, Poolable {
     public ParameterSet getProcedureParams() {
         return procParams;
     }
+    public boolean isMarker() {
+        return (this.procId == MARKER_PROCEDURE_ID);
+    }
+    
+    /**
+     * Returns the partitions that this marker's txn touched.
+     * Markers that were written by older versions of the CommandLogWriter
+     * do not include them, in which case this will return null.
+     * @return
+     */
+    public PartitionSet getMarkerPartitions() {
+        assert(this.isMarker());
+        Object params[] = this.procParams.toArray();
+        if (params.length == 0 || params[0] == null) return (null);
+        PartitionSet partitions = new PartitionSet();
+        if (params[0] instanceof int[]) {
+            partitions.addAll((int[])params[0]);
+        } else {
+            for (Object p : (Object[])params[0]) {
+                partitions.add(((Number)p).intValue());
+            } // FOR
+        }
+        return (partitions);
+    }
     
     @Override
     public boolean isInitialized() {
@@ -110,6 +176,7 @@ public class LogEntry implements FastSerializable, Poolable {
     }
     
     public String toString() {
+        if (this.isMarker()) return ("Txn #" + this.txnId + " / Marker");
         return ("Txn #" + this.txnId + " / Proc #" + this.procId);
     }
 } // CLASS
\ No newline at end of file
@@ -115,6 +115,15 @@ public final class HStoreConf {
         )
         public String hasher_plan;
         
+        @ConfigProperty(
+            description="The maximum number of routing decisions (key to partition id) that each " +
+                        "AbstractHasher that supports caching will keep in its RoutingCache. " +
+                        "Each entry uses about 40 bytes. Set this to zero to disable the cache.",
+            defaultInt=2048,
+            experimental=true
+        )
+        public int hasher_cache_size;
+        
         @ConfigProperty(
             description="How often in milliseconds the log4j refresh thread will check to see " +
                         "whether the log4j.properties file has changed. We have to do this manually " +
@@ -465,6 +474,51 @@ public final class HStoreConf {
         )
         public boolean exec_readwrite_tracking;
 
+        @ConfigProperty(
+            description="The maximum number of messages that the PartitionExecutor will drain from its " +
+                        "work queue at once and then process back-to-back before it checks its lock queue " +
+                        "or polls the work queue again. Any WorkFragments for the same transaction that " +
+                        "are next to each other in a batch and that do not depend on each other will be " +
+                        "executed together in a single call to the ExecutionEngine. " +
+                        "Setting this to one disables batching.",
+            defaultInt=1,
+            experimental=true
+        )
+        public int exec_work_batch_size;
+
+        @ConfigProperty(
+            description="What the PartitionExecutor will do when it does not have anything to execute. " +
+                        "The default is to block on its work queue for a short amount of time. The other " +
+                        "options will keep checking the queues without blocking to avoid the cost of " +
+                        "waking up the thread when a new transaction arrives. SPIN will never give up the " +
+                        "CPU, so it is only used if the PartitionExecutor's thread was pinned to a core " +
+                        "(see ${site.cpu_affinity}) and that core is not shared with any other partition " +
+                        "(see ${site.cpu_affinity_one_partition_per_core}). Otherwise the PartitionExecutor " +
+                        "logs a warning and falls back to HYBRID. An invalid option falls back to BLOCK.",
+            defaultString="BLOCK",
+            experimental=true,
+            enumOptions="org.voltdb.types.IdleStrategyType"
+        )
+        public String exec_idle_strategy;
+
+        @ConfigProperty(
+            description="The number of times that an idle PartitionExecutor will check its queues without " +
+                        "pausing before it starts to yield. Only used by the YIELD and HYBRID idle strategies. " +
+                        "See ${site.exec_idle_strategy}.",
+            defaultInt=1000,
+            experimental=true
+        )
+        public int exec_idle_spin_count;
+
+        @ConfigProperty(
+            description="The number of times that an idle PartitionExecutor will yield before it blocks " +
+                        "on its work queue. Only used by the HYBRID idle strategy. " +
+                        "See ${site.exec_idle_strategy}.",
+            defaultInt=100,
+            experimental=true
+        )
+        public int exec_idle_yield_count;
+
         // ----------------------------------------------------------------------------
         // Speculative Execution Options
         // ----------------------------------------------------------------------------
@@ -502,6 +556,17 @@ public final class HStoreConf {
         )
         public int specexec_scheduler_window;
         
+        @ConfigProperty(
+            description="If this feature is enabled, then each partition's lock queue will keep an index " +
+                        "of the single-partition txns that it contains, bucketed by their Procedure. " +
+                        "When the SpecExecScheduler uses the FIRST policy with a conflict checker " +
+                        "that only looks at Procedures (e.g., TABLE), it will use this index to check " +
+                        "each Procedure once instead of scanning the entire queue at every stall point.",
+            defaultBoolean=false,
+            experimental=true
+        )
+        public boolean specexec_candidate_index;
+        
         @ConfigProperty(
             description="If this parameter is true, then the SpecExecScheduler will not attempt to " +
                         "speculatively execute any transactions if the current distributed transaction " +
@@ -603,12 +668,44 @@ public final class HStoreConf {
         public String commandlog_dir;
         
         @ConfigProperty(
-            description="Timeout in milliseconds before group commit buffer flushes, if it does not fill",
+            description="Timeout in milliseconds before group commit buffer flushes, if it does not fill. " +
+                        "If ${site.commandlog_adaptive} is enabled, then this is the max amount of time " +
+                        "that a transaction will wait before it is written out.",
             defaultInt=10,
             experimental=true
         )
         public int commandlog_timeout;
         
+        @ConfigProperty(
+            description="If enabled, then the CommandLogWriter will adjust its group commit window at runtime " +
+                        "based on how long it takes to sync each batch to disk and how fast new transactions " +
+                        "are arriving. A batch is flushed as soon as the disk is idle, the target number of " +
+                        "transactions or ${site.commandlog_max_batch_size} is reached, or the window expires. " +
+                        "If disabled, then the buffers are always flushed every ${site.commandlog_timeout} ms.",
+            defaultBoolean=true,
+            experimental=true
+        )
+        public boolean commandlog_adaptive;
+        
+        @ConfigProperty(
+            description="The max size in kilobytes of a single group commit batch when " +
+                        "${site.commandlog_adaptive} is enabled.",
+            defaultInt=1024,
+            experimental=true
+        )
+        public int commandlog_max_batch_size;
+
+        @ConfigProperty(
+            description="The codec used to encode each group commit batch before it is written out " +
+                        "to the command log. SNAPPY compresses the entire batch. NONE writes out the " +
+                        "serialized entries as they are, which uses the least amount of CPU. " +
+                        "The codec is recorded in the header of the log file.",
+            defaultString="SNAPPY",
+            experimental=true,
+            enumOptions="edu.brown.hstore.cmdlog.CommandLogCodec$Type"
+        )
+        public String commandlog_codec;
+        
         @ConfigProperty(
             description="If enabled, then the CommandLogWriter will keep track of various internal " +
                         "profile statistics.",
@@ -616,7 +713,80 @@ public final class HStoreConf {
             experimental=true
         )
         public boolean commandlog_profiling;
-        
+
+        @ConfigProperty(
+            description="The size of each command log segment in megabytes. If this is greater than zero, " +
+                        "then the CommandLogWriter will split the log into fixed-size segment files that are " +
+                        "preallocated when they are created. Any segment that only contains transactions that " +
+                        "committed before a blocking @SnapshotSave into ${site.commandlog_snapshot_dir} will be " +
+                        "removed once the snapshot finishes. Snapshots written anywhere else are ignored. " +
+                        "If this is zero, then the log is written to a single file that grows forever.",
+            defaultInt=0,
+            experimental=true
+        )
+        public int commandlog_segment_size;
+
+        @ConfigProperty(
+            description="If this is set, then command log segments that are covered by a snapshot " +
+                        "will be moved into this directory instead of being deleted. " +
+                        "See ${site.commandlog_segment_size}.",
+            defaultNull=true,
+            experimental=true
+        )
+        public String commandlog_archive_dir;
+
+        @ConfigProperty(
+            description="If enabled, then when the HStoreSite starts up it will restore the most recent " +
+                        "snapshot in ${site.commandlog_snapshot_dir} and then re-execute every transaction " +
+                        "in its existing command log that committed after that snapshot was taken. " +
+                        "The site will not accept client connections until the replay is finished. " +
+                        "This requires ${site.commandlog_enable} to be true.",
+            defaultBoolean=false,
+            experimental=true
+        )
+        public boolean commandlog_replay;
+
+        @ConfigProperty(
+            description="If enabled, then ${site.commandlog_replay} will re-execute single-partition " +
+                        "transactions for different partitions in parallel. Multi-partition transactions " +
+                        "are still executed by themselves after all of the transactions before them finish. " +
+                        "If disabled, then every transaction is re-executed one at a time.",
+            defaultBoolean=true,
+            experimental=true
+        )
+        public boolean commandlog_replay_parallel;
+
+        @ConfigProperty(
+            description="Directory that contains the snapshots that are used to recover an HStoreSite " +
+                        "with ${site.commandlog_replay}. If this is not set, then the command log will " +
+                        "be replayed on top of an empty database.",
+            defaultNull=true,
+            experimental=true
+        )
+        public String commandlog_snapshot_dir;
+
+        @ConfigProperty(
+            description="The number of local partitions that share a single command log stream. " +
+                        "Each stream has its own log file, entry buffers, and sync thread. " +
+                        "Multi-partition transactions are written once to the stream of their base " +
+                        "partition, and a marker is written to the stream of every other local partition " +
+                        "that they touch. If this is zero, then all of the partitions at the site " +
+                        "share a single stream.",
+            defaultInt=0,
+            experimental=true
+        )
+        public int commandlog_partitions_per_stream;
+
+        @ConfigProperty(
+            description="Comma-separated list of directories to spread the command log streams over. " +
+                        "The streams are assigned to the directories in a round-robin order. " +
+                        "If this is not set, then all of the streams are written to ${site.commandlog_dir}. " +
+                        "See ${site.commandlog_partitions_per_stream}.",
+            defaultNull=true,
+            experimental=true
+        )
+        public String commandlog_stream_dirs;
+
         // ----------------------------------------------------------------------------
         // AntiCache Options
         // ----------------------------------------------------------------------------
@@ -714,12 +884,97 @@ public final class HStoreConf {
         
         @ConfigProperty(
                 description="Policy specifying how to distribute eviction load over partitions and tables. " +
-                                        "Possible values are 'even', 'proportional', and 'uneviction_ratio' (default)",
+                                        "Possible values are 'even', 'proportional', 'uneviction_ratio' (default), " +
+                                        "'access_rate', and 'admission'. The 'admission' policy is like " +
+                                        "'uneviction_ratio' but also steers eviction away from the tables " +
+                                        "whose evicted tuples are still being accessed (see site.anticache_admission_threshold).",
                 defaultString="uneviction_ratio",
                 experimental=true
         )
         public String anticache_eviction_distribution;
         
+        @ConfigProperty(
+                description="The max number of queued transactions whose evicted blocks the AntiCacheManager " +
+                            "will fetch together. The blocks requested by these transactions are grouped by " +
+                            "partition and table, and duplicate requests for the same block are only read once. " +
+                            "Each group is read in with a single call to the EE. If this is one, then every " +
+                            "transaction's blocks are fetched by themselves.",
+                defaultInt=64,
+                experimental=true
+        )
+        public int anticache_fetch_batch_size;
+        
+        @ConfigProperty(
+                description="The number of threads that the AntiCacheManager will use to read in evicted " +
+                            "blocks. Each local partition is assigned to one of these threads so that its " +
+                            "blocks are read in the order that they were requested. If this is set to the " +
+                            "number of partitions at the site, then each partition gets its own thread. " +
+                            "If this is zero, then all of the blocks at the site are read in by the " +
+                            "AntiCacheManager's thread.",
+                defaultInt=0,
+                experimental=true
+        )
+        public int anticache_fetch_threads;
+        
+        @ConfigProperty(
+                description="Enable pre-warming of evicted data for txns before they start executing. " +
+                            "The AntiCacheManager keeps track of the procedure parameters of txns that " +
+                            "recently aborted because they accessed evicted tuples and the blocks that they " +
+                            "needed. When a new single-partition txn with the same parameters is about to be " +
+                            "added to the lock queues and its initial Markov estimate predicts that it will " +
+                            "query the same table, then it will wait for those blocks to be read in (sharing " +
+                            "any fetches that are already in flight) and merge them before it executes " +
+                            "instead of aborting. Hints are dropped once their blocks have been merged.",
+                defaultBoolean=false,
+                experimental=true
+        )
+        public boolean anticache_prewarm;
+        
+        @ConfigProperty(
+                description="The max number of recent evicted accesses that the AntiCacheManager will " +
+                            "remember for pre-warming.",
+                defaultInt=10000,
+                experimental=true
+        )
+        public int anticache_prewarm_cache_size;
+        
+        @ConfigProperty(
+                description="Enable incremental eviction. Instead of invoking the @EvictTuples sysproc at " +
+                            "every partition once the site goes over site.anticache_threshold_mb, the " +
+                            "AntiCacheManager will compute how many blocks each partition needs to evict to " +
+                            "stay under its share of the threshold, based on how fast its memory is growing. " +
+                            "It then invokes the @EvictTuples sysproc at each partition to evict a few of these " +
+                            "blocks at a time, waiting for one invocation to finish before starting the next.",
+                defaultBoolean=false,
+                experimental=true
+        )
+        public boolean anticache_incremental_eviction;
+        
+        @ConfigProperty(
+                description="The max number of blocks that each @EvictTuples invocation will evict at a " +
+                            "partition when site.anticache_incremental_eviction is enabled.",
+                defaultInt=1,
+                experimental=true
+        )
+        public int anticache_incremental_blocks;
+        
+        @ConfigProperty(
+                description="The number of different evicted tuples that txns have to access in a block " +
+                            "that is fetched back in before the 'admission' eviction policy considers that " +
+                            "fetch to be hot. Tables at a partition with more hot fetches will be evicted from last.",
+                defaultInt=2,
+                experimental=true
+        )
+        public int anticache_admission_threshold;
+        
+        @ConfigProperty(
+                description="The number of blocks fetched at a partition after which the 'admission' " +
+                            "eviction policy will cut all of its fetch counts in half.",
+                defaultInt=10000,
+                experimental=true
+        )
+        public int anticache_admission_window;
+        
         // ----------------------------------------------------------------------------
         // Reconfiguration Options
         // ----------------------------------------------------------------------------
@@ -992,6 +1247,35 @@ public final class HStoreConf {
         )
         public int txn_incoming_delay;
         
+        @ConfigProperty(
+            description="If this is enabled, then the PartitionLockQueue at each partition will set how long " +
+                        "it waits before releasing a transaction from the clock skew and message latency to " +
+                        "the other HStoreSites in the cluster instead of always using ${site.txn_incoming_delay}. " +
+                        "These are measured by the HStoreCoordinator with its time synchronization and " +
+                        "heartbeat messages. The wait time will always be between ${site.txn_incoming_delay_min} " +
+                        "and ${site.txn_incoming_delay_max}.",
+            defaultBoolean=false,
+            experimental=true
+        )
+        public boolean txn_incoming_delay_adaptive;
+        
+        @ConfigProperty(
+            description="The smallest amount of time in milliseconds that the PartitionLockQueue will wait " +
+                        "when ${site.txn_incoming_delay_adaptive} is enabled. This is also the wait time " +
+                        "when there is only one HStoreSite in the cluster.",
+            defaultInt=1,
+            experimental=true
+        )
+        public int txn_incoming_delay_min;
+        
+        @ConfigProperty(
+            description="The largest amount of time in milliseconds that the PartitionLockQueue will wait " +
+                        "when ${site.txn_incoming_delay_adaptive} is enabled.",
+            defaultInt=100,
+            experimental=true
+        )
+        public int txn_incoming_delay_max;
+        
         @ConfigProperty(
             description="The number of times that a distributed transaction is allowed to be restarted " +
                         "(due to things like network delays) before it is outright rejected and the request " +
@@ -1031,6 +1315,17 @@ public final class HStoreConf {
         )
         public boolean queue_profiling;
         
+        @ConfigProperty(
+            description="If this parameter is enabled, then a new single-partition transaction will be " +
+                        "handed directly to its base partition's PartitionExecutor without going through " +
+                        "the TransactionQueueManager's initialization queue and the PartitionLockQueue. " +
+                        "This is only done if there are no other transactions waiting in those queues " +
+                        "and there is no distributed transaction running at that partition.",
+            defaultBoolean=false,
+            experimental=true
+        )
+        public boolean queue_fastpath_enable;
+        
         @ConfigProperty(
             description="The initial throttling threshold for the PartitionLockQueue.",
             defaultDouble=1.0,
@@ -1247,6 +1542,18 @@ public final class HStoreConf {
         )
         public boolean planner_caching;
         
+        @ConfigProperty(
+            description="The maximum number of WorkFragment layouts that each BatchPlanner will cache for " +
+                        "distributed batches. A layout is keyed by the partitions that each PlanFragment in " +
+                        "the batch will execute on, so a transaction that repeats the same multi-partition " +
+                        "pattern (e.g., the same remote warehouses in TPC-C) can reuse the WorkFragments " +
+                        "that were generated the last time instead of rebuilding them. " +
+                        "Set this to zero to disable the cache.",
+            defaultInt=256,
+            experimental=true
+        )
+        public int planner_layout_cache_size;
+        
         @ConfigProperty(
             description="The maximum number of execution rounds allowed per batch.",
             defaultInt=10,
@@ -1,5 +1,7 @@
 package edu.brown.hstore.internal;
 
+import java.util.concurrent.atomic.AtomicBoolean;
+
 import edu.brown.hstore.Hstoreservice.WorkFragment;
 import edu.brown.hstore.txns.AbstractTransaction;
 
@@ -7,6 +9,12 @@ public class WorkFragmentMessage extends InternalTxnMessage {
     
     private WorkFragment fragment;
     
+    /**
+     * If set to true, then this message is waiting in a PartitionExecutor's
+     * queue and we can't give it a new WorkFragment yet.
+     */
+    private final AtomicBoolean queued = new AtomicBoolean(true);
+    
     public WorkFragmentMessage(AbstractTransaction ts, WorkFragment fragment) {
         super(ts);
         this.fragment = fragment;
@@ -19,4 +27,29 @@ public class WorkFragmentMessage extends InternalTxnMessage {
     public WorkFragment getFragment() {
         return (this.fragment);
     }
+    
+    /**
+     * Reuse this message for a new WorkFragment.
+     * Returns false if this message is still queued.
+     * @param fragment
+     */
+    public boolean reuse(WorkFragment fragment) {
+        if (this.queued.compareAndSet(false, true) == false) {
+            return (false);
+        }
+        this.fragment = fragment;
+        return (true);
+    }
+    
+    /**
+     * Mark that the PartitionExecutor is done with this message
+     * and that it can be reused for the txn's next WorkFragment.
+     */
+    public void markProcessed() {
+        this.queued.set(false);
+    }
+    
+    public boolean isQueued() {
+        return (this.queued.get());
+    }
 }
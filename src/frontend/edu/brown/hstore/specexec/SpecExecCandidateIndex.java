@@ -0,0 +1,165 @@
+package edu.brown.hstore.specexec;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import org.voltdb.catalog.Procedure;
+
+import edu.brown.hstore.txns.AbstractTransaction;
+import edu.brown.hstore.txns.LocalTransaction;
+
+/**
+ * A secondary index of the single-partition LocalTransactions that are waiting
+ * in a partition's lock queue. The txns are bucketed by their Procedure and each
+ * bucket is sorted by txnId. This allows the SpecExecScheduler to check whether a
+ * Procedure conflicts with the current dtxn once instead of once per queued txn, and
+ * then grab the oldest txn for that Procedure without having to walk the lock queue.
+ * <P>
+ * The index is updated by the PartitionLockQueue whenever a txn is added or removed.
+ * Since there are ways to remove a txn from the queue that the index will never see,
+ * every txn returned by the index must be checked against the queue. Each entry is
+ * stored with the txnId that the handle had when it was added, so an entry for a
+ * handle that has since been reused for a different txn will never match.
+ * It is safe to add and remove txns from any thread.
+ */
+public class SpecExecCandidateIndex {
+
+    /**
+     * All of the candidates for a single Procedure, sorted by txnId
+     */
+    public static class Bucket {
+        private final Procedure catalog_proc;
+        private final ConcurrentNavigableMap<Long, LocalTransaction> txns = new ConcurrentSkipListMap<Long, LocalTransaction>();
+
+        private Bucket(Procedure catalog_proc) {
+            this.catalog_proc = catalog_proc;
+        }
+        public Procedure getProcedure() {
+            return (this.catalog_proc);
+        }
+        public boolean isEmpty() {
+            return (this.txns.isEmpty());
+        }
+        public int size() {
+            return (this.txns.size());
+        }
+
+        /**
+         * Return the oldest txn in this bucket that has not executed its control code yet.
+         * Returns null if there is no such txn.
+         */
+        public LocalTransaction first() {
+            for (Map.Entry<Long, LocalTransaction> e : this.txns.entrySet()) {
+                LocalTransaction ts = e.getValue();
+                if (e.getKey().equals(ts.getTransactionId()) == false) {
+                    // This handle was reused for another txn
+                    this.txns.remove(e.getKey(), ts);
+                    continue;
+                }
+                if (ts.isMarkedControlCodeExecuted() == false) {
+                    return (ts);
+                }
+            } // FOR
+            return (null);
+        }
+    } // CLASS
+
+    /**
+     * Procedure Id -> Bucket
+     * Both of these arrays are copy-on-write so that we never have to
+     * lock anything when reading them.
+     */
+    private volatile Bucket buckets[] = new Bucket[0];
+
+    /**
+     * The non-null elements of buckets
+     */
+    private volatile Bucket active[] = new Bucket[0];
+
+    // ----------------------------------------------------------------------------
+    // UPDATE METHODS
+    // ----------------------------------------------------------------------------
+
+    /**
+     * Returns true if the given txn should be stored in the index
+     */
+    public static boolean isCandidate(AbstractTransaction ts) {
+        return (ts instanceof LocalTransaction &&
+                ts.getTransactionId() != null &&
+                ts.isPredictSinglePartition());
+    }
+
+    /**
+     * Add the given txn to the index if it can be speculatively executed
+     * @param ts
+     */
+    public void add(AbstractTransaction ts) {
+        if (isCandidate(ts) == false) return;
+        LocalTransaction localTxn = (LocalTransaction)ts;
+        this.getBucket(localTxn.getProcedure()).txns.put(localTxn.getTransactionId(), localTxn);
+    }
+
+    /**
+     * Remove the given txn from the index.
+     * @param ts
+     */
+    public void remove(AbstractTransaction ts) {
+        if (isCandidate(ts) == false) return;
+        int procId = ts.getProcedure().getId();
+        Bucket buckets[] = this.buckets;
+        if (procId < buckets.length && buckets[procId] != null) {
+            buckets[procId].txns.remove(ts.getTransactionId(), ts);
+        }
+    }
+
+    private Bucket getBucket(Procedure catalog_proc) {
+        int procId = catalog_proc.getId();
+        Bucket buckets[] = this.buckets;
+        if (procId < buckets.length && buckets[procId] != null) {
+            return (buckets[procId]);
+        }
+        synchronized (this) {
+            buckets = this.buckets;
+            if (procId < buckets.length && buckets[procId] != null) {
+                return (buckets[procId]);
+            }
+            Bucket bucket = new Bucket(catalog_proc);
+            Bucket temp[] = new Bucket[Math.max(procId + 1, buckets.length)];
+            System.arraycopy(buckets, 0, temp, 0, buckets.length);
+            temp[procId] = bucket;
+            this.buckets = temp;
+
+            temp = new Bucket[this.active.length + 1];
+            System.arraycopy(this.active, 0, temp, 0, this.active.length);
+            temp[this.active.length] = bucket;
+            this.active = temp;
+            return (bucket);
+        } // SYNCH
+    }
+
+    // ----------------------------------------------------------------------------
+    // ACCESS METHODS
+    // ----------------------------------------------------------------------------
+
+    /**
+     * Return all of the buckets that have ever had a txn in them.
+     * Some of these buckets may be empty.
+     * <B>Note:</B> Do not modify the returned array.
+     */
+    public Bucket[] getBuckets() {
+        return (this.active);
+    }
+
+    /**
+     * Returns the total number of txns in the index.
+     * This is not constant time.
+     */
+    public int size() {
+        int size = 0;
+        for (Bucket bucket : this.active) {
+            size += bucket.size();
+        } // FOR
+        return (size);
+    }
+}
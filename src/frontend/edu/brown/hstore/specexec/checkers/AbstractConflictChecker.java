@@ -36,6 +36,16 @@ public abstract class AbstractConflictChecker {
         return (false);
     }
     
+    /**
+     * Returns true if hasConflictBefore() only depends on the dtxn and the
+     * candidate's Procedure. This means that every candidate for the same
+     * Procedure will get the same answer, so we only need to check one of them. 
+     * @return
+     */
+    public boolean isProcedureGranularity() {
+        return (false);
+    }
+    
     /**
      * Returns true if the given transaction should be ignored from conflict checking
      * @param ts
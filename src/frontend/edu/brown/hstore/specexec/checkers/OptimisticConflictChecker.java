@@ -52,6 +52,11 @@ public class OptimisticConflictChecker extends AbstractConflictChecker {
         return (false);
     }
     
+    @Override
+    public boolean isProcedureGranularity() {
+        return (true);
+    }
+    
     @Override
     public boolean hasConflictBefore(AbstractTransaction ts0, LocalTransaction ts1, int partitionId) {
         return (false);
@@ -62,6 +62,17 @@ public class AntiCacheManagerProfilerStats extends StatsSource {
         assert(profiler != null);
         
         columns.add(new VoltTable.ColumnInfo("RESTARTED_TXNS", VoltType.INTEGER));
+        columns.add(new VoltTable.ColumnInfo("FETCH_BATCHES", VoltType.INTEGER));
+        columns.add(new VoltTable.ColumnInfo("FETCHED_BLOCKS", VoltType.INTEGER));
+        columns.add(new VoltTable.ColumnInfo("COALESCED_BLOCKS", VoltType.INTEGER));
+        columns.add(new VoltTable.ColumnInfo("FETCH_QUEUE_DEPTH_AVG", VoltType.FLOAT));
+        columns.add(new VoltTable.ColumnInfo("FETCH_QUEUE_DEPTH_MAX", VoltType.INTEGER));
+        columns.add(new VoltTable.ColumnInfo("INCREMENTAL_EVICTED_BLOCKS", VoltType.BIGINT));
+        columns.add(new VoltTable.ColumnInfo("EVICTION_RATE", VoltType.FLOAT));
+        columns.add(new VoltTable.ColumnInfo("UNEVICTION_RATIO", VoltType.FLOAT));
+        columns.add(new VoltTable.ColumnInfo("PREWARM_TXNS", VoltType.INTEGER));
+        columns.add(new VoltTable.ColumnInfo("PREWARM_HITS", VoltType.INTEGER));
+        columns.add(new VoltTable.ColumnInfo("PREWARM_MISSES", VoltType.INTEGER));
         for (ProfileMeasurement pm : profiler.getProfileMeasurements()) {
             String name = pm.getName().toUpperCase();
             columns.add(new VoltTable.ColumnInfo(name, VoltType.BIGINT));
@@ -78,6 +89,17 @@ public class AntiCacheManagerProfilerStats extends StatsSource {
         int offset = this.columnNameToIndex.get("PARTITION");
         rowValues[offset++] = partition;
         rowValues[offset++] = profiler.restarted_txns;
+        rowValues[offset++] = profiler.fetch_batches;
+        rowValues[offset++] = profiler.fetched_blocks;
+        rowValues[offset++] = profiler.coalesced_blocks;
+        rowValues[offset++] = (profiler.fetch_batches > 0 ? profiler.fetch_queue_depth_total / (double)profiler.fetch_batches : 0d);
+        rowValues[offset++] = profiler.fetch_queue_depth_max;
+        rowValues[offset++] = profiler.incremental_evicted_blocks;
+        rowValues[offset++] = profiler.eviction_rate;
+        rowValues[offset++] = profiler.uneviction_ratio;
+        rowValues[offset++] = profiler.prewarm_txns;
+        rowValues[offset++] = profiler.prewarm_hits;
+        rowValues[offset++] = profiler.prewarm_misses;
         
         for (ProfileMeasurement pm : profiler.getProfileMeasurements()) {
             rowValues[offset++] = pm.getTotalThinkTime();
@@ -66,6 +66,9 @@ public class BatchPlannerProfilerStats extends StatsSource {
         columns.add(new VoltTable.ColumnInfo("NUM_PLANNERS", VoltType.BIGINT));
         columns.add(new VoltTable.ColumnInfo("TRANSACTIONS", VoltType.BIGINT));
         columns.add(new VoltTable.ColumnInfo("CACHED", VoltType.BIGINT));
+        columns.add(new VoltTable.ColumnInfo("LAYOUT_CACHE_HITS", VoltType.BIGINT));
+        columns.add(new VoltTable.ColumnInfo("LAYOUT_CACHE_MISSES", VoltType.BIGINT));
+        columns.add(new VoltTable.ColumnInfo("LAYOUT_CACHE_HIT_RATE", VoltType.FLOAT));
         
         BatchPlannerProfiler profiler = new BatchPlannerProfiler();
         for (ProfileMeasurement pm : profiler.getProfileMeasurements()) {
@@ -99,6 +102,8 @@ public class BatchPlannerProfilerStats extends StatsSource {
             
             total.transactions.addAndGet(profiler.transactions.get());
             total.cached.addAndGet(profiler.cached.get());
+            total.layout_hits.addAndGet(profiler.layout_hits.get());
+            total.layout_misses.addAndGet(profiler.layout_misses.get());
             
             if (debug.val)
                 LOG.debug(String.format("%s/%s -> Txns:%d Cached:%d",
@@ -114,6 +119,9 @@ public class BatchPlannerProfilerStats extends StatsSource {
         rowValues[offset++] = planners.size();
         rowValues[offset++] = total.transactions.get();
         rowValues[offset++] = total.cached.get();
+        rowValues[offset++] = total.layout_hits.get();
+        rowValues[offset++] = total.layout_misses.get();
+        rowValues[offset++] = total.getLayoutCacheHitRate();
         for (ProfileMeasurement pm : totalPMs) {
             rowValues[offset++] = pm.getTotalThinkTime();
             rowValues[offset++] = pm.getInvocations();
@@ -79,6 +79,7 @@ public class TransactionQueueManagerProfilerStats extends StatsSource {
         // Add in PartitionLockQueueProfiler stats
         PartitionLockQueueProfiler initProfiler = new PartitionLockQueueProfiler();
         columns.add(new VoltTable.ColumnInfo("AVG_TXN_WAIT", VoltType.FLOAT));
+        columns.add(new VoltTable.ColumnInfo("CURRENT_WAIT", VoltType.INTEGER));
         for (ProfileMeasurement pm : initProfiler.queueStates.values()) {
             String name = pm.getName().toUpperCase();
             columns.add(new VoltTable.ColumnInfo(name, VoltType.BIGINT));
@@ -110,6 +111,7 @@ public class TransactionQueueManagerProfilerStats extends StatsSource {
         
         // PartitionLockQueue
         rowValues[offset++] = MathUtil.weightedMean(initProfiler.waitTimes);
+        rowValues[offset++] = initProfiler.currentWaitTime;
         for (ProfileMeasurement pm : initProfiler.queueStates.values()) {
             rowValues[offset++] = pm.getTotalThinkTime();
             rowValues[offset++] = pm.getInvocations();
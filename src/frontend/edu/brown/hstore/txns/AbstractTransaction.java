@@ -361,6 +361,7 @@ public abstract class AbstractTransaction implements Poolable, Comparable<Abstra
             
             if (this.readTables[partition] != null) Arrays.fill(this.readTables[partition], false);
             if (this.writeTables[partition] != null) Arrays.fill(this.writeTables[partition], false);
+            if (this.work_task != null && this.work_task[partition] != null) this.work_task[partition].markProcessed();
         } // FOR
 
         if (debug.val)
@@ -781,17 +782,31 @@ public abstract class AbstractTransaction implements Poolable, Comparable<Abstra
         this.finish_task.setStatus(status);
         return (this.finish_task);
     }
+    /**
+     * Returns a WorkFragmentMessage for the given WorkFragment. We reuse the same
+     * message for each partition unless it is still in that partition's queue. 
+     * The BatchPlanner can give a partition more than one WorkFragment in the
+     * same round, so any extra fragments that are queued at the same time get
+     * their own message.
+     * @param fragment
+     */
     public final WorkFragmentMessage getWorkFragmentMessage(WorkFragment fragment) {
         if (this.work_task == null) {
-            this.work_task = new WorkFragmentMessage[hstore_site.getCatalogContext().numberOfPartitions];
+            synchronized (this) {
+                if (this.work_task == null) {
+                    this.work_task = new WorkFragmentMessage[hstore_site.getCatalogContext().numberOfPartitions];
+                }
+            } // SYNCH
         }
         int partition = fragment.getPartitionId();
-        if (this.work_task[partition] == null) {
-            this.work_task[partition] = new WorkFragmentMessage(this, fragment);
-        } else {
-            this.work_task[partition].setFragment(fragment);
+        WorkFragmentMessage work = this.work_task[partition];
+        if (work == null) {
+            work = new WorkFragmentMessage(this, fragment);
+            this.work_task[partition] = work;
+        } else if (work.reuse(fragment) == false) {
+            work = new WorkFragmentMessage(this, fragment);
         }
-        return (this.work_task[partition]);
+        return (work);
     }
     
     /**
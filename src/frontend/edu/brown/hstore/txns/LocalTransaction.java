@@ -152,6 +152,18 @@ public class LocalTransaction extends AbstractTransaction {
      */
     private Table anticache_table = null;
     
+    /**
+     * If set to true, then the AntiCacheManager predicted that this txn
+     * would access evicted tuples and fetched its blocks before it started
+     */
+    private boolean anticache_prewarmed = false;
+    
+    /**
+     * If set to true, then this txn was released directly to its base partition
+     * without going through the TransactionQueueManager's queues
+     */
+    private boolean fastpath = false;
+    
     /**
      * Special TransactionProfiler handle
      */
@@ -367,6 +379,8 @@ public class LocalTransaction extends AbstractTransaction {
         this.restart_ctr = 0;
 
         this.anticache_table = null;
+        this.anticache_prewarmed = false;
+        this.fastpath = false;
         this.log_enabled = false;
         this.needs_restart = false;
         
@@ -831,6 +845,23 @@ public class LocalTransaction extends AbstractTransaction {
         return (this.log_enabled);
     }
     
+    // ----------------------------------------------------------------------------
+    // QUEUE FAST PATH
+    // ----------------------------------------------------------------------------
+    
+    /**
+     * Returns true if this txn was released to its base partition without
+     * going through the TransactionQueueManager's queues
+     * @return
+     */
+    public boolean isFastPath() {
+        return (this.fastpath);
+    }
+    
+    public void markFastPath() {
+        this.fastpath = true;
+    }
+    
     // ----------------------------------------------------------------------------
     // ANTI-CACHING
     // ----------------------------------------------------------------------------
@@ -848,6 +879,14 @@ public class LocalTransaction extends AbstractTransaction {
         this.anticache_table = catalog_tbl;
     }
     
+    public boolean isAntiCachePrewarmed() {
+        return (this.anticache_prewarmed);
+    }
+    
+    public void markAntiCachePrewarmed() {
+        this.anticache_prewarmed = true;
+    }
+    
     // ----------------------------------------------------------------------------
     // MAP REDUCE
     // ----------------------------------------------------------------------------
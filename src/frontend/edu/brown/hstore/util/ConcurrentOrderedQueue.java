@@ -0,0 +1,134 @@
+package edu.brown.hstore.util;
+
+import java.util.AbstractQueue;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A lock-free priority queue for unique elements that is backed by a
+ * ConcurrentSkipListSet. Any number of threads can offer and remove
+ * elements at the same time without ever blocking each other, and the
+ * head of the queue is always the smallest element.
+ * <B>Note:</B> Unlike PriorityBlockingQueue, elements that compare as equal
+ * are considered duplicates and will not be inserted twice.
+ * @param <E>
+ */
+public class ConcurrentOrderedQueue<E extends Comparable<? super E>> extends AbstractQueue<E> {
+
+    private final ConcurrentSkipListSet<E> elements = new ConcurrentSkipListSet<E>();
+
+    /**
+     * ConcurrentSkipListSet.size() has to walk the entire list, so we
+     * keep our own counter of the number of elements.
+     */
+    private final AtomicInteger size = new AtomicInteger(0);
+
+    @Override
+    public boolean offer(E e) {
+        if (this.elements.add(e)) {
+            this.size.incrementAndGet();
+            return (true);
+        }
+        return (false);
+    }
+
+    /**
+     * Unlike AbstractQueue, this will not throw an exception if the
+     * element is already in the queue.
+     */
+    @Override
+    public boolean add(E e) {
+        return (this.offer(e));
+    }
+
+    @Override
+    public E poll() {
+        E e = this.elements.pollFirst();
+        if (e != null) this.size.decrementAndGet();
+        return (e);
+    }
+
+    @Override
+    public E peek() {
+        try {
+            return (this.elements.first());
+        } catch (NoSuchElementException ex) {
+            return (null);
+        }
+    }
+
+    @Override
+    public boolean remove(Object o) {
+        try {
+            if (this.elements.remove(o)) {
+                this.size.decrementAndGet();
+                return (true);
+            }
+        } catch (ClassCastException ex) {
+            // The skip list has to compare the object against its elements,
+            // so anything that is not an E can't be in the queue
+        }
+        return (false);
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        try {
+            return (this.elements.contains(o));
+        } catch (ClassCastException ex) {
+            return (false);
+        }
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return (this.elements.isEmpty());
+    }
+
+    @Override
+    public int size() {
+        return (Math.max(0, this.size.get()));
+    }
+
+    @Override
+    public void clear() {
+        E e = null;
+        while ((e = this.poll()) != null) {
+            // Nothing to do...
+        } // WHILE
+    }
+
+    /**
+     * Returns an iterator over a snapshot of the elements in the queue
+     * at the time that this method was invoked. Just like PriorityBlockingQueue,
+     * the iterator will not see elements that are added after it is created.
+     * Removing an element through the iterator will remove it from this queue.
+     */
+    @Override
+    public Iterator<E> iterator() {
+        final List<E> snapshot = new ArrayList<E>(this.elements);
+        return new Iterator<E>() {
+            private final Iterator<E> it = snapshot.iterator();
+            private E last = null;
+            @Override
+            public boolean hasNext() {
+                return (this.it.hasNext());
+            }
+            @Override
+            public E next() {
+                this.last = this.it.next();
+                return (this.last);
+            }
+            @Override
+            public void remove() {
+                if (this.last == null) throw new IllegalStateException();
+                ConcurrentOrderedQueue.this.remove(this.last);
+                this.last = null;
+            }
+        };
+    }
+}
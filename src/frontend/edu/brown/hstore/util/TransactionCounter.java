@@ -63,6 +63,8 @@ public enum TransactionCounter {
     NO_UNDO,
     /** The number of transactions that were sent out with prefetch queries */
     PREFETCH,
+    /** The number of single-partition transactions that bypassed the init and lock queues */
+    FASTPATH,
     
     // --------------------------------------------------------
     // Speculative Execution Stall Points
@@ -154,6 +156,7 @@ public enum TransactionCounter {
             case RECEIVED:
             case EXECUTED:
             case PREFETCH:
+            case FASTPATH:
                 total = RECEIVED.get();
                 break;
             case SPECULATIVE_IDLE:
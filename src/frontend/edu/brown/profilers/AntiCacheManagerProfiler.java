@@ -53,6 +53,33 @@ public class AntiCacheManagerProfiler extends AbstractProfiler {
         }
     };
     
+    /**
+     * Uneviction Ratio History
+     */
+    public static class UnevictionHistory implements Comparable<UnevictionHistory> {
+        public final long timestamp;
+        public final long blocksFetched;
+        public final long blocksWritten;
+        public final double unevictionRatio;
+        
+        public UnevictionHistory(long timestamp,
+                                 long blocksFetched,
+                                 long blocksWritten,
+                                 double unevictionRatio) {
+            this.timestamp = timestamp;
+            this.blocksFetched = blocksFetched;
+            this.blocksWritten = blocksWritten;
+            this.unevictionRatio = unevictionRatio;
+        }
+        @Override
+        public int compareTo(UnevictionHistory other) {
+            if (this.timestamp != other.timestamp) {
+                return (this.timestamp < other.timestamp ? -1 : 1);
+            }
+            return (Double.compare(this.unevictionRatio, other.unevictionRatio));
+        }
+    };
+    
     /**
      * Transaction Evicted Tuple Access History
      */
@@ -99,6 +126,16 @@ public class AntiCacheManagerProfiler extends AbstractProfiler {
      */
     public Collection<AccessHistory> evictedaccess_history = new TreeSet<AccessHistory>();
     
+    /**
+     * The ratio of blocks fetched to blocks written for each memory check interval
+     */
+    public Collection<UnevictionHistory> uneviction_history = new TreeSet<UnevictionHistory>();
+    
+    /**
+     * The moving average of the ratio of blocks fetched to blocks written
+     */
+    public double uneviction_ratio = 0;
+    
     /**
      * The amount of time it takes for the AntiCacheManager to evict a block
      * of tuples from this partition
@@ -117,11 +154,88 @@ public class AntiCacheManagerProfiler extends AbstractProfiler {
      */
     public ProfileMeasurement merge_time = new ProfileMeasurement("MERGE");
     
+    /**
+     * The number of times that the AntiCacheManager asked the EE
+     * to read in a batch of evicted blocks for this partition.
+     */
+    public int fetch_batches = 0;
+    
+    /**
+     * The number of evicted blocks that were read in for this partition
+     */
+    public int fetched_blocks = 0;
+    
+    /**
+     * The number of block requests that were merged into a fetch 
+     * that was already requested by another transaction.
+     */
+    public int coalesced_blocks = 0;
+    
+    /**
+     * The amount of time that a batch of blocks waited in the fetch
+     * queue before it was read in.
+     */
+    public ProfileMeasurement fetch_wait_time = new ProfileMeasurement("FETCH_WAIT");
+    
+    /**
+     * The sum of the depths of the fetch queue for this partition each time
+     * that a new batch of blocks was added to it.
+     */
+    public long fetch_queue_depth_total = 0;
+    
+    /**
+     * The max depth of the fetch queue for this partition
+     */
+    public int fetch_queue_depth_max = 0;
+    
+    /**
+     * The number of blocks that were evicted incrementally while 
+     * the PartitionExecutor was idle.
+     */
+    public long incremental_evicted_blocks = 0;
+    
+    /**
+     * The number of blocks per second that were evicted incrementally
+     * during the last memory check interval.
+     */
+    public double eviction_rate = 0;
+    
+    /**
+     * The number of txns that were told to merge in evicted blocks
+     * before they started executing because we predicted that they
+     * would access them.
+     */
+    public int prewarm_txns = 0;
+    
+    /**
+     * The number of pre-warmed txns that committed without needing
+     * to be restarted because of an evicted tuple access.
+     */
+    public int prewarm_hits = 0;
+    
+    /**
+     * The number of pre-warmed txns that still got restarted
+     * because of an evicted tuple access.
+     */
+    public int prewarm_misses = 0;
+    
     public void reset() {
         super.reset();
         this.eviction_history.clear();
         this.evictedaccess_history.clear();
+        this.uneviction_history.clear();
+        this.uneviction_ratio = 0;
         this.restarted_txns = 0;
+        this.fetch_batches = 0;
+        this.fetched_blocks = 0;
+        this.coalesced_blocks = 0;
+        this.fetch_queue_depth_total = 0;
+        this.fetch_queue_depth_max = 0;
+        this.incremental_evicted_blocks = 0;
+        this.eviction_rate = 0;
+        this.prewarm_txns = 0;
+        this.prewarm_hits = 0;
+        this.prewarm_misses = 0;
     }
     
     // ----------------------------------------------------------------------------
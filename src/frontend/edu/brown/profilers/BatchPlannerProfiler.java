@@ -6,6 +6,8 @@ public class BatchPlannerProfiler extends AbstractProfiler {
 
     public final AtomicInteger transactions = new AtomicInteger(0);
     public final AtomicInteger cached = new AtomicInteger(0);
+    public final AtomicInteger layout_hits = new AtomicInteger(0);
+    public final AtomicInteger layout_misses = new AtomicInteger(0);
     
     public final ProfileMeasurement plan_time = new ProfileMeasurement("BUILD_PLAN");
     public final ProfileMeasurement partest_time = new ProfileMeasurement("PARTITION_EST");
@@ -17,5 +19,17 @@ public class BatchPlannerProfiler extends AbstractProfiler {
         super.reset();
         this.transactions.set(0);
         this.cached.set(0);
+        this.layout_hits.set(0);
+        this.layout_misses.set(0);
+    }
+    
+    /**
+     * Returns the fraction of distributed batches whose WorkFragments
+     * were found in the BatchPlanner's layout cache
+     */
+    public double getLayoutCacheHitRate() {
+        int hits = this.layout_hits.get();
+        int total = hits + this.layout_misses.get();
+        return (total > 0 ? hits / (double)total : 0d);
     }
 }
@@ -1,9 +1,50 @@
 package edu.brown.profilers;
 
+import edu.brown.statistics.FastIntHistogram;
+
 public class CommandLogWriterProfiler extends AbstractProfiler {
 
+    /**
+     * The amount of time spent serializing and compressing group commit batches
+     */
     public final ProfileMeasurement writingTime = new ProfileMeasurement("WRITING");
     public final ProfileMeasurement blockedTime = new ProfileMeasurement("BLOCKED");
     public final ProfileMeasurement networkTime = new ProfileMeasurement("NETWORK");
     
+    /**
+     * The amount of time spent writing group commit batches out to disk and syncing them
+     */
+    public final ProfileMeasurement syncTime = new ProfileMeasurement("SYNC");
+    
+    /**
+     * The amount of time that the WriterThread had to wait for the SyncThread 
+     * to finish with a batch before it could start on the next one
+     */
+    public final ProfileMeasurement stallTime = new ProfileMeasurement("STALL");
+    
+    
+    /**
+     * The group commit windows (in microseconds) that were chosen
+     * by the adaptive group commit 
+     */
+    public final FastIntHistogram windowTimes = new FastIntHistogram();
+    
+    /**
+     * The target number of txns per batch that were chosen
+     * by the adaptive group commit
+     */
+    public final FastIntHistogram targetBatchSizes = new FastIntHistogram();
+    
+    /**
+     * The actual number of txns that were written out in each batch
+     */
+    public final FastIntHistogram batchSizes = new FastIntHistogram();
+    
+    @Override
+    public void reset() {
+        super.reset();
+        this.windowTimes.clear();
+        this.targetBatchSizes.clear();
+        this.batchSizes.clear();
+    }
 }
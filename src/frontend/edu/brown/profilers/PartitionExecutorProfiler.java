@@ -49,7 +49,14 @@ public class PartitionExecutorProfiler extends AbstractProfiler {
      * PartitionMessageQueue.
      */
     public final ProfileMeasurement idle_time = new ProfileMeasurement("IDLE");
-    
+
+    /**
+     * How much time the PartitionExecutor spent spinning or yielding while it
+     * was waiting for something to do instead of blocking.
+     * See ${site.exec_idle_strategy}
+     */
+    public final ProfileMeasurement spin_time = new ProfileMeasurement("SPIN");
+
     /**
      * How much time the PartitionExecutor spends polling its PartitionLockQueue
      */
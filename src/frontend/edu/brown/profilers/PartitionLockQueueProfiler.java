@@ -13,6 +13,12 @@ public class PartitionLockQueueProfiler extends AbstractProfiler {
      */
     public final FastIntHistogram waitTimes = new FastIntHistogram();
     
+    /**
+     * The amount of time in milliseconds that the queue currently waits
+     * before releasing a txn. This is not cleared by reset().
+     */
+    public volatile int currentWaitTime;
+    
     /**
      * The number of times that we spent in the different
      * states in our queue
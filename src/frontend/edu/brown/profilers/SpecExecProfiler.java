@@ -14,6 +14,13 @@ public class SpecExecProfiler extends AbstractProfiler {
      */
     public final ProfileMeasurement compute_time = new ProfileMeasurement("COMPUTE_TIME", true);
     
+    /**
+     * The amount of time spent searching for a txn to execute per invocation
+     * of SpecExecScheduler.next(), whether that is a scan of the lock queue or
+     * a look-up in the SpecExecCandidateIndex.
+     */
+    public final ProfileMeasurement search_time = new ProfileMeasurement("SEARCH_TIME", true);
+    
     /**
      * The current queue size when SpecExecScheduler.next() is invoked
      */
@@ -304,6 +304,11 @@ public class TransactionProfiler extends AbstractProfiler implements Poolable {
         if (this.disabled) return;
         this.startInner(this.pm_init_total, this.pm_init_queue, false);
     }
+    
+    public void stopInitQueue() {
+        if (this.disabled) return;
+        this.stopInner(this.pm_init_queue, this.pm_init_total, false);
+    }
 
     /**
      * Mark that this txn is requesting a query to be executed on a remote partition.
@@ -15,6 +15,12 @@ public class TransactionQueueManagerProfiler extends AbstractProfiler {
      */
     public final ProfileMeasurement init_time = new ProfileMeasurement("INIT_QUEUE");
     
+    /**
+     * The time spent inserting distributed txns into the lock queues
+     * for all of their local partitions in a single batch.
+     */
+    public final ProfileMeasurement batch_insert_time = new ProfileMeasurement("BATCH_INSERT");
+    
     /**
      * The time spent checking the lock queue for a partition.
      */
@@ -130,6 +130,24 @@ public class PartitionEstimator {
      */
     private final Map<String, Set<CacheEntry>> table_cache_xref = new HashMap<String, Set<CacheEntry>>();
 
+    /**
+     * PlanFragment Id -> FragmentRoute
+     * This is sized when the catalog is loaded. An entry is null until the
+     * FragmentRoute for that PlanFragment is compiled.
+     */
+    private FragmentRoute cache_fragmentRoutes[];
+    
+    /**
+     * Whether to use the compiled FragmentRoutes when calculating the
+     * partitions for a PlanFragment. This is only disabled for benchmarking.
+     */
+    private boolean use_fragmentRoutes = true;
+    
+    /**
+     * We won't use an array for the FragmentRoutes if the PlanFragment ids are larger than this
+     */
+    private static final int MAX_FRAGMENT_ROUTE_ID = 1000000;
+
     /**
      * CacheEntry ColumnKey -> Parameter List
      * The parameters could be either StmtParameters or ConstantValues 
@@ -259,6 +277,173 @@ public class PartitionEstimator {
         }
     }; // END CLASS
 
+    /**
+     * A pre-compiled version of a PlanFragment's CacheEntry that we use to compute the
+     * partitions that the PlanFragment needs to go to without having to look anything up.
+     * For each table that the PlanFragment accesses, we either know ahead of time that
+     * it has to go to the base partition or all of the partitions, or we have the
+     * offsets of the StmtParameters (or ConstantValues) that we need to hash using
+     * the table's partitioning column. 
+     * We can't compile CacheEntries for tables that use multi-column partitioning,
+     * so those are marked to use the regular path in calculatePartitionsForCache().
+     */
+    private final class FragmentRoute {
+        private final boolean compiled;
+        
+        /**
+         * If this is true, then we always need to go to every partition
+         */
+        private final boolean broadcast;
+        
+        /**
+         * If this is true, then we need to add the base partition
+         * because the fragment reads from a replicated table
+         */
+        private final boolean base_partition;
+        
+        /**
+         * For each partitioned table that uses parameters, the partitioning
+         * column and the offsets of the StmtParameters to hash.
+         * If the offset is negative, then we will use the ConstantValue 
+         * at the same position in the constants array. 
+         */
+        private final Column columns[];
+        private final int param_offsets[][];
+        private final Object constants[][];
+        
+        /**
+         * Fallback constructor for CacheEntries that we can't compile
+         */
+        private FragmentRoute() {
+            this.compiled = false;
+            this.broadcast = false;
+            this.base_partition = false;
+            this.columns = null;
+            this.param_offsets = null;
+            this.constants = null;
+        }
+        
+        private FragmentRoute(CacheEntry entry) throws Exception {
+            boolean broadcast = false;
+            boolean base_partition = false;
+            List<Column> columns = new ArrayList<Column>();
+            List<int[]> param_offsets = new ArrayList<int[]>();
+            List<Object[]> constants = new ArrayList<Object[]>();
+            
+            Table tables[] = entry.getTables();
+            for (int table_idx = 0; table_idx < tables.length; table_idx++) {
+                // REPLICATED TABLE
+                if (entry.is_replicated[table_idx]) {
+                    switch (entry.query_type) {
+                        case SELECT:
+                            base_partition = true;
+                            break;
+                        case INSERT:
+                        case UPDATE:
+                        case DELETE:
+                            broadcast = true;
+                            break;
+                        default:
+                            assert (false) : "Unexpected query type: " + entry.query_type;
+                    } // SWITCH
+                    continue;
+                }
+                
+                // NON-REPLICATED TABLE
+                Column catalog_col = cache_tablePartitionColumns.get(tables[table_idx]);
+                if (catalog_col instanceof MultiColumn) {
+                    if (entry.isMarkedContainsOR()) {
+                        broadcast = true;
+                        continue;
+                    }
+                    throw new NotCompilableException();
+                }
+                List<Pair<ExpressionType, CatalogType>> predicates = entry.predicates.get(catalog_col);
+                if (predicates == null || predicates.isEmpty()) {
+                    broadcast = true;
+                    continue;
+                }
+                int offsets[] = new int[predicates.size()];
+                Object values[] = new Object[predicates.size()];
+                for (int i = 0; i < offsets.length; i++) {
+                    Pair<ExpressionType, CatalogType> pair = predicates.get(i);
+                    // Anything other than an equality comparison has to go to all partitions 
+                    if (pair.getFirst() != ExpressionType.COMPARE_EQUAL) {
+                        broadcast = true;
+                        offsets = null;
+                        break;
+                    }
+                    CatalogType param = pair.getSecond();
+                    if (param instanceof StmtParameter) {
+                        offsets[i] = ((StmtParameter)param).getIndex();
+                    } else if (param instanceof ConstantValue) {
+                        ConstantValue const_param = (ConstantValue)param;
+                        VoltType vtype = VoltType.get(const_param.getType());
+                        offsets[i] = -1;
+                        values[i] = VoltTypeUtil.getObjectFromString(vtype, const_param.getValue());
+                    } else {
+                        throw new RuntimeException("Unexpected parameter type: " + param.fullName());
+                    }
+                } // FOR
+                if (offsets == null) continue;
+                columns.add(catalog_col);
+                param_offsets.add(offsets);
+                constants.add(values);
+            } // FOR
+            
+            this.compiled = true;
+            this.broadcast = broadcast;
+            this.base_partition = base_partition;
+            this.columns = columns.toArray(new Column[columns.size()]);
+            this.param_offsets = param_offsets.toArray(new int[param_offsets.size()][]);
+            this.constants = constants.toArray(new Object[constants.size()][]);
+        }
+        
+        /**
+         * Add the partitions that this PlanFragment needs to go to for the
+         * given parameters into the given set.
+         * @param partitions
+         * @param params
+         * @param base_partition
+         */
+        private void calculate(final PartitionSet partitions, final Object params[], final int base_partition) {
+            if (this.broadcast) {
+                partitions.addAll(all_partitions);
+                return;
+            }
+            if (this.base_partition && base_partition != HStoreConstants.NULL_PARTITION_ID) {
+                partitions.add(base_partition);
+            }
+            for (int i = 0; i < this.columns.length; i++) {
+                final Column catalog_col = this.columns[i];
+                final int offsets[] = this.param_offsets[i];
+                for (int j = 0; j < offsets.length; j++) {
+                    // CONSTANT VALUE
+                    if (offsets[j] < 0) {
+                        partitions.add(hasher.hash(this.constants[i][j]));
+                        continue;
+                    }
+                    // STATEMENT PARAMETER
+                    Object value = params[offsets[j]];
+                    if (ClassUtil.isArray(value)) {
+                        for (int k = 0, cnt = Array.getLength(value); k < cnt; k++) {
+                            partitions.add(hasher.hash(Array.get(value, k), catalog_col));
+                        } // FOR
+                    } else {
+                        partitions.add(hasher.hash(value, catalog_col));
+                    }
+                } // FOR
+            } // FOR
+        }
+    } // END CLASS
+    
+    /**
+     * Thrown when we can't compile a CacheEntry into a FragmentRoute
+     */
+    private static final class NotCompilableException extends Exception {
+        private static final long serialVersionUID = 1L;
+    }
+    
     /**
      * PartitionSet pool used by calculatePartitionsForCache
      */
@@ -400,6 +585,21 @@ public class PartitionEstimator {
         for (CacheEntry entry : this.cache_statementEntries.values()) {
             entry.cache_valid = false;
         }
+        
+        // Make room for the compiled routes for each PlanFragment.
+        // These will get compiled the first time that they are needed
+        int max_frag_id = -1;
+        for (Procedure catalog_proc : this.catalogContext.database.getProcedures()) {
+            for (Statement catalog_stmt : catalog_proc.getStatements()) {
+                for (PlanFragment catalog_frag : catalog_stmt.getFragments()) {
+                    max_frag_id = Math.max(max_frag_id, catalog_frag.getId());
+                } // FOR
+                for (PlanFragment catalog_frag : catalog_stmt.getMs_fragments()) {
+                    max_frag_id = Math.max(max_frag_id, catalog_frag.getId());
+                } // FOR
+            } // FOR
+        } // FOR
+        this.cache_fragmentRoutes = (max_frag_id < MAX_FRAGMENT_ROUTE_ID ? new FragmentRoute[max_frag_id + 1] : null);
 
         // Generate a list of all the partition ids, so that we can quickly
         // add them to the output when estimating later on
@@ -422,6 +622,16 @@ public class PartitionEstimator {
         this.cache_fragmentEntries.clear();
         this.cache_statementEntries.clear();
         this.cache_stmtPartitionParameters.clear();
+        this.cache_fragmentRoutes = null;
+    }
+    
+    /**
+     * Enable or disable the compiled FragmentRoutes.
+     * This should only be used for testing and benchmarking.
+     * @param enable
+     */
+    public void setUseFragmentRoutes(boolean enable) {
+        this.use_fragmentRoutes = enable;
     }
     
     // ----------------------------------------------------------------------------
@@ -1458,12 +1668,23 @@ public class PartitionEstimator {
                                                 final int base_partition) throws Exception {
         if (trace.val)
             LOG.trace("Estimating partitions for PlanFragment #" + catalog_frag.fullName());
-        PartitionEstimator.CacheEntry cache_entry = this.getFragmentCacheEntry(catalog_frag);
-        this.calculatePartitionsForCache(cache_entry,
-                                         params,
-                                         base_partition,
-                                         entry_partitions,
-                                         all_partitions);
+        
+        // OPTIMIZATION: If we only need the global set of partitions, then we can
+        // use the pre-compiled route for this PlanFragment
+        FragmentRoute route = null;
+        if (entry_partitions == null && this.use_fragmentRoutes) {
+            route = this.getFragmentRoute(catalog_frag);
+        }
+        if (route != null && route.compiled) {
+            route.calculate(all_partitions, params, base_partition);
+        } else {
+            PartitionEstimator.CacheEntry cache_entry = this.getFragmentCacheEntry(catalog_frag);
+            this.calculatePartitionsForCache(cache_entry,
+                                             params,
+                                             base_partition,
+                                             entry_partitions,
+                                             all_partitions);
+        }
         if (debug.val) {
             if (entry_partitions != null)
                 LOG.debug(String.format("%s Table Partitions: %s", catalog_frag.fullName(), entry_partitions));
@@ -1473,6 +1694,36 @@ public class PartitionEstimator {
         return;
     }
 
+    /**
+     * Return the FragmentRoute for the given PlanFragment, compiling it if we
+     * haven't done so already. Returns null if we aren't caching FragmentRoutes.
+     * @param catalog_frag
+     * @return
+     * @throws Exception
+     */
+    private FragmentRoute getFragmentRoute(PlanFragment catalog_frag) throws Exception {
+        FragmentRoute routes[] = this.cache_fragmentRoutes;
+        int frag_id = catalog_frag.getId();
+        if (routes == null || frag_id < 0 || frag_id >= routes.length) {
+            return (null);
+        }
+        FragmentRoute route = routes[frag_id];
+        if (route == null) {
+            CacheEntry cache_entry = this.getFragmentCacheEntry(catalog_frag);
+            try {
+                route = new FragmentRoute(cache_entry);
+            } catch (NotCompilableException ex) {
+                if (debug.val)
+                    LOG.debug("Unable to compile FragmentRoute for " + catalog_frag.fullName());
+                route = new FragmentRoute();
+            }
+            // Every thread will compile the same thing, so it doesn't
+            // matter if we race with somebody else here
+            routes[frag_id] = route;
+        }
+        return (route);
+    }
+
     private PartitionEstimator.CacheEntry getFragmentCacheEntry(PlanFragment catalog_frag) throws Exception {
         String frag_key = CatalogKey.createKey(catalog_frag);
         // Check whether we have generate the cache entries for this Statement
@@ -2044,6 +2295,22 @@ public class PartitionEstimator {
         for (CacheEntry entry : this.cache_statementEntries.values()) {
             entry.getTables();
         }
-
+        
+        // Compile the routes for every PlanFragment
+        for (Procedure catalog_proc : this.catalogContext.database.getProcedures()) {
+            for (Statement catalog_stmt : catalog_proc.getStatements()) {
+                try {
+                    for (PlanFragment catalog_frag : catalog_stmt.getFragments()) {
+                        this.getFragmentRoute(catalog_frag);
+                    } // FOR
+                    for (PlanFragment catalog_frag : catalog_stmt.getMs_fragments()) {
+                        this.getFragmentRoute(catalog_frag);
+                    } // FOR
+                } catch (Exception ex) {
+                    LOG.fatal("Failed to compile routes for " + catalog_stmt.fullName(), ex);
+                    System.exit(1);
+                }
+            } // FOR
+        } // FOR
     }
 }
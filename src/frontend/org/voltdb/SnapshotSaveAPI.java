@@ -57,18 +57,19 @@ public class SnapshotSaveAPI
      * @param file_nonce
      * @param block
      * @param startTime
+     * @param txnId The id of the txn that is taking the snapshot
      * @param context
      * @param hostname
      * @return VoltTable describing the results of the snapshot attempt
      */
     public VoltTable startSnapshotting(String file_path, String file_nonce, byte block,
-            long startTime, SystemProcedureExecutionContext context, String hostname)
+            long startTime, Long txnId, SystemProcedureExecutionContext context, String hostname)
     {
         //LOG.trace("Creating snapshot target and handing to EEs");
         final VoltTable result = SnapshotSave.constructNodeResultsTable();
 
         // Each partition does this to accumulate tasks for it
-        createSetup(file_path, file_nonce, startTime, context, hostname, result);
+        createSetup(file_path, file_nonce, startTime, txnId, context, hostname, result);
         
         //LOG.trace("Stage 0 : at partition : "+context.getPartitionExecutor().getPartitionId());
         
@@ -159,7 +160,7 @@ public class SnapshotSaveAPI
 
 
     private void createSetup(String file_path, String file_nonce,
-            long startTime, SystemProcedureExecutionContext context,
+            long startTime, Long txnId, SystemProcedureExecutionContext context,
             String hostname, final VoltTable result) {
         {            
             Site site = context.getSite();
@@ -185,7 +186,7 @@ public class SnapshotSaveAPI
                 synchronized (SnapshotSiteProcessor.m_digestWritten) {
                     if (SnapshotSiteProcessor.m_digestWritten.get() == false) {
                         SnapshotSiteProcessor.m_digestWritten.set(true);
-                        SnapshotUtil.recordSnapshotTableList(startTime, file_path, file_nonce, tables);
+                        SnapshotUtil.recordSnapshotTableList(startTime, txnId, file_path, file_nonce, tables);
                         LOG.trace("Digest written at partition " + context.getPartitionExecutor().getPartitionId());
                     }
                 }
@@ -579,7 +579,11 @@ public abstract class VoltProcedure implements Poolable {
                     // have the logic down below for handling various errors from the EE
                     try {
                         Table catalog_tbl = txnState.getAntiCacheMergeTable();
-                        this.executor.getExecutionEngine().antiCacheMergeBlocks(catalog_tbl);
+                        try {
+                            this.executor.getExecutionEngine().antiCacheMergeBlocks(catalog_tbl);
+                        } finally {
+                            this.hstore_site.getAntiCacheManager().notifyBlocksMerged(this.partitionId, catalog_tbl);
+                        }
                     } finally {
                         if (hstore_conf.site.anticache_profiling) {
                             this.hstore_site.getAntiCacheManager()
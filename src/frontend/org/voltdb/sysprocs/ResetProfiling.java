@@ -96,9 +96,11 @@ public class ResetProfiling extends VoltSystemProcedure {
                 // any global profiling parameters
                 if (this.isFirstLocalPartition()) {
                     // COMMAND LOGGER
-                    CommandLogWriter commandLog = hstore_site.getCommandLogWriter();
-                    if (hstore_conf.site.commandlog_profiling && commandLog.getProfiler() != null) {
-                        profilers.add(commandLog.getProfiler());
+                    CommandLogWriter commandLogs[] = hstore_site.getCommandLogWriters();
+                    if (hstore_conf.site.commandlog_profiling && commandLogs != null) {
+                        for (CommandLogWriter commandLog : commandLogs) {
+                            if (commandLog.getProfiler() != null) profilers.add(commandLog.getProfiler());
+                        } // FOR
                     }
                     
                     // Reset the StartWorkload flag in the HStoreSite
@@ -43,6 +43,7 @@ import org.voltdb.sysprocs.saverestore.SnapshotUtil;
 import edu.brown.catalog.CatalogUtil;
 import edu.brown.hstore.HStoreConstants;
 import edu.brown.hstore.PartitionExecutor.SystemProcedureExecutionContext;
+import edu.brown.hstore.cmdlog.CommandLogWriter;
 import edu.brown.utils.CollectionUtil;
 
 @ProcInfo(singlePartition = false)
@@ -111,7 +112,22 @@ public class SnapshotSave extends VoltSystemProcedure {
             final long startTime = (Long) params.toArray()[2];
             byte block = (Byte) params.toArray()[3];
             SnapshotSaveAPI saveAPI = new SnapshotSaveAPI();
-            VoltTable result = saveAPI.startSnapshotting(file_path, file_nonce, block, startTime, context, hostname);
+            VoltTable result = saveAPI.startSnapshotting(file_path, file_nonce, block, startTime, txn_id, context, hostname);
+
+            // If this was a blocking snapshot, then this partition's data is now safely
+            // on disk. Let the command log know so that it can throw away old segments
+            int partition = context.getPartitionExecutor().getPartitionId();
+            CommandLogWriter commandLogger = context.getHStoreSite().getCommandLogWriter(partition);
+            if (block != 0 && commandLogger != null) {
+                boolean success = true;
+                while (result.advanceRow()) {
+                    if (result.getString("RESULT").equals("SUCCESS") == false) success = false;
+                } // WHILE
+                result.resetRowPosition();
+                if (success) {
+                    commandLogger.notifySnapshotCompleted(partition, txn_id, file_path);
+                }
+            }
 
             LOG.trace("createSnapshotTargets :: Ends at partition : " + context.getPartitionExecutor().getPartitionId() + "\n" + result);
             return new DependencySet(SnapshotSave.DEP_createSnapshotTargets, result);
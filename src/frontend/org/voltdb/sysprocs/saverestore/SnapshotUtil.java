@@ -53,8 +53,10 @@ public class SnapshotUtil {
 
     /**
      * Create a digest for a snapshot containing the time of the snapshot and the list of tables included.
-     * The first item in the comma separated list is the time in milliseconds as a string.
+     * The first item in the comma separated list is the time in milliseconds as a string. If the
+     * id of the txn that took the snapshot is given, then it is appended to the time after a colon.
      * @param snapshotTime
+     * @param snapshotTxnId
      * @param path
      * @param nonce
      * @param tables
@@ -63,6 +65,7 @@ public class SnapshotUtil {
     public static void
         recordSnapshotTableList(
             long snapshotTime,
+            Long snapshotTxnId,
             String path,
             String nonce,
             List<Table> tables) throws IOException {
@@ -75,6 +78,9 @@ public class SnapshotUtil {
         FileOutputStream fos = new FileOutputStream(f);
         StringWriter sw = new StringWriter();
         sw.append(Long.toString(snapshotTime));
+        if (snapshotTxnId != null) {
+            sw.append(':').append(Long.toString(snapshotTxnId));
+        }
         if (!tables.isEmpty()) {
             sw.append(',');
         }
@@ -114,10 +120,23 @@ public class SnapshotUtil {
         String tableNames[] = tableList.split(",");
         String actualTableNames[] = new String[tableNames.length - 1];
         System.arraycopy( tableNames, 1, actualTableNames, 0, tableNames.length - 1);
-        return Pair.of(Long.valueOf(tableNames[0]),
+        String header[] = tableNames[0].split(":");
+        return Pair.of(Long.valueOf(header[0]),
                        java.util.Arrays.asList(actualTableNames));
     }
 
+    /**
+     * Retrieve the id of the txn that took the snapshot from a digest.
+     * Returns null if the digest was written before we started recording it.
+     * @param f
+     * @throws Exception
+     */
+    public static Long retrieveSnapshotTxnId(File f) throws Exception {
+        String tableList = CRCCheck(f);
+        String header[] = tableList.split(",")[0].split(":");
+        return (header.length > 1 ? Long.valueOf(header[1]) : null);
+    }
+
     /**
      * Check if the CRC of the snapshot file matches the digest.
      * @param f The snapshot file object
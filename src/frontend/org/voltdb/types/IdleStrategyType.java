@@ -0,0 +1,41 @@
+package org.voltdb.types;
+
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * This defines what a PartitionExecutor will do while it waits
+ * for something to show up in its queues.
+ */
+public enum IdleStrategyType {
+    /**
+     * Block on the work queue for a short amount of time.
+     * This is the default configuration.
+     */
+    BLOCK,
+    /**
+     * Never give up the CPU and keep checking the queues.
+     * This should only be used when each PartitionExecutor has its own core.
+     */
+    SPIN,
+    /**
+     * Spin for a while and then call Thread.yield() in between checking the queues.
+     */
+    YIELD,
+    /**
+     * Spin for a while, then yield for a while, and then block on the work queue.
+     */
+    HYBRID;
+
+    private static final Map<String, IdleStrategyType> name_lookup = new HashMap<String, IdleStrategyType>();
+    static {
+        for (IdleStrategyType e : EnumSet.allOf(IdleStrategyType.class)) {
+            IdleStrategyType.name_lookup.put(e.name().toLowerCase(), e);
+        } // FOR
+    } // STATIC
+
+    public static IdleStrategyType get(String name) {
+        return IdleStrategyType.name_lookup.get(name.toLowerCase());
+    }
+} // ENUM
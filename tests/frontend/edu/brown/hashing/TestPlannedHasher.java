@@ -15,7 +15,7 @@ import edu.brown.utils.ProjectType;
 public class TestPlannedHasher extends BaseTestCase {
     private static final int NUM_PARTITIONS = 3;
     private AbstractHasher hasher;
-    
+    private Column catalog_col;
     
     
     
@@ -25,7 +25,7 @@ public class TestPlannedHasher extends BaseTestCase {
         hasher = new PlannedHasher(catalogContext, NUM_PARTITIONS, null);
         
         Table catalog_tbl = this.getTable("USERTABLE");
-        Column catalog_col = this.getColumn(catalog_tbl, "YCSB_KEY");
+        catalog_col = this.getColumn(catalog_tbl, "YCSB_KEY");
         catalog_tbl.setPartitioncolumn(catalog_col);
     }
     
@@ -44,4 +44,20 @@ public class TestPlannedHasher extends BaseTestCase {
         
         //assertNotSame(hash0, hash1);
     }
+    
+    public void testRoutingCache() throws Exception {
+        RoutingCache cache = this.hasher.getRoutingCache();
+        assertNotNull(cache);
+        
+        long val = 60000;
+        assertEquals(0, this.hasher.hash(val, catalog_col));
+        assertEquals(0, this.hasher.hash(val, catalog_col));
+        assertEquals(1, cache.getHitCount());
+        
+        // Changing the phase has to throw out the old entries
+        ((PlannedHasher)this.hasher).changePartitionPhase("2");
+        assertEquals(1, this.hasher.hash(val, catalog_col));
+        assertEquals(1, this.hasher.hash(val, catalog_col));
+        assertEquals(2, cache.getHitCount());
+    }
 }
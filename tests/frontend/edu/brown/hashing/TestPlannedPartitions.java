@@ -16,6 +16,7 @@ import org.voltdb.catalog.Table;
 import edu.brown.BaseTestCase;
 import edu.brown.hashing.PlannedPartitions.PartitionPhase;
 import edu.brown.hashing.PlannedPartitions.PartitionRange;
+import edu.brown.hashing.PlannedPartitions.PartitionRangeIndex;
 import edu.brown.hashing.PlannedPartitions.PartitionedTable;
 import edu.brown.hashing.ReconfigurationPlan.ReconfigurationRange;
 import edu.brown.hashing.ReconfigurationPlan.ReconfigurationTable;
@@ -179,6 +180,48 @@ public class TestPlannedPartitions extends BaseTestCase {
 
     }
 
+    public void testPartitionRangeIndex() throws Exception {
+        JSONObject test_json = new JSONObject(test_json2);
+        PlannedPartitions p = new PlannedPartitions(catalogContext, test_json);
+        p.setPartitionPhase("1");
+        PartitionedTable table = p.getCurrentPlan().getTable("usertable");
+        PartitionRangeIndex index = table.getRangeIndex();
+        assertTrue(index.isDisjoint());
+        assertTrue(index.hasPrimitiveKeys());
+
+        // The index should always agree with checking every range
+        for (long key = -10; key < 14000; key++) {
+            int expected = -1;
+            for (PartitionRange range : table.getRanges()) {
+                if (range.inRange(new Object[]{ key })) {
+                    expected = range.getPartition();
+                    break;
+                }
+            } // FOR
+            List<Object> ids = new ArrayList<Object>();
+            ids.add(key);
+            assertEquals("key=" + key, expected, table.findPartition(ids));
+            assertEquals("key=" + key, expected, index.findPartition(key));
+        } // FOR
+
+        // Overlapping ranges have to be checked in order
+        List<PartitionRange> ranges = new ArrayList<PartitionRange>();
+        ranges.add(new PartitionRange(catalog_tbl, 1, "5-5"));
+        ranges.add(new PartitionRange(catalog_tbl, 2, "1-10"));
+        ranges.add(new PartitionRange(catalog_tbl, 3, "5-20"));
+        PartitionedTable overlap_table = new PartitionedTable(ranges, "usertable", catalog_tbl);
+        assertFalse(overlap_table.getRangeIndex().isDisjoint());
+        List<Object> ids = new ArrayList<Object>();
+        ids.add(5L);
+        assertEquals(1, overlap_table.findPartition(ids));
+        ids.set(0, 7L);
+        assertEquals(2, overlap_table.findPartition(ids));
+        ids.set(0, 15L);
+        assertEquals(3, overlap_table.findPartition(ids));
+        ids.set(0, 25L);
+        assertEquals(-1, overlap_table.findPartition(ids));
+    }
+
     public void testReconfigurationTable1() throws Exception {
         List<PartitionRange> olds = new ArrayList<>();
         List<PartitionRange> news = new ArrayList<>();
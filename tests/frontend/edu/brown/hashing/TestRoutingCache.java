@@ -0,0 +1,112 @@
+package edu.brown.hashing;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+public class TestRoutingCache extends TestCase {
+
+    private static final int CAPACITY = 1024;
+
+    private final Object owner0 = new Object();
+    private final Object owner1 = new Object();
+    private RoutingCache cache;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        this.cache = new RoutingCache(CAPACITY);
+    }
+
+    /**
+     * testGetPut
+     */
+    @Test
+    public void testGetPut() throws Exception {
+        int version = this.cache.getVersion();
+        assertEquals(RoutingCache.MISS, this.cache.get(this.owner0, 99l));
+        this.cache.put(this.owner0, 99l, 3, version);
+        assertEquals(3, this.cache.get(this.owner0, 99l));
+
+        // Integral keys are all stored the same way
+        assertEquals(3, this.cache.get(this.owner0, Integer.valueOf(99)));
+        assertEquals(3, this.cache.get(this.owner0, Short.valueOf((short)99)));
+
+        // But they belong to their owner
+        assertEquals(RoutingCache.MISS, this.cache.get(this.owner1, 99l));
+        assertEquals(RoutingCache.MISS, this.cache.get(null, 99l));
+
+        // Non-integral keys
+        this.cache.put(this.owner1, "abc", 7, version);
+        assertEquals(7, this.cache.get(this.owner1, "abc"));
+        assertEquals(RoutingCache.MISS, this.cache.get(this.owner1, "abd"));
+        assertEquals(RoutingCache.MISS, this.cache.get(this.owner1, null));
+
+        assertEquals(4, this.cache.getHitCount());
+        assertEquals(4, this.cache.getMissCount());
+    }
+
+    /**
+     * testBounded
+     */
+    @Test
+    public void testBounded() throws Exception {
+        int version = this.cache.getVersion();
+        int num_keys = CAPACITY * 10;
+        for (long key = 0; key < num_keys; key++) {
+            this.cache.put(this.owner0, key, (int)(key % 4), version);
+        } // FOR
+        assertTrue(this.cache.getCapacity() >= CAPACITY);
+
+        int found = 0;
+        for (long key = 0; key < num_keys; key++) {
+            int partition = this.cache.get(this.owner0, key);
+            if (partition != RoutingCache.MISS) {
+                assertEquals(key % 4, partition);
+                found++;
+            }
+        } // FOR
+        assertTrue(found > 0);
+        assertTrue(found <= this.cache.getCapacity());
+    }
+
+    /**
+     * testInvalidate
+     */
+    @Test
+    public void testInvalidate() throws Exception {
+        int version = this.cache.getVersion();
+        this.cache.put(this.owner0, 1l, 1, version);
+        this.cache.put(this.owner0, "abc", 2, version);
+        this.cache.invalidate();
+        assertEquals(RoutingCache.MISS, this.cache.get(this.owner0, 1l));
+        assertEquals(RoutingCache.MISS, this.cache.get(this.owner0, "abc"));
+
+        // Anything computed before the cache was invalidated must be rejected
+        this.cache.put(this.owner0, 1l, 1, version);
+        assertEquals(RoutingCache.MISS, this.cache.get(this.owner0, 1l));
+
+        version = this.cache.getVersion();
+        this.cache.put(this.owner0, 1l, 5, version);
+        assertEquals(5, this.cache.get(this.owner0, 1l));
+    }
+
+    /**
+     * testHitRate
+     */
+    @Test
+    public void testHitRate() throws Exception {
+        assertEquals(0d, this.cache.getHitRate());
+        int version = this.cache.getVersion();
+        this.cache.put(null, 10l, 0, version);
+        this.cache.get(null, 10l);
+        this.cache.get(null, 10l);
+        this.cache.get(null, 10l);
+        this.cache.get(null, 11l);
+        assertEquals(0.75d, this.cache.getHitRate(), 0.0001);
+
+        this.cache.resetCounters();
+        assertEquals(0, this.cache.getHitCount());
+        assertEquals(0, this.cache.getMissCount());
+    }
+}
@@ -0,0 +1,235 @@
+package edu.brown.hstore;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+import org.voltdb.ParameterSet;
+import org.voltdb.SQLStmt;
+import org.voltdb.VoltProcedure;
+import org.voltdb.VoltType;
+import org.voltdb.benchmark.tpcc.procedures.neworder;
+import org.voltdb.catalog.Procedure;
+import org.voltdb.catalog.Statement;
+import org.voltdb.catalog.StmtParameter;
+import org.voltdb.utils.VoltTypeUtil;
+
+import edu.brown.BaseTestCase;
+import edu.brown.hashing.DefaultHasher;
+import edu.brown.hstore.Hstoreservice.WorkFragment;
+import edu.brown.hstore.conf.HStoreConf;
+import edu.brown.profilers.BatchPlannerProfiler;
+import edu.brown.statistics.FastIntHistogram;
+import edu.brown.utils.MathUtil;
+import edu.brown.utils.PartitionEstimator;
+import edu.brown.utils.PartitionSet;
+import edu.brown.utils.ProjectType;
+
+/**
+ * Microbenchmark for BatchPlanner using the statements from TPC-C's NewOrder.
+ * We plan the same batch over and over again for a range of warehouses, first
+ * with the PartitionEstimator's generic lookup path and then with its
+ * pre-compiled PlanFragment routes, and report the mean throughput of the
+ * measured iterations for each. We then do the same for distributed NewOrder
+ * batches where the stock is supplied by a remote warehouse, with and without
+ * the BatchPlanner's WorkFragment layout cache.
+ * This is not run as part of the regular test suite.
+ */
+public class BenchmarkBatchPlanner extends BaseTestCase {
+
+    private static final int NUM_PARTITIONS = 8;
+    private static final int NUM_WAREHOUSES = 64;
+    private static final int PLANS_PER_ITERATION = 50000;
+    private static final int WARMUP_ITERATIONS = 3;
+    private static final int MEASURE_ITERATIONS = 10;
+
+    /**
+     * In a distributed NewOrder, these statements will access the remote warehouse
+     */
+    private static final String REMOTE_STATEMENTS[] = {
+        "getStockInfo",
+        "updateStock",
+    };
+
+    private static final String BATCH_STATEMENTS[] = {
+        "getWarehouseTaxRate",
+        "getDistrict",
+        "getCustomer",
+        "getItemInfo",
+        "getStockInfo",
+        "updateStock",
+        "createOrderLine",
+    };
+
+    private Procedure catalog_proc;
+    private SQLStmt batch[];
+    private ParameterSet args[][];
+    private ParameterSet remoteArgs[][];
+    private int base_partitions[];
+    private DefaultHasher hasher;
+    private final FastIntHistogram touched_partitions = new FastIntHistogram();
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp(ProjectType.TPCC);
+        this.addPartitions(NUM_PARTITIONS);
+        this.hasher = new DefaultHasher(catalogContext, NUM_PARTITIONS);
+        p_estimator = new PartitionEstimator(catalogContext, this.hasher);
+        this.catalog_proc = this.getProcedure(neworder.class);
+
+        this.batch = new SQLStmt[BATCH_STATEMENTS.length];
+        for (int i = 0; i < this.batch.length; i++) {
+            Statement catalog_stmt = this.getStatement(this.catalog_proc, BATCH_STATEMENTS[i]);
+            this.batch[i] = new SQLStmt(catalog_stmt);
+        } // FOR
+
+        this.args = new ParameterSet[NUM_WAREHOUSES][];
+        this.remoteArgs = new ParameterSet[NUM_WAREHOUSES][];
+        this.base_partitions = new int[NUM_WAREHOUSES];
+        for (int w_id = 1; w_id <= NUM_WAREHOUSES; w_id++) {
+            int remote_w_id = w_id;
+            while (this.hasher.hash(remote_w_id) == this.hasher.hash(w_id)) {
+                remote_w_id = (remote_w_id % NUM_WAREHOUSES) + 1;
+            } // WHILE
+            this.args[w_id-1] = this.createArgs(w_id, w_id);
+            this.remoteArgs[w_id-1] = this.createArgs(w_id, remote_w_id);
+            this.base_partitions[w_id-1] = this.hasher.hash(w_id);
+        } // FOR
+    }
+
+    /**
+     * Every integer parameter is set to the warehouse id so that all of
+     * the statements in a batch go to the same partition, except for the
+     * REMOTE_STATEMENTS which use the remote warehouse id. 
+     */
+    private ParameterSet[] createArgs(int w_id, int remote_w_id) {
+        ParameterSet params[] = new ParameterSet[this.batch.length];
+        for (int i = 0; i < this.batch.length; i++) {
+            Statement catalog_stmt = this.batch[i].getStatement();
+            int id = w_id;
+            for (String stmtName : REMOTE_STATEMENTS) {
+                if (catalog_stmt.getName().equals(stmtName)) id = remote_w_id;
+            } // FOR
+            Object raw_args[] = new Object[catalog_stmt.getParameters().size()];
+            for (StmtParameter catalog_param : catalog_stmt.getParameters()) {
+                VoltType vtype = VoltType.get(catalog_param.getJavatype());
+                Object value = null;
+                switch (vtype) {
+                    case TINYINT:
+                    case SMALLINT:
+                    case INTEGER:
+                    case BIGINT:
+                        value = id;
+                        break;
+                    default:
+                        value = VoltTypeUtil.getRandomValue(vtype);
+                } // SWITCH
+                raw_args[catalog_param.getIndex()] = value;
+            } // FOR
+            params[i] = VoltProcedure.getCleanParams(this.batch[i], raw_args);
+        } // FOR
+        return (params);
+    }
+
+    /**
+     * Run one iteration and return the number of batches planned per millisecond
+     */
+    private double runIteration(BatchPlanner planner, PartitionSet all_partitions) {
+        long txn_id = 1000;
+        long start = System.nanoTime();
+        for (int i = 0; i < PLANS_PER_ITERATION; i++) {
+            int w_id = i % NUM_WAREHOUSES;
+            this.touched_partitions.clear();
+            BatchPlanner.BatchPlan plan = planner.plan(txn_id++,
+                                                       this.base_partitions[w_id],
+                                                       all_partitions,
+                                                       this.touched_partitions,
+                                                       this.args[w_id]);
+            assert(plan != null);
+        } // FOR
+        long stop = System.nanoTime();
+        return (PLANS_PER_ITERATION / ((stop - start) / 1000000d));
+    }
+
+    /**
+     * Run one iteration of distributed batches and return the average number
+     * of microseconds it took to plan a batch and generate its WorkFragments
+     */
+    private double runDistributedIteration(BatchPlanner planner, PartitionSet all_partitions) {
+        List<WorkFragment.Builder> builders = new ArrayList<WorkFragment.Builder>();
+        int stmtCounters[] = new int[this.batch.length];
+        long txn_id = 1000;
+        long start = System.nanoTime();
+        for (int i = 0; i < PLANS_PER_ITERATION; i++) {
+            int w_id = i % NUM_WAREHOUSES;
+            this.touched_partitions.clear();
+            BatchPlanner.BatchPlan plan = planner.plan(txn_id,
+                                                       this.base_partitions[w_id],
+                                                       all_partitions,
+                                                       this.touched_partitions,
+                                                       this.remoteArgs[w_id]);
+            assert(plan.isSingledPartitionedAndLocal() == false);
+            builders.clear();
+            plan.getWorkFragmentsBuilders(txn_id++, stmtCounters, builders);
+            assert(builders.isEmpty() == false);
+        } // FOR
+        long stop = System.nanoTime();
+        return (((stop - start) / 1000d) / PLANS_PER_ITERATION);
+    }
+
+    /**
+     * testThroughput
+     */
+    @Test
+    public void testThroughput() throws Exception {
+        PartitionSet all_partitions = catalogContext.getAllPartitionIds();
+        System.err.printf("%-10s %-12s %s\n", "Routes", "Plans/ms", "StdDev");
+        for (boolean compiled : new boolean[]{ false, true }) {
+            p_estimator.setUseFragmentRoutes(compiled);
+            BatchPlanner planner = new BatchPlanner(this.batch, this.catalog_proc, p_estimator);
+
+            for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+                this.runIteration(planner, all_partitions);
+            } // FOR
+            double results[] = new double[MEASURE_ITERATIONS];
+            for (int i = 0; i < MEASURE_ITERATIONS; i++) {
+                results[i] = this.runIteration(planner, all_partitions);
+            } // FOR
+            System.err.printf("%-10s %-12.1f %.1f\n", (compiled ? "compiled" : "generic"),
+                              MathUtil.arithmeticMean(results),
+                              MathUtil.stdev(results));
+        } // FOR
+    }
+
+    /**
+     * testDistributedLatency
+     */
+    @Test
+    public void testDistributedLatency() throws Exception {
+        HStoreConf hstore_conf = HStoreConf.singleton();
+        int cache_size = hstore_conf.site.planner_layout_cache_size;
+        PartitionSet all_partitions = catalogContext.getAllPartitionIds();
+        hstore_conf.site.planner_profiling = true;
+        System.err.printf("%-10s %-12s %-10s %s\n", "Layouts", "Latency(us)", "StdDev", "HitRate");
+        for (boolean cached : new boolean[]{ false, true }) {
+            hstore_conf.site.planner_layout_cache_size = (cached ? Math.max(cache_size, NUM_WAREHOUSES) : 0);
+            BatchPlanner planner = new BatchPlanner(this.batch, this.catalog_proc, p_estimator);
+
+            for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+                this.runDistributedIteration(planner, all_partitions);
+            } // FOR
+            BatchPlannerProfiler profiler = planner.getDebugContext().getProfiler();
+            profiler.reset();
+            double results[] = new double[MEASURE_ITERATIONS];
+            for (int i = 0; i < MEASURE_ITERATIONS; i++) {
+                results[i] = this.runDistributedIteration(planner, all_partitions);
+            } // FOR
+            System.err.printf("%-10s %-12.2f %-10.2f %.3f\n", (cached ? "cached" : "rebuilt"),
+                              MathUtil.arithmeticMean(results),
+                              MathUtil.stdev(results),
+                              profiler.getLayoutCacheHitRate());
+        } // FOR
+        hstore_conf.site.planner_layout_cache_size = cache_size;
+        hstore_conf.site.planner_profiling = false;
+    }
+}
@@ -0,0 +1,178 @@
+package edu.brown.hstore;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+import org.voltdb.TransactionIdManager;
+import org.voltdb.catalog.Procedure;
+import org.voltdb.catalog.Site;
+
+import edu.brown.BaseTestCase;
+import edu.brown.benchmark.tm1.procedures.DeleteCallForwarding;
+import edu.brown.hstore.conf.HStoreConf;
+import edu.brown.hstore.txns.AbstractTransaction;
+import edu.brown.hstore.txns.LocalTransaction;
+import edu.brown.utils.CollectionUtil;
+import edu.brown.utils.MathUtil;
+import edu.brown.utils.PartitionSet;
+import edu.brown.utils.ProjectType;
+
+/**
+ * Microbenchmark for PartitionLockQueue. Multiple producer threads note and
+ * insert txns into a single queue while one consumer thread polls them out, just
+ * like the TransactionQueueManager and the PartitionExecutor. We run a couple of
+ * warm-up iterations and then report the mean throughput of the measured
+ * iterations for each number of producers.
+ * Since we set the queue's maxWaitTime to zero, there is no waiting period
+ * to cover a txn that is noted just before the consumer moves on to a larger
+ * txn. We count how many txns come out of order instead of failing.
+ * This only uses the public queue API, so it can be run against older
+ * versions of PartitionLockQueue to compare them.
+ * This is not run as part of the regular test suite.
+ */
+public class BenchmarkPartitionLockQueue extends BaseTestCase {
+
+    private static final int PRODUCER_THREADS[] = { 8, 16, 32 };
+    private static final int TXNS_PER_PRODUCER = 5000;
+    private static final int WARMUP_ITERATIONS = 2;
+    private static final int MEASURE_ITERATIONS = 5;
+    private static final Random random = new Random(0);
+
+    HStoreSite hstore_site;
+    TransactionIdManager idManager;
+    Procedure catalog_proc;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp(ProjectType.TM1);
+        Site catalog_site = CollectionUtil.first(catalogContext.sites);
+        assertNotNull(catalog_site);
+        this.hstore_site = new MockHStoreSite(catalog_site.getId(), catalogContext, HStoreConf.singleton());
+        this.idManager = hstore_site.getTransactionIdManager(0);
+        this.catalog_proc = this.getProcedure(DeleteCallForwarding.class);
+    }
+
+    /**
+     * Run one iteration with the given producers and return the number
+     * of txns that were processed per millisecond.
+     */
+    private double runIteration(final List<List<AbstractTransaction>> producerTxns,
+                                final AtomicInteger outOfOrder) throws Exception {
+        // We don't want to measure the safety wait time or throttling
+        final PartitionLockQueue queue = new PartitionLockQueue(0, 0, Integer.MAX_VALUE, 1.0);
+        queue.getDebugContext().setMaxWaitTime(0);
+
+        int total = 0;
+        for (List<AbstractTransaction> txns : producerTxns) {
+            total += txns.size();
+        } // FOR
+        final int expected = total;
+        final AtomicInteger rejected = new AtomicInteger(0);
+        final CountDownLatch startLatch = new CountDownLatch(1);
+        final CountDownLatch stopLatch = new CountDownLatch(producerTxns.size() + 1);
+        final List<Throwable> errors = Collections.synchronizedList(new ArrayList<Throwable>());
+
+        for (final List<AbstractTransaction> txns : producerTxns) {
+            Thread t = new Thread() {
+                public void run() {
+                    try {
+                        startLatch.await();
+                        for (AbstractTransaction ts : txns) {
+                            Long txnId = ts.getTransactionId();
+                            Long safeTxnId = queue.noteTransactionRecievedAndReturnLastSafeTxnId(txnId);
+                            // The TransactionQueueManager would restart this txn
+                            if (safeTxnId.compareTo(txnId) > 0 || queue.offer(ts, false) == false) {
+                                rejected.incrementAndGet();
+                            }
+                        } // FOR
+                    } catch (Throwable ex) {
+                        errors.add(ex);
+                    } finally {
+                        stopLatch.countDown();
+                    }
+                }
+            };
+            t.setDaemon(true);
+            t.start();
+        } // FOR
+
+        Thread consumer = new Thread() {
+            public void run() {
+                try {
+                    startLatch.await();
+                    long lastTxnId = -1;
+                    int popped = 0;
+                    while (popped + rejected.get() < expected) {
+                        AbstractTransaction ts = queue.poll();
+                        if (ts == null) continue;
+                        if (ts.getTransactionId() < lastTxnId) {
+                            outOfOrder.incrementAndGet();
+                        }
+                        lastTxnId = ts.getTransactionId();
+                        popped++;
+                    } // WHILE
+                } catch (Throwable ex) {
+                    errors.add(ex);
+                } finally {
+                    stopLatch.countDown();
+                }
+            }
+        };
+        consumer.setDaemon(true);
+        consumer.start();
+
+        long start = System.nanoTime();
+        startLatch.countDown();
+        stopLatch.await();
+        long stop = System.nanoTime();
+
+        assertTrue(errors.toString(), errors.isEmpty());
+        assertTrue(queue.isEmpty());
+        return (expected / ((stop - start) / 1000000d));
+    }
+
+    /**
+     * testThroughput
+     */
+    @Test
+    public void testThroughput() throws Exception {
+        System.err.printf("%-10s %-12s %-10s %s\n", "Producers", "Ops/ms", "StdDev", "OutOfOrder");
+        for (int num_producers : PRODUCER_THREADS) {
+            // Create all of the txns up front and then hand them out to the
+            // producers so that they are inserted out of order
+            List<AbstractTransaction> all = new ArrayList<AbstractTransaction>();
+            for (int i = 0, cnt = num_producers * TXNS_PER_PRODUCER; i < cnt; i++) {
+                LocalTransaction ts = new LocalTransaction(this.hstore_site);
+                ts.testInit(this.idManager.getNextUniqueTransactionId(), 0,
+                            new PartitionSet(0), this.catalog_proc);
+                all.add(ts);
+            } // FOR
+            List<List<AbstractTransaction>> producerTxns = new ArrayList<List<AbstractTransaction>>();
+            for (int p = 0; p < num_producers; p++) {
+                producerTxns.add(new ArrayList<AbstractTransaction>());
+            } // FOR
+            for (AbstractTransaction ts : all) {
+                producerTxns.get(random.nextInt(num_producers)).add(ts);
+            } // FOR
+
+            AtomicInteger outOfOrder = new AtomicInteger(0);
+            for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+                this.runIteration(producerTxns, outOfOrder);
+            } // FOR
+            outOfOrder.set(0);
+            double results[] = new double[MEASURE_ITERATIONS];
+            for (int i = 0; i < MEASURE_ITERATIONS; i++) {
+                results[i] = this.runIteration(producerTxns, outOfOrder);
+            } // FOR
+            System.err.printf("%-10d %-12.1f %-10.1f %d\n", num_producers,
+                              MathUtil.arithmeticMean(results),
+                              MathUtil.stdev(results),
+                              outOfOrder.get());
+        } // FOR
+    }
+}
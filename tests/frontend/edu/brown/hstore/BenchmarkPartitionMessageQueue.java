@@ -0,0 +1,177 @@
+package edu.brown.hstore;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+import org.voltdb.TransactionIdManager;
+import org.voltdb.catalog.Procedure;
+import org.voltdb.catalog.Site;
+
+import edu.brown.BaseTestCase;
+import edu.brown.benchmark.tm1.procedures.DeleteCallForwarding;
+import edu.brown.hstore.Hstoreservice.Status;
+import edu.brown.hstore.conf.HStoreConf;
+import edu.brown.hstore.internal.FinishTxnMessage;
+import edu.brown.hstore.internal.InternalMessage;
+import edu.brown.hstore.internal.InternalTxnMessage;
+import edu.brown.hstore.internal.StartTxnMessage;
+import edu.brown.hstore.internal.UtilityWorkMessage;
+import edu.brown.hstore.internal.WorkFragmentMessage;
+import edu.brown.hstore.txns.LocalTransaction;
+import edu.brown.utils.CollectionUtil;
+import edu.brown.utils.MathUtil;
+import edu.brown.utils.PartitionSet;
+import edu.brown.utils.ProjectType;
+
+/**
+ * Microbenchmark for PartitionMessageQueue. Multiple producer threads add a
+ * mix of transactional and utility messages to a single queue while one consumer
+ * thread polls them out, just like the PartitionExecutor. We run a couple of
+ * warm-up iterations and then report the mean throughput of the measured
+ * iterations for each number of producers.
+ * This is not run as part of the regular test suite.
+ */
+public class BenchmarkPartitionMessageQueue extends BaseTestCase {
+
+    private static final int PRODUCER_THREADS[] = { 1, 4, 16 };
+    private static final int MESSAGES_PER_PRODUCER = 20000;
+    private static final int WARMUP_ITERATIONS = 2;
+    private static final int MEASURE_ITERATIONS = 5;
+    private static final Random random = new Random(0);
+
+    HStoreSite hstore_site;
+    TransactionIdManager idManager;
+    Procedure catalog_proc;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp(ProjectType.TM1);
+        Site catalog_site = CollectionUtil.first(catalogContext.sites);
+        assertNotNull(catalog_site);
+        this.hstore_site = new MockHStoreSite(catalog_site.getId(), catalogContext, HStoreConf.singleton());
+        this.idManager = hstore_site.getTransactionIdManager(0);
+        this.catalog_proc = this.getProcedure(DeleteCallForwarding.class);
+    }
+
+    /**
+     * Create a random mix of messages. Most of them will be for new txns,
+     * just like a partition that is saturated with single-partition txns.
+     */
+    private List<InternalMessage> createMessages(int count) {
+        List<InternalMessage> messages = new ArrayList<InternalMessage>();
+        for (int i = 0; i < count; i++) {
+            LocalTransaction ts = new LocalTransaction(this.hstore_site);
+            ts.testInit(this.idManager.getNextUniqueTransactionId(), 0,
+                        new PartitionSet(0), this.catalog_proc);
+            int type = random.nextInt(10);
+            if (type < 6) {
+                messages.add(new StartTxnMessage(ts));
+            } else if (type < 8) {
+                messages.add(new WorkFragmentMessage(ts, null));
+            } else if (type < 9) {
+                messages.add(new FinishTxnMessage(ts, Status.OK));
+            } else {
+                messages.add(new UtilityWorkMessage());
+            }
+        } // FOR
+        return (messages);
+    }
+
+    /**
+     * Run one iteration with the given producers and return the number
+     * of messages that were processed per millisecond.
+     */
+    private double runIteration(final List<List<InternalMessage>> producerMessages) throws Exception {
+        final PartitionMessageQueue queue = new PartitionMessageQueue();
+
+        int total = 0;
+        for (List<InternalMessage> messages : producerMessages) {
+            total += messages.size();
+        } // FOR
+        final int expected = total;
+        final CountDownLatch startLatch = new CountDownLatch(1);
+        final CountDownLatch stopLatch = new CountDownLatch(producerMessages.size() + 1);
+        final List<Throwable> errors = Collections.synchronizedList(new ArrayList<Throwable>());
+
+        for (final List<InternalMessage> messages : producerMessages) {
+            Thread t = new Thread() {
+                public void run() {
+                    try {
+                        startLatch.await();
+                        for (InternalMessage msg : messages) {
+                            queue.offer(msg);
+                        } // FOR
+                    } catch (Throwable ex) {
+                        errors.add(ex);
+                    } finally {
+                        stopLatch.countDown();
+                    }
+                }
+            };
+            t.setDaemon(true);
+            t.start();
+        } // FOR
+
+        Thread consumer = new Thread() {
+            public void run() {
+                try {
+                    startLatch.await();
+                    int popped = 0;
+                    while (popped < expected) {
+                        InternalMessage msg = queue.poll(1, TimeUnit.MILLISECONDS);
+                        if (msg == null) continue;
+                        if (msg instanceof InternalTxnMessage) {
+                            ((InternalTxnMessage)msg).getTransactionId();
+                        }
+                        popped++;
+                    } // WHILE
+                } catch (Throwable ex) {
+                    errors.add(ex);
+                } finally {
+                    stopLatch.countDown();
+                }
+            }
+        };
+        consumer.setDaemon(true);
+        consumer.start();
+
+        long start = System.nanoTime();
+        startLatch.countDown();
+        stopLatch.await();
+        long stop = System.nanoTime();
+
+        assertTrue(errors.toString(), errors.isEmpty());
+        assertTrue(queue.isEmpty());
+        return (expected / ((stop - start) / 1000000d));
+    }
+
+    /**
+     * testThroughput
+     */
+    @Test
+    public void testThroughput() throws Exception {
+        System.err.printf("%-10s %-12s %s\n", "Producers", "Ops/ms", "StdDev");
+        for (int num_producers : PRODUCER_THREADS) {
+            List<List<InternalMessage>> producerMessages = new ArrayList<List<InternalMessage>>();
+            for (int p = 0; p < num_producers; p++) {
+                producerMessages.add(this.createMessages(MESSAGES_PER_PRODUCER));
+            } // FOR
+
+            for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+                this.runIteration(producerMessages);
+            } // FOR
+            double results[] = new double[MEASURE_ITERATIONS];
+            for (int i = 0; i < MEASURE_ITERATIONS; i++) {
+                results[i] = this.runIteration(producerMessages);
+            } // FOR
+            System.err.printf("%-10d %-12.1f %.1f\n", num_producers,
+                              MathUtil.arithmeticMean(results),
+                              MathUtil.stdev(results));
+        } // FOR
+    }
+}
@@ -0,0 +1,65 @@
+package edu.brown.hstore;
+
+import junit.framework.TestCase;
+
+public class TestAntiCacheAdmissionFilter extends TestCase {
+
+    private static final int NUM_PARTITIONS = 2;
+    private static final int ADMIT_THRESHOLD = 2;
+    private static final int WINDOW_SIZE = 8;
+    private static final String TABLE = "USERTABLE";
+
+    private AntiCacheAdmissionFilter filter;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        this.filter = new AntiCacheAdmissionFilter(NUM_PARTITIONS, ADMIT_THRESHOLD, WINDOW_SIZE);
+    }
+
+    /**
+     * testRecordFetch
+     */
+    public void testRecordFetch() throws Exception {
+        assertFalse(this.filter.recordFetch(0, TABLE, 1));
+        assertEquals(0d, this.filter.getHotness(0, TABLE));
+
+        assertTrue(this.filter.recordFetch(0, TABLE, ADMIT_THRESHOLD));
+        assertEquals(1 / 2d, this.filter.getHotness(0, TABLE), 0.0001);
+        assertFalse(this.filter.recordFetch(0, TABLE, 1));
+        assertEquals(1 / 3d, this.filter.getHotness(0, TABLE), 0.0001);
+
+        // Other partitions and tables should not be affected
+        assertEquals(0d, this.filter.getHotness(1, TABLE));
+        assertEquals(0d, this.filter.getHotness(0, "OTHER"));
+    }
+
+    /**
+     * testColdFetches
+     * Fetching lots of blocks that txns only needed a single tuple
+     * from doesn't make a table hot.
+     */
+    public void testColdFetches() throws Exception {
+        for (int i = 0; i < WINDOW_SIZE - 1; i++) {
+            assertFalse(this.filter.recordFetch(0, TABLE, 1));
+        } // FOR
+        assertEquals(0d, this.filter.getHotness(0, TABLE));
+    }
+
+    /**
+     * testAging
+     */
+    public void testAging() throws Exception {
+        for (int i = 0; i < WINDOW_SIZE - 1; i++) {
+            this.filter.recordFetch(0, TABLE, ADMIT_THRESHOLD);
+        } // FOR
+        assertEquals(1d, this.filter.getHotness(0, TABLE), 0.0001);
+
+        // Fetching a bunch of cold blocks should push out the hot fetches
+        // until the table is no longer hot
+        for (int i = 0; i < WINDOW_SIZE * 2; i++) {
+            this.filter.recordFetch(0, TABLE, 1);
+        } // FOR
+        assertTrue(this.filter.getHotness(0, TABLE) < 0.5);
+    }
+}
@@ -0,0 +1,372 @@
+package edu.brown.hstore;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.voltdb.catalog.Procedure;
+import org.voltdb.catalog.Table;
+
+import edu.brown.BaseTestCase;
+import edu.brown.benchmark.tm1.TM1Constants;
+import edu.brown.benchmark.tm1.procedures.UpdateLocation;
+import edu.brown.hstore.conf.HStoreConf;
+import edu.brown.hstore.txns.LocalTransaction;
+import edu.brown.profilers.AntiCacheManagerProfiler;
+import edu.brown.utils.PartitionSet;
+import edu.brown.utils.ProjectType;
+import edu.brown.utils.ThreadUtil;
+
+/**
+ * Tests for how the AntiCacheManager batches and coalesces the evicted
+ * blocks that queued txns need to have read in. The blocks are never actually
+ * read in by the EE here, so we just check what would have been fetched.
+ */
+public class TestAntiCacheBlockFetch extends BaseTestCase {
+
+    private static final int NUM_PARTITIONS = 2;
+    private static long NEXT_TXN_ID = 1;
+
+    /**
+     * AntiCacheManager that keeps the FetchRequests that it would
+     * have asked the EE to read in
+     */
+    private class MockAntiCacheManager extends AntiCacheManager {
+        final List<FetchRequest> requests = Collections.synchronizedList(new ArrayList<FetchRequest>());
+        final Map<FetchRequest, Thread> readThreads = new ConcurrentHashMap<FetchRequest, Thread>();
+
+        MockAntiCacheManager(HStoreSite hstore_site) {
+            super(hstore_site);
+        }
+        @Override
+        protected void readBlocks(FetchRequest request) {
+            this.readThreads.put(request, Thread.currentThread());
+            this.requests.add(request);
+        }
+        QueueEntry add(int partition, Table catalog_tbl, int...block_ids) {
+            short blocks[] = new short[block_ids.length];
+            int offsets[] = new int[block_ids.length];
+            for (int i = 0; i < blocks.length; i++) {
+                blocks[i] = (short)block_ids[i];
+                offsets[i] = block_ids[i] * 10;
+            } // FOR
+            QueueEntry entry = new QueueEntry(createTxn(partition), partition, catalog_tbl, blocks, offsets);
+            this.queue.add(entry);
+            return (entry);
+        }
+        void process() {
+            this.processingCallback(this.queue.poll());
+        }
+        FetchRequest getRequest(int partition, Table catalog_tbl) {
+            for (FetchRequest request : this.requests) {
+                if (request.partition == partition && request.catalog_tbl.equals(catalog_tbl)) {
+                    return (request);
+                }
+            } // FOR
+            return (null);
+        }
+        int queueSize() {
+            return (this.queue.size());
+        }
+    }
+
+    private MockHStoreSite hstore_site;
+    private HStoreConf hstore_conf;
+    private Procedure catalog_proc;
+    private Table catalog_tbl0;
+    private Table catalog_tbl1;
+    private MockAntiCacheManager manager;
+
+    private int origBatchSize;
+    private int origFetchThreads;
+    private boolean origProfiling;
+    private final List<Thread> fetcherThreads = new ArrayList<Thread>();
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp(ProjectType.TM1);
+        this.addPartitions(NUM_PARTITIONS);
+
+        this.hstore_conf = HStoreConf.singleton();
+        this.origBatchSize = this.hstore_conf.site.anticache_fetch_batch_size;
+        this.origFetchThreads = this.hstore_conf.site.anticache_fetch_threads;
+        this.origProfiling = this.hstore_conf.site.anticache_profiling;
+        this.hstore_conf.site.anticache_fetch_batch_size = 64;
+        this.hstore_conf.site.anticache_fetch_threads = 0;
+        this.hstore_conf.site.anticache_profiling = true;
+
+        this.hstore_site = new MockHStoreSite(0, catalogContext, this.hstore_conf);
+        this.catalog_proc = this.getProcedure(UpdateLocation.class);
+        this.catalog_tbl0 = this.getTable(TM1Constants.TABLENAME_SUBSCRIBER);
+        this.catalog_tbl1 = this.getTable(TM1Constants.TABLENAME_ACCESS_INFO);
+        this.manager = new MockAntiCacheManager(this.hstore_site);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        for (AntiCacheManager.AntiCacheFetcher fetcher : this.manager.getFetchers()) {
+            fetcher.shutdown();
+        } // FOR
+        for (Thread t : this.fetcherThreads) {
+            t.join(10000);
+        } // FOR
+        this.hstore_conf.site.anticache_fetch_batch_size = this.origBatchSize;
+        this.hstore_conf.site.anticache_fetch_threads = this.origFetchThreads;
+        this.hstore_conf.site.anticache_profiling = this.origProfiling;
+        super.tearDown();
+    }
+
+    private LocalTransaction createTxn(int partition) {
+        LocalTransaction ts = new LocalTransaction(this.hstore_site);
+        ts.testInit(NEXT_TXN_ID++, partition, null, new PartitionSet(partition), this.catalog_proc);
+        return (ts);
+    }
+
+    private Set<Short> getBlockIds(AntiCacheManager.FetchRequest request) {
+        Set<Short> ret = new HashSet<Short>();
+        for (AntiCacheManager.BlockFetch fetch : request.blocks) {
+            assertTrue(ret.add(fetch.block_id));
+        } // FOR
+        return (ret);
+    }
+
+    private Set<Short> makeBlockIds(int...block_ids) {
+        Set<Short> ret = new HashSet<Short>();
+        for (int block_id : block_ids) {
+            ret.add((short)block_id);
+        } // FOR
+        return (ret);
+    }
+
+    /**
+     * Replace the AntiCacheManager from setUp() with one that uses
+     * the given number of fetcher threads and start them
+     */
+    private Collection<AntiCacheManager.AntiCacheFetcher> startFetchers(int num_threads) {
+        this.hstore_conf.site.anticache_fetch_threads = num_threads;
+        this.manager = new MockAntiCacheManager(this.hstore_site);
+        Collection<AntiCacheManager.AntiCacheFetcher> fetchers = this.manager.getFetchers();
+        for (AntiCacheManager.AntiCacheFetcher fetcher : fetchers) {
+            Thread t = new Thread(fetcher);
+            t.setDaemon(true);
+            t.start();
+            this.fetcherThreads.add(t);
+        } // FOR
+        return (fetchers);
+    }
+    
+    /**
+     * Queue the given number of txns, alternating between the partitions, and
+     * then wait for the fetcher threads to read in all of their blocks
+     */
+    private void fetchAll(int num_txns) {
+        for (int i = 0; i < num_txns; i++) {
+            this.manager.add(i % NUM_PARTITIONS, catalog_tbl0, i);
+            this.manager.process();
+        } // FOR
+        long deadline = System.currentTimeMillis() + 10000;
+        while (this.manager.requests.size() < num_txns && System.currentTimeMillis() < deadline) {
+            ThreadUtil.sleep(1);
+        } // WHILE
+        assertEquals(num_txns, this.manager.requests.size());
+    }
+    
+    private AntiCacheManager.BlockFetch getBlockFetch(AntiCacheManager.FetchRequest request, int block_id) {
+        for (AntiCacheManager.BlockFetch fetch : request.blocks) {
+            if (fetch.block_id == block_id) return (fetch);
+        } // FOR
+        return (null);
+    }
+
+    /**
+     * testCoalesceBatch
+     * The blocks for all of the txns in a batch should be grouped by partition
+     * and table, and a block that more than one txn needs is only read once.
+     */
+    public void testCoalesceBatch() throws Exception {
+        AntiCacheManager.QueueEntry e0 = this.manager.add(0, catalog_tbl0, 1, 2);
+        AntiCacheManager.QueueEntry e1 = this.manager.add(0, catalog_tbl0, 2, 3);
+        AntiCacheManager.QueueEntry e2 = this.manager.add(1, catalog_tbl0, 1);
+        AntiCacheManager.QueueEntry e3 = this.manager.add(0, catalog_tbl1, 1);
+        this.manager.process();
+        assertEquals(0, this.manager.queueSize());
+        assertEquals(3, this.manager.requests.size());
+
+        AntiCacheManager.FetchRequest request = this.manager.getRequest(0, catalog_tbl0);
+        assertNotNull(request);
+        assertEquals(this.makeBlockIds(1, 2, 3), this.getBlockIds(request));
+        assertEquals(2, this.getBlockFetch(request, 2).waiters.size());
+        assertEquals(this.makeBlockIds(1), this.getBlockIds(this.manager.getRequest(1, catalog_tbl0)));
+        assertEquals(this.makeBlockIds(1), this.getBlockIds(this.manager.getRequest(0, catalog_tbl1)));
+
+        assertEquals(2, e0.pendingFetches);
+        assertEquals(2, e1.pendingFetches);
+        assertEquals(1, e2.pendingFetches);
+        assertEquals(1, e3.pendingFetches);
+        assertEquals(1, this.manager.getDebugContext().getProfiler(0).coalesced_blocks);
+        assertEquals(0, this.manager.getDebugContext().getProfiler(1).coalesced_blocks);
+    }
+
+    /**
+     * testCompleteBlocks
+     * A txn is only ready to be requeued once all of its blocks have been read in
+     */
+    public void testCompleteBlocks() throws Exception {
+        AntiCacheManager.QueueEntry e0 = this.manager.add(0, catalog_tbl0, 1, 2);
+        AntiCacheManager.QueueEntry e1 = this.manager.add(0, catalog_tbl0, 2, 3);
+        this.manager.process();
+        AntiCacheManager.FetchRequest request = this.manager.getRequest(0, catalog_tbl0);
+
+        List<AntiCacheManager.QueueEntry> ready = new ArrayList<AntiCacheManager.QueueEntry>();
+        this.getBlockFetch(request, 1).complete(ready);
+        assertTrue(ready.isEmpty());
+        assertEquals(1, e0.pendingFetches);
+
+        this.getBlockFetch(request, 2).complete(ready);
+        assertEquals(1, ready.size());
+        assertSame(e0, ready.get(0));
+        assertEquals(1, e1.pendingFetches);
+
+        ready.clear();
+        this.getBlockFetch(request, 3).complete(ready);
+        assertEquals(1, ready.size());
+        assertSame(e1, ready.get(0));
+        assertEquals(0, e1.pendingFetches);
+    }
+
+    /**
+     * testDuplicateBlock
+     * A txn that needs the same block more than once only waits on it once
+     */
+    public void testDuplicateBlock() throws Exception {
+        AntiCacheManager.QueueEntry e0 = this.manager.add(0, catalog_tbl0, 1, 1);
+        this.manager.process();
+        AntiCacheManager.FetchRequest request = this.manager.getRequest(0, catalog_tbl0);
+        assertEquals(this.makeBlockIds(1), this.getBlockIds(request));
+        assertEquals(1, e0.pendingFetches);
+
+        List<AntiCacheManager.QueueEntry> ready = new ArrayList<AntiCacheManager.QueueEntry>();
+        this.getBlockFetch(request, 1).complete(ready);
+        assertEquals(1, ready.size());
+    }
+
+    /**
+     * testInflightFetches
+     * A block that is still being read in for an earlier batch should
+     * not be read in again.
+     */
+    public void testInflightFetches() throws Exception {
+        AntiCacheManager.QueueEntry e0 = this.manager.add(0, catalog_tbl0, 1);
+        this.manager.process();
+        assertEquals(1, this.manager.requests.size());
+        AntiCacheManager.FetchRequest first = this.manager.requests.get(0);
+
+        AntiCacheManager.QueueEntry e1 = this.manager.add(0, catalog_tbl0, 1, 2);
+        this.manager.process();
+        assertEquals(2, this.manager.requests.size());
+        AntiCacheManager.FetchRequest second = this.manager.requests.get(1);
+        assertEquals(this.makeBlockIds(2), this.getBlockIds(second));
+
+        // Both txns are waiting on the first fetch
+        AntiCacheManager.BlockFetch fetch = this.getBlockFetch(first, 1);
+        assertEquals(2, fetch.waiters.size());
+        assertTrue(fetch.waiters.contains(e0));
+        assertTrue(fetch.waiters.contains(e1));
+        assertEquals(2, e1.pendingFetches);
+    }
+
+    /**
+     * testBatchSize
+     */
+    public void testBatchSize() throws Exception {
+        this.hstore_conf.site.anticache_fetch_batch_size = 2;
+        for (int i = 0; i < 5; i++) {
+            this.manager.add(0, catalog_tbl0, i);
+        } // FOR
+        this.manager.process();
+        assertEquals(3, this.manager.queueSize());
+        assertEquals(this.makeBlockIds(0, 1), this.getBlockIds(this.manager.requests.get(0)));
+
+        // Every txn is fetched by itself
+        this.hstore_conf.site.anticache_fetch_batch_size = 1;
+        this.manager.process();
+        assertEquals(2, this.manager.queueSize());
+        assertEquals(this.makeBlockIds(2), this.getBlockIds(this.manager.requests.get(1)));
+    }
+
+    /**
+     * testFetchers
+     */
+    public void testFetchers() throws Exception {
+        // Everything is read in by the AntiCacheManager's thread
+        assertTrue(this.manager.getFetchers().isEmpty());
+        this.manager.add(0, catalog_tbl0, 1);
+        this.manager.process();
+        assertEquals(1, this.manager.requests.size());
+        assertSame(Thread.currentThread(), this.manager.readThreads.get(this.manager.requests.get(0)));
+
+        int expected[] = { 1, NUM_PARTITIONS, NUM_PARTITIONS };
+        int num_threads[] = { 1, NUM_PARTITIONS, NUM_PARTITIONS * 4 };
+        for (int i = 0; i < expected.length; i++) {
+            this.hstore_conf.site.anticache_fetch_threads = num_threads[i];
+            AntiCacheManager manager = new MockAntiCacheManager(this.hstore_site);
+            assertEquals(expected[i], manager.getFetchers().size());
+        } // FOR
+    }
+
+    /**
+     * testFetcherPerPartition
+     * Each partition should have its blocks read in by its own fetcher
+     * thread in the order that they were requested.
+     */
+    public void testFetcherPerPartition() throws Exception {
+        this.startFetchers(NUM_PARTITIONS);
+        int num_txns = 20;
+        this.fetchAll(num_txns);
+
+        Thread partitionThreads[] = new Thread[NUM_PARTITIONS];
+        int lastBlock[] = new int[NUM_PARTITIONS];
+        for (int p = 0; p < NUM_PARTITIONS; p++) {
+            lastBlock[p] = -1;
+        } // FOR
+        List<AntiCacheManager.FetchRequest> requests = new ArrayList<AntiCacheManager.FetchRequest>(this.manager.requests);
+        for (AntiCacheManager.FetchRequest request : requests) {
+            Thread t = this.manager.readThreads.get(request);
+            assertNotNull(t);
+            assertNotSame(Thread.currentThread(), t);
+            if (partitionThreads[request.partition] == null) {
+                partitionThreads[request.partition] = t;
+            }
+            assertSame(partitionThreads[request.partition], t);
+
+            // Only compare against the other requests for the same partition,
+            // since the partitions are read in at the same time
+            int block_id = request.blocks.get(0).block_id;
+            assertTrue(block_id > lastBlock[request.partition]);
+            lastBlock[request.partition] = block_id;
+        } // FOR
+        assertNotSame(partitionThreads[0], partitionThreads[1]);
+
+        AntiCacheManagerProfiler profiler = this.manager.getDebugContext().getProfiler(0);
+        assertTrue(profiler.fetch_queue_depth_max > 0);
+        assertTrue(profiler.fetch_queue_depth_total >= num_txns / NUM_PARTITIONS);
+    }
+
+    /**
+     * testSharedFetcher
+     * If there are fewer fetcher threads than partitions, then
+     * the partitions have to share them.
+     */
+    public void testSharedFetcher() throws Exception {
+        this.startFetchers(1);
+        this.fetchAll(10);
+        Set<Thread> threads = new HashSet<Thread>(this.manager.readThreads.values());
+        assertEquals(1, threads.size());
+        assertFalse(threads.contains(Thread.currentThread()));
+    }
+}
@@ -0,0 +1,116 @@
+package edu.brown.hstore;
+
+import junit.framework.TestCase;
+
+public class TestAntiCacheEvictionBudget extends TestCase {
+
+    private static final double ALPHA = 0.5;
+    private static final long BLOCK_SIZE_KB = 1024;
+    private static final long INTERVAL = 1000;
+    private static final long TARGET_KB = 100 * BLOCK_SIZE_KB;
+    private static final long MAX_BLOCKS = 1000;
+
+    private AntiCacheEvictionBudget budget;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        this.budget = new AntiCacheEvictionBudget(ALPHA, BLOCK_SIZE_KB);
+    }
+
+    /**
+     * testUnderTarget
+     */
+    public void testUnderTarget() throws Exception {
+        assertEquals(0, this.budget.update(1000, TARGET_KB / 2, TARGET_KB, INTERVAL, MAX_BLOCKS));
+        assertEquals(0, this.budget.getBudget());
+        assertEquals(0, this.budget.acquire(4));
+    }
+
+    /**
+     * testOverTarget
+     */
+    public void testOverTarget() throws Exception {
+        // Without any growth history, the budget is just how far we are over
+        long sizeKb = TARGET_KB + (3 * BLOCK_SIZE_KB) + 1;
+        assertEquals(4, this.budget.update(1000, sizeKb, TARGET_KB, INTERVAL, MAX_BLOCKS));
+        assertEquals(0d, this.budget.getGrowthRate());
+    }
+
+    /**
+     * testPacing
+     * The budget should include how much we expect the partition to
+     * grow before the next update.
+     */
+    public void testPacing() throws Exception {
+        this.budget.update(1000, TARGET_KB - (10 * BLOCK_SIZE_KB), TARGET_KB, INTERVAL, MAX_BLOCKS);
+
+        // Grow by 8 blocks in one second. With alpha=0.5 the moving average
+        // is 4 blocks/sec, so we should be 4 blocks over at the next update
+        int blocks = this.budget.update(2000, TARGET_KB - (2 * BLOCK_SIZE_KB), TARGET_KB, INTERVAL, MAX_BLOCKS);
+        assertEquals(4d * BLOCK_SIZE_KB, this.budget.getGrowthRate(), 0.0001);
+        assertEquals(2, blocks);
+
+        // Shrinking doesn't make the budget negative
+        assertEquals(0, this.budget.update(3000, 0, TARGET_KB, INTERVAL, MAX_BLOCKS));
+    }
+
+    /**
+     * testEvictedNotCounted
+     * The blocks that we evict ourselves should not make it
+     * look like the partition stopped growing.
+     */
+    public void testEvictedNotCounted() throws Exception {
+        long sizeKb = TARGET_KB;
+        this.budget.update(1000, sizeKb, TARGET_KB, INTERVAL, MAX_BLOCKS);
+
+        // The partition grew by 4 blocks but we evicted 4 blocks,
+        // so its size didn't change
+        this.budget.recordEvicted(4);
+        int blocks = this.budget.update(2000, sizeKb, TARGET_KB, INTERVAL, MAX_BLOCKS);
+        assertEquals(2d * BLOCK_SIZE_KB, this.budget.getGrowthRate(), 0.0001);
+        assertEquals(4d, this.budget.getEvictionRate(), 0.0001);
+        assertEquals(2, blocks);
+        assertEquals(4, this.budget.getEvictedBlocks());
+    }
+
+    /**
+     * testAcquire
+     */
+    public void testAcquire() throws Exception {
+        long sizeKb = TARGET_KB + (5 * BLOCK_SIZE_KB);
+        assertEquals(5, this.budget.update(1000, sizeKb, TARGET_KB, INTERVAL, MAX_BLOCKS));
+
+        // The budget should be handed out a few blocks at a time
+        assertEquals(2, this.budget.acquire(2));
+        assertEquals(2, this.budget.acquire(2));
+        assertEquals(1, this.budget.acquire(2));
+        assertEquals(0, this.budget.getBudget());
+    }
+
+    /**
+     * testExhausted
+     */
+    public void testExhausted() throws Exception {
+        long sizeKb = TARGET_KB + (2 * BLOCK_SIZE_KB);
+        this.budget.update(1000, sizeKb, TARGET_KB, INTERVAL, MAX_BLOCKS);
+        assertEquals(2, this.budget.acquire(10));
+        for (int i = 0; i < 3; i++) {
+            assertEquals(0, this.budget.acquire(10));
+        } // FOR
+
+        // The next update should replace whatever was left
+        this.budget.update(2000, sizeKb + BLOCK_SIZE_KB, TARGET_KB, INTERVAL, MAX_BLOCKS);
+        assertTrue(this.budget.acquire(10) > 0);
+    }
+
+    /**
+     * testMaxBlocks
+     */
+    public void testMaxBlocks() throws Exception {
+        long sizeKb = TARGET_KB + (50 * BLOCK_SIZE_KB);
+        assertEquals(10, this.budget.update(1000, sizeKb, TARGET_KB, INTERVAL, 10));
+        assertEquals(0, this.budget.update(2000, sizeKb, TARGET_KB, INTERVAL, 0));
+        assertEquals(0, this.budget.update(3000, sizeKb, TARGET_KB, INTERVAL, -5));
+    }
+}
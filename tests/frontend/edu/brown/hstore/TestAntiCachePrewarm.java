@@ -0,0 +1,272 @@
+package edu.brown.hstore;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.voltdb.catalog.Procedure;
+import org.voltdb.catalog.Table;
+import org.voltdb.exceptions.EvictedTupleAccessException;
+
+import edu.brown.BaseTestCase;
+import edu.brown.benchmark.tm1.TM1Constants;
+import edu.brown.benchmark.tm1.procedures.UpdateLocation;
+import edu.brown.hstore.Hstoreservice.Status;
+import edu.brown.hstore.conf.HStoreConf;
+import edu.brown.hstore.txns.LocalTransaction;
+import edu.brown.profilers.AntiCacheManagerProfiler;
+import edu.brown.utils.PartitionSet;
+import edu.brown.utils.ProjectType;
+
+/**
+ * Tests for how the AntiCacheManager pre-warms the evicted blocks for txns
+ * that are likely to access them. The blocks are never actually read in
+ * by the EE here, so we just check what would have been fetched.
+ */
+public class TestAntiCachePrewarm extends BaseTestCase {
+
+    private static final int NUM_PARTITIONS = 2;
+    private static final int BASE_PARTITION = 0;
+    private static final int CACHE_SIZE = 4;
+    private static long NEXT_TXN_ID = 1;
+
+    /**
+     * AntiCacheManager that keeps the FetchRequests that it would
+     * have asked the EE to read in
+     */
+    private class MockAntiCacheManager extends AntiCacheManager {
+        final List<FetchRequest> requests = new ArrayList<FetchRequest>();
+
+        MockAntiCacheManager(HStoreSite hstore_site) {
+            super(hstore_site);
+        }
+        @Override
+        protected void readBlocks(FetchRequest request) {
+            this.requests.add(request);
+        }
+        void process() {
+            this.processingCallback(this.queue.poll());
+        }
+        void clear() {
+            this.queue.clear();
+        }
+    }
+
+    private MockHStoreSite hstore_site;
+    private HStoreConf hstore_conf;
+    private Procedure catalog_proc;
+    private Table catalog_tbl;
+    private MockAntiCacheManager manager;
+    private AntiCacheManagerProfiler profiler;
+
+    private boolean origPrewarm;
+    private int origCacheSize;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp(ProjectType.TM1);
+        this.addPartitions(NUM_PARTITIONS);
+
+        this.hstore_conf = HStoreConf.singleton();
+        this.origPrewarm = this.hstore_conf.site.anticache_prewarm;
+        this.origCacheSize = this.hstore_conf.site.anticache_prewarm_cache_size;
+        this.hstore_conf.site.anticache_prewarm = true;
+        this.hstore_conf.site.anticache_prewarm_cache_size = CACHE_SIZE;
+
+        this.hstore_site = new MockHStoreSite(0, catalogContext, this.hstore_conf);
+        this.catalog_proc = this.getProcedure(UpdateLocation.class);
+        this.catalog_tbl = this.getTable(TM1Constants.TABLENAME_SUBSCRIBER);
+        this.manager = new MockAntiCacheManager(this.hstore_site);
+        this.profiler = this.manager.getDebugContext().getProfiler(BASE_PARTITION);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        this.hstore_conf.site.anticache_prewarm = this.origPrewarm;
+        this.hstore_conf.site.anticache_prewarm_cache_size = this.origCacheSize;
+        super.tearDown();
+    }
+
+    private LocalTransaction createTxn(int partition, long subscriberId) {
+        LocalTransaction ts = new LocalTransaction(this.hstore_site);
+        ts.testInit(NEXT_TXN_ID++, partition, new PartitionSet(partition),
+                    this.catalog_proc, subscriberId, "ABCDEF");
+        return (ts);
+    }
+
+    /**
+     * Queue a txn that accessed the given evicted blocks, the
+     * same way that it would be when it gets restarted
+     */
+    private LocalTransaction queueEvictedAccess(long subscriberId, int...block_ids) {
+        LocalTransaction ts = this.createTxn(BASE_PARTITION, subscriberId);
+        short blocks[] = new short[block_ids.length];
+        int offsets[] = new int[block_ids.length];
+        ByteBuffer buffer = ByteBuffer.allocate(4 + 4 + 2 + (6 * block_ids.length));
+        buffer.putInt(0); // No message
+        buffer.putInt(this.catalog_tbl.getRelativeIndex());
+        buffer.putShort((short)block_ids.length);
+        for (int i = 0; i < blocks.length; i++) {
+            blocks[i] = (short)block_ids[i];
+            offsets[i] = block_ids[i] * 10;
+            buffer.putShort(blocks[i]);
+        } // FOR
+        for (int offset : offsets) {
+            buffer.putInt(offset);
+        } // FOR
+        buffer.flip();
+        ts.setPendingError(new EvictedTupleAccessException(buffer));
+        assertTrue(this.manager.queue(ts, BASE_PARTITION, this.catalog_tbl, blocks, offsets));
+        return (ts);
+    }
+
+    private AntiCacheManager.BlockFetch getBlockFetch(int block_id) {
+        for (AntiCacheManager.FetchRequest request : this.manager.requests) {
+            for (AntiCacheManager.BlockFetch fetch : request.blocks) {
+                if (fetch.block_id == block_id) return (fetch);
+            } // FOR
+        } // FOR
+        return (null);
+    }
+
+    /**
+     * testPrewarmHint
+     */
+    public void testPrewarmHint() throws Exception {
+        LocalTransaction ts = this.createTxn(BASE_PARTITION, 1);
+        assertFalse(this.manager.hasPrewarmHint(ts));
+        assertFalse(this.manager.prewarm(ts));
+        assertFalse(ts.isAntiCachePrewarmed());
+
+        this.queueEvictedAccess(1, 1, 2);
+        assertTrue(this.manager.hasPrewarmHint(ts));
+
+        // Different parameters or a different partition
+        assertFalse(this.manager.hasPrewarmHint(this.createTxn(BASE_PARTITION, 2)));
+        LocalTransaction other = this.createTxn(BASE_PARTITION + 1, 1);
+        assertFalse(this.manager.prewarm(other));
+        assertFalse(other.isAntiCachePrewarmed());
+    }
+
+    /**
+     * testPrewarmInflight
+     * A pre-warmed txn should wait on the fetches that are
+     * already in flight instead of reading the blocks in again.
+     */
+    public void testPrewarmInflight() throws Exception {
+        this.queueEvictedAccess(1, 1, 2);
+        this.manager.process();
+        assertEquals(1, this.manager.requests.size());
+
+        LocalTransaction ts = this.createTxn(BASE_PARTITION, 1);
+        assertTrue(this.manager.prewarm(ts));
+        assertTrue(ts.isAntiCachePrewarmed());
+        assertEquals(1, this.manager.requests.size());
+        assertEquals(2, this.getBlockFetch(1).waiters.size());
+        assertEquals(2, this.getBlockFetch(2).waiters.size());
+        assertEquals(1, this.profiler.prewarm_txns);
+
+        // Once the blocks are read in, both txns are ready
+        assertEquals(2, this.manager.completeBlocks(this.manager.requests.get(0), true).size());
+    }
+
+    /**
+     * testPrewarmFetch
+     * If the blocks for the hint are not being read in anymore, then the
+     * pre-warmed txn should fetch them itself.
+     */
+    public void testPrewarmFetch() throws Exception {
+        this.queueEvictedAccess(1, 1, 2);
+        this.manager.clear();
+
+        LocalTransaction ts = this.createTxn(BASE_PARTITION, 1);
+        assertTrue(this.manager.prewarm(ts));
+        assertEquals(1, this.manager.requests.size());
+        assertEquals(2, this.manager.requests.get(0).blocks.size());
+        assertEquals(1, this.getBlockFetch(1).waiters.size());
+    }
+
+    /**
+     * testPrewarmPendingMerge
+     * We can't read in a block again after it has been read in but before
+     * it has been merged, so the txn should just merge it before it starts.
+     */
+    public void testPrewarmPendingMerge() throws Exception {
+        this.queueEvictedAccess(1, 1, 2);
+        this.manager.process();
+        this.manager.completeBlocks(this.manager.requests.get(0), true);
+
+        LocalTransaction ts = this.createTxn(BASE_PARTITION, 1);
+        assertFalse(this.manager.prewarm(ts));
+        assertTrue(ts.isAntiCachePrewarmed());
+        assertTrue(ts.hasAntiCacheMergeTable());
+        assertEquals(this.catalog_tbl, ts.getAntiCacheMergeTable());
+        assertEquals(1, this.manager.requests.size());
+
+        // We won't try to pre-warm a txn that is already going to merge
+        assertFalse(this.manager.hasPrewarmHint(ts));
+        assertFalse(this.manager.prewarm(ts));
+        assertEquals(1, this.profiler.prewarm_txns);
+    }
+
+    /**
+     * testNotifyBlocksMerged
+     * Once the blocks are merged, any hint that references them is no longer valid
+     */
+    public void testNotifyBlocksMerged() throws Exception {
+        this.queueEvictedAccess(1, 1, 2);
+        this.queueEvictedAccess(2, 3);
+        this.manager.process();
+        assertEquals(1, this.manager.requests.size());
+        this.manager.completeBlocks(this.manager.requests.get(0), true);
+        this.manager.notifyBlocksMerged(BASE_PARTITION, this.catalog_tbl);
+
+        assertFalse(this.manager.hasPrewarmHint(this.createTxn(BASE_PARTITION, 1)));
+        assertFalse(this.manager.hasPrewarmHint(this.createTxn(BASE_PARTITION, 2)));
+
+        // Merging again shouldn't do anything
+        this.manager.notifyBlocksMerged(BASE_PARTITION, this.catalog_tbl);
+    }
+
+    /**
+     * testNotifyOtherBlocksMerged
+     * Merging blocks that a hint doesn't reference should not drop it
+     */
+    public void testNotifyOtherBlocksMerged() throws Exception {
+        this.queueEvictedAccess(1, 1);
+        this.manager.process();
+        this.manager.completeBlocks(this.manager.requests.get(0), true);
+        this.queueEvictedAccess(2, 5);
+        this.manager.notifyBlocksMerged(BASE_PARTITION, this.catalog_tbl);
+
+        assertFalse(this.manager.hasPrewarmHint(this.createTxn(BASE_PARTITION, 1)));
+        assertTrue(this.manager.hasPrewarmHint(this.createTxn(BASE_PARTITION, 2)));
+    }
+
+    /**
+     * testCacheSize
+     */
+    public void testCacheSize() throws Exception {
+        for (int i = 0; i < CACHE_SIZE + 1; i++) {
+            this.queueEvictedAccess(i, i);
+        } // FOR
+        assertFalse(this.manager.hasPrewarmHint(this.createTxn(BASE_PARTITION, 0)));
+        for (int i = 1; i < CACHE_SIZE + 1; i++) {
+            assertTrue(this.manager.hasPrewarmHint(this.createTxn(BASE_PARTITION, i)));
+        } // FOR
+    }
+
+    /**
+     * testPrewarmFinished
+     */
+    public void testPrewarmFinished() throws Exception {
+        LocalTransaction ts = this.createTxn(BASE_PARTITION, 1);
+        ts.markAntiCachePrewarmed();
+        this.manager.prewarmFinished(ts, Status.OK);
+        this.manager.prewarmFinished(ts, Status.ABORT_EVICTEDACCESS);
+        this.manager.prewarmFinished(ts, Status.ABORT_EVICTEDACCESS);
+        this.manager.prewarmFinished(ts, Status.ABORT_USER);
+        assertEquals(1, this.profiler.prewarm_hits);
+        assertEquals(2, this.profiler.prewarm_misses);
+    }
+}
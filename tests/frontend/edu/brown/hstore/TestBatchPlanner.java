@@ -24,6 +24,7 @@ import edu.brown.benchmark.tm1.procedures.UpdateLocation;
 import edu.brown.hashing.DefaultHasher;
 import edu.brown.hstore.Hstoreservice.WorkFragment;
 import edu.brown.hstore.conf.HStoreConf;
+import edu.brown.profilers.BatchPlannerProfiler;
 import edu.brown.statistics.FastIntHistogram;
 import edu.brown.utils.CollectionUtil;
 import edu.brown.utils.PartitionEstimator;
@@ -352,6 +353,89 @@ public class TestBatchPlanner extends BaseTestCase {
         assertEquals(NUM_PARTITIONS-1, remote_frags);
     }
     
+    /**
+     * testFragmentLayoutCache
+     */
+    public void testFragmentLayoutCache() throws Exception {
+        this.init(MULTISITE_PROCEDURE, MULTISITE_STATEMENT, MULTISITE_PROCEDURE_ARGS);
+        HStoreConf.singleton().site.planner_profiling = true;
+        BatchPlanner batchPlan = new BatchPlanner(batch, this.catalog_proc, p_estimator);
+        List<WorkFragment> expected = new ArrayList<WorkFragment>();
+        for (int i = 0; i < 3; i++) {
+            this.stmtCounters[0] = i;
+            BatchPlanner.BatchPlan plan = batchPlan.plan(TXN_ID + i,
+                                                         LOCAL_PARTITION,
+                                                         catalogContext.getAllPartitionIds(),
+                                                         this.touched_partitions,
+                                                         this.args);
+            assertNotNull(plan);
+            assertFalse(plan.hasMisprediction());
+            fragments.clear();
+            plan.getWorkFragmentsBuilders(TXN_ID + i, this.stmtCounters, fragments);
+            assertEquals(NUM_PARTITIONS + 1, fragments.size());
+            
+            // The cached WorkFragments should be exactly the same as the first
+            // ones that we generated, except for the stmtCounters
+            for (int ii = 0, cnt = fragments.size(); ii < cnt; ii++) {
+                WorkFragment.Builder builder = fragments.get(ii);
+                for (int counter : builder.getStmtCounterList()) {
+                    assertEquals(i, counter);
+                } // FOR
+                if (i == 0) {
+                    expected.add(builder.clone().build());
+                } else {
+                    builder.clearStmtCounter();
+                    builder.addAllStmtCounter(expected.get(ii).getStmtCounterList());
+                    assertEquals(expected.get(ii), builder.build());
+                }
+            } // FOR
+        } // FOR
+        HStoreConf.singleton().site.planner_profiling = false;
+        
+        BatchPlannerProfiler profiler = batchPlan.getDebugContext().getProfiler();
+        assertNotNull(profiler);
+        assertEquals(1, profiler.layout_misses.get());
+        assertEquals(2, profiler.layout_hits.get());
+    }
+    
+    /**
+     * testFragmentLayoutCacheNewGraph
+     * The layout cache shouldn't depend on getting back the same PlanGraph handle
+     */
+    public void testFragmentLayoutCacheNewGraph() throws Exception {
+        this.init(MULTISITE_PROCEDURE, MULTISITE_STATEMENT, MULTISITE_PROCEDURE_ARGS);
+        HStoreConf hstore_conf = HStoreConf.singleton();
+        boolean orig = hstore_conf.site.planner_caching;
+        hstore_conf.site.planner_caching = false;
+        hstore_conf.site.planner_profiling = true;
+        try {
+            BatchPlanner batchPlan = new BatchPlanner(batch, this.catalog_proc, p_estimator);
+            for (int i = 0; i < 3; i++) {
+                BatchPlanner.BatchPlan plan = batchPlan.plan(TXN_ID + i,
+                                                             LOCAL_PARTITION,
+                                                             catalogContext.getAllPartitionIds(),
+                                                             this.touched_partitions,
+                                                             this.args);
+                assertNotNull(plan);
+                assertFalse(plan.hasMisprediction());
+                fragments.clear();
+                plan.getWorkFragmentsBuilders(TXN_ID + i, this.stmtCounters, fragments);
+                assertEquals(NUM_PARTITIONS + 1, fragments.size());
+                
+                // Throw away the graph so that the next plan gets a new one
+                batchPlan.getDebugContext().clearPlanGraphs();
+            } // FOR
+            
+            BatchPlannerProfiler profiler = batchPlan.getDebugContext().getProfiler();
+            assertNotNull(profiler);
+            assertEquals(1, profiler.layout_misses.get());
+            assertEquals(2, profiler.layout_hits.get());
+        } finally {
+            hstore_conf.site.planner_caching = orig;
+            hstore_conf.site.planner_profiling = false;
+        }
+    }
+    
     /**
      * testMultiSitedRemotePlan
      */
@@ -0,0 +1,46 @@
+package edu.brown.hstore;
+
+import org.voltdb.types.IdleStrategyType;
+
+import junit.framework.TestCase;
+
+public class TestPartitionExecutorIdleStrategy extends TestCase {
+
+    private static final int PARTITION = 0;
+
+    /**
+     * testGetIdleStrategy
+     */
+    public void testGetIdleStrategy() throws Exception {
+        for (IdleStrategyType e : IdleStrategyType.values()) {
+            assertEquals(e, PartitionExecutor.getIdleStrategy(PARTITION, e.name(), true, true));
+            assertEquals(e, PartitionExecutor.getIdleStrategy(PARTITION, e.name().toLowerCase(), true, true));
+        } // FOR
+    }
+
+    /**
+     * testGetIdleStrategyInvalid
+     */
+    public void testGetIdleStrategyInvalid() throws Exception {
+        assertEquals(IdleStrategyType.BLOCK, PartitionExecutor.getIdleStrategy(PARTITION, "XXX", true, true));
+        assertEquals(IdleStrategyType.BLOCK, PartitionExecutor.getIdleStrategy(PARTITION, "", true, true));
+        assertEquals(IdleStrategyType.BLOCK, PartitionExecutor.getIdleStrategy(PARTITION, null, true, true));
+    }
+
+    /**
+     * testGetIdleStrategySpinFallback
+     */
+    public void testGetIdleStrategySpinFallback() throws Exception {
+        String name = IdleStrategyType.SPIN.name();
+        assertEquals(IdleStrategyType.SPIN, PartitionExecutor.getIdleStrategy(PARTITION, name, true, true));
+        assertEquals(IdleStrategyType.HYBRID, PartitionExecutor.getIdleStrategy(PARTITION, name, false, true));
+        assertEquals(IdleStrategyType.HYBRID, PartitionExecutor.getIdleStrategy(PARTITION, name, true, false));
+        assertEquals(IdleStrategyType.HYBRID, PartitionExecutor.getIdleStrategy(PARTITION, name, false, false));
+
+        // The other strategies don't need their own core
+        for (IdleStrategyType e : IdleStrategyType.values()) {
+            if (e == IdleStrategyType.SPIN) continue;
+            assertEquals(e, PartitionExecutor.getIdleStrategy(PARTITION, e.name(), false, false));
+        } // FOR
+    }
+}
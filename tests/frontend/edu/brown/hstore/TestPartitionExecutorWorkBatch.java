@@ -0,0 +1,168 @@
+package edu.brown.hstore;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import junit.framework.TestCase;
+import edu.brown.hstore.Hstoreservice.QueryEstimate;
+import edu.brown.hstore.Hstoreservice.WorkFragment;
+import edu.brown.hstore.internal.InternalMessage;
+import edu.brown.hstore.internal.UtilityWorkMessage;
+import edu.brown.hstore.internal.WorkFragmentMessage;
+
+/**
+ * Tests for how the PartitionExecutor handles the messages that it drains
+ * from its work queue in a batch.
+ */
+public class TestPartitionExecutorWorkBatch extends TestCase {
+
+    private static final int PARTITION = 0;
+
+    private WorkFragment.Builder makeFragment(int fragmentId, int inputDepId, int outputDepId) {
+        WorkFragment.Builder builder = WorkFragment.newBuilder()
+                                        .setPartitionId(PARTITION)
+                                        .setReadOnly(true)
+                                        .addFragmentId(fragmentId)
+                                        .addOutputDepId(outputDepId)
+                                        .addParamIndex(fragmentId)
+                                        .addStmtCounter(0)
+                                        .addStmtIndex(fragmentId)
+                                        .addStmtIgnore(false);
+        if (inputDepId >= 0) {
+            builder.addInputDepId(inputDepId).setNeedsInput(true);
+        }
+        return (builder);
+    }
+
+    /**
+     * testCanCoalesce
+     */
+    public void testCanCoalesce() throws Exception {
+        WorkFragment first = this.makeFragment(1, -1, 100).build();
+        WorkFragment next = this.makeFragment(2, -1, 101).build();
+        assertTrue(PartitionExecutor.canCoalesce(first, first.getOutputDepIdList(), next));
+
+        // Inputs from some other partition's output are fine
+        next = this.makeFragment(2, 999, 101).build();
+        assertTrue(PartitionExecutor.canCoalesce(first, first.getOutputDepIdList(), next));
+    }
+
+    /**
+     * testCanCoalesceDependent
+     */
+    public void testCanCoalesceDependent() throws Exception {
+        WorkFragment first = this.makeFragment(1, -1, 100).build();
+        WorkFragment second = this.makeFragment(2, -1, 101).build();
+
+        // The next fragment needs the output of the first one
+        WorkFragment next = this.makeFragment(3, 100, 102).build();
+        assertFalse(PartitionExecutor.canCoalesce(first, first.getOutputDepIdList(), next));
+
+        // Or of a fragment that was already merged into it
+        WorkFragment.Builder builder = WorkFragment.newBuilder(first);
+        PartitionExecutor.coalesceWorkFragment(builder, second);
+        next = this.makeFragment(3, 101, 102).build();
+        assertFalse(PartitionExecutor.canCoalesce(first, builder.getOutputDepIdList(), next));
+    }
+
+    /**
+     * testCanCoalesceFlags
+     */
+    public void testCanCoalesceFlags() throws Exception {
+        WorkFragment first = this.makeFragment(1, -1, 100).build();
+        WorkFragment prefetch = this.makeFragment(2, -1, 101).setPrefetch(true).build();
+        WorkFragment force = this.makeFragment(2, -1, 101).setForce(true).build();
+
+        assertFalse(PartitionExecutor.canCoalesce(first, first.getOutputDepIdList(), prefetch));
+        assertFalse(PartitionExecutor.canCoalesce(prefetch, prefetch.getOutputDepIdList(), first));
+        assertFalse(PartitionExecutor.canCoalesce(first, first.getOutputDepIdList(), force));
+        assertFalse(PartitionExecutor.canCoalesce(force, force.getOutputDepIdList(), first));
+    }
+
+    /**
+     * testCoalesceWorkFragment
+     */
+    public void testCoalesceWorkFragment() throws Exception {
+        QueryEstimate estimate0 = QueryEstimate.newBuilder().addStmtIds(1).addStmtCounters(0).build();
+        QueryEstimate estimate1 = QueryEstimate.newBuilder().addStmtIds(2).addStmtCounters(0).build();
+        WorkFragment first = this.makeFragment(1, -1, 100).setFutureStatements(estimate0).build();
+        WorkFragment next = this.makeFragment(2, 999, 101)
+                                .setReadOnly(false)
+                                .setLastFragment(true)
+                                .setFutureStatements(estimate1)
+                                .build();
+
+        WorkFragment.Builder builder = WorkFragment.newBuilder(first);
+        PartitionExecutor.coalesceWorkFragment(builder, next);
+        WorkFragment merged = builder.build();
+
+        assertEquals(PARTITION, merged.getPartitionId());
+        assertEquals(2, merged.getFragmentIdCount());
+        assertEquals(1, merged.getFragmentId(0));
+        assertEquals(2, merged.getFragmentId(1));
+        assertEquals(2, merged.getOutputDepIdCount());
+        assertEquals(1, merged.getInputDepIdCount());
+        assertEquals(2, merged.getParamIndexCount());
+        assertEquals(2, merged.getStmtCounterCount());
+        assertEquals(2, merged.getStmtIndexCount());
+        assertEquals(2, merged.getStmtIgnoreCount());
+        assertFalse(merged.getReadOnly());
+        assertTrue(merged.getNeedsInput());
+        assertTrue(merged.getLastFragment());
+
+        // We should only have the first fragment's estimate
+        assertEquals(estimate0, merged.getFutureStatements());
+    }
+
+    /**
+     * testBlockQueuedWork
+     */
+    public void testBlockQueuedWork() throws Exception {
+        ArrayDeque<InternalMessage> batch = new ArrayDeque<InternalMessage>();
+        LinkedBlockingQueue<InternalMessage> queue = new LinkedBlockingQueue<InternalMessage>();
+        List<InternalMessage> expected = new ArrayList<InternalMessage>();
+        for (int i = 0; i < 3; i++) {
+            InternalMessage msg = new UtilityWorkMessage();
+            batch.add(msg);
+            expected.add(msg);
+        } // FOR
+        for (int i = 0; i < 2; i++) {
+            InternalMessage msg = new UtilityWorkMessage();
+            queue.add(msg);
+            expected.add(msg);
+        } // FOR
+
+        List<InternalMessage> blocked = new ArrayList<InternalMessage>();
+        assertEquals(expected.size(), PartitionExecutor.blockQueuedWork(batch, queue, blocked));
+        assertTrue(batch.isEmpty());
+        assertTrue(queue.isEmpty());
+        assertEquals(expected, blocked);
+
+        // Nothing to block
+        blocked.clear();
+        assertEquals(0, PartitionExecutor.blockQueuedWork(batch, queue, blocked));
+        assertTrue(blocked.isEmpty());
+    }
+
+    /**
+     * testWorkFragmentMessageReuse
+     */
+    public void testWorkFragmentMessageReuse() throws Exception {
+        WorkFragment first = this.makeFragment(1, -1, 100).build();
+        WorkFragment next = this.makeFragment(2, -1, 101).build();
+        WorkFragmentMessage msg = new WorkFragmentMessage(null, first);
+        assertTrue(msg.isQueued());
+
+        // We can't give it a new fragment until it has been processed
+        assertFalse(msg.reuse(next));
+        assertEquals(first, msg.getFragment());
+
+        msg.markProcessed();
+        assertFalse(msg.isQueued());
+        assertTrue(msg.reuse(next));
+        assertTrue(msg.isQueued());
+        assertEquals(next, msg.getFragment());
+    }
+}
@@ -506,4 +506,30 @@ public class TestPartitionLockQueue extends BaseTestCase {
             }
         } // FOR
     }
+    
+    /**
+     * testPollAfterClaim
+     * The consumer polls without holding the lock queue barrier, so a txnId
+     * claimed for the fast path must keep it from releasing a smaller txn.
+     */
+    @Test
+    public void testPollAfterClaim() throws Exception {
+        Long first = this.idManager.getNextUniqueTransactionId();
+        Long claimed = this.idManager.getNextUniqueTransactionId();
+        assertTrue(this.queue.claimTransactionId(claimed));
+        assertFalse(this.queue.claimTransactionId(first));
+        assertEquals(claimed, this.queue.getLastTransactionId());
+        
+        // A smaller txn that shows up afterwards has to be rejected
+        Long lastSafe = this.queue.noteTransactionRecievedAndReturnLastSafeTxnId(first);
+        assertTrue(lastSafe.compareTo(first) > 0);
+        
+        // But a larger one is still released like normal
+        Collection<AbstractTransaction> added = this.loadQueue(1);
+        assertFalse(this.queue.claimTransactionId(this.idManager.getNextUniqueTransactionId()));
+        ThreadUtil.sleep(TXN_DELAY);
+        this.queueDbg.checkQueueState();
+        assertEquals(CollectionUtil.first(added), this.queue.poll());
+        assertEquals(CollectionUtil.first(added).getTransactionId(), this.queue.getLastTransactionId());
+    }
 }
@@ -18,6 +18,7 @@ import edu.brown.catalog.conflicts.ConflictSetUtil;
 import edu.brown.hstore.conf.HStoreConf;
 import edu.brown.hstore.estimators.EstimatorState;
 import edu.brown.hstore.estimators.MockEstimate;
+import edu.brown.hstore.specexec.SpecExecCandidateIndex;
 import edu.brown.hstore.specexec.checkers.AbstractConflictChecker;
 import edu.brown.hstore.specexec.checkers.TableConflictChecker;
 import edu.brown.hstore.txns.AbstractTransaction;
@@ -141,6 +142,58 @@ public class TestSpecExecScheduler extends BaseTestCase {
         assertEquals(1, profiler.num_comparisons.get(1));
     }
     
+    /**
+     * testCandidateIndex
+     */
+    public void testCandidateIndex() throws Exception {
+        // Swap in a queue that maintains a SpecExecCandidateIndex. The scheduler
+        // should only need to look at the first txn for each Procedure.
+        HStoreConf hstore_conf = HStoreConf.singleton();
+        hstore_conf.site.specexec_candidate_index = true;
+        try {
+            this.work_queue = new PartitionLockQueue(BASE_PARTITION, 0, Integer.MAX_VALUE, 1.0);
+        } finally {
+            hstore_conf.site.specexec_candidate_index = false;
+        }
+        SpecExecCandidateIndex index = this.work_queue.getCandidateIndex();
+        assertNotNull(index);
+        this.scheduler = new SpecExecScheduler(this.checker,
+                                               BASE_PARTITION,
+                                               this.work_queue,
+                                               SpecExecSchedulerPolicyType.FIRST,
+                                               WINDOW_SIZE);
+        SpecExecProfiler profiler = this.scheduler.getDebugContext().getProfiler(SpeculationType.SP1_LOCAL);
+        assertNotNull(profiler);
+        
+        // Add two rounds of the same Procedures
+        this.populateQueue(this.addedTxns, 5);
+        this.populateQueue(this.addedTxns, 5);
+        assertEquals(this.addedTxns.size(), this.work_queue.size());
+        assertEquals(this.work_queue.size(), index.size());
+        int numProcs = index.getBuckets().length;
+        assertTrue(numProcs > 0);
+        
+        // Each of these procedures doesn't conflict with our dtxn, so we
+        // should get them back in the same order that they were added
+        for (LocalTransaction expected : this.addedTxns) {
+            LocalTransaction next = this.scheduler.next(this.dtxn, SpeculationType.SP1_LOCAL);
+            assertEquals(expected, next);
+            assertFalse(this.work_queue.contains(next));
+        } // FOR
+        assertNull(this.scheduler.next(this.dtxn, SpeculationType.SP1_LOCAL));
+        assertEquals(0, index.size());
+        assertFalse(profiler.num_comparisons.isEmpty());
+        assertTrue(profiler.num_comparisons.getMaxValue().intValue() <= numProcs);
+        
+        // A txn that is removed from the queue without going through
+        // the scheduler should never come back out of the index
+        LocalTransaction ts = this.populateQueue(this.addedTxns, 1);
+        assertEquals(1, index.size());
+        assertTrue(this.work_queue.remove(ts));
+        assertEquals(0, index.size());
+        assertNull(this.scheduler.next(this.dtxn, SpeculationType.SP1_LOCAL));
+    }
+    
     /**
      * testLastMatchPolicy
      */
@@ -62,6 +62,10 @@ public class TestTransactionQueueManager extends BaseTestCase {
         protected void abortCallback(Status status) {
             this.aborted = true;
         }
+        @Override
+        protected void abortCallback(int partition, Status status) {
+            this.abortCallback(status);
+        }
     }
     
     @Override
@@ -362,4 +366,136 @@ public class TestTransactionQueueManager extends BaseTestCase {
         }
         assertTrue(dbg.isLockQueuesEmpty());
     }
+    
+    /**
+     * testBatchedLockQueueInsert
+     */
+    @Test
+    public void testBatchedLockQueueInsert() throws Exception {
+        Long txn_id = this.idManager.getNextUniqueTransactionId();
+        PartitionSet partitions = catalogContext.getAllPartitionIds();
+        MockCallback inner_callback = new MockCallback();
+        LocalTransaction txn0 = this.createTransaction(txn_id, partitions, inner_callback);
+        
+        // The txn should be in the lock queues for all of the partitions
+        Status status = this.queueManager.lockQueueInsert(txn0, partitions, inner_callback);
+        assertEquals(Status.OK, status);
+        assertEquals(partitions, this.findTxnInQueues(txn0));
+        
+        int tries = 10;
+        while (dbg.isLockQueuesEmpty() == false && tries-- > 0) {
+            ThreadUtil.sleep(TXN_DELAY);
+            this.checkAllQueues();
+        }
+        assertTrue(inner_callback.lock.tryAcquire());
+    }
+    
+    /**
+     * testBatchedLockQueueInsertReject
+     */
+    @Test
+    public void testBatchedLockQueueInsertReject() throws Exception {
+        Long txn_id0 = this.idManager.getNextUniqueTransactionId();
+        Long txn_id1 = this.idManager.getNextUniqueTransactionId();
+        PartitionSet partitions0 = catalogContext.getAllPartitionIds();
+        PartitionSet partitions1 = new PartitionSet(partitions0.get());
+        MockCallback inner_callback0 = new MockCallback();
+        MockCallback inner_callback1 = new MockCallback();
+        LocalTransaction txn0 = this.createTransaction(txn_id0, partitions0, inner_callback0);
+        LocalTransaction txn1 = this.createTransaction(txn_id1, partitions1, inner_callback1);
+        
+        // Let the second txn get the lock at its partition first
+        assertTrue(this.addToQueue(txn1, inner_callback1));
+        int tries = 10;
+        while (dbg.isLockQueuesEmpty() == false && tries-- > 0) {
+            ThreadUtil.sleep(TXN_DELAY);
+            this.checkQueues(partitions1);
+        }
+        assertTrue(inner_callback1.lock.tryAcquire());
+        
+        // Now the first txn has to be rejected and it should not be left
+        // in the lock queues at any of the other partitions
+        Status status = this.queueManager.lockQueueInsert(txn0, partitions0, inner_callback0);
+        assertEquals(Status.ABORT_RESTART, status);
+        assertTrue(inner_callback0.aborted);
+        assertTrue(this.findTxnInQueues(txn0).isEmpty());
+    }
+    
+    /**
+     * testUpdateNetworkDelay
+     */
+    @Test
+    public void testUpdateNetworkDelay() throws Exception {
+        this.hstore_conf.site.txn_incoming_delay_adaptive = true;
+        this.hstore_conf.site.txn_incoming_delay_min = 2;
+        this.hstore_conf.site.txn_incoming_delay_max = 20;
+        try {
+            int expected[] = { 2, 7, 20 };
+            int delays[] = { 0, 7, 1000 };
+            for (int i = 0; i < delays.length; i++) {
+                this.queueManager.updateNetworkDelay(delays[i]);
+                for (int partition : catalogContext.getAllPartitionIds().values()) {
+                    PartitionLockQueue queue = this.queueManager.getLockQueue(partition);
+                    assertEquals("delay=" + delays[i], expected[i], queue.getMaxWaitTime());
+                } // FOR
+            } // FOR
+        } finally {
+            this.hstore_conf.site.txn_incoming_delay_adaptive = false;
+        }
+    }
+    
+    /**
+     * testFastPathInit
+     */
+    @Test
+    public void testFastPathInit() throws Exception {
+        int partition = 0;
+        PartitionSet partitions = new PartitionSet(partition);
+        
+        // This distributed txn is created first but it shows up after 
+        // the fast path txn, like a remote txn that is still being delayed
+        Long dtxn_id = this.idManager.getNextUniqueTransactionId();
+        MockCallback dtxn_callback = new MockCallback();
+        LocalTransaction dtxn = this.createTransaction(dtxn_id, catalogContext.getAllPartitionIds(), dtxn_callback);
+        
+        // Nothing is queued at this partition so the txn should be
+        // released right away without going through the lock queue
+        MockCallback inner_callback0 = new MockCallback();
+        LocalTransaction txn0 = this.createTransaction(this.idManager.getNextUniqueTransactionId(),
+                                                       partitions, inner_callback0);
+        assertTrue(this.queueManager.fastPathInit(txn0));
+        assertTrue(txn0.isFastPath());
+        assertTrue(txn0.isMarkedReleased(partition));
+        assertTrue(inner_callback0.lock.tryAcquire());
+        assertTrue(this.findTxnInQueues(txn0).isEmpty());
+        assertEquals(txn0.getTransactionId(), dbg.getCurrentTransaction(partition));
+        
+        // The fast path txn already holds the partition, so the distributed
+        // txn with the smaller id has to be restarted
+        Status status = this.queueManager.lockQueueInsert(dtxn, dtxn.getPredictTouchedPartitions(), dtxn_callback);
+        assertEquals(Status.ABORT_RESTART, status);
+        assertTrue(dtxn_callback.aborted);
+        assertTrue(this.findTxnInQueues(dtxn).isEmpty());
+        
+        // Same thing for an older single-partition txn
+        MockCallback old_callback = new MockCallback();
+        LocalTransaction old = this.createTransaction(dtxn_id - 1, partitions, old_callback);
+        assertFalse(this.queueManager.fastPathInit(old));
+        assertEquals(Status.ABORT_RESTART, this.queueManager.lockQueueInsert(old, partition, old_callback));
+        
+        // Once there is another txn waiting in the lock queue, the next
+        // txn has to take the regular path
+        MockCallback inner_callback1 = new MockCallback();
+        LocalTransaction txn1 = this.createTransaction(this.idManager.getNextUniqueTransactionId(),
+                                                       partitions, inner_callback1);
+        assertTrue(this.addToQueue(txn1, inner_callback1));
+        
+        MockCallback inner_callback2 = new MockCallback();
+        LocalTransaction txn2 = this.createTransaction(this.idManager.getNextUniqueTransactionId(),
+                                                       partitions, inner_callback2);
+        assertFalse(this.queueManager.fastPathInit(txn2));
+        assertFalse(txn2.isFastPath());
+        assertFalse(txn2.isMarkedReleased(partition));
+        assertFalse(inner_callback2.lock.tryAcquire());
+    }
 }
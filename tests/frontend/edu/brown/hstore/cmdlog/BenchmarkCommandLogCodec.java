@@ -0,0 +1,74 @@
+package edu.brown.hstore.cmdlog;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+import org.voltdb.messaging.FastSerializer;
+
+import edu.brown.utils.MathUtil;
+
+/**
+ * Microbenchmark for the CommandLogCodecs. We encode the same group commit batch
+ * of TPC-C and Voter entries over and over again with each codec and report the
+ * number of bytes per txn and the mean encoding time of the measured iterations.
+ * The entries are generated the same way as in TestCommandLogCodec.
+ * This is not run as part of the regular test suite.
+ */
+public class BenchmarkCommandLogCodec extends TestCase {
+
+    private static final int BATCH_SIZE = TestCommandLogCodec.BATCH_SIZE;
+    private static final int ENCODES_PER_ITERATION = 100;
+    private static final int WARMUP_ITERATIONS = 3;
+    private static final int MEASURE_ITERATIONS = 10;
+    
+    private final TestCommandLogCodec generator = new TestCommandLogCodec();
+
+    /**
+     * Encode the batch over and over again and return the
+     * average number of nanoseconds that it took per txn
+     */
+    private double runIteration(CommandLogCodec codec, ByteBuffer data) throws Exception {
+        long start = System.nanoTime();
+        for (int i = 0; i < ENCODES_PER_ITERATION; i++) {
+            codec.encode(data.duplicate());
+        } // FOR
+        long stop = System.nanoTime();
+        return ((stop - start) / (double)(ENCODES_PER_ITERATION * BATCH_SIZE));
+    }
+    
+    /**
+     * testEncode
+     */
+    @Test
+    public void testEncode() throws Exception {
+        String workloads[] = { "TPC-C", "Voter" };
+        System.err.printf("%-8s %-8s %-12s %-12s %s\n", "Workload", "Codec", "Bytes/txn", "ns/txn", "StdDev");
+        for (String workload : workloads) {
+            List<LogEntry> entries = (workload.equals("Voter") ? this.generator.makeVoter(BATCH_SIZE) :
+                                                                 this.generator.makeTPCC(BATCH_SIZE));
+            FastSerializer fs = new FastSerializer(true, true);
+            this.generator.serialize(fs, entries);
+            System.err.printf("%-8s %-8s %-12.1f\n", workload, "<RAW>", fs.size() / (double)BATCH_SIZE);
+            ByteBuffer data = fs.getBBContainer().b;
+            
+            for (CommandLogCodec.Type type : CommandLogCodec.Type.values()) {
+                CommandLogCodec codec = CommandLogCodec.getCodec(type);
+                int bytes = codec.encode(data.duplicate()).limit();
+                for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+                    this.runIteration(codec, data);
+                } // FOR
+                double results[] = new double[MEASURE_ITERATIONS];
+                for (int i = 0; i < MEASURE_ITERATIONS; i++) {
+                    results[i] = this.runIteration(codec, data);
+                } // FOR
+                System.err.printf("%-8s %-8s %-12.1f %-12.1f %.1f\n", workload, type,
+                                  bytes / (double)BATCH_SIZE,
+                                  MathUtil.arithmeticMean(results),
+                                  MathUtil.stdev(results));
+            } // FOR
+        } // FOR
+    }
+}
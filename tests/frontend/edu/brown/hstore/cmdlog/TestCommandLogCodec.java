@@ -0,0 +1,136 @@
+package edu.brown.hstore.cmdlog;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import org.voltdb.ParameterSet;
+import org.voltdb.TransactionIdManager;
+import org.voltdb.messaging.FastDeserializer;
+import org.voltdb.messaging.FastSerializer;
+
+import edu.brown.utils.PartitionSet;
+
+/**
+ * Round-trip tests for the CommandLogCodecs
+ * The entries are modeled after the parameters of TPC-C's NewOrder/Payment
+ * and Voter's Vote procedures.
+ */
+public class TestCommandLogCodec extends TestCase {
+
+    static final int BATCH_SIZE = 1000;
+    
+    private static final int TPCC_NEWORDER = 1;
+    private static final int TPCC_PAYMENT = 2;
+    private static final int VOTER_VOTE = 3;
+    
+    private final Random rand = new Random(0);
+    private final TransactionIdManager idManager = new TransactionIdManager(0);
+    
+    List<LogEntry> makeTPCC(int count) {
+        List<LogEntry> entries = new ArrayList<LogEntry>();
+        for (int i = 0; i < count; i++) {
+            ParameterSet params;
+            int procId;
+            if (rand.nextInt(100) < 50) {
+                int num_items = 5 + rand.nextInt(11);
+                int i_ids[] = new int[num_items];
+                short i_w_ids[] = new short[num_items];
+                int i_qtys[] = new int[num_items];
+                for (int j = 0; j < num_items; j++) {
+                    i_ids[j] = rand.nextInt(100000);
+                    i_w_ids[j] = (short)1;
+                    i_qtys[j] = 1 + rand.nextInt(10);
+                } // FOR
+                params = new ParameterSet((short)1, (byte)(1 + rand.nextInt(10)), 1 + rand.nextInt(3000),
+                                          System.currentTimeMillis(), i_ids, i_w_ids, i_qtys);
+                procId = TPCC_NEWORDER;
+            } else {
+                params = new ParameterSet((short)1, (byte)(1 + rand.nextInt(10)), 1.0d * rand.nextInt(5000),
+                                          (short)1, (byte)(1 + rand.nextInt(10)), 1 + rand.nextInt(3000),
+                                          System.currentTimeMillis());
+                procId = TPCC_PAYMENT;
+            }
+            entries.add(new LogEntry().init(this.idManager.getNextUniqueTransactionId(), procId, params));
+        } // FOR
+        return (entries);
+    }
+    
+    List<LogEntry> makeVoter(int count) {
+        List<LogEntry> entries = new ArrayList<LogEntry>();
+        for (int i = 0; i < count; i++) {
+            ParameterSet params = new ParameterSet(2000000000l + rand.nextInt(100000000),
+                                                   1 + rand.nextInt(12), 10l);
+            entries.add(new LogEntry().init(this.idManager.getNextUniqueTransactionId(), VOTER_VOTE, params));
+        } // FOR
+        return (entries);
+    }
+    
+    void serialize(FastSerializer fs, List<LogEntry> entries) throws Exception {
+        fs.clear();
+        for (LogEntry entry : entries) {
+            fs.writeObject(entry);
+        } // FOR
+    }
+    
+    private void checkRoundTrip(CommandLogCodec.Type type, List<LogEntry> entries) throws Exception {
+        CommandLogCodec codec = CommandLogCodec.getCodec(type);
+        FastSerializer fs = new FastSerializer(true, true);
+        this.serialize(fs, entries);
+        ByteBuffer data = fs.getBBContainer().b;
+        byte expected[] = new byte[data.remaining()];
+        data.duplicate().get(expected);
+        
+        ByteBuffer frame = codec.encode(data);
+        int length = frame.getInt();
+        assertEquals(frame.remaining(), length);
+        byte payload[] = new byte[length];
+        frame.get(payload);
+        
+        byte decoded[] = CommandLogCodec.getCodec(type).decode(payload);
+        assertTrue(type.toString(), Arrays.equals(expected, decoded));
+        
+        FastDeserializer fd = new FastDeserializer(decoded);
+        for (LogEntry expectedEntry : entries) {
+            LogEntry entry = fd.readObject(LogEntry.class);
+            assertEquals(expectedEntry.getTransactionId(), entry.getTransactionId());
+            assertEquals(expectedEntry.getProcedureId(), entry.getProcedureId());
+            assertEquals(expectedEntry.getProcedureParams().size(), entry.getProcedureParams().size());
+            if (expectedEntry.isMarker()) {
+                assertEquals(expectedEntry.getMarkerPartitions(), entry.getMarkerPartitions());
+            }
+        } // FOR
+    }
+    
+    /**
+     * testRoundTrip
+     */
+    public void testRoundTrip() throws Exception {
+        List<LogEntry> tpcc = this.makeTPCC(BATCH_SIZE);
+        List<LogEntry> voter = this.makeVoter(BATCH_SIZE);
+        for (CommandLogCodec.Type type : CommandLogCodec.Type.values()) {
+            this.checkRoundTrip(type, tpcc);
+            this.checkRoundTrip(type, voter);
+            this.checkRoundTrip(type, tpcc.subList(0, 1));
+        } // FOR
+    }
+    
+    /**
+     * testMarkers
+     */
+    public void testMarkers() throws Exception {
+        List<LogEntry> entries = this.makeVoter(10);
+        for (int i = 0; i < 5; i++) {
+            LogEntry marker = new LogEntry().initMarker(this.idManager.getNextUniqueTransactionId(),
+                                                        new PartitionSet(0, i + 1));
+            entries.add(2 * i, marker);
+        } // FOR
+        for (CommandLogCodec.Type type : CommandLogCodec.Type.values()) {
+            this.checkRoundTrip(type, entries);
+        } // FOR
+    }
+}
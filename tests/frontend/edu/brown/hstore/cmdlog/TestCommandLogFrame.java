@@ -0,0 +1,171 @@
+package edu.brown.hstore.cmdlog;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.voltdb.ParameterSet;
+import org.voltdb.messaging.FastSerializer;
+
+import edu.brown.utils.FileUtil;
+
+public class TestCommandLogFrame extends TestCase {
+
+    private static final int NUM_FRAMES = 10;
+    private static final int TXNS_PER_FRAME = 20;
+    
+    private File dir;
+    private File logFile;
+    private final List<Integer> frameEnds = new ArrayList<Integer>();
+    
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        this.dir = FileUtil.getTempDirectory();
+        this.logFile = new File(this.dir, "h00" + CommandLogWriter.LOG_OUTPUT_EXT);
+        
+        // Write out a log file with NUM_FRAMES frames where
+        // the txn ids in each frame are in a separate range
+        CommandLogCodec codec = CommandLogCodec.getCodec(CommandLogCodec.Type.NONE);
+        FileChannel channel = new FileOutputStream(this.logFile).getChannel();
+        FastSerializer header = new FastSerializer();
+        header.writeByte(CommandLogWriter.HEADER_GROUP_COMMIT | CommandLogWriter.HEADER_FRAMED |
+                         (codec.getType().getId() << CommandLogWriter.HEADER_CODEC_SHIFT));
+        header.writeInt(0);
+        int position = channel.write(ByteBuffer.wrap(header.getBytes()));
+        
+        long txnId = 1000;
+        for (int i = 0; i < NUM_FRAMES; i++) {
+            FastSerializer fs = new FastSerializer(true, true);
+            long first = txnId;
+            for (int j = 0; j < TXNS_PER_FRAME; j++) {
+                fs.writeObject(new LogEntry().init(txnId++, 1, new ParameterSet(j, "abc")));
+            } // FOR
+            ByteBuffer frame = CommandLogFrame.create(codec.encode(fs.getBBContainer().b),
+                                                      first, txnId - 1);
+            position += channel.write(frame);
+            this.frameEnds.add(position);
+        } // FOR
+        channel.close();
+    }
+    
+    @Override
+    protected void tearDown() throws Exception {
+        this.logFile.delete();
+        this.dir.delete();
+        super.tearDown();
+    }
+    
+    private int count(CommandLogReader reader) {
+        int count = 0;
+        for (@SuppressWarnings("unused") LogEntry entry : reader) {
+            count++;
+        } // FOR
+        return (count);
+    }
+    
+    /**
+     * testRead
+     */
+    public void testRead() throws Exception {
+        CommandLogReader reader = new CommandLogReader(this.logFile.getAbsolutePath());
+        assertTrue(reader.isFramed());
+        assertEquals(NUM_FRAMES * TXNS_PER_FRAME, this.count(reader));
+        assertEquals(this.logFile.length(), reader.getValidLength());
+    }
+    
+    /**
+     * testTornWrite
+     */
+    public void testTornWrite() throws Exception {
+        RandomAccessFile raf = new RandomAccessFile(this.logFile, "rw");
+        raf.setLength(this.logFile.length() - 10);
+        raf.close();
+        
+        CommandLogReader reader = new CommandLogReader(this.logFile.getAbsolutePath());
+        assertEquals((NUM_FRAMES - 1) * TXNS_PER_FRAME, this.count(reader));
+        assertEquals(this.frameEnds.get(NUM_FRAMES - 2).intValue(), reader.getValidLength());
+        assertEquals(-1, reader.getNextValidFrameOffset());
+    }
+    
+    /**
+     * testCorruptFrame
+     */
+    public void testCorruptFrame() throws Exception {
+        // Flip a byte in the payload of the fourth frame
+        int offset = this.frameEnds.get(2) + CommandLogFrame.FRAME_HEADER_SIZE + 5;
+        RandomAccessFile raf = new RandomAccessFile(this.logFile, "rw");
+        raf.seek(offset);
+        int b = raf.read();
+        raf.seek(offset);
+        raf.write(b ^ 0xFF);
+        raf.close();
+        
+        CommandLogReader reader = new CommandLogReader(this.logFile.getAbsolutePath());
+        assertEquals(3 * TXNS_PER_FRAME, this.count(reader));
+        assertEquals(this.frameEnds.get(2).intValue(), reader.getValidLength());
+        
+        // The frames after it are still valid, so we shouldn't truncate the file
+        assertEquals(this.frameEnds.get(3).intValue(), reader.getNextValidFrameOffset());
+    }
+    
+    /**
+     * testCorruptFrameHeader
+     */
+    public void testCorruptFrameHeader() throws Exception {
+        // Make the length of the fourth frame go past the end of the file.
+        // This looks just like a torn write, but there are valid frames after it
+        RandomAccessFile raf = new RandomAccessFile(this.logFile, "rw");
+        raf.seek(this.frameEnds.get(2));
+        raf.writeInt(Integer.MAX_VALUE);
+        raf.close();
+        
+        CommandLogReader reader = new CommandLogReader(this.logFile.getAbsolutePath());
+        assertEquals(3 * TXNS_PER_FRAME, this.count(reader));
+        assertEquals(this.frameEnds.get(2).intValue(), reader.getValidLength());
+        assertEquals(this.frameEnds.get(3).intValue(), reader.getNextValidFrameOffset());
+    }
+    
+    /**
+     * testCorruptLastFrame
+     */
+    public void testCorruptLastFrame() throws Exception {
+        int offset = this.frameEnds.get(NUM_FRAMES - 2) + CommandLogFrame.FRAME_HEADER_SIZE + 5;
+        RandomAccessFile raf = new RandomAccessFile(this.logFile, "rw");
+        raf.seek(offset);
+        int b = raf.read();
+        raf.seek(offset);
+        raf.write(b ^ 0xFF);
+        raf.close();
+        
+        CommandLogReader reader = new CommandLogReader(this.logFile.getAbsolutePath());
+        assertEquals((NUM_FRAMES - 1) * TXNS_PER_FRAME, this.count(reader));
+        assertEquals(this.frameEnds.get(NUM_FRAMES - 2).intValue(), reader.getValidLength());
+        assertEquals(-1, reader.getNextValidFrameOffset());
+    }
+    
+    /**
+     * testSeek
+     */
+    public void testSeek() throws Exception {
+        CommandLogReader reader = new CommandLogReader(this.logFile.getAbsolutePath());
+        List<CommandLogFrame> frames = reader.getFrames();
+        assertEquals(NUM_FRAMES, frames.size());
+        
+        // Seek into the middle of the sixth frame
+        long txnId = frames.get(5).firstTxnId + 3;
+        assertTrue(reader.seek(txnId));
+        List<LogEntry> entries = new ArrayList<LogEntry>();
+        for (LogEntry entry : reader) {
+            entries.add(entry);
+        } // FOR
+        assertEquals((NUM_FRAMES - 5) * TXNS_PER_FRAME, entries.size());
+        assertEquals(frames.get(5).firstTxnId, entries.get(0).getTransactionId().longValue());
+    }
+}
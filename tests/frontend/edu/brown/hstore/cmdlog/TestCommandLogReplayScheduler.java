@@ -0,0 +1,218 @@
+package edu.brown.hstore.cmdlog;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+import org.voltdb.exceptions.ServerFaultException;
+
+import edu.brown.hstore.HStoreConstants;
+
+public class TestCommandLogReplayScheduler extends TestCase {
+
+    private static final int NUM_PARTITIONS = 4;
+    private static final int NUM_REQUESTS = 500;
+    private static final int QUEUE_SIZE = 10;
+
+    /**
+     * Records the order that each partition executed its requests in
+     */
+    private static class MockHandler implements CommandLogReplayScheduler.Handler<Integer> {
+        final Map<Integer, List<Integer>> executed = new ConcurrentHashMap<Integer, List<Integer>>();
+        final List<Integer> started = Collections.synchronizedList(new ArrayList<Integer>());
+        final AtomicInteger running = new AtomicInteger(0);
+        volatile int barrierRunning = -1;
+
+        @Override
+        public String getThreadName(int partition) {
+            return ("replay-" + partition);
+        }
+        @Override
+        public void threadStarted(int partition) {
+            this.started.add(partition);
+        }
+        @Override
+        public void execute(int partition, Integer request) {
+            int cnt = this.running.incrementAndGet();
+            if (partition == HStoreConstants.NULL_PARTITION_ID) {
+                // Nothing else can be running while we execute a barrier
+                this.barrierRunning = cnt;
+            }
+            List<Integer> list = this.executed.get(partition);
+            if (list == null) {
+                list = Collections.synchronizedList(new ArrayList<Integer>());
+                this.executed.put(partition, list);
+            }
+            list.add(request);
+            this.running.decrementAndGet();
+        }
+    }
+
+    private MockHandler handler;
+    private CommandLogReplayScheduler<Integer> scheduler;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        this.handler = new MockHandler();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        if (this.scheduler != null) this.scheduler.shutdown();
+        super.tearDown();
+    }
+
+    private List<Integer> getPartitions() {
+        List<Integer> partitions = new ArrayList<Integer>();
+        for (int p = 0; p < NUM_PARTITIONS; p++) {
+            partitions.add(p);
+        } // FOR
+        return (partitions);
+    }
+
+    /**
+     * testPartitionOrder
+     */
+    public void testPartitionOrder() throws Exception {
+        this.scheduler = new CommandLogReplayScheduler<Integer>(this.handler, this.getPartitions(), QUEUE_SIZE);
+        this.scheduler.start();
+        for (int i = 0; i < NUM_REQUESTS; i++) {
+            this.scheduler.dispatch(i % NUM_PARTITIONS, i);
+        } // FOR
+        this.scheduler.waitForOutstanding();
+        assertEquals(0, this.scheduler.getOutstandingCount());
+
+        for (int p = 0; p < NUM_PARTITIONS; p++) {
+            List<Integer> list = this.handler.executed.get(p);
+            assertNotNull(list);
+            assertEquals(NUM_REQUESTS / NUM_PARTITIONS, list.size());
+            int last = -1;
+            for (int i : list) {
+                assertEquals(p, i % NUM_PARTITIONS);
+                assertTrue(i > last);
+                last = i;
+            } // FOR
+        } // FOR
+        assertEquals(NUM_PARTITIONS, this.handler.started.size());
+        assertFalse(this.handler.executed.containsKey(HStoreConstants.NULL_PARTITION_ID));
+    }
+
+    /**
+     * testBarrier
+     * A request for a partition that we don't have a thread for should
+     * only execute after everything that was dispatched before it.
+     */
+    public void testBarrier() throws Exception {
+        this.scheduler = new CommandLogReplayScheduler<Integer>(this.handler, this.getPartitions(), QUEUE_SIZE);
+        this.scheduler.start();
+        for (int i = 0; i < NUM_REQUESTS; i++) {
+            this.scheduler.dispatch(i % NUM_PARTITIONS, i);
+        } // FOR
+        this.scheduler.dispatch(HStoreConstants.NULL_PARTITION_ID, NUM_REQUESTS);
+        assertEquals(0, this.scheduler.getOutstandingCount());
+        assertEquals(1, this.handler.barrierRunning);
+
+        int total = 0;
+        for (List<Integer> list : this.handler.executed.values()) {
+            total += list.size();
+        } // FOR
+        assertEquals(NUM_REQUESTS + 1, total);
+        assertEquals(Arrays.asList(NUM_REQUESTS), this.handler.executed.get(HStoreConstants.NULL_PARTITION_ID));
+    }
+
+    /**
+     * testConcurrentPartitions
+     * A partition that is blocked should not stop the other partitions
+     */
+    public void testConcurrentPartitions() throws Exception {
+        final CountDownLatch blocked = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(1);
+        CommandLogReplayScheduler.Handler<Integer> h = new MockHandler() {
+            @Override
+            public void execute(int partition, Integer request) {
+                if (partition == 0) {
+                    try {
+                        blocked.await();
+                    } catch (InterruptedException ex) {
+                        return;
+                    }
+                } else {
+                    done.countDown();
+                }
+            }
+        };
+        this.scheduler = new CommandLogReplayScheduler<Integer>(h, this.getPartitions(), QUEUE_SIZE);
+        this.scheduler.start();
+        this.scheduler.dispatch(0, 0);
+        this.scheduler.dispatch(1, 1);
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertTrue(this.scheduler.getOutstandingCount() > 0);
+        blocked.countDown();
+        this.scheduler.waitForOutstanding();
+        assertEquals(0, this.scheduler.getOutstandingCount());
+    }
+
+    /**
+     * testError
+     * If one of the partition threads dies, then we shouldn't wait forever
+     */
+    public void testError() throws Exception {
+        CommandLogReplayScheduler.Handler<Integer> h = new MockHandler() {
+            @Override
+            public void execute(int partition, Integer request) {
+                if (partition == 0) throw new RuntimeException("Fake error");
+            }
+        };
+        this.scheduler = new CommandLogReplayScheduler<Integer>(h, this.getPartitions(), QUEUE_SIZE);
+        this.scheduler.start();
+
+        // Fill up the dead partition's queue. We should eventually get
+        // the error instead of blocking on the queue
+        ServerFaultException error = null;
+        try {
+            for (int i = 0; i < QUEUE_SIZE * 10; i++) {
+                this.scheduler.dispatch(0, i);
+            } // FOR
+            this.scheduler.waitForOutstanding();
+        } catch (ServerFaultException ex) {
+            error = ex;
+        }
+        assertNotNull(error);
+
+        // Everything else should fail too
+        try {
+            this.scheduler.dispatch(1, 0);
+            fail("Expected error");
+        } catch (ServerFaultException ex) {
+            // Expected
+        }
+    }
+
+    /**
+     * testSerial
+     * Without any partition threads, everything executes in the caller's thread
+     */
+    public void testSerial() throws Exception {
+        List<Integer> partitions = Collections.emptyList();
+        this.scheduler = new CommandLogReplayScheduler<Integer>(this.handler, partitions, QUEUE_SIZE);
+        this.scheduler.start();
+        List<Integer> expected = new ArrayList<Integer>();
+        for (int i = 0; i < NUM_REQUESTS; i++) {
+            this.scheduler.dispatch(i % NUM_PARTITIONS, i);
+            expected.add(i);
+        } // FOR
+        this.scheduler.waitForOutstanding();
+        assertTrue(this.handler.started.isEmpty());
+        assertEquals(expected, this.handler.executed.get(HStoreConstants.NULL_PARTITION_ID));
+        assertEquals(1, this.handler.barrierRunning);
+    }
+}
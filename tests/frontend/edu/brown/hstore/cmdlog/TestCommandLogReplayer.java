@@ -0,0 +1,222 @@
+package edu.brown.hstore.cmdlog;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import junit.framework.TestCase;
+
+import org.voltdb.ParameterSet;
+import org.voltdb.TransactionIdManager;
+import org.voltdb.catalog.Catalog;
+import org.voltdb.catalog.Database;
+import org.voltdb.catalog.Table;
+import org.voltdb.sysprocs.saverestore.SnapshotUtil;
+
+import edu.brown.utils.FileUtil;
+import edu.brown.utils.PartitionSet;
+
+/**
+ * Tests for how the CommandLogReplayer merges multiple log streams
+ * when some of the txns' entries never made it to disk
+ */
+public class TestCommandLogReplayer extends TestCase {
+
+    private static final int PROC_ID = 1;
+
+    private final Map<Integer, List<LogEntry>> streams = new TreeMap<Integer, List<LogEntry>>();
+    private final Map<Long, PartitionSet> partitions = new HashMap<Long, PartitionSet>();
+    private final CommandLogReplayer.MergeContext context = new CommandLogReplayer.MergeContext() {
+        @Override
+        public boolean inSnapshot(LogEntry entry) {
+            return (false);
+        }
+        @Override
+        public PartitionSet getPartitions(LogEntry entry) {
+            return (partitions.get(entry.getTransactionId()));
+        }
+    };
+
+    private List<LogEntry> getStream(int id) {
+        List<LogEntry> stream = this.streams.get(id);
+        if (stream == null) {
+            stream = new ArrayList<LogEntry>();
+            this.streams.put(id, stream);
+        }
+        return (stream);
+    }
+
+    private void addEntry(int stream, long txnId, Integer...partitions) {
+        this.getStream(stream).add(new LogEntry().init(txnId, PROC_ID, new ParameterSet()));
+        if (partitions.length > 0) this.partitions.put(txnId, new PartitionSet(partitions));
+    }
+
+    private void addMarker(int stream, long txnId, Integer...partitions) {
+        this.getStream(stream).add(new LogEntry().initMarker(txnId, new PartitionSet(partitions)));
+    }
+
+    private List<Long> merge(int expectedDiscarded) {
+        List<LogEntry> output = new ArrayList<LogEntry>();
+        int discarded = CommandLogReplayer.mergeStreams(this.streams, this.context, output);
+        assertEquals(expectedDiscarded, discarded);
+        List<Long> txnIds = new ArrayList<Long>();
+        for (LogEntry entry : output) {
+            assertFalse(entry.isMarker());
+            txnIds.add(entry.getTransactionId());
+        } // FOR
+        return (txnIds);
+    }
+
+    /**
+     * testMarkerPartitions
+     */
+    public void testMarkerPartitions() throws Exception {
+        LogEntry marker = new LogEntry().initMarker(1000l, new PartitionSet(0, 2, 3));
+        assertTrue(marker.isMarker());
+        assertEquals(new PartitionSet(0, 2, 3), marker.getMarkerPartitions());
+
+        // Markers from older logs do not have their partitions
+        LogEntry old = new LogEntry().init(1001l, LogEntry.MARKER_PROCEDURE_ID, ParameterSet.EMPTY);
+        assertTrue(old.isMarker());
+        assertNull(old.getMarkerPartitions());
+    }
+
+    /**
+     * testMergeStreams
+     */
+    public void testMergeStreams() throws Exception {
+        this.addEntry(0, 10, 0);
+        this.addEntry(1, 20, 1);
+        this.addEntry(0, 30);
+        this.addMarker(1, 30, 0, 1);
+        this.addEntry(0, 40, 0);
+        this.addEntry(1, 50, 1);
+        assertEquals(Arrays.asList(10l, 20l, 30l, 40l, 50l), this.merge(0));
+    }
+
+    /**
+     * testMissingEntry
+     * Stream #0 lost the entry for the multi-partition txn #20 that touched
+     * partitions 0 and 1. Stream #1 has its marker, so the txns after it in
+     * that stream that touched partition 1 have to be discarded. But the txns that
+     * only touched partition 2 are independent of it and must still be replayed.
+     */
+    public void testMissingEntry() throws Exception {
+        this.addEntry(1, 10, 1);
+        this.addMarker(1, 20, 0, 1);
+        this.addEntry(1, 30, 2);
+        this.addEntry(1, 40, 1);
+        this.addEntry(1, 50, 2);
+        this.addEntry(1, 60, 1, 2);
+        this.addEntry(1, 70, 2);
+        assertEquals(Arrays.asList(10l, 30l, 50l), this.merge(3));
+    }
+
+    /**
+     * testCascadingDiscard
+     * The multi-partition txn #50 came after the missing txn #20 at partition 1,
+     * so it gets discarded. Everything after #50 in its own stream at partition 0
+     * depends on it and must be discarded too, even though stream #0
+     * doesn't have a marker for the missing txn.
+     */
+    public void testCascadingDiscard() throws Exception {
+        this.addEntry(0, 45, 0);
+        this.addEntry(0, 50);
+        this.addEntry(0, 60, 0);
+
+        this.addEntry(1, 10, 1);
+        this.addMarker(1, 20, 0, 1);
+        this.addEntry(1, 30, 2);
+        this.addEntry(1, 40, 1);
+        this.addMarker(1, 50, 0, 1);
+        this.addEntry(1, 70, 2);
+        assertEquals(Arrays.asList(10l, 30l, 45l, 70l), this.merge(3));
+    }
+
+    /**
+     * testUnknownPartitions
+     * If we don't know which partitions the missing txn touched, then
+     * nothing after its marker can be replayed.
+     */
+    public void testUnknownPartitions() throws Exception {
+        this.addEntry(0, 5, 0);
+        this.addEntry(1, 10, 1);
+        this.getStream(1).add(new LogEntry().init(20l, LogEntry.MARKER_PROCEDURE_ID, ParameterSet.EMPTY));
+        this.addEntry(1, 30, 2);
+        this.addEntry(1, 40);
+        assertEquals(Arrays.asList(5l, 10l), this.merge(2));
+    }
+
+    /**
+     * testUnknownEntryPartitions
+     * A txn after the missing txn's marker whose partitions we can't figure out
+     * is discarded, along with everything after it in its stream.
+     */
+    public void testUnknownEntryPartitions() throws Exception {
+        this.addEntry(1, 10, 1);
+        this.addMarker(1, 20, 0);
+        this.addEntry(1, 30, 1);
+        this.addEntry(1, 40);
+        this.addEntry(1, 50, 2);
+        assertEquals(Arrays.asList(10l, 30l), this.merge(2));
+    }
+
+    /**
+     * testInSnapshot
+     * The snapshot's wall-clock start time is later than the timestamp in its txn id.
+     * A txn that committed after the snapshot can have an id with a timestamp in between,
+     * so it has to be replayed even though its timestamp is before the snapshot's start time.
+     */
+    public void testInSnapshot() throws Exception {
+        long snapshotTimestamp = 1400000000000l;
+        Long snapshotTxnId = TransactionIdManager.makeIdFromComponents(snapshotTimestamp, 5, 0);
+        long snapshotStartTime = snapshotTimestamp + 10;
+
+        LogEntry before = new LogEntry().init(TransactionIdManager.makeIdFromComponents(snapshotTimestamp, 4, 0),
+                                              PROC_ID, new ParameterSet());
+        LogEntry after = new LogEntry().init(TransactionIdManager.makeIdFromComponents(snapshotTimestamp + 1, 0, 0),
+                                             PROC_ID, new ParameterSet());
+        assertTrue(TransactionIdManager.getTimestampFromTransactionId(after.getTransactionId()) < snapshotStartTime);
+        assertTrue(after.getTransactionId() > snapshotTxnId);
+
+        assertTrue(CommandLogReplayer.inSnapshot(snapshotTxnId, before));
+        assertFalse(CommandLogReplayer.inSnapshot(snapshotTxnId, after));
+        assertFalse(CommandLogReplayer.inSnapshot(null, before));
+    }
+
+    /**
+     * testSnapshotDigestTxnId
+     */
+    public void testSnapshotDigestTxnId() throws Exception {
+        Catalog catalog = new Catalog();
+        catalog.execute("add / clusters cluster\n" +
+                        "add /clusters[cluster] databases database\n" +
+                        "add /clusters[cluster]/databases[database] tables TABLEA\n");
+        Database catalog_db = catalog.getClusters().get("cluster").getDatabases().get("database");
+        Table catalog_tbl = catalog_db.getTables().get("TABLEA");
+
+        File dir = FileUtil.getTempDirectory();
+        long startTime = 1400000000000l;
+        Long txnId = TransactionIdManager.makeIdFromComponents(startTime - 10, 3, 1);
+        SnapshotUtil.recordSnapshotTableList(startTime, txnId, dir.getAbsolutePath(), "withtxn",
+                                             Collections.singletonList(catalog_tbl));
+        File digest = new File(dir, SnapshotUtil.constructDigestFilenameForNonce("withtxn"));
+        assertEquals(startTime, SnapshotUtil.retrieveRelevantTableNamesAndTime(digest).getFirst().longValue());
+        assertEquals(Arrays.asList("TABLEA"), SnapshotUtil.retrieveRelevantTableNamesAndTime(digest).getSecond());
+        assertEquals(txnId.longValue(), CommandLogReplayer.getSnapshotTxnId(digest));
+
+        // Older digests only have the start time
+        SnapshotUtil.recordSnapshotTableList(startTime, null, dir.getAbsolutePath(), "notxn",
+                                             Collections.singletonList(catalog_tbl));
+        digest = new File(dir, SnapshotUtil.constructDigestFilenameForNonce("notxn"));
+        assertNull(SnapshotUtil.retrieveSnapshotTxnId(digest));
+        long fallback = CommandLogReplayer.getSnapshotTxnId(digest);
+        assertTrue(fallback < TransactionIdManager.makeIdFromComponents(startTime, 0, 0));
+        assertTrue(fallback >= TransactionIdManager.makeIdFromComponents(startTime - 1, 0, 0));
+    }
+}
@@ -0,0 +1,145 @@
+package edu.brown.hstore.cmdlog;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import junit.framework.TestCase;
+
+import edu.brown.utils.FileUtil;
+
+public class TestCommandLogSegment extends TestCase {
+
+    private static final long SEGMENT_SIZE = 64 * 1024;
+
+    private File dir;
+    private File baseFile;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        this.dir = FileUtil.getTempDirectory();
+        this.baseFile = new File(this.dir, "h00" + CommandLogWriter.LOG_OUTPUT_EXT);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        for (File f : CommandLogSegment.getSegmentFiles(this.baseFile)) {
+            f.delete();
+        } // FOR
+        this.dir.delete();
+        super.tearDown();
+    }
+
+    /**
+     * testCreate
+     */
+    public void testCreate() throws Exception {
+        File file = CommandLogSegment.getSegmentFile(this.baseFile, 1);
+        CommandLogSegment segment = CommandLogSegment.create(file, 1, SEGMENT_SIZE);
+        assertEquals(SEGMENT_SIZE, file.length());
+        assertEquals(SEGMENT_SIZE - CommandLogSegment.SEGMENT_HEADER_SIZE, segment.remaining());
+
+        CommandLogSegment.Header header = CommandLogSegment.readHeader(file);
+        assertNotNull(header);
+        assertEquals(1, header.segmentId);
+        assertEquals(CommandLogSegment.NULL_TXN_ID, header.firstTxnId);
+        assertEquals(CommandLogSegment.NULL_TXN_ID, header.lastTxnId);
+        segment.close();
+    }
+
+    /**
+     * testWrite
+     */
+    public void testWrite() throws Exception {
+        File file = CommandLogSegment.getSegmentFile(this.baseFile, 2);
+        CommandLogSegment segment = CommandLogSegment.create(file, 2, SEGMENT_SIZE);
+
+        byte data[] = new byte[1000];
+        segment.write(ByteBuffer.wrap(data));
+        segment.addTxnIds(100, 200);
+        segment.write(ByteBuffer.wrap(data));
+        segment.addTxnIds(50, 150);
+        segment.close();
+
+        // The file should not have grown
+        assertEquals(SEGMENT_SIZE, file.length());
+
+        CommandLogSegment.Header header = CommandLogSegment.readHeader(file);
+        assertNotNull(header);
+        assertEquals(2, header.segmentId);
+        assertEquals(50, header.firstTxnId);
+        assertEquals(200, header.lastTxnId);
+        assertEquals(CommandLogSegment.SEGMENT_HEADER_SIZE + 2 * data.length, header.position);
+    }
+
+    /**
+     * testGetSegmentFiles
+     */
+    public void testGetSegmentFiles() throws Exception {
+        long ids[] = { 3, 1, 2 };
+        for (long id : ids) {
+            CommandLogSegment.create(CommandLogSegment.getSegmentFile(this.baseFile, id), id, SEGMENT_SIZE).close();
+        } // FOR
+        // This is not a segment for our log
+        File other = new File(this.dir, "h01-00000004" + CommandLogWriter.LOG_OUTPUT_EXT);
+        CommandLogSegment.create(other, 4, SEGMENT_SIZE).close();
+
+        List<File> files = CommandLogSegment.getSegmentFiles(this.baseFile);
+        assertEquals(ids.length, files.size());
+        for (int i = 0; i < files.size(); i++) {
+            assertEquals(i + 1, CommandLogSegment.getSegmentId(this.baseFile, files.get(i)));
+        } // FOR
+        assertEquals(-1, CommandLogSegment.getSegmentId(this.baseFile, other));
+        other.delete();
+    }
+
+    /**
+     * testTruncate
+     */
+    public void testTruncate() throws Exception {
+        long ranges[][] = { { 100, 200 }, { 201, 300 }, { 301, 400 } };
+        Map<Long, CommandLogSegment.Header> closedSegments = new TreeMap<Long, CommandLogSegment.Header>();
+        for (int i = 0; i < ranges.length; i++) {
+            long id = i + 1;
+            CommandLogSegment segment = CommandLogSegment.create(CommandLogSegment.getSegmentFile(this.baseFile, id), id, SEGMENT_SIZE);
+            segment.addTxnIds(ranges[i][0], ranges[i][1]);
+            segment.close();
+            closedSegments.put(id, segment.getHeader());
+        } // FOR
+
+        // The snapshot txn is in the middle of the second segment, so we can only remove the first
+        assertEquals(1, CommandLogSegment.truncate(this.baseFile, closedSegments, 250, null));
+        assertFalse(CommandLogSegment.getSegmentFile(this.baseFile, 1).exists());
+        assertTrue(CommandLogSegment.getSegmentFile(this.baseFile, 2).exists());
+        assertEquals(2, closedSegments.size());
+
+        // Archive the second one
+        File archiveDir = new File(this.dir, "archive");
+        archiveDir.mkdirs();
+        assertEquals(1, CommandLogSegment.truncate(this.baseFile, closedSegments, 301, archiveDir));
+        File archived = new File(archiveDir, CommandLogSegment.getSegmentFile(this.baseFile, 2).getName());
+        assertTrue(archived.exists());
+        assertTrue(CommandLogSegment.getSegmentFile(this.baseFile, 3).exists());
+        assertEquals(1, closedSegments.size());
+        archived.delete();
+        archiveDir.delete();
+    }
+
+    /**
+     * testIsCommandLogSnapshot
+     * Only snapshots written to the directory that the CommandLogReplayer
+     * restores from are allowed to truncate the log
+     */
+    public void testIsCommandLogSnapshot() throws Exception {
+        String snapshotDir = this.dir.getAbsolutePath();
+        assertTrue(CommandLogWriter.isCommandLogSnapshot(snapshotDir, snapshotDir));
+        assertTrue(CommandLogWriter.isCommandLogSnapshot(snapshotDir, snapshotDir + File.separator));
+        assertTrue(CommandLogWriter.isCommandLogSnapshot(snapshotDir, new File(this.dir, "x/..").getPath()));
+        assertFalse(CommandLogWriter.isCommandLogSnapshot(snapshotDir, new File(this.dir, "other").getPath()));
+        assertFalse(CommandLogWriter.isCommandLogSnapshot(snapshotDir, this.dir.getParent()));
+        assertFalse(CommandLogWriter.isCommandLogSnapshot(null, snapshotDir));
+    }
+}
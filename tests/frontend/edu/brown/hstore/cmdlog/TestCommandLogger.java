@@ -26,6 +26,11 @@
 package edu.brown.hstore.cmdlog;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 
 import org.junit.Test;
@@ -34,6 +39,8 @@ import org.voltdb.VoltProcedure;
 import org.voltdb.catalog.Procedure;
 import org.voltdb.catalog.Site;
 
+import com.google.protobuf.RpcCallback;
+
 import edu.brown.BaseTestCase;
 import edu.brown.benchmark.tm1.procedures.UpdateLocation;
 import edu.brown.benchmark.tm1.procedures.UpdateSubscriberData;
@@ -46,10 +53,12 @@ import edu.brown.hstore.cmdlog.CommandLogWriter;
 import edu.brown.hstore.cmdlog.LogEntry;
 import edu.brown.hstore.conf.HStoreConf;
 import edu.brown.hstore.txns.LocalTransaction;
+import edu.brown.profilers.CommandLogWriterProfiler;
 import edu.brown.utils.CollectionUtil;
 import edu.brown.utils.FileUtil;
 import edu.brown.utils.PartitionSet;
 import edu.brown.utils.ProjectType;
+import edu.brown.utils.ThreadUtil;
 
 /**
  * @author mkirsch
@@ -72,6 +81,8 @@ public class TestCommandLogger extends BaseTestCase {
     
     HStoreSite hstore_site; 
     CommandLogWriter logger;
+    boolean origAdaptive;
+    boolean origProfiling;
     Thread loggerThread;
     Procedure catalog_procs[];
     File outputFile;
@@ -88,6 +99,8 @@ public class TestCommandLogger extends BaseTestCase {
         HStoreConf hstore_conf = HStoreConf.singleton();
         hstore_conf.site.commandlog_enable = false;
         hstore_conf.site.commandlog_timeout = 1000;
+        this.origAdaptive = hstore_conf.site.commandlog_adaptive;
+        this.origProfiling = hstore_conf.site.commandlog_profiling;
 
         Site catalog_site = CollectionUtil.first(catalogContext.sites);
         hstore_site = new MockHStoreSite(catalog_site.getId(), catalogContext, hstore_conf);
@@ -102,10 +115,256 @@ public class TestCommandLogger extends BaseTestCase {
 
     @Override
     public void tearDown() throws Exception {
+        HStoreConf hstore_conf = HStoreConf.singleton();
+        hstore_conf.site.commandlog_adaptive = this.origAdaptive;
+        hstore_conf.site.commandlog_profiling = this.origProfiling;
         if (outputFile != null && outputFile.exists())
             outputFile.delete();
     }
     
+    private LocalTransaction createTxn(final RpcCallback<ClientResponseImpl> callback) {
+        LocalTransaction ts = new LocalTransaction(hstore_site) {
+            @Override
+            public RpcCallback<ClientResponseImpl> getClientCallback() {
+                return (callback);
+            }
+        };
+        ts.testInit(TXN_ID.incrementAndGet(),
+                    BASE_PARTITION,
+                    new PartitionSet(BASE_PARTITION),
+                    catalog_procs[0],
+                    TARGET_PARAMS[0]);
+        return (ts);
+    }
+    
+    private ClientResponseImpl createResponse(LocalTransaction ts) {
+        return new ClientResponseImpl(ts.getTransactionId(),
+                                      0l,
+                                      BASE_PARTITION,
+                                      Status.OK,
+                                      HStoreConstants.EMPTY_RESULT,
+                                      "");
+    }
+    
+    private RpcCallback<ClientResponseImpl> createCallback(final CountDownLatch sent, final CountDownLatch block) {
+        return new RpcCallback<ClientResponseImpl>() {
+            @Override
+            public void run(ClientResponseImpl parameter) {
+                sent.countDown();
+                if (block == null) return;
+                while (true) {
+                    try {
+                        block.await();
+                        break;
+                    } catch (InterruptedException ex) {
+                        // Keep waiting
+                    }
+                } // WHILE
+            }
+        };
+    }
+    
+    /**
+     * Replace the logger from setUp() with one that uses the given settings
+     */
+    private void restartLogger(int timeout, boolean adaptive, boolean profiling) {
+        logger.shutdown();
+        
+        // The WriterThread reads some of these at runtime, so they
+        // are not restored until tearDown()
+        HStoreConf hstore_conf = HStoreConf.singleton();
+        hstore_conf.site.commandlog_timeout = timeout;
+        hstore_conf.site.commandlog_adaptive = adaptive;
+        hstore_conf.site.commandlog_profiling = profiling;
+        logger = new CommandLogWriter(hstore_site, outputFile);
+        loggerThread = new Thread(this.logger);
+        loggerThread.setDaemon(true);
+        loggerThread.start();
+    }
+    
+    /**
+     * testSyncStall
+     * The WriterThread should keep serializing new batches while the SyncThread
+     * is busy, and only stall once all of the entry buffers are in use. The
+     * responses still have to come back in the order that the txns were added.
+     */
+    @Test
+    public void testSyncStall() throws Exception {
+        this.restartLogger(1, false, true);
+        
+        // Block the SyncThread while it sends back the response for the first txn
+        CountDownLatch sent0 = new CountDownLatch(1);
+        CountDownLatch block = new CountDownLatch(1);
+        LocalTransaction ts0 = this.createTxn(this.createCallback(sent0, block));
+        assertFalse(logger.appendToLog(ts0, this.createResponse(ts0)));
+        assertTrue(sent0.await(5, TimeUnit.SECONDS));
+        
+        // Keep adding txns until the WriterThread runs out of buffers
+        final List<Long> order = Collections.synchronizedList(new ArrayList<Long>());
+        final int num_txns = 20;
+        final CountDownLatch sent = new CountDownLatch(num_txns);
+        RpcCallback<ClientResponseImpl> callback = new RpcCallback<ClientResponseImpl>() {
+            @Override
+            public void run(ClientResponseImpl parameter) {
+                order.add(parameter.getTransactionId());
+                sent.countDown();
+            }
+        };
+        List<Long> expected = new ArrayList<Long>();
+        CommandLogWriterProfiler profiler = logger.getProfiler();
+        assertNotNull(profiler);
+        for (int i = 0; i < num_txns; i++) {
+            LocalTransaction ts = this.createTxn(callback);
+            expected.add(ts.getTransactionId());
+            assertFalse(logger.appendToLog(ts, this.createResponse(ts)));
+            ThreadUtil.sleep(5);
+        } // FOR
+        long deadline = System.currentTimeMillis() + 5000;
+        while (profiler.stallTime.isStarted() == false && System.currentTimeMillis() < deadline) {
+            ThreadUtil.sleep(1);
+        } // WHILE
+        assertTrue(profiler.stallTime.isStarted());
+        assertTrue(order.isEmpty());
+        
+        // Once we let the SyncThread go, everything should get written out
+        block.countDown();
+        assertTrue(sent.await(5, TimeUnit.SECONDS));
+        assertEquals(expected, order);
+        assertTrue(profiler.stallTime.getInvocations() > 0);
+        assertTrue(profiler.syncTime.getInvocations() > 0);
+        logger.shutdown();
+    }
+    
+    /**
+     * testShutdownFlush
+     * Shutting down the logger should write out whatever is still in the
+     * buffers and send back their responses before the file is closed.
+     */
+    @Test
+    public void testShutdownFlush() throws Exception {
+        this.restartLogger(100000, false, false);
+        
+        // Wait until the WriterThread is sleeping in its group commit window
+        while (loggerThread.getState() != Thread.State.TIMED_WAITING) {
+            ThreadUtil.sleep(1);
+        } // WHILE
+        
+        int num_txns = 100;
+        CountDownLatch sent = new CountDownLatch(num_txns);
+        List<Long> expected = new ArrayList<Long>();
+        for (int i = 0; i < num_txns; i++) {
+            LocalTransaction ts = this.createTxn(this.createCallback(sent, null));
+            expected.add(ts.getTransactionId());
+            assertFalse(logger.appendToLog(ts, this.createResponse(ts)));
+        } // FOR
+        assertEquals(num_txns, sent.getCount());
+        logger.shutdown();
+        assertEquals(0, sent.getCount());
+        
+        List<Long> actual = new ArrayList<Long>();
+        CommandLogReader reader = new CommandLogReader(outputFile.getAbsolutePath());
+        for (LogEntry entry : reader) {
+            actual.add(entry.getTransactionId());
+        } // FOR
+        assertEquals(expected, actual);
+    }
+    
+    /**
+     * testAdaptiveWakeup
+     * When the SyncThread finishes a batch, it has to wake up the WriterThread so
+     * that the txns that arrived during the sync are written out right away instead
+     * of waiting for the group commit window to close.
+     */
+    @Test
+    public void testAdaptiveWakeup() throws Exception {
+        logger.shutdown();
+        
+        HStoreConf hstore_conf = HStoreConf.singleton();
+        int timeout = hstore_conf.site.commandlog_timeout;
+        boolean adaptive = hstore_conf.site.commandlog_adaptive;
+        hstore_conf.site.commandlog_timeout = 10000;
+        hstore_conf.site.commandlog_adaptive = true;
+        try {
+            logger = new CommandLogWriter(hstore_site, outputFile);
+        } finally {
+            hstore_conf.site.commandlog_timeout = timeout;
+            hstore_conf.site.commandlog_adaptive = adaptive;
+        }
+        // Keep the window as long as the timeout so that the WriterThread
+        // will only flush early if something wakes it up
+        logger.setMinWindow(Long.MAX_VALUE);
+        loggerThread = new Thread(this.logger);
+        loggerThread.setDaemon(true);
+        loggerThread.start();
+        
+        // The first txn is flushed right away because the SyncThread is idle
+        CountDownLatch sent0 = new CountDownLatch(1);
+        LocalTransaction ts0 = this.createTxn(this.createCallback(sent0, null));
+        assertFalse(logger.appendToLog(ts0, this.createResponse(ts0)));
+        assertTrue(sent0.await(5, TimeUnit.SECONDS));
+        
+        // Block the SyncThread while it sends back the response for the second txn
+        CountDownLatch sent1 = new CountDownLatch(1);
+        CountDownLatch block = new CountDownLatch(1);
+        LocalTransaction ts1 = this.createTxn(this.createCallback(sent1, block));
+        assertFalse(logger.appendToLog(ts1, this.createResponse(ts1)));
+        assertTrue(sent1.await(5, TimeUnit.SECONDS));
+        
+        // The third txn arrives while the SyncThread is busy, so the WriterThread
+        // waits. Once we let the SyncThread go, it should get written out well 
+        // before the window closes.
+        CountDownLatch sent2 = new CountDownLatch(1);
+        LocalTransaction ts2 = this.createTxn(this.createCallback(sent2, null));
+        long start = System.currentTimeMillis();
+        assertFalse(logger.appendToLog(ts2, this.createResponse(ts2)));
+        block.countDown();
+        assertTrue(sent2.await(5, TimeUnit.SECONDS));
+        long elapsed = System.currentTimeMillis() - start;
+        assertTrue("Elapsed " + elapsed + "ms", elapsed < 5000);
+        
+        logger.shutdown();
+    }
+    
+    /**
+     * testAppendHeaderMismatch
+     * We can't append to an existing log file whose header was written
+     * with a different codec, since the reader would decode the new
+     * batches with the old one.
+     */
+    @Test
+    public void testAppendHeaderMismatch() throws Exception {
+        logger.shutdown();
+        HStoreConf hstore_conf = HStoreConf.singleton();
+        String origCodec = hstore_conf.site.commandlog_codec;
+        CommandLogReader reader = new CommandLogReader(outputFile.getAbsolutePath());
+        CommandLogCodec.Type origType = reader.getCodecType();
+        assertEquals(CommandLogCodec.Type.get(origCodec), origType);
+        long length = outputFile.length();
+        try {
+            // Same settings
+            CommandLogWriter writer = new CommandLogWriter(hstore_site, outputFile, true);
+            writer.shutdown();
+            assertEquals(length, outputFile.length());
+            
+            // Different codec
+            CommandLogCodec.Type otherType = (origType == CommandLogCodec.Type.NONE ? CommandLogCodec.Type.SNAPPY :
+                                                                                      CommandLogCodec.Type.NONE);
+            hstore_conf.site.commandlog_codec = otherType.name();
+            try {
+                writer = new CommandLogWriter(hstore_site, outputFile, true);
+                writer.shutdown();
+                fail("Appended to a log file with a different codec");
+            } catch (RuntimeException ex) {
+                // Expected
+            }
+            assertEquals(length, outputFile.length());
+            reader = new CommandLogReader(outputFile.getAbsolutePath());
+            assertEquals(origType, reader.getCodecType());
+        } finally {
+            hstore_conf.site.commandlog_codec = origCodec;
+        }
+    }
+    
     @Test
     public void testWithGroupCommit() throws Exception {
         // Write out a new txn invocation to the log
@@ -409,6 +409,46 @@ public class TestPartitionEstimator extends BaseTestCase {
         } // FOR
     }
     
+    /**
+     * testFragmentRoutes
+     */
+    @Test
+    public void testFragmentRoutes() throws Exception {
+        // Make sure that the compiled routes for every PlanFragment in the catalog
+        // give us the same partitions as the regular look-up path
+        Random rand = new Random(0);
+        PartitionEstimator compiled = new PartitionEstimator(catalogContext, hasher);
+        PartitionEstimator generic = new PartitionEstimator(catalogContext, hasher);
+        generic.setUseFragmentRoutes(false);
+        PartitionSet expected = new PartitionSet();
+
+        for (Procedure catalog_proc : catalogContext.database.getProcedures()) {
+            if (catalog_proc.getSystemproc()) continue;
+            for (Statement catalog_stmt : catalog_proc.getStatements()) {
+                Object params[] = new Object[catalog_stmt.getParameters().size()];
+                for (StmtParameter catalog_param : catalog_stmt.getParameters()) {
+                    VoltType type = VoltType.get((byte)catalog_param.getJavatype());
+                    Object value = VoltTypeUtil.getRandomValue(type, rand);
+                    if (value instanceof Number && type != VoltType.FLOAT && type != VoltType.DECIMAL) {
+                        value = VoltTypeUtil.getObjectFromString(type, Integer.toString(rand.nextInt(NUM_PARTITIONS)));
+                    }
+                    params[catalog_param.getIndex()] = value;
+                } // FOR
+
+                List<PlanFragment> fragments = new ArrayList<PlanFragment>();
+                CollectionUtil.addAll(fragments, catalog_stmt.getFragments());
+                CollectionUtil.addAll(fragments, catalog_stmt.getMs_fragments());
+                for (PlanFragment catalog_frag : fragments) {
+                    expected.clear();
+                    generic.getPartitions(expected, catalog_frag, params, BASE_PARTITION);
+                    partitions.clear();
+                    compiled.getPartitions(partitions, catalog_frag, params, BASE_PARTITION);
+                    assertEquals(catalog_frag.fullName(), expected, partitions);
+                } // FOR
+            } // FOR
+        } // FOR
+    }
+
     /**
      * testGetPartitionsInsert
      */